@@ -66,7 +66,9 @@ public class RecorderMainActivity extends AppCompatActivity {
         status.append("Video Recorder Status\n\n");
         status.append("Duration: ").append(config.getDurationMinutes()).append(" minutes\n");
         status.append("Quality: ").append(config.getVideoQuality()).append("\n");
-        status.append("Recording path: ").append(config.getRecordingBasePath()).append("\n\n");
+        status.append("Recording path: ").append(config.getRecordingBasePath()).append("\n");
+        status.append("Staging: ").append(config.getStagingPath().isEmpty() ? "none" : config.getStagingPath())
+                .append("\n\n");
         
         if (config.hasCredentials()) {
             status.append("Username: ").append(config.getUsername()).append("\n");
@@ -3,11 +3,15 @@ package com.edgecloudrecorder.mearitaskerplugin.app;
 import android.app.Application;
 import android.util.Log;
 
+import com.edgecloudrecorder.mearitaskerplugin.recorder.LogcatSink;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.RecorderLogger;
 import com.meari.sdk.MeariSdk;
 import com.meari.sdk.MeariSmartSdk;
 // import com.meari.sdk.common.ServerType;
 // import com.ppstrong.ppsplayer.meariLog;
 
+import java.io.File;
+
 public class MeariApplication extends Application {
 
     public static int partnerId = 8;
@@ -23,6 +27,10 @@ public class MeariApplication extends Application {
         super.onCreate();
         instance = this;
 
+        // Persistent recorder logs in app-private storage (no scoped storage issues)
+        RecorderLogger.getInstance().setSink(new LogcatSink());
+        RecorderLogger.getInstance().attachLogDirectory(new File(getFilesDir(), "logs"));
+
         // MeariSdk.init(MeariApplication.this, new MyMessageHandler());
         MeariSmartSdk.partnerId=partnerIdS;
         MeariSdk.init(MeariApplication.this, partnerId, new MyMessageHandler());
@@ -11,6 +11,7 @@ import com.meari.sdk.bean.MqttMsgType;
 import com.meari.sdk.callback.IResultCallback;
 import com.meari.sdk.listener.MeariDeviceListener;
 import com.meari.sdk.mqtt.MqttMessageCallback;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.CameraEvents;
 
 import java.util.Locale;
 
@@ -18,13 +19,16 @@ public class MyMessageHandler implements MqttMessageCallback {
     @Override
     public void otherMessage(int i, String s) {
         Log.i("MqttHandler","otherMessage: "+i+", "+s);
+        // Alarm / motion pushes wake battery cameras; payloads without a device are ignored
+        if (s != null && s.trim().startsWith("{")) {
+            CameraEvents.wake(s, "mqtt " + i);
+        }
     }
 
     @Override
     public void loginOnOtherDevices() {
-        // todo Must deal with
-        // Must handle account login on other devices
-        // An account can only log in on one device at a time
+        // An account can only log in on one device at a time: drop the SDK's session here,
+        // then let the recorder log in again and reconnect its cameras (see CameraEvents)
 
         MeariUser.getInstance().disConnectMqttService();
         MeariUser.getInstance().removeUserInfo();
@@ -43,6 +47,7 @@ public class MyMessageHandler implements MqttMessageCallback {
                 }
             });
         }
+        CameraEvents.sessionLost("logged in on another device", true);
     }
 
     @Override
@@ -58,6 +63,7 @@ public class MyMessageHandler implements MqttMessageCallback {
     @Override
     public void onDoorbellCall(String s, boolean b) {
         Log.i("MqttHandler","onDoorbellCall: "+s+", "+b);
+        CameraEvents.wake(s, "doorbell");
     }
 
     @Override
@@ -160,6 +166,7 @@ public class MyMessageHandler implements MqttMessageCallback {
     @Override
     public void onCloudServiceDis() {
         Log.i("MqttHandler","onCloudServiceDis");
+        CameraEvents.sessionLost("cloud service disconnected", false);
     }
 
     @Override
@@ -0,0 +1,41 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.Debug;
+
+/**
+ * {@link ResourceManager.MemoryProbe} for the app process: Dalvik heap in use, native heap
+ * allocated (decoders and SDK buffers live there), and 60% of device RAM as the default
+ * budget so cameras are shed well before the low-memory killer steps in.
+ */
+class AndroidMemoryProbe implements ResourceManager.MemoryProbe {
+    private static final double DEFAULT_BUDGET_FRACTION = 0.6;
+
+    private final long totalMemBytes;
+
+    AndroidMemoryProbe(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        ActivityManager.MemoryInfo info = new ActivityManager.MemoryInfo();
+        if (activityManager != null) {
+            activityManager.getMemoryInfo(info);
+        }
+        this.totalMemBytes = info.totalMem;
+    }
+
+    @Override
+    public long javaHeapBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Override
+    public long nativeHeapBytes() {
+        return Debug.getNativeHeapAllocatedSize();
+    }
+
+    @Override
+    public long defaultBudgetBytes() {
+        return totalMemBytes > 0 ? (long) (totalMemBytes * DEFAULT_BUDGET_FRACTION) : Long.MAX_VALUE;
+    }
+}
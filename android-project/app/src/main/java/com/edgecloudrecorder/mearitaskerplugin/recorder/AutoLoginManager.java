@@ -26,19 +26,34 @@ public class AutoLoginManager {
      * Attempt automatic login with credentials from config
      */
     public void login(final LoginCallback callback) {
-        if (!config.hasCredentials()) {
-            String error = "No credentials configured. Set via ADB or system properties.";
+        login(config.getSnapshot(), callback);
+    }
+    
+    /**
+     * Attempt login with the primary credentials of the given config snapshot
+     */
+    public void login(ConfigSnapshot config, final LoginCallback callback) {
+        login(config.getAccount(Account.PRIMARY), callback);
+    }
+    
+    /**
+     * Attempt login with one account's credentials (replaces the SDK's current user)
+     */
+    public void login(Account account, final LoginCallback callback) {
+        if (!account.hasCredentials()) {
+            String error = "No credentials configured for " + account.getName() + ". Set via ADB or system properties.";
             logger.error(TAG, error);
             callback.onLoginFailed(error);
             return;
         }
         
-        String username = config.getUsername();
-        String password = config.getPassword();
-        String country = config.getCountry();
-        String countryCode = config.getCountryCode();
+        String username = account.getUsername();
+        String password = account.getPassword();
+        String country = account.getCountry();
+        String countryCode = account.getCountryCode();
         
-        logger.info(TAG, "Attempting login with user: " + username + ", country: " + country + "/" + countryCode);
+        logger.info(TAG, "Attempting login to " + account.getName() + " with user: " + username
+                + ", country: " + country + "/" + countryCode);
         
         MeariUser.getInstance().loginWithAccount(country, countryCode, username, password, new ILoginCallback() {
             @Override
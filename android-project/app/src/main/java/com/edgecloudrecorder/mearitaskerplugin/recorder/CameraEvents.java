@@ -0,0 +1,89 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Bridge from the MQTT callbacks (registered with the SDK at application start, before the
+ * service exists) to the running recorder: camera wake events start battery clips, session
+ * losses start a coordinated reconnect.
+ */
+public final class CameraEvents {
+    private static final String TAG = "CameraEvents";
+    // Keys the cloud uses for the device in MQTT payloads
+    private static final String[] DEVICE_KEYS = {"deviceID", "deviceId", "devId", "sn"};
+
+    public interface Listener {
+        void onCameraWake(String deviceId, String reason);
+    }
+
+    public interface SessionListener {
+        /**
+         * @param loggedOut the SDK dropped the user: the camera sessions died with it
+         */
+        void onSessionLost(String reason, boolean loggedOut);
+    }
+
+    private static volatile Listener listener;
+    private static volatile SessionListener sessionListener;
+
+    private CameraEvents() {
+    }
+
+    public static void setListener(Listener newListener) {
+        listener = newListener;
+    }
+
+    public static void setSessionListener(SessionListener newListener) {
+        sessionListener = newListener;
+    }
+
+    /**
+     * Report the SDK's cloud session lost; ignored when no recorder is listening
+     */
+    public static void sessionLost(String reason, boolean loggedOut) {
+        SessionListener current = sessionListener;
+        RecorderLogger.getInstance().warning(TAG, "Session lost (" + reason + ")"
+                + (current == null ? ", no recorder running" : ""));
+        if (current != null) {
+            current.onSessionLost(reason, loggedOut);
+        }
+    }
+
+    /**
+     * Report a camera awake. {@code device} is a device ID or a JSON payload carrying one;
+     * ignored when no recorder is listening or no device can be found.
+     */
+    public static void wake(String device, String reason) {
+        Listener current = listener;
+        String deviceId = deviceIdOf(device);
+        if (current == null || deviceId == null) {
+            return;
+        }
+        RecorderLogger.getInstance().info(TAG, "Wake (" + reason + ") from " + deviceId);
+        current.onCameraWake(deviceId, reason);
+    }
+
+    static String deviceIdOf(String device) {
+        if (device == null || device.trim().isEmpty()) {
+            return null;
+        }
+        String trimmed = device.trim();
+        if (!trimmed.startsWith("{")) {
+            return trimmed;
+        }
+        try {
+            JsonObject json = JsonParser.parseString(trimmed).getAsJsonObject();
+            for (String key : DEVICE_KEYS) {
+                JsonElement value = json.get(key);
+                if (value != null && value.isJsonPrimitive()) {
+                    return value.getAsString();
+                }
+            }
+        } catch (RuntimeException e) {
+            // Not JSON after all
+        }
+        return null;
+    }
+}
@@ -0,0 +1,349 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Cuts a wall-clock range out of a camera's segments into one MP4 without decoding:
+ * segments are placed in time by their {@link SegmentIndex} (no container opened for those
+ * outside the range), the first one is entered at the keyframe at or before the start, then samples are copied as they are until the end, across
+ * segment boundaries, re-timed onto one timeline. Only the samples in the range are read.
+ * A segment whose tracks differ from the previous ones (the stream changed with the mode)
+ * starts a new part, <name>_2.mp4 and so on, since a muxer track cannot change format.
+ * Blocking file I/O: call off the main thread.
+ */
+public class ClipExporter {
+    public static final String EXPORT_DIR = CameraRecorder.EXPORT_DIR;
+    private static final String TAG = "ClipExporter";
+    private static final int DEFAULT_SAMPLE_BYTES = 2 * 1024 * 1024;
+    // A sample this big is a broken file, not a keyframe
+    private static final int MAX_SAMPLE_BYTES = 32 * 1024 * 1024;
+
+    /**
+     * What an export wrote
+     */
+    public static final class Result {
+        public final List<File> files = new ArrayList<>();
+        public int segments;
+        public int samples;
+        public long bytes;
+        public long durationMs;
+    }
+
+    private final RecorderLogger logger = RecorderLogger.getInstance();
+    private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(DEFAULT_SAMPLE_BYTES);
+
+    /**
+     * Export [fromMs, toMs] of the camera whose segments are in {@code cameraDir}
+     * @param open absolute paths of segments still being written
+     */
+    public static Result export(File cameraDir, long fromMs, long toMs, Set<String> open, File output)
+            throws IOException {
+        File dir = output.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        return new ClipExporter().export(ClipPlanner.segments(cameraDir, fromMs, toMs, open), fromMs, toMs, output);
+    }
+
+    /**
+     * @param segments candidates from {@link ClipPlanner#segments}, oldest first
+     * @param output first part; published only once complete
+     */
+    Result export(List<ClipPlanner.Segment> segments, long fromMs, long toMs, File output) throws IOException {
+        Result result = new Result();
+        Part part = null;
+        try {
+            for (ClipPlanner.Segment segment : segments) {
+                long indexedMs = indexedDurationMs(segment.file);
+                if (indexedMs >= 0) {
+                    long startMs = segment.startMs(indexedMs);
+                    if (startMs >= toMs || startMs + indexedMs <= fromMs) {
+                        continue;
+                    }
+                }
+                MediaExtractor extractor = new MediaExtractor();
+                try {
+                    extractor.setDataSource(segment.file.getPath());
+                } catch (IOException e) {
+                    logger.warning(TAG, "Skipping unreadable segment " + segment.file.getName() + ": " + e.getMessage());
+                    extractor.release();
+                    continue;
+                }
+                try {
+                    List<MediaFormat> formats = selectTracks(extractor);
+                    long durationUs = indexedMs >= 0 ? indexedMs * 1000 : durationUs(formats);
+                    long startMs = segment.startMs(durationUs / 1000);
+                    if (formats.isEmpty() || startMs >= toMs || startMs + durationUs / 1000 <= fromMs) {
+                        continue;
+                    }
+                    if (part != null && !part.accepts(formats)) {
+                        part.finish(result);
+                        part = null;
+                    }
+                    if (part == null) {
+                        part = new Part(partFile(output, result.files.size() + 1), formats);
+                    }
+                    if (fromMs > startMs) {
+                        extractor.seekTo((fromMs - startMs) * 1000, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+                    }
+                    if (copy(extractor, part, startMs, (toMs - startMs) * 1000, result)) {
+                        result.segments++;
+                    }
+                } finally {
+                    extractor.release();
+                }
+            }
+            if (part != null) {
+                part.finish(result);
+                part = null;
+            }
+        } finally {
+            if (part != null) {
+                part.abandon();
+            }
+        }
+        logger.info(TAG, "Exported " + result.samples + " samples (" + (result.bytes / 1024) + " KB) from "
+                + result.segments + " segments into " + result.files.size() + " file(s)");
+        return result;
+    }
+
+    /**
+     * @return the segment's duration from its index (written now if missing), -1 if it has none
+     */
+    private long indexedDurationMs(File segment) {
+        try {
+            return SegmentIndex.load(segment).durationUs() / 1000;
+        } catch (IOException e) {
+            logger.warning(TAG, "No index for " + segment.getName() + ": " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Select the tracks a muxer can take (video and AAC audio)
+     * @return their formats, by extractor track index order
+     */
+    private static List<MediaFormat> selectTracks(MediaExtractor extractor) {
+        List<MediaFormat> formats = new ArrayList<>();
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            MediaFormat format = extractor.getTrackFormat(i);
+            String mime = format.getString(MediaFormat.KEY_MIME);
+            if (mime != null && (mime.startsWith("video/") || mime.equals(MediaFormat.MIMETYPE_AUDIO_AAC))) {
+                extractor.selectTrack(i);
+                formats.add(format);
+            } else {
+                formats.add(null);
+            }
+        }
+        // An audio-only segment has no keyframes to cut on
+        return hasVideo(formats) ? formats : new ArrayList<MediaFormat>();
+    }
+
+    private static boolean hasVideo(List<MediaFormat> formats) {
+        for (MediaFormat format : formats) {
+            if (format != null && format.getString(MediaFormat.KEY_MIME).startsWith("video/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long durationUs(List<MediaFormat> formats) {
+        long duration = 0;
+        for (MediaFormat format : formats) {
+            if (format != null && format.containsKey(MediaFormat.KEY_DURATION)) {
+                duration = Math.max(duration, format.getLong(MediaFormat.KEY_DURATION));
+            }
+        }
+        return duration;
+    }
+
+    /**
+     * Copy samples up to {@code endUs} (segment time)
+     * @return true if any sample was written
+     */
+    private boolean copy(MediaExtractor extractor, Part part, long startMs, long endUs, Result result) {
+        boolean wrote = false;
+        for (int track; (track = extractor.getSampleTrackIndex()) >= 0; extractor.advance()) {
+            long timeUs = extractor.getSampleTime();
+            if (timeUs > endUs) {
+                break;
+            }
+            int read = readSample(extractor);
+            if (read < 0) {
+                break;
+            }
+            boolean key = (extractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0;
+            if (part.write(track, buffer, read, startMs * 1000 + timeUs, key)) {
+                wrote = true;
+                result.samples++;
+                result.bytes += read;
+            }
+        }
+        return wrote;
+    }
+
+    /**
+     * Read the current sample into {@link #buffer}, growing it as needed (the sample size is
+     * only queryable from API 28)
+     * @return sample size, -1 at the end
+     */
+    private int readSample(MediaExtractor extractor) {
+        while (true) {
+            try {
+                return extractor.readSampleData(buffer, 0);
+            } catch (IllegalArgumentException e) {
+                if (buffer.capacity() >= MAX_SAMPLE_BYTES) {
+                    throw e;
+                }
+                buffer = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+            }
+        }
+    }
+
+    private static File partFile(File output, int number) {
+        if (number == 1) {
+            return output;
+        }
+        String name = output.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(output.getParentFile(), dot > 0
+                ? name.substring(0, dot) + "_" + number + name.substring(dot) : name + "_" + number);
+    }
+
+    /**
+     * One output file: a muxer with the tracks of the segments it was opened for. Written as
+     * .part and renamed when finished.
+     */
+    private final class Part {
+        private final File output;
+        private final File partial;
+        private final MediaMuxer muxer;
+        private final List<MediaFormat> formats;
+        // Extractor track index -> muxer track, -1 for unselected tracks
+        private final int[] tracks;
+        private final long[] lastUs;
+        private long originUs = -1;
+        private long endUs;
+
+        Part(File output, List<MediaFormat> formats) throws IOException {
+            this.output = output;
+            this.partial = new File(output.getPath() + ".part");
+            this.formats = formats;
+            this.muxer = new MediaMuxer(partial.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            this.tracks = new int[formats.size()];
+            this.lastUs = new long[formats.size()];
+            for (int i = 0; i < formats.size(); i++) {
+                MediaFormat format = formats.get(i);
+                tracks[i] = format != null ? muxer.addTrack(format) : -1;
+                lastUs[i] = -1;
+            }
+            muxer.start();
+        }
+
+        /**
+         * @return true if a segment with these tracks can be appended (same codecs and size)
+         */
+        boolean accepts(List<MediaFormat> next) {
+            if (next.size() != formats.size()) {
+                return false;
+            }
+            for (int i = 0; i < next.size(); i++) {
+                MediaFormat a = formats.get(i);
+                MediaFormat b = next.get(i);
+                if (a == null || b == null) {
+                    if (a != b) return false;
+                    continue;
+                }
+                if (!a.getString(MediaFormat.KEY_MIME).equals(b.getString(MediaFormat.KEY_MIME))
+                        || !sameInt(a, b, MediaFormat.KEY_WIDTH) || !sameInt(a, b, MediaFormat.KEY_HEIGHT)
+                        || !sameInt(a, b, MediaFormat.KEY_SAMPLE_RATE) || !sameInt(a, b, MediaFormat.KEY_CHANNEL_COUNT)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Write a sample at wall-clock {@code absUs}; the part starts at its first video keyframe
+         * @return false if the sample was dropped
+         */
+        boolean write(int track, ByteBuffer data, int size, long absUs, boolean key) {
+            int muxerTrack = track < tracks.length ? tracks[track] : -1;
+            if (muxerTrack < 0) {
+                return false;
+            }
+            if (originUs < 0) {
+                if (!key || !formats.get(track).getString(MediaFormat.KEY_MIME).startsWith("video/")) {
+                    return false;
+                }
+                originUs = absUs;
+            }
+            long ptsUs = absUs - originUs;
+            if (ptsUs < 0) {
+                // Audio interleaved just before the keyframe
+                return false;
+            }
+            // Overlapping segments (a rotation race) must not step back in time
+            ptsUs = Math.max(ptsUs, lastUs[track] + 1);
+            lastUs[track] = ptsUs;
+            endUs = Math.max(endUs, ptsUs);
+            data.position(0);
+            data.limit(size);
+            info.set(0, size, ptsUs, key ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+            muxer.writeSampleData(muxerTrack, data, info);
+            return true;
+        }
+
+        void finish(Result result) throws IOException {
+            boolean empty = originUs < 0;
+            try {
+                muxer.stop();
+            } catch (IllegalStateException e) {
+                // Nothing written
+                empty = true;
+            } finally {
+                muxer.release();
+            }
+            if (empty) {
+                partial.delete();
+                return;
+            }
+            if (!partial.renameTo(output)) {
+                partial.delete();
+                throw new IOException("Cannot publish " + output.getName());
+            }
+            result.files.add(output);
+            result.durationMs += endUs / 1000;
+        }
+
+        void abandon() {
+            try {
+                muxer.stop();
+            } catch (IllegalStateException ignored) {
+                // nothing written
+            }
+            muxer.release();
+            partial.delete();
+        }
+    }
+
+    private static boolean sameInt(MediaFormat a, MediaFormat b, String key) {
+        boolean hasA = a.containsKey(key);
+        if (hasA != b.containsKey(key)) {
+            return false;
+        }
+        return !hasA || a.getInteger(key) == b.getInteger(key);
+    }
+}
@@ -6,12 +6,30 @@ import android.content.Intent;
 import android.util.Log;
 import android.widget.Toast;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
 /**
  * Broadcast receiver to change configuration via ADB
  * Usage:
  * adb shell am broadcast -a com.edgecloudrecorder.SET_DURATION --ei duration_minutes 15
  * adb shell am broadcast -a com.edgecloudrecorder.SET_QUALITY --es quality HD
  * adb shell am broadcast -a com.edgecloudrecorder.SET_CREDENTIALS --es username "email" --es password "pass" --es country "US"
+ * adb shell am broadcast -a com.edgecloudrecorder.DUMP_METRICS
+ * adb shell am broadcast -a com.edgecloudrecorder.SET_PROFILE --es device_id ID --es quality LOW --ei duration_minutes 5 --es windows "08:00-20:00=HD,23:00-06:00=IDLE"
+ * adb shell am broadcast -a com.edgecloudrecorder.SET_PROFILE --es device_id ID --es quality SNAPSHOT --ei snapshot_seconds 60
+ * adb shell am broadcast -a com.edgecloudrecorder.SET_PROFILE --es device_id ID --es quality HD --ei priority 10
+ * adb shell am broadcast -a com.edgecloudrecorder.CLEAR_PROFILE --es device_id ID
+ * adb shell am broadcast -a com.edgecloudrecorder.SET_SHARD --ei index 0 --ei count 3
+ * adb shell am broadcast -a com.edgecloudrecorder.SET_ACCOUNT --es name home --es username "email" --es password "pass" --es country "Italy" --es code "IT"
+ * adb shell am broadcast -a com.edgecloudrecorder.CLEAR_ACCOUNT --es name home
+ * adb shell am broadcast -a com.edgecloudrecorder.SET_MEMORY_BUDGET --ei mb 1536
+ * adb shell am broadcast -a com.edgecloudrecorder.SET_BANDWIDTH --ei mbps 40
+ * adb shell am broadcast -a com.edgecloudrecorder.SET_BATTERY_POLICY --es policy "every=30;clip=60;wake_clip=120;concurrent=2"
+ * adb shell am broadcast -a com.edgecloudrecorder.SET_DISK_POLICY --es policy "reserve=4096;critical=1024;retention_hours=72"
+ * adb shell am broadcast -a com.edgecloudrecorder.SET_UPLOAD --es policy "endpoint=http://minio:9000;bucket=recordings;access_key=KEY;secret_key=SECRET;mbps=20"
+ * adb shell am broadcast -a com.edgecloudrecorder.SET_STAGING --es path /sdcard/.staging (empty or "none": in place)
  */
 public class ConfigReceiver extends BroadcastReceiver {
     private static final String TAG = "ConfigReceiver";
@@ -24,6 +42,20 @@ public class ConfigReceiver extends BroadcastReceiver {
     private static final String ACTION_SET_COUNTRY = "com.edgecloudrecorder.SET_COUNTRY";
     private static final String ACTION_SET_COUNTRY_CODE = "com.edgecloudrecorder.SET_COUNTRY_CODE";
     private static final String ACTION_GET_STATUS = "com.edgecloudrecorder.GET_STATUS";
+    private static final String ACTION_DUMP_METRICS = "com.edgecloudrecorder.DUMP_METRICS";
+    private static final String ACTION_SET_PROFILE = "com.edgecloudrecorder.SET_PROFILE";
+    private static final String ACTION_CLEAR_PROFILE = "com.edgecloudrecorder.CLEAR_PROFILE";
+    private static final String ACTION_SET_CONTROL = "com.edgecloudrecorder.SET_CONTROL";
+    private static final String ACTION_SET_SHARD = "com.edgecloudrecorder.SET_SHARD";
+    private static final String ACTION_SET_ACCOUNT = "com.edgecloudrecorder.SET_ACCOUNT";
+    private static final String ACTION_CLEAR_ACCOUNT = "com.edgecloudrecorder.CLEAR_ACCOUNT";
+    private static final String ACTION_SET_MEMORY_BUDGET = "com.edgecloudrecorder.SET_MEMORY_BUDGET";
+    private static final String ACTION_SET_BANDWIDTH = "com.edgecloudrecorder.SET_BANDWIDTH";
+    private static final String ACTION_SET_BATTERY_POLICY = "com.edgecloudrecorder.SET_BATTERY_POLICY";
+    private static final String ACTION_SET_DISK_POLICY = "com.edgecloudrecorder.SET_DISK_POLICY";
+    private static final String ACTION_SET_UPLOAD = "com.edgecloudrecorder.SET_UPLOAD";
+    private static final String ACTION_SET_STAGING = "com.edgecloudrecorder.SET_STAGING";
+    private static final String METRICS_DUMP_FILE = "lifecycle_metrics.txt";
     
     @Override
     public void onReceive(Context context, Intent intent) {
@@ -98,7 +130,8 @@ public class ConfigReceiver extends BroadcastReceiver {
                 
             case ACTION_GET_STATUS:
                 String status = String.format(
-                    "Duration: %d min, Quality: %s, Username: %s, Has credentials: %b",
+                    "Config v%d - Duration: %d min, Quality: %s, Username: %s, Has credentials: %b",
+                    config.getSnapshot().getVersion(),
                     config.getDurationMinutes(),
                     config.getVideoQuality(),
                     config.getUsername(),
@@ -107,6 +140,172 @@ public class ConfigReceiver extends BroadcastReceiver {
                 Log.i(TAG, "Status: " + status);
                 showToast(context, status);
                 break;
+                
+            case ACTION_DUMP_METRICS:
+                dumpMetrics(context);
+                break;
+                
+            case ACTION_SET_PROFILE:
+                String deviceId = intent.getStringExtra("device_id");
+                if (deviceId == null) {
+                    Log.e(TAG, "SET_PROFILE requires device_id");
+                    break;
+                }
+                try {
+                    String profileQuality = intent.getStringExtra("quality");
+                    CameraProfile profile = new CameraProfile(
+                        deviceId,
+                        profileQuality != null ? CameraProfile.parseMode(profileQuality) : null,
+                        intent.getIntExtra("duration_minutes", 0),
+                        intent.getIntExtra("snapshot_seconds", 0),
+                        intent.getIntExtra("priority", 0),
+                        intent.getBooleanExtra("proxy", false),
+                        CameraProfile.parseWindows(intent.getStringExtra("windows"))
+                    );
+                    config.setCameraProfile(profile);
+                    showToast(context, "Profile set: " + profile);
+                } catch (IllegalArgumentException e) {
+                    Log.e(TAG, "Invalid profile for " + deviceId + ": " + e.getMessage());
+                    showToast(context, "Invalid profile: " + e.getMessage());
+                }
+                break;
+                
+            case ACTION_CLEAR_PROFILE:
+                String clearId = intent.getStringExtra("device_id");
+                if (clearId != null) {
+                    config.removeCameraProfile(clearId);
+                    showToast(context, "Profile cleared for " + clearId);
+                }
+                break;
+                
+            case ACTION_SET_CONTROL:
+                // Takes effect the next time the service starts
+                if (intent.hasExtra("port")) {
+                    config.setControlPort(intent.getIntExtra("port", 0));
+                }
+                if (intent.hasExtra("token")) {
+                    config.setControlToken(intent.getStringExtra("token"));
+                }
+                if (intent.hasExtra("address")) {
+                    config.setControlAddress(intent.getStringExtra("address"));
+                }
+                if (intent.hasExtra("live_port")) {
+                    config.setLivePort(intent.getIntExtra("live_port", 0));
+                }
+                showToast(context, "Control API port: " + config.getControlPort() + ", live port: "
+                        + config.getLivePort() + " (restart service to apply)");
+                break;
+                
+            case ACTION_SET_SHARD:
+                try {
+                    config.setShard(intent.getIntExtra("index", 0), intent.getIntExtra("count", 1));
+                    showToast(context, "Shard set to " + config.getShardIndex() + "/" + config.getShardCount());
+                } catch (IllegalArgumentException e) {
+                    Log.e(TAG, "Invalid shard: " + e.getMessage());
+                    showToast(context, "Invalid shard: " + e.getMessage());
+                }
+                break;
+                
+            case ACTION_SET_ACCOUNT:
+                // Takes effect the next time the service starts
+                try {
+                    Account account = new Account(
+                        intent.getStringExtra("name"),
+                        intent.getStringExtra("username"),
+                        intent.getStringExtra("password"),
+                        intent.getStringExtra("country"),
+                        intent.getStringExtra("code")
+                    );
+                    config.setAccount(account);
+                    showToast(context, "Account set: " + account.getName() + " (restart service to apply)");
+                } catch (IllegalArgumentException e) {
+                    Log.e(TAG, "Invalid account: " + e.getMessage());
+                    showToast(context, "Invalid account: " + e.getMessage());
+                }
+                break;
+                
+            case ACTION_CLEAR_ACCOUNT:
+                String accountName = intent.getStringExtra("name");
+                if (accountName != null) {
+                    config.removeAccount(accountName);
+                    showToast(context, "Account removed: " + accountName + " (restart service to apply)");
+                }
+                break;
+                
+            case ACTION_SET_MEMORY_BUDGET:
+                // 0 = automatic; applies at the next schedule tick
+                int budgetMb = intent.getIntExtra("mb", -1);
+                if (budgetMb >= 0) {
+                    config.setMemoryBudgetMb(budgetMb);
+                    showToast(context, budgetMb == 0 ? "Memory budget: automatic" : "Memory budget: " + budgetMb + " MB");
+                }
+                break;
+                
+            case ACTION_SET_BANDWIDTH:
+                // 0 = no cap; cameras move to their new tier at their next rotation
+                int mbps = intent.getIntExtra("mbps", -1);
+                if (mbps >= 0) {
+                    config.setBandwidthMbps(mbps);
+                    showToast(context, mbps == 0 ? "Bandwidth: no cap" : "Bandwidth cap: " + mbps + " Mbps");
+                }
+                break;
+                
+            case ACTION_SET_BATTERY_POLICY:
+                // "always" records battery cameras continuously
+                try {
+                    BatteryPolicy policy = BatteryPolicy.decode(intent.getStringExtra("policy"));
+                    config.setBatteryPolicy(policy);
+                    showToast(context, "Battery policy: " + policy);
+                } catch (IllegalArgumentException e) {
+                    showToast(context, e.getMessage());
+                }
+                break;
+                
+            case ACTION_SET_DISK_POLICY:
+                // Applied at the next schedule tick
+                try {
+                    DiskPolicy policy = DiskPolicy.decode(intent.getStringExtra("policy"));
+                    config.setDiskPolicy(policy);
+                    showToast(context, "Disk policy: " + policy);
+                } catch (IllegalArgumentException e) {
+                    showToast(context, e.getMessage());
+                }
+                break;
+                
+            case ACTION_SET_UPLOAD:
+                // Empty policy turns uploads off; queued segments wait for the next endpoint
+                try {
+                    UploadPolicy policy = UploadPolicy.decode(intent.getStringExtra("policy"));
+                    config.setUploadPolicy(policy);
+                    showToast(context, "Upload: " + policy);
+                } catch (IllegalArgumentException e) {
+                    showToast(context, e.getMessage());
+                }
+                break;
+                
+            case ACTION_SET_STAGING:
+                // Takes effect the next time the service starts
+                config.setStagingPath(intent.getStringExtra("path"));
+                String staging = config.getStagingPath();
+                showToast(context, "Staging: " + (staging.isEmpty() ? "none" : staging) + " (restart service to apply)");
+                break;
+        }
+    }
+    
+    /**
+     * Write lifecycle histograms and timelines, per-camera resources and bandwidth, then disk state, to the log and
+     * to files/lifecycle_metrics.txt
+     */
+    private void dumpMetrics(Context context) {
+        String report = LifecycleMetrics.getInstance().dump() + ResourceManager.getInstance().dump()
+                + BandwidthBudget.getInstance().dump() + DiskMonitor.getInstance().summary();
+        RecorderLogger.getInstance().info(TAG, "Lifecycle metrics:\n" + report);
+        File file = new File(context.getFilesDir(), METRICS_DUMP_FILE);
+        try (FileWriter writer = new FileWriter(file, false)) {
+            writer.write(report);
+            Log.i(TAG, "Metrics dumped to " + file.getAbsolutePath());
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to dump metrics", e);
         }
     }
     
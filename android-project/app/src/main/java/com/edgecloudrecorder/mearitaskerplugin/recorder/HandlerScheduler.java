@@ -0,0 +1,29 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import android.os.Handler;
+
+/**
+ * {@link Scheduler} on an Android Handler (the service's main looper)
+ */
+public class HandlerScheduler implements Scheduler {
+    private final Handler handler;
+
+    public HandlerScheduler(Handler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void post(Runnable task) {
+        handler.post(task);
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMs) {
+        handler.postDelayed(task, delayMs);
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        handler.removeCallbacks(task);
+    }
+}
@@ -0,0 +1,31 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import android.util.Log;
+
+/**
+ * Sends {@link RecorderLogger} output to logcat
+ */
+public class LogcatSink implements RecorderLogger.Sink {
+
+    @Override
+    public void write(int level, String tag, String message, Throwable throwable) {
+        switch (level) {
+            case RecorderLogger.ERROR:
+                if (throwable != null) {
+                    Log.e(tag, message, throwable);
+                } else {
+                    Log.e(tag, message);
+                }
+                break;
+            case RecorderLogger.WARN:
+                Log.w(tag, message);
+                break;
+            case RecorderLogger.INFO:
+                Log.i(tag, message);
+                break;
+            default:
+                Log.d(tag, message);
+                break;
+        }
+    }
+}
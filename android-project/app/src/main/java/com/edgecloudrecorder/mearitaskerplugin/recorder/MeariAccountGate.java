@@ -0,0 +1,172 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The Meari SDK keeps one logged-in user per process (MeariUser is a singleton), so
+ * account-level calls of different accounts cannot overlap: each {@link MeariCameraBackend}
+ * runs its login and device list through this gate, one account at a time. Camera
+ * connects go through it too ({@link #submitAs}), so a connect never starts while another
+ * account is logged in. Connects are grouped by account: when one of them gets the gate,
+ * the queued connects of its account are taken with it; the first one logs its account
+ * back in if needed, and the others run alongside it once it is the active account. Later
+ * connects of that account join the group while no other task waits. So the SDK's
+ * singleton user switches once per group, not once per camera. Cameras keep streaming
+ * across account switches with the CameraInfo captured when they were listed. Groups and
+ * tasks that hold the gate alone start in submission order.
+ */
+class MeariAccountGate {
+    private static final String TAG = "MeariAccountGate";
+    private static final long HOLD_TIMEOUT_MS = 60_000;
+
+    interface Task {
+        /**
+         * Run with the gate held; call release exactly once when done (extra calls are ignored)
+         */
+        void run(Runnable release);
+    }
+
+    private final RecorderLogger logger = RecorderLogger.getInstance();
+    private final Scheduler scheduler;
+    /**
+     * A queued task; account is null for one that always holds the gate alone
+     */
+    private static final class Entry {
+        final String account;
+        final Task task;
+
+        Entry(String account, Task task) {
+            this.account = account;
+            this.task = task;
+        }
+    }
+
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    // Tasks of the group holding the gate, taken out of the queue, waiting for its account to be active
+    private final ArrayDeque<Entry> grouped = new ArrayDeque<>();
+    // Tasks holding the gate, and the account of their group (null for a task holding it alone)
+    private int holders;
+    private String sharedAccount;
+    private volatile String activeAccount;
+
+    /**
+     * @param activeAccount account the SDK's persisted session belongs to, or null if unknown
+     */
+    MeariAccountGate(Scheduler scheduler, String activeAccount) {
+        this.scheduler = scheduler;
+        this.activeAccount = activeAccount;
+    }
+
+    /**
+     * Run a task holding the gate alone (login, device list)
+     */
+    void submit(Task task) {
+        enqueue(new Entry(null, task));
+    }
+
+    /**
+     * Run a task of one account: alongside the other tasks of that account while it is the
+     * active one, else alone, so that it can log the account in (see
+     * {@link #getActiveAccount()}) before going on
+     */
+    void submitAs(String account, Task task) {
+        enqueue(new Entry(account, task));
+    }
+
+    private void enqueue(Entry entry) {
+        synchronized (this) {
+            queue.add(entry);
+        }
+        runReady();
+    }
+
+    /**
+     * Start the tasks that may hold the gate now: the next task or group when it is free,
+     * and the rest of the group holding it once its account is the active one
+     */
+    private void runReady() {
+        List<Task> ready = new ArrayList<>();
+        synchronized (this) {
+            if (holders == 0) {
+                // Left over by a group whose first task could not log its account in
+                Entry first = !grouped.isEmpty() ? grouped.poll() : queue.poll();
+                if (first == null) {
+                    return;
+                }
+                holders++;
+                sharedAccount = first.account;
+                ready.add(first.task);
+                if (first.account != null) {
+                    for (Iterator<Entry> it = queue.iterator(); it.hasNext(); ) {
+                        Entry entry = it.next();
+                        if (first.account.equals(entry.account)) {
+                            it.remove();
+                            grouped.add(entry);
+                        }
+                    }
+                }
+            }
+            if (sharedAccount != null && sharedAccount.equals(activeAccount)) {
+                for (Entry next = grouped.poll(); next != null; next = grouped.poll()) {
+                    holders++;
+                    ready.add(next.task);
+                }
+                for (Entry next = queue.peek(); next != null && sharedAccount.equals(next.account); next = queue.peek()) {
+                    queue.poll();
+                    holders++;
+                    ready.add(next.task);
+                }
+            }
+        }
+        for (Task task : ready) {
+            run(task);
+        }
+    }
+
+    private void run(Task task) {
+        final AtomicBoolean released = new AtomicBoolean();
+        final Runnable[] timeout = new Runnable[1];
+        final Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                scheduler.cancel(timeout[0]);
+                synchronized (this) {
+                    holders--;
+                }
+                runReady();
+            }
+        };
+        // An SDK callback that never arrives must not block the other accounts forever
+        timeout[0] = () -> {
+            if (!released.get()) {
+                logger.warning(TAG, "Account call did not finish in " + HOLD_TIMEOUT_MS + " ms, releasing");
+                release.run();
+            }
+        };
+        scheduler.postDelayed(timeout[0], HOLD_TIMEOUT_MS);
+        try {
+            task.run(release);
+        } catch (RuntimeException e) {
+            logger.error(TAG, "Account call failed", e);
+            release.run();
+        }
+    }
+
+    /**
+     * @return the account the SDK is logged in as, null if none or unknown
+     */
+    String getActiveAccount() {
+        return activeAccount;
+    }
+
+    /**
+     * The SDK is logged in as {@code account} now: the rest of its group may run
+     */
+    void setActiveAccount(String account) {
+        activeAccount = account;
+        runReady();
+    }
+}
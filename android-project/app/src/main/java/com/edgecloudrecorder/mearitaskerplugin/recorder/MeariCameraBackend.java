@@ -0,0 +1,368 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import android.content.Context;
+import android.graphics.PixelFormat;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.WindowManager;
+
+import com.edgecloudrecorder.mearitaskerplugin.CommonUtils;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraBackend;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraDescriptor;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraSession;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import com.meari.sdk.MeariUser;
+import com.meari.sdk.bean.CameraInfo;
+import com.meari.sdk.bean.MeariDevice;
+import com.meari.sdk.callback.IDevListCallback;
+import com.ppstrong.ppsplayer.PPSGLSurfaceView;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * {@link CameraBackend} for one Meari/CloudEdge account. Keeps the SDK's CameraInfo for
+ * each listed camera and one invisible surface per camera, which the SDK needs to decode
+ * a preview. Login, device list and camera connects go through the shared
+ * {@link MeariAccountGate}, so a camera always connects with its own account logged in.
+ * Surfaces are accounted in {@link ResourceManager} and removed by {@link #releaseCamera}.
+ * The last device list is cached in the app's files, so cameras restored after a restart
+ * can connect before the list is fetched again.
+ */
+public class MeariCameraBackend implements CameraBackend {
+    private static final String TAG = "MeariCameraBackend";
+    // Surface key suffix of a camera's proxy session
+    private static final String PROXY_SURFACE = "#proxy";
+
+    /**
+     * One entry of the cached device list
+     */
+    private static final class CachedCamera {
+        boolean battery;
+        CameraInfo info;
+
+        CachedCamera(boolean battery, CameraInfo info) {
+            this.battery = battery;
+            this.info = info;
+        }
+    }
+
+    private final RecorderLogger logger = RecorderLogger.getInstance();
+    private final Context context;
+    private final AutoLoginManager loginManager;
+    private final String account;
+    private final MeariAccountGate gate;
+    private final Supplier<ConfigSnapshot> config;
+    private final WindowManager windowManager;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, CameraInfo> cameraInfos = new ConcurrentHashMap<>();
+    private final Map<String, PPSGLSurfaceView> surfaceViews = new ConcurrentHashMap<>();
+    private final Gson gson = new Gson();
+
+    MeariCameraBackend(Context context, String account, MeariAccountGate gate, Supplier<ConfigSnapshot> config) {
+        this.context = context;
+        this.account = account;
+        this.gate = gate;
+        this.config = config;
+        this.loginManager = new AutoLoginManager(context);
+        this.windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+    }
+
+    @Override
+    public boolean isLoggedIn() {
+        return account.equals(gate.getActiveAccount()) && loginManager.isLoggedIn();
+    }
+
+    @Override
+    public void login(final Account credentials, final LoginCallback callback) {
+        gate.submit(release -> loginManager.login(credentials, new AutoLoginManager.LoginCallback() {
+            @Override
+            public void onLoginSuccess() {
+                gate.setActiveAccount(account);
+                release.run();
+                callback.onLoginSuccess();
+            }
+
+            @Override
+            public void onLoginFailed(String error) {
+                gate.setActiveAccount(null);
+                release.run();
+                callback.onLoginFailed(error);
+            }
+        }));
+    }
+
+    /**
+     * Lists this account's cameras, logging it back in first if another account took
+     * over the SDK session in the meantime
+     */
+    @Override
+    public void listCameras(final CameraListCallback callback) {
+        gate.submit(release -> ensureLoggedIn(release, () -> loadDeviceList(release, callback),
+                error -> callback.onError(-1, error)));
+    }
+
+    /**
+     * Start a call of one of this account's cameras (a connect) holding the gate, with this
+     * account logged in: it runs alongside the account's other calls, or logs the account
+     * back in first if another one took over the SDK session
+     * @param call releases the gate once the camera answered
+     */
+    void runAsAccount(final MeariAccountGate.Task call, final CameraSession.Callback callback) {
+        gate.submitAs(account, release -> ensureLoggedIn(release, () -> call.run(release), callback::onFailed));
+    }
+
+    /**
+     * With the gate held: log this account in unless it is the SDK's active one, then run
+     * {@code then}; if that fails, release the gate and report the error
+     */
+    private void ensureLoggedIn(final Runnable release, final Runnable then, final Consumer<String> failed) {
+        if (isLoggedIn()) {
+            then.run();
+            return;
+        }
+        Account credentials = config.get().getAccount(account);
+        if (credentials == null) {
+            release.run();
+            failed.accept("Account " + account + " is not configured");
+            return;
+        }
+        logger.info(TAG, "Logging " + account + " back in to the SDK");
+        loginManager.login(credentials, new AutoLoginManager.LoginCallback() {
+            @Override
+            public void onLoginSuccess() {
+                gate.setActiveAccount(account);
+                then.run();
+            }
+
+            @Override
+            public void onLoginFailed(String error) {
+                gate.setActiveAccount(null);
+                release.run();
+                failed.accept(error);
+            }
+        });
+    }
+
+    private void loadDeviceList(final Runnable release, final CameraListCallback callback) {
+        MeariUser.getInstance().getDeviceList(new IDevListCallback() {
+            @Override
+            public void onSuccess(MeariDevice meariDevice) {
+                // Merge all camera types
+                List<CameraDescriptor> cameras = new ArrayList<>();
+                List<CachedCamera> cache = new ArrayList<>();
+                for (CameraInfo info : meariDevice.getFourthGenerations()) {
+                    cameras.add(register(info, false));
+                    cache.add(new CachedCamera(false, info));
+                }
+                for (CameraInfo info : meariDevice.getBatteryCameras()) {
+                    cameras.add(register(info, true));
+                    cache.add(new CachedCamera(true, info));
+                }
+                release.run();
+                saveCache(cache);
+                callback.onSuccess(cameras);
+            }
+
+            @Override
+            public void onError(int code, String error) {
+                release.run();
+                callback.onError(code, error);
+            }
+        });
+    }
+
+    /**
+     * Restored cameras found in the cached device list, registered as if listed
+     */
+    @Override
+    public List<CameraDescriptor> restoreCameras(List<CameraDescriptor> cameras) {
+        Map<String, CachedCamera> cached = new HashMap<>();
+        for (CachedCamera camera : loadCache()) {
+            if (camera.info != null && camera.info.getDeviceID() != null) {
+                cached.put(camera.info.getDeviceID(), camera);
+            }
+        }
+        List<CameraDescriptor> known = new ArrayList<>();
+        for (CameraDescriptor camera : cameras) {
+            CachedCamera entry = cached.get(camera.getDeviceId());
+            if (entry != null) {
+                known.add(register(entry.info, entry.battery));
+            }
+        }
+        logger.info(TAG, "Restored " + known.size() + " of " + cameras.size() + " cameras of " + account
+                + " from the cached device list");
+        return known;
+    }
+
+    private File cacheFile() {
+        return new File(context.getFilesDir(), "devices_" + account.replaceAll("[^A-Za-z0-9._-]", "_") + ".json");
+    }
+
+    private void saveCache(List<CachedCamera> cameras) {
+        File file = cacheFile();
+        File partial = new File(file.getPath() + ".part");
+        try (Writer writer = new FileWriter(partial, false)) {
+            gson.toJson(cameras, writer);
+        } catch (IOException | RuntimeException e) {
+            logger.warning(TAG, "Cannot cache device list: " + e.getMessage());
+            partial.delete();
+            return;
+        }
+        if (!partial.renameTo(file)) {
+            partial.delete();
+        }
+    }
+
+    private List<CachedCamera> loadCache() {
+        File file = cacheFile();
+        if (!file.isFile()) {
+            return new ArrayList<>();
+        }
+        try (Reader reader = new FileReader(file)) {
+            List<CachedCamera> cameras = gson.fromJson(reader, new TypeToken<List<CachedCamera>>() { }.getType());
+            return cameras != null ? cameras : new ArrayList<>();
+        } catch (IOException | JsonParseException e) {
+            logger.warning(TAG, "Cannot read cached device list: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    private CameraDescriptor register(CameraInfo info, boolean batteryPowered) {
+        cameraInfos.put(info.getDeviceID(), info);
+        return new CameraDescriptor(info.getDeviceID(), info.getDeviceName(), batteryPowered, account);
+    }
+
+    @Override
+    public CameraSession openSession(CameraDescriptor camera) {
+        CameraInfo info = cameraInfos.get(camera.getDeviceId());
+        if (info == null) {
+            throw new IllegalArgumentException("Camera not listed: " + camera);
+        }
+        return new MeariCameraSession(camera, info, this, camera.getDeviceId());
+    }
+
+    /**
+     * Another device controller on the same camera, decoding into a surface of its own
+     */
+    @Override
+    public CameraSession openProxySession(CameraDescriptor camera) {
+        CameraInfo info = cameraInfos.get(camera.getDeviceId());
+        if (info == null) {
+            throw new IllegalArgumentException("Camera not listed: " + camera);
+        }
+        return new MeariCameraSession(camera, info, this, camera.getDeviceId() + PROXY_SURFACE);
+    }
+
+    @Override
+    public int resolveStreamId(CameraDescriptor camera, CameraProfile.Mode mode) {
+        CameraInfo info = cameraInfos.get(camera.getDeviceId());
+        return CommonUtils.getDefaultStreamIdInt(info, getQualityPreference(mode));
+    }
+
+    @Override
+    public int advertisedKbps(CameraDescriptor camera, int streamId) {
+        CameraInfo info = cameraInfos.get(camera.getDeviceId());
+        return info != null ? StreamIds.advertisedKbps(info.getBps2(), streamId) : 0;
+    }
+
+    private static int getQualityPreference(CameraProfile.Mode mode) {
+        switch (mode) {
+            case SD:
+                return CommonUtils.QUALITY_SD;
+            case LOW:
+            case SNAPSHOT:
+                return CommonUtils.QUALITY_LOW;
+            default:
+                return CommonUtils.QUALITY_HD;
+        }
+    }
+
+    /**
+     * @param surfaceKey the camera ID, with a suffix for its proxy session
+     * @return the session's invisible surface view, created on first use
+     */
+    PPSGLSurfaceView getSurfaceView(String surfaceKey) {
+        PPSGLSurfaceView surfaceView = surfaceViews.get(surfaceKey);
+        if (surfaceView == null) {
+            surfaceView = createInvisibleSurfaceView(surfaceKey);
+            surfaceViews.put(surfaceKey, surfaceView);
+            ResourceManager.getInstance().opened(cameraOf(surfaceKey), ResourceManager.Kind.SURFACE);
+        }
+        return surfaceView;
+    }
+
+    private static String cameraOf(String surfaceKey) {
+        return surfaceKey.endsWith(PROXY_SURFACE)
+                ? surfaceKey.substring(0, surfaceKey.length() - PROXY_SURFACE.length()) : surfaceKey;
+    }
+
+    private PPSGLSurfaceView createInvisibleSurfaceView(String cameraId) {
+        logger.info(TAG, "Creating invisible surface view for camera: " + cameraId);
+        
+        PPSGLSurfaceView surfaceView = new PPSGLSurfaceView(context, 1, 1);
+        
+        WindowManager.LayoutParams params = new WindowManager.LayoutParams(
+            1, 1,
+            WindowManager.LayoutParams.TYPE_APPLICATION_OVERLAY,
+            WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE | WindowManager.LayoutParams.FLAG_NOT_TOUCHABLE,
+            PixelFormat.TRANSLUCENT
+        );
+        params.x = 0;
+        params.y = 0;
+        
+        windowManager.addView(surfaceView, params);
+        
+        logger.info(TAG, "Surface view created for camera: " + cameraId);
+        return surfaceView;
+    }
+
+    /**
+     * Remove the camera's surface view (on the main thread, as WindowManager requires)
+     */
+    @Override
+    public void releaseCamera(final CameraDescriptor camera) {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            mainHandler.post(() -> releaseCamera(camera));
+            return;
+        }
+        removeSurfaceView(camera.getDeviceId());
+        removeSurfaceView(camera.getDeviceId() + PROXY_SURFACE);
+    }
+
+    /**
+     * Remove all surface views (service shutdown)
+     */
+    public void release() {
+        for (String surfaceKey : surfaceViews.keySet()) {
+            removeSurfaceView(surfaceKey);
+        }
+    }
+
+    private void removeSurfaceView(String surfaceKey) {
+        PPSGLSurfaceView surfaceView = surfaceViews.remove(surfaceKey);
+        if (surfaceView == null) {
+            return;
+        }
+        try {
+            windowManager.removeView(surfaceView);
+            logger.info(TAG, "Removed surface view for camera: " + surfaceKey);
+        } catch (Exception e) {
+            logger.error(TAG, "Error removing surface view", e);
+        }
+        ResourceManager.getInstance().closed(cameraOf(surfaceKey), ResourceManager.Kind.SURFACE);
+    }
+}
@@ -0,0 +1,130 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraDescriptor;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraSession;
+import com.meari.sdk.MeariDeviceController;
+import com.meari.sdk.bean.CameraInfo;
+import com.meari.sdk.listener.MeariDeviceListener;
+import com.meari.sdk.listener.MeariDeviceRecordMp4Listener;
+import com.meari.sdk.listener.MeariDeviceVideoStopListener;
+import com.ppstrong.ppsplayer.PPSGLSurfaceView;
+
+/**
+ * {@link CameraSession} backed by a Meari SDK device controller
+ */
+class MeariCameraSession implements CameraSession {
+    private final CameraDescriptor camera;
+    private final MeariCameraBackend backend;
+    private final MeariDeviceController controller;
+    private final String surfaceKey;
+
+    /**
+     * @param surfaceKey the backend's surface for this session (one per controller)
+     */
+    MeariCameraSession(CameraDescriptor camera, CameraInfo cameraInfo, MeariCameraBackend backend, String surfaceKey) {
+        this.camera = camera;
+        this.backend = backend;
+        this.surfaceKey = surfaceKey;
+        this.controller = new MeariDeviceController();
+        this.controller.setCameraInfo(cameraInfo);
+    }
+
+    @Override
+    public CameraDescriptor getCamera() {
+        return camera;
+    }
+
+    /**
+     * Connects with the camera's account logged in to the SDK, holding the account gate
+     * until the camera answers
+     */
+    @Override
+    public void connect(final Callback callback) {
+        backend.runAsAccount(release -> controller.startConnect(listener(new Callback() {
+            @Override
+            public void onSuccess(String message) {
+                release.run();
+                callback.onSuccess(message);
+            }
+
+            @Override
+            public void onFailed(String error) {
+                release.run();
+                callback.onFailed(error);
+            }
+        })), callback);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return controller.isConnected();
+    }
+
+    @Override
+    public void disconnect(Callback callback) {
+        controller.stopConnect(listener(callback));
+    }
+
+    @Override
+    public void startPreview(int streamId, Callback callback, final StreamListener streamListener) {
+        // Invisible SurfaceView for this camera (required by SDK)
+        PPSGLSurfaceView surfaceView = backend.getSurfaceView(surfaceKey);
+        controller.startPreview(surfaceView, streamId, listener(callback), new MeariDeviceVideoStopListener() {
+            @Override
+            public void onVideoClosed(int code) {
+                streamListener.onVideoClosed(code);
+            }
+        });
+    }
+
+    @Override
+    public void stopPreview(Callback callback) {
+        controller.stopPreview(listener(callback));
+    }
+
+    @Override
+    public void startRecording(String path, Callback callback, final RecordListener recordListener) {
+        controller.startRecordMP4(path, listener(callback), new MeariDeviceRecordMp4Listener() {
+            @Override
+            public void RecordMp4Interrupt(int code) {
+                recordListener.onRecordInterrupted(code);
+            }
+        });
+    }
+
+    @Override
+    public void stopRecording(Callback callback) {
+        controller.stopRecordMP4(listener(callback));
+    }
+
+    @Override
+    public void snapshot(String path, Callback callback) {
+        controller.snapshot(path, listener(callback));
+    }
+
+    @Override
+    public boolean setFrameListener(FrameListener listener) {
+        // SDK 5.0.0 decodes and renders the preview inside its player: the controller has
+        // no callback for the received H.264, so there is nothing to re-publish
+        return false;
+    }
+
+    @Override
+    public void release() {
+        controller.release();
+    }
+
+    private static MeariDeviceListener listener(final Callback callback) {
+        return new MeariDeviceListener() {
+            @Override
+            public void onSuccess(String msg) {
+                callback.onSuccess(msg);
+            }
+
+            @Override
+            public void onFailed(String error) {
+                callback.onFailed(error);
+            }
+        };
+    }
+}
@@ -4,16 +4,24 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.util.Log;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 /**
  * Configuration manager for video recorder
  * Settings can be changed via ADB:
  * adb shell am broadcast -a com.edgecloudrecorder.SET_DURATION --ei duration_minutes 15
  * adb shell am broadcast -a com.edgecloudrecorder.SET_QUALITY --es quality HD|SD|LOW
+ *
+ * SharedPreferences are read once per process into an immutable {@link ConfigSnapshot};
+ * getters read the current snapshot and setters persist the value, then atomically
+ * publish a new snapshot and notify registered {@link Listener}s.
  */
 public class RecorderConfig {
     private static final String TAG = "RecorderConfig";
     private static final String PREFS_NAME = "recorder_config";
-    
+
     // Keys for SharedPreferences
     private static final String KEY_DURATION_MINUTES = "duration_minutes";
     private static final String KEY_VIDEO_QUALITY = "video_quality";
@@ -21,106 +29,508 @@ public class RecorderConfig {
     private static final String KEY_PASSWORD = "meari_password";
     private static final String KEY_COUNTRY = "meari_country";
     private static final String KEY_COUNTRY_CODE = "meari_country_code";
-    
+    private static final String KEY_PROFILE_PREFIX = "profile.";
+    private static final String KEY_ACCOUNT_PREFIX = "account.";
+    private static final String KEY_CONTROL_PORT = "control_port";
+    private static final String KEY_CONTROL_TOKEN = "control_token";
+    private static final String KEY_CONTROL_ADDRESS = "control_address";
+    private static final String KEY_LIVE_PORT = "live_port";
+    private static final String KEY_SHARD_INDEX = "shard_index";
+    private static final String KEY_SHARD_COUNT = "shard_count";
+    private static final String KEY_MEMORY_BUDGET_MB = "memory_budget_mb";
+    private static final String KEY_BATTERY_POLICY = "battery_policy";
+    private static final String KEY_BANDWIDTH_MBPS = "bandwidth_mbps";
+    private static final String KEY_DISK_POLICY = "disk_policy";
+    private static final String KEY_UPLOAD_POLICY = "upload_policy";
+    private static final String KEY_STAGING_PATH = "staging_path";
+
     // Default values
     private static final int DEFAULT_DURATION_MINUTES = 1;
     private static final String DEFAULT_QUALITY = "HD";
-    
+    private static final int DEFAULT_CONTROL_PORT = 8089;
+    // Staging path that writes segments straight to the recording path (as does an empty one)
+    public static final String STAGING_NONE = "none";
+
+    /**
+     * Notified after a new snapshot has been published (on the thread that changed it)
+     */
+    public interface Listener {
+        void onConfigChanged(ConfigSnapshot previous, ConfigSnapshot current);
+    }
+
+    // Process-wide state shared by every RecorderConfig instance
+    private static final Object LOCK = new Object();
+    private static SharedPreferences sharedPrefs;
+    private static volatile ConfigSnapshot current;
+    private static final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
     private final SharedPreferences prefs;
-    private final Context context;
-    
+
     public RecorderConfig(Context context) {
-        this.context = context.getApplicationContext();
-        this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        loadCredentialsFromEnv();
+        synchronized (LOCK) {
+            if (sharedPrefs == null) {
+                sharedPrefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+                loadCredentialsFromEnv(sharedPrefs);
+                current = readSnapshot(sharedPrefs, 1);
+                Log.i(TAG, "Config loaded: " + current);
+            }
+            this.prefs = sharedPrefs;
+        }
     }
-    
+
     /**
      * Load credentials from environment variables (set via adb)
      * adb shell setprop debug.meari.username "your_email"
      * adb shell setprop debug.meari.password "your_password"
      * adb shell setprop debug.meari.country "US"
      */
-    private void loadCredentialsFromEnv() {
+    private static void loadCredentialsFromEnv(SharedPreferences prefs) {
         try {
             String username = System.getProperty("debug.meari.username");
             String password = System.getProperty("debug.meari.password");
             String countryCode = System.getProperty("debug.meari.country");
-            
+
+            SharedPreferences.Editor editor = prefs.edit();
             if (username != null && !username.isEmpty()) {
-                prefs.edit().putString(KEY_USERNAME, username).apply();
+                editor.putString(KEY_USERNAME, username);
                 Log.i(TAG, "Username loaded from env");
             }
             if (password != null && !password.isEmpty()) {
-                prefs.edit().putString(KEY_PASSWORD, password).apply();
+                editor.putString(KEY_PASSWORD, password);
                 Log.i(TAG, "Password loaded from env");
             }
             if (countryCode != null && !countryCode.isEmpty()) {
-                prefs.edit().putString(KEY_COUNTRY_CODE, countryCode).apply();
+                editor.putString(KEY_COUNTRY_CODE, countryCode);
                 Log.i(TAG, "Country code loaded from env");
             }
+            editor.apply();
         } catch (Exception e) {
             Log.e(TAG, "Error loading credentials from env", e);
         }
     }
-    
+
+    private static ConfigSnapshot readSnapshot(SharedPreferences prefs, long version) {
+        ConfigSnapshot.Builder builder = new ConfigSnapshot.Builder();
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            if (entry.getKey().startsWith(KEY_PROFILE_PREFIX) && entry.getValue() instanceof String) {
+                String deviceId = entry.getKey().substring(KEY_PROFILE_PREFIX.length());
+                try {
+                    builder.putProfile(CameraProfile.decode(deviceId, (String) entry.getValue()));
+                } catch (IllegalArgumentException e) {
+                    Log.e(TAG, "Ignoring bad profile for " + deviceId, e);
+                }
+            } else if (entry.getKey().startsWith(KEY_ACCOUNT_PREFIX) && entry.getValue() instanceof String) {
+                String name = entry.getKey().substring(KEY_ACCOUNT_PREFIX.length());
+                try {
+                    builder.putAccount(Account.decode(name, (String) entry.getValue()));
+                } catch (IllegalArgumentException e) {
+                    Log.e(TAG, "Ignoring bad account " + name, e);
+                }
+            }
+        }
+        try {
+            builder.setBatteryPolicy(BatteryPolicy.decode(prefs.getString(KEY_BATTERY_POLICY, "")));
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Ignoring bad battery policy: " + e.getMessage());
+        }
+        try {
+            builder.setDiskPolicy(DiskPolicy.decode(prefs.getString(KEY_DISK_POLICY, "")));
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Ignoring bad disk policy: " + e.getMessage());
+        }
+        try {
+            builder.setUploadPolicy(UploadPolicy.decode(prefs.getString(KEY_UPLOAD_POLICY, "")));
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Ignoring bad upload policy: " + e.getMessage());
+        }
+        int shardIndex = prefs.getInt(KEY_SHARD_INDEX, 0);
+        int shardCount = prefs.getInt(KEY_SHARD_COUNT, 1);
+        try {
+            builder.setShard(shardIndex, shardCount);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Ignoring bad shard " + shardIndex + "/" + shardCount + ", recording all cameras");
+        }
+        return builder
+                .setVersion(version)
+                .setDurationMinutes(prefs.getInt(KEY_DURATION_MINUTES, DEFAULT_DURATION_MINUTES))
+                .setMemoryBudgetMb(prefs.getInt(KEY_MEMORY_BUDGET_MB, 0))
+                .setBandwidthMbps(prefs.getInt(KEY_BANDWIDTH_MBPS, 0))
+                .setVideoQuality(prefs.getString(KEY_VIDEO_QUALITY, DEFAULT_QUALITY))
+                // Credentials - with hardcoded fallback for testing
+                .setUsername(prefs.getString(KEY_USERNAME, "your_email@example.com"))
+                .setPassword(prefs.getString(KEY_PASSWORD, "your_password"))
+                .setCountry(prefs.getString(KEY_COUNTRY, "your_country"))
+                .setCountryCode(prefs.getString(KEY_COUNTRY_CODE, "your_country_code"))
+                .setControlPort(prefs.getInt(KEY_CONTROL_PORT, DEFAULT_CONTROL_PORT))
+                .setControlToken(prefs.getString(KEY_CONTROL_TOKEN, ""))
+                .setControlAddress(prefs.getString(KEY_CONTROL_ADDRESS, ""))
+                .setLivePort(prefs.getInt(KEY_LIVE_PORT, 0))
+                .setStagingPath(stagingPathOf(prefs.getString(KEY_STAGING_PATH, "")))
+                .build();
+    }
+
+    /**
+     * @param setting configured staging path: empty or {@link #STAGING_NONE} for none
+     * @return the staging path for the snapshot (empty for none)
+     */
+    private static String stagingPathOf(String setting) {
+        if (setting == null || setting.isEmpty() || STAGING_NONE.equals(setting)) {
+            return "";
+        }
+        return setting.endsWith("/") ? setting : setting + "/";
+    }
+
+    /**
+     * @return the current immutable configuration (no I/O)
+     */
+    public ConfigSnapshot getSnapshot() {
+        return current;
+    }
+
+    public static void addListener(Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private interface Mutation {
+        void apply(ConfigSnapshot.Builder builder, SharedPreferences.Editor editor);
+    }
+
+    /**
+     * Persist a change and swap in the new snapshot, then notify listeners
+     */
+    private void update(Mutation mutation) {
+        ConfigSnapshot previous;
+        ConfigSnapshot updated;
+        synchronized (LOCK) {
+            previous = current;
+            ConfigSnapshot.Builder builder = previous.toBuilder();
+            SharedPreferences.Editor editor = prefs.edit();
+            mutation.apply(builder, editor);
+            editor.apply();
+            updated = builder.build();
+            current = updated;
+        }
+        for (Listener listener : listeners) {
+            try {
+                listener.onConfigChanged(previous, updated);
+            } catch (Exception e) {
+                Log.e(TAG, "Config listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * Apply several changes as a single snapshot (one version bump, one notification)
+     * @param durationMinutes new duration, or null to keep
+     * @param quality new quality, or null to keep
+     * @param setProfiles profiles to add or replace
+     * @param removeProfiles device IDs whose profile is removed
+     */
+    public void applyChanges(final Integer durationMinutes, final String quality,
+                             final Collection<CameraProfile> setProfiles, final Collection<String> removeProfiles) {
+        update((b, e) -> {
+            if (durationMinutes != null) {
+                b.setDurationMinutes(durationMinutes);
+                e.putInt(KEY_DURATION_MINUTES, durationMinutes);
+            }
+            if (quality != null) {
+                b.setVideoQuality(quality.toUpperCase());
+                e.putString(KEY_VIDEO_QUALITY, quality.toUpperCase());
+            }
+            for (String deviceId : removeProfiles) {
+                b.removeProfile(deviceId);
+                e.remove(KEY_PROFILE_PREFIX + deviceId);
+            }
+            for (CameraProfile profile : setProfiles) {
+                b.putProfile(profile);
+                e.putString(KEY_PROFILE_PREFIX + profile.getDeviceId(), profile.encode());
+            }
+        });
+        Log.i(TAG, "Config updated: " + current);
+    }
+
     // Video duration in minutes
     public int getDurationMinutes() {
-        return prefs.getInt(KEY_DURATION_MINUTES, DEFAULT_DURATION_MINUTES);
+        return current.getDurationMinutes();
     }
-    
+
     public void setDurationMinutes(int minutes) {
-        prefs.edit().putInt(KEY_DURATION_MINUTES, minutes).apply();
+        update((b, e) -> {
+            b.setDurationMinutes(minutes);
+            e.putInt(KEY_DURATION_MINUTES, minutes);
+        });
         Log.i(TAG, "Duration set to " + minutes + " minutes");
     }
-    
+
     // Video quality (HD, SD, LOW)
     public String getVideoQuality() {
-        return prefs.getString(KEY_VIDEO_QUALITY, DEFAULT_QUALITY);
+        return current.getVideoQuality();
     }
-    
+
     public void setVideoQuality(String quality) {
-        prefs.edit().putString(KEY_VIDEO_QUALITY, quality.toUpperCase()).apply();
+        final String upper = quality.toUpperCase();
+        update((b, e) -> {
+            b.setVideoQuality(upper);
+            e.putString(KEY_VIDEO_QUALITY, upper);
+        });
         Log.i(TAG, "Quality set to " + quality);
     }
-    
-    // Credentials - with hardcoded fallback for testing
+
     public String getUsername() {
-        return prefs.getString(KEY_USERNAME, "your_email@example.com");
+        return current.getUsername();
     }
-    
+
     public void setUsername(String username) {
-        prefs.edit().putString(KEY_USERNAME, username).apply();
+        update((b, e) -> {
+            b.setUsername(username);
+            e.putString(KEY_USERNAME, username);
+        });
     }
-    
+
     public String getPassword() {
-        return prefs.getString(KEY_PASSWORD, "your_password");
+        return current.getPassword();
     }
-    
+
     public void setPassword(String password) {
-        prefs.edit().putString(KEY_PASSWORD, password).apply();
+        update((b, e) -> {
+            b.setPassword(password);
+            e.putString(KEY_PASSWORD, password);
+        });
     }
-    
+
     public String getCountryCode() {
-        return prefs.getString(KEY_COUNTRY_CODE, "your_country_code");
+        return current.getCountryCode();
     }
-    
+
     public void setCountryCode(String countryCode) {
-        prefs.edit().putString(KEY_COUNTRY_CODE, countryCode).apply();
+        update((b, e) -> {
+            b.setCountryCode(countryCode);
+            e.putString(KEY_COUNTRY_CODE, countryCode);
+        });
     }
-    
+
     public String getCountry() {
-        return prefs.getString(KEY_COUNTRY, "your_country");
+        return current.getCountry();
     }
-    
+
     public void setCountry(String country) {
-        prefs.edit().putString(KEY_COUNTRY, country).apply();
+        update((b, e) -> {
+            b.setCountry(country);
+            e.putString(KEY_COUNTRY, country);
+        });
     }
-    
+
     public boolean hasCredentials() {
-        return getUsername() != null && getPassword() != null;
+        return current.hasCredentials();
+    }
+    
+    // HTTP control API (applied when the service starts)
+    public int getControlPort() {
+        return current.getControlPort();
+    }
+    
+    public void setControlPort(int port) {
+        update((b, e) -> {
+            b.setControlPort(port);
+            e.putInt(KEY_CONTROL_PORT, port);
+        });
+    }
+    
+    public String getControlToken() {
+        return current.getControlToken();
+    }
+    
+    public void setControlToken(String token) {
+        update((b, e) -> {
+            b.setControlToken(token);
+            e.putString(KEY_CONTROL_TOKEN, token);
+        });
+    }
+    
+    // Listen address of the control API and live streams: empty for loopback, any other
+    // address needs a token
+    public String getControlAddress() {
+        return current.getControlAddress();
+    }
+    
+    public void setControlAddress(String address) {
+        update((b, e) -> {
+            b.setControlAddress(address);
+            e.putString(KEY_CONTROL_ADDRESS, address);
+        });
+    }
+    
+    // HTTP-FLV live streams, behind the control token (applied when the service starts)
+    public int getLivePort() {
+        return current.getLivePort();
+    }
+    
+    public void setLivePort(int port) {
+        update((b, e) -> {
+            b.setLivePort(port);
+            e.putInt(KEY_LIVE_PORT, port);
+        });
+    }
+    
+    // Fleet sharding: this instance records the cameras ShardRing assigns to its index
+    public int getShardIndex() {
+        return current.getShardIndex();
+    }
+    
+    public int getShardCount() {
+        return current.getShardCount();
+    }
+    
+    /**
+     * @throws IllegalArgumentException unless 0 <= index < count
+     */
+    public void setShard(int index, int count) {
+        ShardRing.validate(index, count);
+        update((b, e) -> {
+            b.setShard(index, count);
+            e.putInt(KEY_SHARD_INDEX, index);
+            e.putInt(KEY_SHARD_COUNT, count);
+        });
+        Log.i(TAG, "Shard set to " + index + "/" + count);
+    }
+    
+    // Memory budget for camera streams, 0 = automatic (share of device RAM)
+    public int getMemoryBudgetMb() {
+        return current.getMemoryBudgetMb();
+    }
+    
+    public void setMemoryBudgetMb(int megabytes) {
+        update((b, e) -> {
+            b.setMemoryBudgetMb(megabytes);
+            e.putInt(KEY_MEMORY_BUDGET_MB, Math.max(0, megabytes));
+        });
+        Log.i(TAG, "Memory budget set to " + megabytes + " MB");
+    }
+    
+    // Total ingest cap shared by all cameras, 0 = none
+    public int getBandwidthMbps() {
+        return current.getBandwidthMbps();
+    }
+    
+    public void setBandwidthMbps(int mbps) {
+        update((b, e) -> {
+            b.setBandwidthMbps(mbps);
+            e.putInt(KEY_BANDWIDTH_MBPS, Math.max(0, mbps));
+        });
+        Log.i(TAG, "Bandwidth cap set to " + mbps + " Mbps");
+    }
+    
+    // Duty cycle of battery-powered cameras
+    public BatteryPolicy getBatteryPolicy() {
+        return current.getBatteryPolicy();
+    }
+    
+    public void setBatteryPolicy(BatteryPolicy policy) {
+        update((b, e) -> {
+            b.setBatteryPolicy(policy);
+            e.putString(KEY_BATTERY_POLICY, policy.encode());
+        });
+        Log.i(TAG, "Battery policy set to " + policy);
+    }
+    
+    // Free-space thresholds and pruning of the recording volume
+    public DiskPolicy getDiskPolicy() {
+        return current.getDiskPolicy();
+    }
+    
+    public void setDiskPolicy(DiskPolicy policy) {
+        update((b, e) -> {
+            b.setDiskPolicy(policy);
+            e.putString(KEY_DISK_POLICY, policy.encode());
+        });
+        Log.i(TAG, "Disk policy set to " + policy);
+    }
+    
+    // Off-site copies of closed segments (S3-compatible store)
+    public UploadPolicy getUploadPolicy() {
+        return current.getUploadPolicy();
+    }
+    
+    public void setUploadPolicy(UploadPolicy policy) {
+        update((b, e) -> {
+            b.setUploadPolicy(policy);
+            e.putString(KEY_UPLOAD_POLICY, policy.encode());
+        });
+        Log.i(TAG, "Upload policy set to " + policy);
+    }
+    
+    // Where segments are written until they close (applied when the service starts)
+    public String getStagingPath() {
+        return current.getStagingPath();
     }
     
+    /**
+     * @param path a directory on the recording path's volume (another one is not used),
+     *             empty or {@link #STAGING_NONE} to write segments in place
+     */
+    public void setStagingPath(String path) {
+        final String setting = path != null ? path.trim() : "";
+        update((b, e) -> {
+            b.setStagingPath(stagingPathOf(setting));
+            if (setting.isEmpty()) {
+                e.remove(KEY_STAGING_PATH);
+            } else {
+                e.putString(KEY_STAGING_PATH, setting);
+            }
+        });
+        Log.i(TAG, "Staging path set to " + (current.getStagingPath().isEmpty() ? "none" : current.getStagingPath()));
+    }
+    
+    // Per-camera profiles, keyed by device ID
+    public CameraProfile getCameraProfile(String deviceId) {
+        return current.getProfile(deviceId);
+    }
+    
+    public void setCameraProfile(CameraProfile profile) {
+        update((b, e) -> {
+            b.putProfile(profile);
+            e.putString(KEY_PROFILE_PREFIX + profile.getDeviceId(), profile.encode());
+        });
+        Log.i(TAG, "Profile set: " + profile);
+    }
+    
+    public void removeCameraProfile(String deviceId) {
+        update((b, e) -> {
+            b.removeProfile(deviceId);
+            e.remove(KEY_PROFILE_PREFIX + deviceId);
+        });
+        Log.i(TAG, "Profile removed for " + deviceId);
+    }
+
+    // Extra Meari accounts, keyed by name (applied when the service starts)
+    public Account getAccount(String name) {
+        return current.getAccount(name);
+    }
+    
+    /**
+     * @throws IllegalArgumentException for the primary account name (use the credential setters)
+     */
+    public void setAccount(Account account) {
+        Account.validateName(account.getName());
+        update((b, e) -> {
+            b.putAccount(account);
+            e.putString(KEY_ACCOUNT_PREFIX + account.getName(), account.encode());
+        });
+        Log.i(TAG, "Account set: " + account);
+    }
+    
+    public void removeAccount(String name) {
+        update((b, e) -> {
+            b.removeAccount(name);
+            e.remove(KEY_ACCOUNT_PREFIX + name);
+        });
+        Log.i(TAG, "Account removed: " + name);
+    }
+
     /**
      * Get absolute recording path on Android device
      * @return /sdcard/Download/recording/
@@ -0,0 +1,255 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.view.Surface;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Packs the stills of SNAPSHOT-mode cameras into one timelapse MP4 per camera and hour:
+ * <device ID>/snapshots/<camera>_yyyyMMdd_HHmmss.jpg -> <device ID>/<camera>_timelapse_yyyyMMdd_HH.mp4
+ * The current hour is left alone and stills are deleted only once their MP4 is complete.
+ * Meant to run on a background-priority thread; H.264 via MediaCodec with a Surface input,
+ * each still drawn with a hardware canvas and played at {@link #FPS}.
+ */
+class TimelapsePacker implements Runnable {
+    private static final String TAG = "TimelapsePacker";
+    private static final String MIME = "video/avc";
+    private static final String HOUR_PATTERN = "yyyyMMdd_HH";
+    private static final int FPS = 10;
+    private static final int I_FRAME_INTERVAL_SECONDS = 1;
+    private static final long DEQUEUE_TIMEOUT_US = 10_000;
+    // Give up on an encoder that produces nothing for this many dequeue timeouts at end of stream
+    private static final int MAX_EOS_WAITS = 500;
+
+    private final RecorderLogger logger = RecorderLogger.getInstance();
+    private final File recordingsRoot;
+
+    TimelapsePacker(String recordingsRoot) {
+        this.recordingsRoot = new File(recordingsRoot);
+    }
+
+    @Override
+    public void run() {
+        String currentHour = new SimpleDateFormat(HOUR_PATTERN, Locale.US).format(new Date());
+        File[] cameraDirs = recordingsRoot.listFiles(File::isDirectory);
+        if (cameraDirs == null) {
+            return;
+        }
+        for (File cameraDir : cameraDirs) {
+            File[] stills = new File(cameraDir, CameraRecorder.SNAPSHOT_DIR).listFiles(
+                    (dir, name) -> name.endsWith(".jpg"));
+            if (stills == null || stills.length == 0) {
+                continue;
+            }
+            // Name order is time order
+            Arrays.sort(stills);
+            Map<String, List<File>> byHour = new TreeMap<>();
+            for (File still : stills) {
+                String hour = hourOf(still.getName());
+                if (hour != null && !hour.equals(currentHour)) {
+                    List<File> group = byHour.get(hour);
+                    if (group == null) {
+                        group = new ArrayList<>();
+                        byHour.put(hour, group);
+                    }
+                    group.add(still);
+                }
+            }
+            for (Map.Entry<String, List<File>> entry : byHour.entrySet()) {
+                String label = labelOf(entry.getValue().get(0).getName());
+                File output = new File(cameraDir, label + "_timelapse_" + entry.getKey() + ".mp4");
+                pack(entry.getValue(), output);
+            }
+        }
+    }
+
+    /**
+     * @return "yyyyMMdd_HH" of a still named <camera>_yyyyMMdd_HHmmss.jpg, or null
+     */
+    static String hourOf(String name) {
+        int end = name.length() - ".jpg".length() - "mmss".length();
+        int start = end - HOUR_PATTERN.length();
+        if (start < 1 || name.charAt(start - 1) != '_') {
+            return null;
+        }
+        return name.substring(start, end);
+    }
+
+    /**
+     * @return the camera name a still's file name starts with (one {@link #hourOf} accepted)
+     */
+    static String labelOf(String name) {
+        return name.substring(0, name.length() - ".jpg".length() - "mmss".length() - HOUR_PATTERN.length() - 1);
+    }
+
+    private void pack(List<File> stills, File output) {
+        File partial = new File(output.getPath() + ".part");
+        try {
+            int frames = encode(stills, partial);
+            if (frames == 0) {
+                logger.warning(TAG, "No decodable stills for " + output.getName());
+                partial.delete();
+                return;
+            }
+            if (!partial.renameTo(output)) {
+                logger.error(TAG, "Cannot publish " + output.getName());
+                partial.delete();
+                return;
+            }
+            for (File still : stills) {
+                still.delete();
+            }
+            logger.info(TAG, "Packed " + frames + " stills into " + output.getName());
+        } catch (IOException | RuntimeException e) {
+            logger.error(TAG, "Timelapse failed for " + output.getName(), e);
+            partial.delete();
+        }
+    }
+
+    /**
+     * @return frames written to the MP4
+     */
+    private int encode(List<File> stills, File output) throws IOException {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(stills.get(0).getPath(), bounds);
+        // AVC encoders want dimensions in whole macroblocks
+        int width = bounds.outWidth & ~15;
+        int height = bounds.outHeight & ~15;
+        if (width <= 0 || height <= 0) {
+            return 0;
+        }
+
+        MediaFormat format = MediaFormat.createVideoFormat(MIME, width, height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, width * height * FPS / 8);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, FPS);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL_SECONDS);
+
+        MediaCodec encoder = MediaCodec.createEncoderByType(MIME);
+        Surface input = null;
+        Output muxer = null;
+        try {
+            encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            input = encoder.createInputSurface();
+            encoder.start();
+            muxer = new Output(encoder, new MediaMuxer(output.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4));
+
+            Rect frame = new Rect(0, 0, width, height);
+            for (File still : stills) {
+                Bitmap bitmap = BitmapFactory.decodeFile(still.getPath());
+                if (bitmap == null) {
+                    // Truncated or half-written still
+                    continue;
+                }
+                Canvas canvas = input.lockHardwareCanvas();
+                try {
+                    canvas.drawBitmap(bitmap, null, frame, null);
+                } finally {
+                    input.unlockCanvasAndPost(canvas);
+                }
+                bitmap.recycle();
+                muxer.drain(false);
+            }
+            encoder.signalEndOfInputStream();
+            muxer.drain(true);
+            return muxer.frames;
+        } finally {
+            try {
+                encoder.stop();
+            } catch (IllegalStateException ignored) {
+                // never started
+            }
+            encoder.release();
+            if (input != null) {
+                input.release();
+            }
+            if (muxer != null) {
+                muxer.release();
+            }
+        }
+    }
+
+    /**
+     * Moves encoded frames from the codec to the muxer, re-timing them at FPS (Surface input
+     * timestamps are the wall-clock draw times)
+     */
+    private static final class Output {
+        private final MediaCodec encoder;
+        private final MediaMuxer muxer;
+        private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        private int track = -1;
+        int frames;
+
+        Output(MediaCodec encoder, MediaMuxer muxer) {
+            this.encoder = encoder;
+            this.muxer = muxer;
+        }
+
+        void drain(boolean endOfStream) {
+            int waits = 0;
+            while (true) {
+                int index = encoder.dequeueOutputBuffer(info, DEQUEUE_TIMEOUT_US);
+                if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                    if (!endOfStream) {
+                        return;
+                    }
+                    if (++waits > MAX_EOS_WAITS) {
+                        throw new IllegalStateException("Encoder did not finish");
+                    }
+                    continue;
+                }
+                if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    track = muxer.addTrack(encoder.getOutputFormat());
+                    muxer.start();
+                    continue;
+                }
+                if (index < 0) {
+                    continue;
+                }
+                ByteBuffer data = encoder.getOutputBuffer(index);
+                boolean config = (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+                if (!config && info.size > 0 && track >= 0 && data != null) {
+                    info.presentationTimeUs = frames * 1_000_000L / FPS;
+                    data.position(info.offset);
+                    data.limit(info.offset + info.size);
+                    muxer.writeSampleData(track, data, info);
+                    frames++;
+                }
+                encoder.releaseOutputBuffer(index, false);
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    return;
+                }
+            }
+        }
+
+        void release() {
+            if (track >= 0) {
+                try {
+                    muxer.stop();
+                } catch (IllegalStateException ignored) {
+                    // no samples written
+                }
+            }
+            muxer.release();
+        }
+    }
+}
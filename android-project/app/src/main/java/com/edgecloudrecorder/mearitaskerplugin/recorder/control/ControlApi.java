@@ -0,0 +1,584 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.control;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.Account;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.BandwidthBudget;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.CameraProfile;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.CameraRecorder;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.ClipExporter;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.ConfigSnapshot;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.CoverageIndex;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.DiskMonitor;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.LifecycleMetrics;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.RecorderConfig;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.RecorderClock;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.ResourceManager;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.live.LiveChannel;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.live.LiveFanout;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.upload.SegmentUploader;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * JSON routes of the control API.
+ *
+ * GET  /status                      all cameras (in-memory, no main-thread hop)
+ * GET  /status/{id}                 one camera
+ * GET  /config                      current config snapshot
+ * POST /config                      {"duration_minutes":5,"quality":"SD","profiles":{"ID":"quality=LOW;...","ID2":null}}
+ * GET  /metrics                     lifecycle latency report (text)
+ * GET  /resources                   memory and bandwidth budgets, disk level, upload queue, per-camera sessions/surfaces
+ * POST /cameras/{id}/{action}       action = restart | pause | resume
+ * POST /cameras/{action}            {"ids":["ID",...]} (no ids: every camera)
+ * POST /export                      {"id":"ID","from":"2026-10-19 14:03:20","to":"2026-10-19 14:17:45"}
+ *                                   (or epoch ms); queues a stream copy of the range into exports/, 202 + job
+ * GET  /export                      export jobs, newest last
+ * GET  /export/{job}                one job: state, then its files once done
+ * GET  /coverage/{id}?from=&to=&min_hole_ms=   footage spans and holes (default: the last 7 days)
+ *
+ * Live streams are not served here but by LiveServer on their own port (live_port).
+ */
+public class ControlApi implements ControlServer.Handler {
+    private static final int MAX_DURATION_MINUTES = 24 * 60;
+    private static final long MAX_EXPORT_MS = 4 * 3_600_000L;
+    private static final String EXPORT_TIME_PATTERN = "yyyy-MM-dd HH:mm:ss";
+    private static final String EXPORT_NAME_PATTERN = "yyyyMMdd_HHmmss";
+    private static final long DEFAULT_COVERAGE_MS = 7 * 24 * 3_600_000L;
+    private static final int MAX_HOLES = 1000;
+
+    private final RecorderControl control;
+    private final RecorderConfig config;
+    private final ExportJobs exports = new ExportJobs();
+
+    public ControlApi(RecorderControl control, RecorderConfig config) {
+        this.control = control;
+        this.config = config;
+    }
+
+    /**
+     * Stop with the service: interrupts a running export
+     */
+    public void shutdown() {
+        exports.shutdown();
+    }
+
+    @Override
+    public ControlServer.Response handle(String method, String path, String body) {
+        Map<String, String> params = new HashMap<>();
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            try {
+                params = parseQuery(path.substring(query + 1));
+            } catch (IllegalArgumentException e) {
+                return badRequest(e.getMessage());
+            }
+            path = path.substring(0, query);
+        }
+        String[] parts = path.replaceAll("^/+|/+$", "").split("/");
+
+        switch (parts[0]) {
+            case "status":
+                if (!"GET".equals(method)) return methodNotAllowed();
+                if (parts.length == 1) return ok(statusJson());
+                if (parts.length == 2) {
+                    CameraRecorder recorder = control.getCamera(parts[1]);
+                    return recorder != null ? ok(cameraJson(recorder)) : notFound("Unknown camera: " + parts[1]);
+                }
+                break;
+
+            case "config":
+                if (parts.length != 1) break;
+                if ("GET".equals(method)) return ok(configJson(config.getSnapshot()));
+                if ("POST".equals(method)) return updateConfig(body);
+                return methodNotAllowed();
+
+            case "metrics":
+                if (!"GET".equals(method)) return methodNotAllowed();
+                return ControlServer.Response.text(200, LifecycleMetrics.getInstance().dump());
+
+            case "resources":
+                if (!"GET".equals(method)) return methodNotAllowed();
+                return ok(resourcesJson());
+
+            case "cameras":
+                if (!"POST".equals(method)) return methodNotAllowed();
+                if (parts.length == 3) return cameraAction(parts[2], singleton(parts[1]));
+                if (parts.length == 2) return bulkAction(parts[1], body);
+                break;
+
+            case "coverage":
+                if (parts.length != 2) break;
+                if (!"GET".equals(method)) return methodNotAllowed();
+                return coverage(parts[1], params);
+
+            case "export":
+                if (parts.length == 2) {
+                    if (!"GET".equals(method)) return methodNotAllowed();
+                    ExportJobs.Job job = exports.get(parts[1]);
+                    return job != null ? ok(exportJson(job)) : notFound("Unknown export: " + parts[1]);
+                }
+                if (parts.length != 1) break;
+                if ("GET".equals(method)) return ok(exportsJson());
+                if ("POST".equals(method)) return exportClip(body);
+                return methodNotAllowed();
+        }
+        return notFound("No route for " + method + " " + path);
+    }
+
+    private JsonObject statusJson() {
+        JsonObject json = new JsonObject();
+        ConfigSnapshot snapshot = config.getSnapshot();
+        json.addProperty("uptime_ms", control.getUptimeMillis());
+        json.addProperty("config_version", snapshot.getVersion());
+        json.addProperty("shard_index", snapshot.getShardIndex());
+        json.addProperty("shard_count", snapshot.getShardCount());
+        int recording = 0;
+        JsonArray cameras = new JsonArray();
+        for (CameraRecorder recorder : control.getCameras()) {
+            if (recorder.isRecording()) recording++;
+            cameras.add(cameraJson(recorder));
+        }
+        json.addProperty("cameras_total", cameras.size());
+        json.addProperty("cameras_recording", recording);
+        json.add("cameras", cameras);
+        return json;
+    }
+
+    private JsonObject cameraJson(CameraRecorder recorder) {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", recorder.getCameraId());
+        json.addProperty("name", recorder.getCameraName());
+        json.addProperty("account", recorder.getCamera().getAccount());
+        json.addProperty("recording", recorder.isRecording());
+        json.addProperty("idle", recorder.isIdle());
+        json.addProperty("paused", recorder.isPaused());
+        json.addProperty("shed", recorder.isShed());
+        json.addProperty("snapshot", recorder.isSnapshotting());
+        json.addProperty("battery", recorder.getCamera().isBatteryPowered());
+        long clipEnd = recorder.getClipEndMs();
+        json.addProperty("clip_remaining_ms", clipEnd == 0 ? 0 : Math.max(0, clipEnd - RecorderClock.currentTimeMillis()));
+        json.addProperty("next_clip_at", recorder.getNextClipAtMs());
+        json.addProperty("stream_id", recorder.getStreamId());
+        CameraProfile.Mode bandwidthCap = BandwidthBudget.getInstance().getCap(recorder.getCameraId());
+        json.addProperty("bandwidth_cap", bandwidthCap != null ? bandwidthCap.name() : null);
+        json.addProperty("file", recorder.getCurrentFilePath());
+        json.addProperty("proxy_file", recorder.getProxyFilePath());
+        json.addProperty("segment_ms", recorder.isRecording() ? recorder.getRecordingDuration() : 0);
+        long failedAt = recorder.getFailureStart();
+        json.addProperty("failing_ms", failedAt == 0 ? 0 : (LifecycleMetrics.now() - failedAt) / 1_000_000L);
+        LiveChannel live = control.getLive().get(recorder.getCameraId());
+        json.addProperty("live", live != null && live.isSupported());
+        json.addProperty("live_consumers", live != null ? live.getConsumers() : 0);
+        return json;
+    }
+
+    private JsonObject configJson(ConfigSnapshot snapshot) {
+        JsonObject json = new JsonObject();
+        json.addProperty("version", snapshot.getVersion());
+        json.addProperty("duration_minutes", snapshot.getDurationMinutes());
+        json.addProperty("quality", snapshot.getVideoQuality());
+        json.addProperty("username", snapshot.getUsername());
+        json.addProperty("country", snapshot.getCountry());
+        json.addProperty("country_code", snapshot.getCountryCode());
+        json.addProperty("shard_index", snapshot.getShardIndex());
+        json.addProperty("shard_count", snapshot.getShardCount());
+        json.addProperty("memory_budget_mb", snapshot.getMemoryBudgetMb());
+        json.addProperty("battery_policy", snapshot.getBatteryPolicy().encode());
+        json.addProperty("bandwidth_mbps", snapshot.getBandwidthMbps());
+        json.addProperty("disk_policy", snapshot.getDiskPolicy().encode());
+        // Never the secret key
+        json.addProperty("upload", snapshot.getUploadPolicy().toString());
+        json.addProperty("staging_path", snapshot.getStagingPath());
+        json.addProperty("live_port", snapshot.getLivePort());
+        JsonObject profiles = new JsonObject();
+        for (Map.Entry<String, CameraProfile> entry : snapshot.getProfiles().entrySet()) {
+            profiles.addProperty(entry.getKey(), entry.getValue().encode());
+        }
+        json.add("profiles", profiles);
+        // Names and users only, never passwords
+        JsonObject accounts = new JsonObject();
+        for (Account account : snapshot.getAccounts()) {
+            accounts.addProperty(account.getName(), account.getUsername());
+        }
+        json.add("accounts", accounts);
+        return json;
+    }
+
+    private JsonObject resourcesJson() {
+        ResourceManager resources = ResourceManager.getInstance();
+        JsonObject json = new JsonObject();
+        long budget = resources.getBudgetBytes();
+        json.addProperty("budget_bytes", budget == Long.MAX_VALUE ? -1 : budget);
+        json.addProperty("measured_bytes", resources.measuredBytes());
+        json.addProperty("reserved_bytes", resources.getReservedBytes());
+        json.addProperty("refused", resources.getRefused());
+        json.addProperty("shed", resources.getShed());
+        json.addProperty("open_sessions", resources.openCount(ResourceManager.Kind.SESSION));
+        json.addProperty("open_surfaces", resources.openCount(ResourceManager.Kind.SURFACE));
+        BandwidthBudget bandwidth = BandwidthBudget.getInstance();
+        json.addProperty("bandwidth_cap_kbps", bandwidth.getCapKbps());
+        json.addProperty("bandwidth_allocated_kbps", bandwidth.getAllocatedKbps());
+        DiskMonitor disk = DiskMonitor.getInstance();
+        json.addProperty("disk_level", disk.getLevel().name());
+        long usable = disk.getUsableBytes();
+        json.addProperty("disk_free_bytes", usable == Long.MAX_VALUE ? -1 : usable);
+        json.addProperty("disk_write_ms", disk.getWriteMs());
+        SegmentUploader uploader = control.getUploader();
+        json.addProperty("upload_queued", uploader.getQueued());
+        json.addProperty("upload_running", uploader.getRunning());
+        json.addProperty("upload_segments", uploader.getUploaded());
+        json.addProperty("upload_bytes", uploader.getUploadedBytes());
+        json.addProperty("upload_deduped", uploader.getDeduped());
+        json.addProperty("upload_failures", uploader.getFailures());
+        json.addProperty("upload_lag_ms", uploader.getLagMs());
+        json.addProperty("upload_last_error", uploader.getLastError());
+        LiveFanout live = control.getLive();
+        json.addProperty("live_consumers", live.getConsumers());
+        json.addProperty("live_sent_bytes", live.getSentBytes());
+        JsonArray cameras = new JsonArray();
+        for (ResourceManager.Usage usage : resources.getUsage()) {
+            JsonObject camera = new JsonObject();
+            camera.addProperty("id", usage.cameraId);
+            camera.addProperty("reserved_bytes", usage.reservedBytes);
+            camera.addProperty("estimated_bytes", usage.estimatedBytes);
+            camera.addProperty("sessions", usage.sessions);
+            camera.addProperty("surfaces", usage.surfaces);
+            camera.addProperty("bandwidth_kbps", bandwidth.getAllocatedKbps(usage.cameraId));
+            cameras.add(camera);
+        }
+        json.add("cameras", cameras);
+        return json;
+    }
+
+    /**
+     * Validate every field first, then apply them as one snapshot
+     */
+    private ControlServer.Response updateConfig(String body) {
+        JsonObject request;
+        try {
+            request = parseObject(body);
+        } catch (IllegalArgumentException e) {
+            return badRequest(e.getMessage());
+        }
+
+        Integer duration = null;
+        String quality = null;
+        List<CameraProfile> setProfiles = new ArrayList<>();
+        List<String> removeProfiles = new ArrayList<>();
+        try {
+            for (Map.Entry<String, JsonElement> field : request.entrySet()) {
+                JsonElement value = field.getValue();
+                switch (field.getKey()) {
+                    case "duration_minutes":
+                        duration = value.getAsInt();
+                        if (duration < 1 || duration > MAX_DURATION_MINUTES) {
+                            return badRequest("duration_minutes must be 1.." + MAX_DURATION_MINUTES);
+                        }
+                        break;
+                    case "quality":
+                        quality = value.getAsString().toUpperCase(Locale.US);
+                        if (!quality.equals("HD") && !quality.equals("SD") && !quality.equals("LOW")) {
+                            return badRequest("quality must be HD, SD or LOW");
+                        }
+                        break;
+                    case "profiles":
+                        for (Map.Entry<String, JsonElement> p : value.getAsJsonObject().entrySet()) {
+                            if (p.getValue().isJsonNull()) {
+                                removeProfiles.add(p.getKey());
+                            } else {
+                                setProfiles.add(CameraProfile.decode(p.getKey(), p.getValue().getAsString()));
+                            }
+                        }
+                        break;
+                    default:
+                        return badRequest("Unknown field: " + field.getKey());
+                }
+            }
+        } catch (IllegalArgumentException | IllegalStateException | UnsupportedOperationException e) {
+            return badRequest(e.getMessage());
+        }
+
+        config.applyChanges(duration, quality, setProfiles, removeProfiles);
+        return ok(configJson(config.getSnapshot()));
+    }
+
+    private ControlServer.Response bulkAction(String action, String body) {
+        List<String> ids = new ArrayList<>();
+        try {
+            JsonObject request = body.trim().isEmpty() ? new JsonObject() : parseObject(body);
+            if (request.has("ids")) {
+                for (JsonElement id : request.getAsJsonArray("ids")) {
+                    ids.add(id.getAsString());
+                }
+            } else {
+                for (CameraRecorder recorder : control.getCameras()) {
+                    ids.add(recorder.getCameraId());
+                }
+            }
+        } catch (IllegalArgumentException | IllegalStateException | ClassCastException
+                | UnsupportedOperationException e) {
+            return badRequest(e.getMessage());
+        }
+        return cameraAction(action, ids);
+    }
+
+    private ControlServer.Response cameraAction(String action, List<String> ids) {
+        if (!action.equals("restart") && !action.equals("pause") && !action.equals("resume")) {
+            return notFound("Unknown action: " + action);
+        }
+        JsonObject results = new JsonObject();
+        boolean anyAccepted = false;
+        for (String id : ids) {
+            boolean accepted;
+            switch (action) {
+                case "restart":
+                    accepted = control.restartCamera(id);
+                    break;
+                case "pause":
+                    accepted = control.pauseCamera(id);
+                    break;
+                default:
+                    accepted = control.resumeCamera(id);
+                    break;
+            }
+            anyAccepted |= accepted;
+            results.addProperty(id, accepted ? "accepted" : "unknown camera");
+        }
+        JsonObject json = new JsonObject();
+        json.addProperty("action", action);
+        json.add("results", results);
+        return ControlServer.Response.json(anyAccepted || ids.isEmpty() ? 202 : 404, json.toString());
+    }
+
+    /**
+     * Queue a cut of a time range of one camera into exports/ (a copy, no re-encode, so it
+     * takes about as long as reading the clip once, on the export thread)
+     */
+    private ControlServer.Response exportClip(String body) {
+        String id;
+        long fromMs;
+        long toMs;
+        boolean proxy;
+        try {
+            JsonObject request = parseObject(body);
+            if (!request.has("id") || !request.has("from") || !request.has("to")) {
+                return badRequest("id, from and to are required");
+            }
+            id = request.get("id").getAsString();
+            fromMs = parseTime(request.get("from"));
+            toMs = parseTime(request.get("to"));
+            proxy = request.has("proxy") && request.get("proxy").getAsBoolean();
+        } catch (IllegalArgumentException | IllegalStateException | UnsupportedOperationException e) {
+            return badRequest(e.getMessage());
+        }
+        if (toMs <= fromMs || toMs - fromMs > MAX_EXPORT_MS) {
+            return badRequest("to must be after from, by at most " + (MAX_EXPORT_MS / 3_600_000L) + " hours");
+        }
+        CameraRecorder recorder = control.getCamera(id);
+        if (recorder == null) {
+            return notFound("Unknown camera: " + id);
+        }
+
+        File exportDir = new File(config.getRecordingBasePath(), ClipExporter.EXPORT_DIR);
+        File output = new File(exportDir, recorder.getCameraName() + "_"
+                + new SimpleDateFormat(EXPORT_NAME_PATTERN, Locale.US).format(fromMs)
+                + "_" + ((toMs - fromMs) / 1000) + "s" + (proxy ? "_proxy" : "") + ".mp4");
+        // Proxies have their segments' names and spans: the same plan, from the proxy directory
+        File source = proxy ? new File(recorder.getBasePath(), CameraRecorder.PROXY_DIR) : new File(recorder.getBasePath());
+        ExportJobs.Job job = exports.submit(id, fromMs, toMs, proxy, () -> {
+            // The segment being written when the job starts, not when it was queued
+            Set<String> open = new HashSet<>();
+            String current = proxy ? recorder.getProxyFilePath() : recorder.getCurrentFilePath();
+            if (recorder.isRecording() && current != null) {
+                open.add(new File(current).getAbsolutePath());
+            }
+            return ClipExporter.export(source, fromMs, toMs, open, output);
+        });
+        if (job == null) {
+            return ControlServer.Response.json(503, ControlServer.error("Too many exports pending, retry later"));
+        }
+        return ControlServer.Response.json(202, exportJson(job).toString());
+    }
+
+    private JsonObject exportsJson() {
+        JsonArray jobs = new JsonArray();
+        for (ExportJobs.Job job : exports.list()) {
+            jobs.add(exportJson(job));
+        }
+        JsonObject json = new JsonObject();
+        json.add("exports", jobs);
+        return json;
+    }
+
+    private static JsonObject exportJson(ExportJobs.Job job) {
+        JsonObject json = new JsonObject();
+        json.addProperty("job", job.id);
+        json.addProperty("status_url", "/export/" + job.id);
+        json.addProperty("id", job.camera);
+        json.addProperty("from", job.fromMs);
+        json.addProperty("to", job.toMs);
+        json.addProperty("proxy", job.proxy);
+        json.addProperty("state", job.state);
+        json.addProperty("created", job.createdMs);
+        if (job.isFinished()) {
+            json.addProperty("elapsed_ms", job.finishedMs - job.createdMs);
+        }
+        if (job.error != null) {
+            json.addProperty("error", job.error);
+        }
+        ClipExporter.Result result = job.result;
+        if (result != null) {
+            JsonArray files = new JsonArray();
+            for (File file : result.files) {
+                files.add(file.getAbsolutePath());
+            }
+            json.add("files", files);
+            json.addProperty("segments", result.segments);
+            json.addProperty("samples", result.samples);
+            json.addProperty("bytes", result.bytes);
+            json.addProperty("duration_ms", result.durationMs);
+        }
+        return json;
+    }
+
+    /**
+     * Covered time and holes of one camera over a range: an interval-set lookup, no file scan
+     */
+    private ControlServer.Response coverage(String id, Map<String, String> params) {
+        CameraRecorder recorder = control.getCamera(id);
+        if (recorder == null) {
+            return notFound("Unknown camera: " + id);
+        }
+        long fromMs;
+        long toMs;
+        long minHoleMs;
+        try {
+            toMs = params.containsKey("to") ? parseTime(params.get("to")) : RecorderClock.steadyTimeMillis();
+            fromMs = params.containsKey("from") ? parseTime(params.get("from")) : toMs - DEFAULT_COVERAGE_MS;
+            minHoleMs = params.containsKey("min_hole_ms") ? Long.parseLong(params.get("min_hole_ms")) : 0;
+        } catch (IllegalArgumentException e) {
+            return badRequest(e.getMessage());
+        }
+        if (toMs <= fromMs) {
+            return badRequest("to must be after from");
+        }
+
+        CoverageIndex index = control.getCoverage();
+        String camera = recorder.getDirectoryName();
+        long covered = index.coveredMs(camera, fromMs, toMs);
+        JsonArray holes = new JsonArray();
+        int total = 0;
+        for (CoverageIndex.Span hole : index.holes(camera, fromMs, toMs)) {
+            if (hole.durationMs() < minHoleMs) {
+                continue;
+            }
+            if (++total <= MAX_HOLES) {
+                JsonObject json = new JsonObject();
+                json.addProperty("from", hole.startMs);
+                json.addProperty("to", hole.endMs);
+                json.addProperty("duration_ms", hole.durationMs());
+                holes.add(json);
+            }
+        }
+        JsonObject json = new JsonObject();
+        json.addProperty("id", id);
+        json.addProperty("from", fromMs);
+        json.addProperty("to", toMs);
+        json.addProperty("covered_ms", covered);
+        json.addProperty("coverage", covered / (double) (toMs - fromMs));
+        json.addProperty("holes_total", total);
+        json.add("holes", holes);
+        return ok(json);
+    }
+
+    /**
+     * @return epoch ms of a number, or of "yyyy-MM-dd HH:mm:ss" in local time
+     */
+    private static long parseTime(JsonElement value) {
+        if (value.getAsJsonPrimitive().isNumber()) {
+            return value.getAsLong();
+        }
+        return parseTime(value.getAsString());
+    }
+
+    private static long parseTime(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            // formatted
+        }
+        SimpleDateFormat sdf = new SimpleDateFormat(EXPORT_TIME_PATTERN, Locale.US);
+        sdf.setLenient(false);
+        try {
+            return sdf.parse(value).getTime();
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("Times are epoch ms or \"" + EXPORT_TIME_PATTERN + "\": " + value);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int eq = pair.indexOf('=');
+            try {
+                String key = URLDecoder.decode(eq >= 0 ? pair.substring(0, eq) : pair, "UTF-8");
+                params.put(key, eq >= 0 ? URLDecoder.decode(pair.substring(eq + 1), "UTF-8") : "");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return params;
+    }
+
+    private static JsonObject parseObject(String body) {
+        try {
+            JsonElement element = JsonParser.parseString(body);
+            if (!element.isJsonObject()) {
+                throw new IllegalArgumentException("Body must be a JSON object");
+            }
+            return element.getAsJsonObject();
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Invalid JSON: " + e.getMessage());
+        }
+    }
+
+    private static List<String> singleton(String id) {
+        List<String> ids = new ArrayList<>(1);
+        ids.add(id);
+        return ids;
+    }
+
+    private static ControlServer.Response ok(JsonObject json) {
+        return ControlServer.Response.json(200, json.toString());
+    }
+
+    private static ControlServer.Response badRequest(String message) {
+        return ControlServer.Response.json(400, ControlServer.error(message));
+    }
+
+    private static ControlServer.Response notFound(String message) {
+        return ControlServer.Response.json(404, ControlServer.error(message));
+    }
+
+    private static ControlServer.Response methodNotAllowed() {
+        return ControlServer.Response.json(405, ControlServer.error("Method not allowed"));
+    }
+}
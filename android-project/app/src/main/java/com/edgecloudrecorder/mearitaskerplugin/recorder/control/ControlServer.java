@@ -0,0 +1,351 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.control;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.RecorderLogger;
+import com.google.gson.JsonObject;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal HTTP/1.1 server for the control API: one accept thread plus a small
+ * worker pool, persistent (keep-alive) connections, bounded request bodies and an
+ * optional shared token (header "X-Auth-Token" or "Authorization: Bearer ...").
+ * A connection holds its worker while it waits for the next request, so keep-alive
+ * only lasts a short idle time, and ends after the current response as soon as other
+ * connections are waiting for a worker.
+ * Listens on loopback unless an address is configured (see {@link ControlAccess}).
+ */
+public class ControlServer {
+    private static final String TAG = "ControlServer";
+    private static final int WORKER_THREADS = 4;
+    private static final int MAX_HEADER_BYTES = 8 * 1024;
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+    // Connections waiting for a worker beyond this are closed
+    private static final int MAX_QUEUED = 32;
+    // Deadline to receive a whole request (head and body) once it started, and the first
+    // one from accept; a client trickling bytes cannot hold a worker past it
+    private static final int REQUEST_TIMEOUT_MS = 15_000;
+    // Between requests on a kept-alive connection
+    private static final int KEEP_ALIVE_IDLE_MS = 2_000;
+
+    /**
+     * Request router; called on a worker thread
+     */
+    public interface Handler {
+        Response handle(String method, String path, String body);
+    }
+
+    public static final class Response {
+        public final int status;
+        public final String contentType;
+        public final String body;
+
+        public Response(int status, String contentType, String body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        public static Response json(int status, String body) {
+            return new Response(status, "application/json", body);
+        }
+
+        public static Response text(int status, String body) {
+            return new Response(status, "text/plain; charset=utf-8", body);
+        }
+    }
+
+    private final RecorderLogger logger = RecorderLogger.getInstance();
+    private final String address;
+    private final int port;
+    private final String token;
+    private final Handler handler;
+    private final AtomicInteger threadCount = new AtomicInteger();
+    // Accepted and not yet closed, queued or being served
+    private final AtomicInteger connections = new AtomicInteger();
+    private ServerSocket serverSocket;
+    private ExecutorService workers;
+    private Thread acceptThread;
+    private volatile boolean running;
+
+    /**
+     * @param address listen address, empty for loopback (any other needs a token)
+     */
+    public ControlServer(String address, int port, String token, Handler handler) {
+        this.address = address == null ? "" : address;
+        this.port = port;
+        this.token = token == null ? "" : token;
+        this.handler = handler;
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        InetAddress bind = ControlAccess.bindAddress(address, token, "control API");
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(bind, port));
+        workers = new ThreadPoolExecutor(WORKER_THREADS, WORKER_THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED), r -> {
+            Thread t = new Thread(r, "ControlWorker-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        running = true;
+        acceptThread = new Thread(this::acceptLoop, "ControlAccept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        logger.info(TAG, "Control API listening on " + bind.getHostAddress() + ":" + getPort());
+    }
+
+    public int getPort() {
+        ServerSocket socket = serverSocket;
+        return socket != null ? socket.getLocalPort() : port;
+    }
+
+    public synchronized void stop() {
+        running = false;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException ignored) {
+        }
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+        logger.info(TAG, "Control API stopped");
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                final Socket socket = serverSocket.accept();
+                final long acceptedNanos = System.nanoTime();
+                socket.setTcpNoDelay(true);
+                connections.incrementAndGet();
+                try {
+                    workers.execute(() -> serve(socket, acceptedNanos));
+                } catch (RejectedExecutionException e) {
+                    connections.decrementAndGet();
+                    closeQuietly(socket);
+                }
+            } catch (IOException e) {
+                if (running) {
+                    logger.error(TAG, "Accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * @param acceptedNanos when the connection was accepted: its first request is due
+     *                      {@link #REQUEST_TIMEOUT_MS} later
+     */
+    private void serve(Socket socket, long acceptedNanos) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            boolean keepAlive = true;
+            boolean first = true;
+            long deadlineNanos = acceptedNanos + TimeUnit.MILLISECONDS.toNanos(REQUEST_TIMEOUT_MS);
+            while (keepAlive && running) {
+                if (!first) {
+                    // Idle keep-alive: give the worker back soon if nothing comes
+                    socket.setSoTimeout(KEEP_ALIVE_IDLE_MS);
+                    in.mark(1);
+                    if (in.read() < 0) {
+                        break;
+                    }
+                    in.reset();
+                    deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(REQUEST_TIMEOUT_MS);
+                }
+                first = false;
+                String head = readHead(socket, in, deadlineNanos);
+                if (head == null) {
+                    break;
+                }
+                String[] lines = head.split("\r\n");
+                String[] requestLine = lines[0].split(" ");
+                if (requestLine.length < 3) {
+                    write(out, Response.json(400, error("Malformed request line")), false);
+                    break;
+                }
+                String method = requestLine[0].toUpperCase(Locale.US);
+                String path = requestLine[1];
+                keepAlive = !"HTTP/1.0".equals(requestLine[2]);
+
+                int contentLength = 0;
+                String authToken = null;
+                for (int i = 1; i < lines.length; i++) {
+                    int colon = lines[i].indexOf(':');
+                    if (colon <= 0) continue;
+                    String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.US);
+                    String value = lines[i].substring(colon + 1).trim();
+                    switch (name) {
+                        case "content-length":
+                            contentLength = Integer.parseInt(value);
+                            break;
+                        case "connection":
+                            keepAlive = !"close".equalsIgnoreCase(value);
+                            break;
+                        case "x-auth-token":
+                            authToken = value;
+                            break;
+                        case "authorization":
+                            if (value.startsWith("Bearer ")) authToken = value.substring(7).trim();
+                            break;
+                    }
+                }
+
+                if (contentLength < 0 || contentLength > MAX_BODY_BYTES) {
+                    write(out, Response.json(413, error("Body too large")), false);
+                    break;
+                }
+                String body = readBody(socket, in, contentLength, deadlineNanos);
+                if (body == null) {
+                    break;
+                }
+
+                Response response;
+                if (!ControlAccess.tokenMatches(token, authToken)) {
+                    response = Response.json(401, error("Missing or invalid token"));
+                } else {
+                    try {
+                        response = handler.handle(method, path, body);
+                    } catch (Exception e) {
+                        logger.error(TAG, "Handler failed for " + method + " " + path, e);
+                        response = Response.json(500, error(String.valueOf(e.getMessage())));
+                    }
+                }
+                if (connections.get() > WORKER_THREADS) {
+                    // Others are queued for a worker: hand this one over
+                    keepAlive = false;
+                }
+                write(out, response, keepAlive);
+            }
+        } catch (SocketTimeoutException | SocketException e) {
+            // idle keep-alive connection or client went away
+        } catch (IOException | NumberFormatException e) {
+            logger.warning(TAG, "Control connection error: " + e.getMessage());
+        } finally {
+            connections.decrementAndGet();
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Before a read that may block: wait no longer than is left until the deadline
+     * @throws SocketTimeoutException once it passed
+     */
+    private static void awaitUntil(Socket socket, InputStream in, long deadlineNanos) throws IOException {
+        if (in.available() > 0) {
+            return;
+        }
+        long leftMs = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        if (leftMs <= 0) {
+            throw new SocketTimeoutException("Request not received in " + REQUEST_TIMEOUT_MS + " ms");
+        }
+        socket.setSoTimeout((int) leftMs);
+    }
+
+    /**
+     * @return request line and headers without the trailing blank line, or null at EOF
+     */
+    private static String readHead(Socket socket, InputStream in, long deadlineNanos) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(512);
+        int matched = 0;
+        int b;
+        while (true) {
+            awaitUntil(socket, in, deadlineNanos);
+            if ((b = in.read()) == -1) {
+                break;
+            }
+            buffer.write(b);
+            // match \r\n\r\n
+            if ((matched % 2 == 0 && b == '\r') || (matched % 2 == 1 && b == '\n')) {
+                matched++;
+                if (matched == 4) {
+                    byte[] bytes = buffer.toByteArray();
+                    return new String(bytes, 0, bytes.length - 4, StandardCharsets.ISO_8859_1);
+                }
+            } else {
+                matched = b == '\r' ? 1 : 0;
+            }
+            if (buffer.size() > MAX_HEADER_BYTES) {
+                throw new IOException("Request header too large");
+            }
+        }
+        return null;
+    }
+
+    private static String readBody(Socket socket, InputStream in, int length, long deadlineNanos) throws IOException {
+        byte[] body = new byte[length];
+        int read = 0;
+        while (read < length) {
+            awaitUntil(socket, in, deadlineNanos);
+            int n = in.read(body, read, length - read);
+            if (n < 0) {
+                return null;
+            }
+            read += n;
+        }
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    private static void write(OutputStream out, Response response, boolean keepAlive) throws IOException {
+        byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+        String head = "HTTP/1.1 " + response.status + " " + reason(response.status) + "\r\n"
+                + "Content-Type: " + response.contentType + "\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n\r\n";
+        out.write(head.getBytes(StandardCharsets.ISO_8859_1));
+        out.write(body);
+        out.flush();
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 202: return "Accepted";
+            case 400: return "Bad Request";
+            case 401: return "Unauthorized";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 413: return "Payload Too Large";
+            case 503: return "Service Unavailable";
+            default: return status >= 500 ? "Internal Server Error" : "Status";
+        }
+    }
+
+    static String error(String message) {
+        JsonObject json = new JsonObject();
+        json.addProperty("error", message);
+        return json.toString();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.control;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.ClipExporter;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.RecorderLogger;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Clip exports of the control API, run one at a time on their own thread so a long copy
+ * never holds a control worker: {@code POST /export} queues a job and answers with its id
+ * at once, {@code GET /export/{job}} reports it. A few jobs may wait; the last finished
+ * ones are kept for their status.
+ */
+final class ExportJobs {
+    private static final String TAG = "ExportJobs";
+    // Queued or running
+    private static final int MAX_PENDING = 4;
+    private static final int KEPT_FINISHED = 32;
+
+    static final String QUEUED = "queued";
+    static final String RUNNING = "running";
+    static final String DONE = "done";
+    static final String FAILED = "failed";
+
+    static final class Job {
+        final String id;
+        final String camera;
+        final long fromMs;
+        final long toMs;
+        final boolean proxy;
+        final long createdMs = System.currentTimeMillis();
+        volatile String state = QUEUED;
+        volatile long finishedMs;
+        volatile ClipExporter.Result result;
+        volatile String error;
+
+        Job(String id, String camera, long fromMs, long toMs, boolean proxy) {
+            this.id = id;
+            this.camera = camera;
+            this.fromMs = fromMs;
+            this.toMs = toMs;
+            this.proxy = proxy;
+        }
+
+        boolean isFinished() {
+            return DONE.equals(state) || FAILED.equals(state);
+        }
+    }
+
+    private final RecorderLogger logger = RecorderLogger.getInstance();
+    private final Map<String, Job> jobs = new LinkedHashMap<>();
+    private final AtomicInteger sequence = new AtomicInteger();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "ClipExport");
+        t.setDaemon(true);
+        return t;
+    });
+    private int pending;
+
+    /**
+     * Queue an export
+     * @param work writes the clip; an empty result means no footage in range
+     * @return the job, or null if {@link #MAX_PENDING} are already queued or running
+     */
+    Job submit(String camera, long fromMs, long toMs, boolean proxy, Callable<ClipExporter.Result> work) {
+        Job job;
+        synchronized (jobs) {
+            if (pending >= MAX_PENDING) {
+                return null;
+            }
+            pending++;
+            job = new Job(String.valueOf(sequence.incrementAndGet()), camera, fromMs, toMs, proxy);
+            jobs.put(job.id, job);
+            prune();
+        }
+        executor.execute(() -> run(job, work));
+        return job;
+    }
+
+    Job get(String id) {
+        synchronized (jobs) {
+            return jobs.get(id);
+        }
+    }
+
+    List<Job> list() {
+        synchronized (jobs) {
+            return new ArrayList<>(jobs.values());
+        }
+    }
+
+    /**
+     * Stop with the service: the running export is interrupted and its partial file dropped
+     */
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void run(Job job, Callable<ClipExporter.Result> work) {
+        job.state = RUNNING;
+        try {
+            ClipExporter.Result result = work.call();
+            if (result.files.isEmpty()) {
+                job.error = "No footage of " + job.camera + " in range";
+                job.state = FAILED;
+            } else {
+                job.result = result;
+                job.state = DONE;
+            }
+        } catch (Exception e) {
+            logger.error(TAG, "Export " + job.id + " of " + job.camera + " failed", e);
+            job.error = "Export failed: " + e.getMessage();
+            job.state = FAILED;
+        } finally {
+            job.finishedMs = System.currentTimeMillis();
+            synchronized (jobs) {
+                pending--;
+            }
+        }
+    }
+
+    /**
+     * Forget the oldest finished jobs beyond {@link #KEPT_FINISHED}; caller holds {@code jobs}
+     */
+    private void prune() {
+        int finished = 0;
+        for (Job job : jobs.values()) {
+            if (job.isFinished()) {
+                finished++;
+            }
+        }
+        for (Iterator<Job> it = jobs.values().iterator(); it.hasNext() && finished > KEPT_FINISHED; ) {
+            if (it.next().isFinished()) {
+                it.remove();
+                finished--;
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.bench;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.CameraRecorder;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraDescriptor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Segment file naming. "simpleDateFormatPerCall" is the previous implementation
+ * (a new SimpleDateFormat for every segment), kept as reference.
+ */
+@State(Scope.Thread)
+public class FilePathBenchmark {
+    private CameraRecorder recorder;
+
+    @Setup
+    public void setUp() {
+        recorder = new CameraRecorder(new CameraDescriptor("BENCH0001", "Front Door", false), "/sdcard/Download/recording/");
+    }
+
+    @Benchmark
+    public String generateNewFilePath() {
+        return recorder.generateNewFilePath();
+    }
+
+    @Benchmark
+    public String simpleDateFormatPerCall() {
+        SimpleDateFormat sdf = new SimpleDateFormat("HH_mm_dd_MM_yyyy", Locale.US);
+        String timestamp = sdf.format(new Date());
+        return recorder.getBasePath() + recorder.getCameraName() + "_" + timestamp + ".mp4";
+    }
+}
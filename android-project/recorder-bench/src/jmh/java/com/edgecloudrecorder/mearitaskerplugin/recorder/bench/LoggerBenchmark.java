@@ -0,0 +1,47 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.bench;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.RecorderLogger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.File;
+import java.nio.file.Files;
+
+/**
+ * Caller-side cost of RecorderLogger with file logging on (console sink off):
+ * publishing into the ring, and the early-out below the minimum level
+ */
+@State(Scope.Benchmark)
+public class LoggerBenchmark {
+    private static final String TAG = "LoggerBenchmark";
+    private RecorderLogger logger;
+
+    @Setup
+    public void setUp() throws Exception {
+        File dir = Files.createTempDirectory("recorder-bench-logs").toFile();
+        logger = RecorderLogger.getInstance();
+        logger.setSink(RecorderLogger.NONE);
+        logger.setLevel(RecorderLogger.INFO);
+        logger.attachLogDirectory(dir);
+    }
+
+    @Benchmark
+    public void log() {
+        logger.log(TAG, "Recording continued successfully for Front_Door");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void logContended() {
+        logger.log(TAG, "Recording continued successfully for Front_Door");
+    }
+
+    @Benchmark
+    public void debugBelowLevel() {
+        logger.debug(TAG, "Recording continued successfully for Front_Door");
+    }
+}
@@ -0,0 +1,44 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.bench;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.LatencyHistogram;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.LifecycleMetrics;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.LogRingBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Ring buffer and histogram primitives used on every log line and lifecycle event
+ */
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+    private final LogRingBuffer ring = new LogRingBuffer(8192);
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final LifecycleMetrics metrics = LifecycleMetrics.getInstance();
+    private long value;
+
+    @Benchmark
+    public int ringOfferDrain(final Blackhole blackhole) {
+        ring.offer(1L, 2, "tag", "message", null);
+        return ring.drain(entry -> blackhole.consume(entry.message), 1);
+    }
+
+    @Benchmark
+    public void histogramRecord() {
+        histogram.record((value++ * 7919) & 0xFFFF);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void histogramRecordContended() {
+        histogram.record(1234);
+    }
+
+    @Benchmark
+    public void lifecycleRecord() {
+        metrics.record("BENCH0001", LifecycleMetrics.Phase.RECORD_START, LifecycleMetrics.now() - 5_000_000L, true);
+    }
+}
@@ -0,0 +1,47 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.bench;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.StreamIds;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Stream selection run at every preview start and rotation. "jsonPerCall" is the
+ * previous CommonUtils implementation (new JSONObject on every call), kept as reference.
+ */
+@State(Scope.Benchmark)
+public class StreamIdBenchmark {
+
+    @Param({"{\"0\":\"640*360\",\"1\":\"1280*720\",\"2\":\"1920*1080\",\"3\":\"2560*1440\"}",
+            "{\"0\":{\"w\":640,\"h\":360,\"fps\":15},\"1\":{\"w\":1920,\"h\":1080,\"fps\":20}}"})
+    public String bps2;
+
+    @Benchmark
+    public int streamIds() {
+        return StreamIds.select(0, 1, bps2, StreamIds.QUALITY_HD);
+    }
+
+    @Benchmark
+    public String jsonPerCall() {
+        String streamId = "1";
+        try {
+            JSONObject object = new JSONObject(bps2);
+            if (object.has("3")) {
+                streamId = "103";
+            } else if (object.has("2")) {
+                streamId = "102";
+            } else if (object.has("1")) {
+                streamId = "101";
+            } else if (object.has("0")) {
+                streamId = "100";
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return streamId;
+    }
+}
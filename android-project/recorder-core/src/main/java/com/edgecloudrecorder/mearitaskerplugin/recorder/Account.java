@@ -0,0 +1,124 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import java.util.Locale;
+
+/**
+ * Credentials of one Meari/CloudEdge account, keyed by a local name. The account built
+ * from the top-level config fields is named {@link #PRIMARY}; extra ones are stored
+ * encoded, in the same key=value;... style as camera profiles:
+ * username=me@example.com;password=secret;country=Italy;country_code=IT
+ * Values are percent-escaped for '%', ';' and '='.
+ */
+public final class Account {
+    public static final String PRIMARY = "default";
+
+    private final String name;
+    private final String username;
+    private final String password;
+    private final String country;
+    private final String countryCode;
+
+    public Account(String name, String username, String password, String country, String countryCode) {
+        this.name = name;
+        this.username = username;
+        this.password = password;
+        this.country = country;
+        this.countryCode = countryCode;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public String getCountry() {
+        return country;
+    }
+
+    public String getCountryCode() {
+        return countryCode;
+    }
+
+    public boolean hasCredentials() {
+        return username != null && password != null;
+    }
+
+    public String encode() {
+        StringBuilder sb = new StringBuilder();
+        append(sb, "username", username);
+        append(sb, "password", password);
+        append(sb, "country", country);
+        append(sb, "country_code", countryCode);
+        return sb.toString();
+    }
+
+    private static void append(StringBuilder sb, String key, String value) {
+        if (value == null) {
+            return;
+        }
+        if (sb.length() > 0) sb.append(';');
+        sb.append(key).append('=').append(escape(value));
+    }
+
+    /**
+     * Parse the encoded form.
+     * @throws IllegalArgumentException on malformed input or a bad name
+     */
+    public static Account decode(String name, String encoded) {
+        validateName(name);
+        String username = null;
+        String password = null;
+        String country = null;
+        String countryCode = null;
+        if (encoded != null && !encoded.trim().isEmpty()) {
+            for (String part : encoded.split(";")) {
+                int eq = part.indexOf('=');
+                if (eq <= 0) {
+                    throw new IllegalArgumentException("Bad account field: " + part);
+                }
+                String key = part.substring(0, eq).trim();
+                String value = unescape(part.substring(eq + 1));
+                switch (key) {
+                    case "username": username = value; break;
+                    case "password": password = value; break;
+                    case "country": country = value; break;
+                    case "country_code": countryCode = value; break;
+                    default:
+                        throw new IllegalArgumentException("Unknown account field: " + key);
+                }
+            }
+        }
+        return new Account(name, username, password, country, countryCode);
+    }
+
+    /**
+     * Names become pref keys and log tags: letters, digits, '-' and '_' only
+     * @throws IllegalArgumentException otherwise
+     */
+    public static void validateName(String name) {
+        if (name == null || !name.matches("[A-Za-z0-9_-]{1,32}")) {
+            throw new IllegalArgumentException("Bad account name: " + name);
+        }
+    }
+
+    private static String escape(String value) {
+        return value.replace("%", "%25").replace(";", "%3B").replace("=", "%3D");
+    }
+
+    private static String unescape(String value) {
+        return value.replace("%3B", ";").replace("%3D", "=").replace("%25", "%");
+    }
+
+    @Override
+    public String toString() {
+        // Never log the password
+        return String.format(Locale.US, "%s{user=%s, country=%s/%s}", name, username, country, countryCode);
+    }
+}
@@ -0,0 +1,272 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Global ingest budget (Mbit/s) shared by all cameras. Instead of every camera picking its
+ * stream on its own until the uplink saturates and all of them degrade at once, recording
+ * cameras are given a mode cap by priority: every one starts on LOW, then the highest
+ * priority ones are raised tier by tier (SD, then HD, never above what their schedule asks)
+ * while the total fits. Cameras whose LOW stream no longer fits take snapshots instead,
+ * lowest priority first.
+ *
+ * A stream's rate is what the camera recorded on it (bytes per second of its last
+ * segments), else what it advertises (bps2 resolution, see
+ * {@link com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraBackend#advertisedKbps}),
+ * else a per-mode default.
+ */
+public class BandwidthBudget {
+    // Weight of the newest segment in the measured rate
+    private static final double MEASURE_WEIGHT = 0.3;
+    // Shorter segments (rotation races, clip tails) say little about the rate
+    private static final long MIN_MEASURE_MS = 10_000;
+
+    /**
+     * A recording camera asking for bandwidth: its scheduled mode and the rate each mode
+     * would cost it, indexed by {@link CameraProfile.Mode#ordinal()}
+     */
+    public static final class Demand {
+        public final String cameraId;
+        public final int priority;
+        public final CameraProfile.Mode wanted;
+        final long[] kbps;
+
+        public Demand(String cameraId, int priority, CameraProfile.Mode wanted, long[] kbps) {
+            this.cameraId = cameraId;
+            this.priority = priority;
+            this.wanted = wanted;
+            this.kbps = kbps;
+        }
+
+        long kbps(CameraProfile.Mode mode) {
+            return kbps[mode.ordinal()];
+        }
+    }
+
+    private static BandwidthBudget instance;
+
+    private volatile long capKbps;
+    // Measured kbit/s per camera and stream ID
+    private final Map<String, Map<Integer, Long>> measured = new HashMap<>();
+    private final Map<String, CameraProfile.Mode> caps = new LinkedHashMap<>();
+    private final Map<String, Long> allocatedKbps = new LinkedHashMap<>();
+    // Cameras allocated less than their schedule asks
+    private final Set<String> capped = new HashSet<>();
+
+    private BandwidthBudget() {
+    }
+
+    public static synchronized BandwidthBudget getInstance() {
+        if (instance == null) {
+            instance = new BandwidthBudget();
+        }
+        return instance;
+    }
+
+    /**
+     * @param mbps total ingest, 0 for no limit
+     */
+    public void setCapMbps(int mbps) {
+        capKbps = Math.max(0, mbps) * 1000L;
+    }
+
+    public long getCapKbps() {
+        return capKbps;
+    }
+
+    /**
+     * Fallback rate of a mode when the camera has neither measured nor advertised it
+     */
+    public static long defaultKbps(CameraProfile.Mode mode) {
+        switch (mode) {
+            case HD:
+                return 2048;
+            case SD:
+                return 1024;
+            case LOW:
+                return 384;
+            case SNAPSHOT:
+                // ~2 s of the lowest stream per still
+                return 16;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Record what a finished segment cost: {@code bytes} over {@code durationMs} on a stream
+     */
+    public synchronized void observe(String cameraId, int streamId, long bytes, long durationMs) {
+        if (bytes <= 0 || durationMs < MIN_MEASURE_MS) {
+            return;
+        }
+        long kbps = bytes * 8 / durationMs;
+        Map<Integer, Long> streams = measured.get(cameraId);
+        if (streams == null) {
+            streams = new HashMap<>();
+            measured.put(cameraId, streams);
+        }
+        Long previous = streams.get(streamId);
+        streams.put(streamId, previous == null ? kbps
+                : Math.round(previous * (1 - MEASURE_WEIGHT) + kbps * MEASURE_WEIGHT));
+    }
+
+    /**
+     * @param advertisedKbps rate the camera advertises for the stream, 0 if unknown
+     * @return best known rate of a camera's stream for a mode
+     */
+    public synchronized long rateKbps(String cameraId, int streamId, int advertisedKbps, CameraProfile.Mode mode) {
+        if (mode == CameraProfile.Mode.SNAPSHOT) {
+            return defaultKbps(mode);
+        }
+        Map<Integer, Long> streams = measured.get(cameraId);
+        Long kbps = streams != null ? streams.get(streamId) : null;
+        if (kbps != null) {
+            return kbps;
+        }
+        return advertisedKbps > 0 ? advertisedKbps : defaultKbps(mode);
+    }
+
+    /**
+     * Re-allocate the caller's cameras. Allocations of {@code cameraIds} that are not in
+     * {@code demands} (idle, paused, gone) are dropped.
+     */
+    public synchronized void rebalance(Collection<String> cameraIds, List<Demand> demands) {
+        Map<String, CameraProfile.Mode> allocation = allocate(demands, capKbps);
+        for (String cameraId : cameraIds) {
+            caps.remove(cameraId);
+            allocatedKbps.remove(cameraId);
+            capped.remove(cameraId);
+        }
+        for (Demand demand : demands) {
+            CameraProfile.Mode mode = allocation.get(demand.cameraId);
+            if (mode.ordinal() < demand.wanted.ordinal()) {
+                capped.add(demand.cameraId);
+            }
+            caps.put(demand.cameraId, mode);
+            allocatedKbps.put(demand.cameraId, demand.kbps(mode));
+        }
+    }
+
+    /**
+     * @return the scheduled mode, lowered to the camera's allocation if it has one
+     */
+    public synchronized CameraProfile.Mode cap(String cameraId, CameraProfile.Mode scheduled) {
+        CameraProfile.Mode allowed = caps.get(cameraId);
+        return allowed != null && allowed.ordinal() < scheduled.ordinal() ? allowed : scheduled;
+    }
+
+    /**
+     * Modes by priority under the cap (0: everyone gets what it asks for)
+     */
+    static Map<String, CameraProfile.Mode> allocate(List<Demand> demands, long capKbps) {
+        Map<String, CameraProfile.Mode> allocation = new HashMap<>();
+        if (capKbps <= 0) {
+            for (Demand demand : demands) {
+                allocation.put(demand.cameraId, demand.wanted);
+            }
+            return allocation;
+        }
+        // Highest priority first; camera ID keeps the order stable between rebalances
+        List<Demand> ordered = new ArrayList<>(demands);
+        Collections.sort(ordered, (a, b) -> a.priority != b.priority
+                ? Integer.compare(b.priority, a.priority) : a.cameraId.compareTo(b.cameraId));
+
+        long used = 0;
+        for (Demand demand : ordered) {
+            CameraProfile.Mode floor = demand.wanted.ordinal() < CameraProfile.Mode.LOW.ordinal()
+                    ? demand.wanted : CameraProfile.Mode.LOW;
+            if (floor.isVideo() && used + demand.kbps(floor) > capKbps) {
+                floor = CameraProfile.Mode.SNAPSHOT;
+            }
+            allocation.put(demand.cameraId, floor);
+            used += demand.kbps(floor);
+        }
+
+        CameraProfile.Mode[] tiers = {CameraProfile.Mode.SD, CameraProfile.Mode.HD};
+        for (int start = 0; start < ordered.size(); ) {
+            // One priority level at a time, raised tier by tier so equals share fairly
+            int end = start;
+            while (end < ordered.size() && ordered.get(end).priority == ordered.get(start).priority) {
+                end++;
+            }
+            for (CameraProfile.Mode tier : tiers) {
+                for (Demand demand : ordered.subList(start, end)) {
+                    CameraProfile.Mode current = allocation.get(demand.cameraId);
+                    if (current.ordinal() != tier.ordinal() - 1 || demand.wanted.ordinal() < tier.ordinal()) {
+                        continue;
+                    }
+                    long extra = demand.kbps(tier) - demand.kbps(current);
+                    if (used + extra <= capKbps) {
+                        allocation.put(demand.cameraId, tier);
+                        used += extra;
+                    }
+                }
+            }
+            start = end;
+        }
+        return allocation;
+    }
+
+    public synchronized long getAllocatedKbps() {
+        long total = 0;
+        for (long kbps : allocatedKbps.values()) {
+            total += kbps;
+        }
+        return total;
+    }
+
+    /**
+     * @return the camera's current allocation, or null when it is not recording
+     */
+    public synchronized CameraProfile.Mode getCap(String cameraId) {
+        return caps.get(cameraId);
+    }
+
+    public synchronized long getAllocatedKbps(String cameraId) {
+        Long kbps = allocatedKbps.get(cameraId);
+        return kbps != null ? kbps : 0;
+    }
+
+    /**
+     * Cap, allocated total and how many cameras are below their scheduled mode
+     */
+    public synchronized String summary() {
+        long cap = capKbps;
+        return String.format(Locale.US, "=== Bandwidth ===%ncap=%s allocated=%.1fMbps cameras=%d capped=%d%n",
+                cap == 0 ? "none" : String.format(Locale.US, "%.0fMbps", cap / 1000.0),
+                getAllocatedKbps() / 1000.0, caps.size(), capped.size());
+    }
+
+    /**
+     * Summary, then per-camera allocation
+     */
+    public synchronized String dump() {
+        StringBuilder sb = new StringBuilder(summary());
+        for (Map.Entry<String, CameraProfile.Mode> entry : caps.entrySet()) {
+            sb.append(String.format(Locale.US, "%s mode=%s kbps=%d%n",
+                    entry.getKey(), entry.getValue(), allocatedKbps.get(entry.getKey())));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Forget everything (tests and simulator runs)
+     */
+    public synchronized void reset() {
+        measured.clear();
+        caps.clear();
+        allocatedKbps.clear();
+        capped.clear();
+        capKbps = 0;
+    }
+}
@@ -0,0 +1,157 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+/**
+ * How battery-powered cameras are recorded. Instead of keeping them connected 24/7 (endless
+ * connect/retry on a sleeping device, a P2P slot held per camera), each one is connected for
+ * a bounded clip once per duty cycle, and for a wake clip when the cloud reports it woke up
+ * (doorbell, motion). Slots are staggered by device ID and at most {@code concurrent} clips
+ * run at once.
+ *
+ * Encoded form (stored in prefs and accepted from ADB):
+ * every=60;clip=60;wake_clip=120;concurrent=2
+ * every = minutes between clips (0: wake events only), clip/wake_clip = seconds.
+ * "always" keeps battery cameras connected like the others.
+ */
+public final class BatteryPolicy {
+    public static final String ALWAYS = "always";
+    public static final BatteryPolicy ALWAYS_ON = new BatteryPolicy(true, 0, 0, 0, 0);
+    public static final BatteryPolicy DEFAULT = new BatteryPolicy(false, 60, 60, 120, 2);
+
+    private final boolean alwaysOn;
+    private final int everyMinutes;
+    private final int clipSeconds;
+    private final int wakeClipSeconds;
+    private final int concurrent;
+
+    public BatteryPolicy(int everyMinutes, int clipSeconds, int wakeClipSeconds, int concurrent) {
+        this(false, everyMinutes, clipSeconds, wakeClipSeconds, concurrent);
+        if (everyMinutes < 0 || clipSeconds < 1 || wakeClipSeconds < 1 || concurrent < 1) {
+            throw new IllegalArgumentException("Bad battery policy: " + encode());
+        }
+    }
+
+    private BatteryPolicy(boolean alwaysOn, int everyMinutes, int clipSeconds, int wakeClipSeconds, int concurrent) {
+        this.alwaysOn = alwaysOn;
+        this.everyMinutes = everyMinutes;
+        this.clipSeconds = clipSeconds;
+        this.wakeClipSeconds = wakeClipSeconds;
+        this.concurrent = concurrent;
+    }
+
+    /**
+     * @return true if battery cameras are recorded continuously (no duty cycle)
+     */
+    public boolean isAlwaysOn() {
+        return alwaysOn;
+    }
+
+    /**
+     * @return minutes between scheduled clips, 0 for wake events only
+     */
+    public int getEveryMinutes() {
+        return everyMinutes;
+    }
+
+    public int getClipSeconds() {
+        return clipSeconds;
+    }
+
+    public int getWakeClipSeconds() {
+        return wakeClipSeconds;
+    }
+
+    /**
+     * @return maximum battery clips recording at the same time
+     */
+    public int getConcurrent() {
+        return concurrent;
+    }
+
+    /**
+     * Wall-clock time of the camera's first slot at or after {@code nowMs}. Slots are
+     * spread over the cycle by device ID, so the fleet does not wake all at once.
+     * @return the slot, or Long.MAX_VALUE when there is no duty cycle
+     */
+    public long nextSlot(String deviceId, long nowMs) {
+        if (alwaysOn || everyMinutes == 0) {
+            return Long.MAX_VALUE;
+        }
+        long periodMs = everyMinutes * 60_000L;
+        long offset = (ShardRing.hash(deviceId) & Long.MAX_VALUE) % periodMs;
+        long slot = nowMs - Math.floorMod(nowMs - offset, periodMs);
+        return slot >= nowMs ? slot : slot + periodMs;
+    }
+
+    public String encode() {
+        if (alwaysOn) {
+            return ALWAYS;
+        }
+        return "every=" + everyMinutes + ";clip=" + clipSeconds + ";wake_clip=" + wakeClipSeconds
+                + ";concurrent=" + concurrent;
+    }
+
+    /**
+     * Parse the encoded form; missing fields keep their {@link #DEFAULT}, empty gives DEFAULT.
+     * @throws IllegalArgumentException on malformed input
+     */
+    public static BatteryPolicy decode(String encoded) {
+        if (encoded == null || encoded.trim().isEmpty()) {
+            return DEFAULT;
+        }
+        if (ALWAYS.equalsIgnoreCase(encoded.trim())) {
+            return ALWAYS_ON;
+        }
+        int every = DEFAULT.everyMinutes;
+        int clip = DEFAULT.clipSeconds;
+        int wakeClip = DEFAULT.wakeClipSeconds;
+        int concurrent = DEFAULT.concurrent;
+        for (String part : encoded.split(";")) {
+            int eq = part.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Bad battery policy field: " + part);
+            }
+            String key = part.substring(0, eq).trim();
+            int value;
+            try {
+                value = Integer.parseInt(part.substring(eq + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad battery policy value: " + part);
+            }
+            switch (key) {
+                case "every":
+                    every = value;
+                    break;
+                case "clip":
+                    clip = value;
+                    break;
+                case "wake_clip":
+                    wakeClip = value;
+                    break;
+                case "concurrent":
+                    concurrent = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown battery policy field: " + key);
+            }
+        }
+        return new BatteryPolicy(every, clip, wakeClip, concurrent);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof BatteryPolicy)) {
+            return false;
+        }
+        return encode().equals(((BatteryPolicy) o).encode());
+    }
+
+    @Override
+    public int hashCode() {
+        return encode().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+}
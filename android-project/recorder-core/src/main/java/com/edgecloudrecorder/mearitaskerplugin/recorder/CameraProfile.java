@@ -0,0 +1,290 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Per-camera recording profile keyed by device ID: default mode, segment length and
+ * daily time windows that override the mode (e.g. HD only 08:00-20:00, idle at night).
+ * SNAPSHOT takes a still every {@code snapshot} seconds instead of recording video.
+ * Under a bandwidth cap, higher {@code priority} cameras keep their quality first.
+ * With {@code proxy}, a low-res copy of every video segment is recorded alongside it.
+ *
+ * Encoded form (stored in prefs and accepted from ADB):
+ * quality=LOW;duration=5;snapshot=30;priority=1;proxy=1;windows=08:00-20:00=HD,20:00-23:00=SNAPSHOT,23:00-06:00=IDLE
+ * Windows may wrap over midnight; the first matching window wins.
+ */
+public final class CameraProfile {
+
+    public static final int DEFAULT_SNAPSHOT_SECONDS = 30;
+
+    public enum Mode {
+        IDLE, SNAPSHOT, LOW, SD, HD;
+
+        /**
+         * @return true if the camera is connected in this mode (video or snapshots)
+         */
+        public boolean isRecording() {
+            return this != IDLE;
+        }
+
+        public boolean isVideo() {
+            return this != IDLE && this != SNAPSHOT;
+        }
+    }
+
+    /**
+     * Daily window [startMinute, endMinute) in minutes since local midnight
+     */
+    public static final class Window {
+        public final int startMinute;
+        public final int endMinute;
+        public final Mode mode;
+
+        public Window(int startMinute, int endMinute, Mode mode) {
+            this.startMinute = startMinute;
+            this.endMinute = endMinute;
+            this.mode = mode;
+        }
+
+        public boolean contains(int minuteOfDay) {
+            if (startMinute <= endMinute) {
+                return minuteOfDay >= startMinute && minuteOfDay < endMinute;
+            }
+            return minuteOfDay >= startMinute || minuteOfDay < endMinute;
+        }
+
+        @Override
+        public String toString() {
+            return formatMinute(startMinute) + "-" + formatMinute(endMinute) + "=" + mode;
+        }
+    }
+
+    private final String deviceId;
+    private final Mode defaultMode; // null: use global quality
+    private final int durationMinutes; // 0: use global duration
+    private final int snapshotSeconds; // 0: DEFAULT_SNAPSHOT_SECONDS
+    private final int priority;
+    private final boolean proxy;
+    private final List<Window> windows;
+
+    public CameraProfile(String deviceId, Mode defaultMode, int durationMinutes, List<Window> windows) {
+        this(deviceId, defaultMode, durationMinutes, 0, windows);
+    }
+
+    public CameraProfile(String deviceId, Mode defaultMode, int durationMinutes, int snapshotSeconds,
+                         List<Window> windows) {
+        this(deviceId, defaultMode, durationMinutes, snapshotSeconds, 0, windows);
+    }
+
+    public CameraProfile(String deviceId, Mode defaultMode, int durationMinutes, int snapshotSeconds,
+                         int priority, List<Window> windows) {
+        this(deviceId, defaultMode, durationMinutes, snapshotSeconds, priority, false, windows);
+    }
+
+    public CameraProfile(String deviceId, Mode defaultMode, int durationMinutes, int snapshotSeconds,
+                         int priority, boolean proxy, List<Window> windows) {
+        if (snapshotSeconds < 0) {
+            throw new IllegalArgumentException("Negative snapshot interval: " + snapshotSeconds);
+        }
+        this.deviceId = deviceId;
+        this.defaultMode = defaultMode;
+        this.durationMinutes = durationMinutes;
+        this.snapshotSeconds = snapshotSeconds;
+        this.priority = priority;
+        this.proxy = proxy;
+        this.windows = Collections.unmodifiableList(new ArrayList<>(windows));
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public Mode getDefaultMode() {
+        return defaultMode;
+    }
+
+    public int getDurationMinutes() {
+        return durationMinutes;
+    }
+
+    /**
+     * @return seconds between stills in SNAPSHOT mode
+     */
+    public int getSnapshotSeconds() {
+        return snapshotSeconds > 0 ? snapshotSeconds : DEFAULT_SNAPSHOT_SECONDS;
+    }
+
+    /**
+     * @return bandwidth priority, higher first (default 0)
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return true to record the camera's lowest stream as a proxy next to each video segment
+     */
+    public boolean isProxy() {
+        return proxy;
+    }
+
+    public List<Window> getWindows() {
+        return windows;
+    }
+
+    /**
+     * @return the mode for the given minute of day, or null to follow the global quality
+     */
+    public Mode modeAt(int minuteOfDay) {
+        for (Window window : windows) {
+            if (window.contains(minuteOfDay)) {
+                return window.mode;
+            }
+        }
+        return defaultMode;
+    }
+
+    public String encode() {
+        StringBuilder sb = new StringBuilder();
+        if (defaultMode != null) {
+            sb.append("quality=").append(defaultMode);
+        }
+        if (durationMinutes > 0) {
+            if (sb.length() > 0) sb.append(';');
+            sb.append("duration=").append(durationMinutes);
+        }
+        if (snapshotSeconds > 0) {
+            if (sb.length() > 0) sb.append(';');
+            sb.append("snapshot=").append(snapshotSeconds);
+        }
+        if (priority != 0) {
+            if (sb.length() > 0) sb.append(';');
+            sb.append("priority=").append(priority);
+        }
+        if (proxy) {
+            if (sb.length() > 0) sb.append(';');
+            sb.append("proxy=1");
+        }
+        if (!windows.isEmpty()) {
+            if (sb.length() > 0) sb.append(';');
+            sb.append("windows=");
+            for (int i = 0; i < windows.size(); i++) {
+                if (i > 0) sb.append(',');
+                sb.append(windows.get(i));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parse the encoded form.
+     * @throws IllegalArgumentException on malformed input
+     */
+    public static CameraProfile decode(String deviceId, String encoded) {
+        Mode mode = null;
+        int duration = 0;
+        int snapshot = 0;
+        int priority = 0;
+        boolean proxy = false;
+        List<Window> windows = new ArrayList<>();
+        if (encoded != null && !encoded.trim().isEmpty()) {
+            for (String part : encoded.split(";")) {
+                int eq = part.indexOf('=');
+                if (eq <= 0) {
+                    throw new IllegalArgumentException("Bad profile field: " + part);
+                }
+                String key = part.substring(0, eq).trim();
+                String value = part.substring(eq + 1).trim();
+                switch (key) {
+                    case "quality":
+                        mode = parseMode(value);
+                        break;
+                    case "duration":
+                        duration = Integer.parseInt(value);
+                        if (duration < 0) {
+                            throw new IllegalArgumentException("Negative duration: " + value);
+                        }
+                        break;
+                    case "snapshot":
+                        snapshot = Integer.parseInt(value);
+                        break;
+                    case "priority":
+                        priority = Integer.parseInt(value);
+                        break;
+                    case "proxy":
+                        proxy = "1".equals(value) || "true".equalsIgnoreCase(value);
+                        break;
+                    case "windows":
+                        windows.addAll(parseWindows(value));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown profile field: " + key);
+                }
+            }
+        }
+        return new CameraProfile(deviceId, mode, duration, snapshot, priority, proxy, windows);
+    }
+
+    /**
+     * Parse "HH:mm-HH:mm=MODE,..." (empty string gives no windows). A window may wrap past
+     * midnight (23:00-06:00) and end at 24:00; one starting and ending at the same time
+     * would contain nothing and is rejected (the whole day is 00:00-24:00). Where windows
+     * overlap, the first one listed applies.
+     */
+    public static List<Window> parseWindows(String value) {
+        List<Window> windows = new ArrayList<>();
+        if (value == null || value.trim().isEmpty()) {
+            return windows;
+        }
+        for (String item : value.split(",")) {
+            int eq = item.indexOf('=');
+            int dash = item.indexOf('-');
+            if (eq < 0 || dash < 0 || dash > eq) {
+                throw new IllegalArgumentException("Bad window: " + item);
+            }
+            int start = parseMinute(item.substring(0, dash).trim(), false);
+            int end = parseMinute(item.substring(dash + 1, eq).trim(), true);
+            if (start == end) {
+                throw new IllegalArgumentException("Empty window: " + item);
+            }
+            windows.add(new Window(start, end, parseMode(item.substring(eq + 1).trim())));
+        }
+        return windows;
+    }
+
+    public static Mode parseMode(String value) {
+        try {
+            return Mode.valueOf(value.trim().toUpperCase(Locale.US));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown mode: " + value);
+        }
+    }
+
+    /**
+     * @param endOfDay accept 24:00 (only as the end of a window)
+     */
+    private static int parseMinute(String hhmm, boolean endOfDay) {
+        String[] parts = hhmm.split(":");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Bad time: " + hhmm);
+        }
+        int hours = Integer.parseInt(parts[0]);
+        int minutes = Integer.parseInt(parts[1]);
+        if (hours < 0 || hours > 24 || minutes < 0 || minutes > 59 || (hours == 24 && (minutes != 0 || !endOfDay))) {
+            throw new IllegalArgumentException("Bad time: " + hhmm);
+        }
+        return hours * 60 + minutes;
+    }
+
+    private static String formatMinute(int minute) {
+        return String.format(Locale.US, "%02d:%02d", minute / 60, minute % 60);
+    }
+
+    @Override
+    public String toString() {
+        return deviceId + "{" + encode() + "}";
+    }
+}
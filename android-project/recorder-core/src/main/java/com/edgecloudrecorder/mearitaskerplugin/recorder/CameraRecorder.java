@@ -0,0 +1,442 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraDescriptor;
+
+import java.io.File;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Represents a single camera recording session. A camera's files live in a directory
+ * named after its device ID (names are neither unique across accounts nor after
+ * sanitizing); the name is only a label, at the start of its file names.
+ */
+public class CameraRecorder {
+    private static final String TIMESTAMP_PATTERN = "HH_mm_dd_MM_yyyy";
+    private static final String SNAPSHOT_PATTERN = "yyyyMMdd_HHmmss";
+    public static final String SNAPSHOT_DIR = "snapshots";
+    // Low-res proxies of the video segments, under the same file names
+    public static final String PROXY_DIR = "proxy";
+    // Next to the camera directories: clips exported on request, never pruned
+    public static final String EXPORT_DIR = "exports";
+    
+    /**
+     * Formatted file timestamp for one wall-clock minute (the pattern has no seconds)
+     */
+    private static final class MinuteStamp {
+        final long minute;
+        final String text;
+        
+        MinuteStamp(long minute, String text) {
+            this.minute = minute;
+            this.text = text;
+        }
+    }
+    
+    private static volatile MinuteStamp lastStamp;
+    
+    private final CameraDescriptor camera;
+    private final String cameraName;
+    private final String directoryName;
+    private final String basePath;
+    private final String filePrefix;
+    private volatile boolean isRecording = false;
+    private volatile boolean shouldStop = false;
+    private String currentFilePath;
+    private volatile String lastSegmentPath;
+    private volatile String proxyFilePath;
+    private volatile long recordingStartNanos;
+    private volatile long recordingStartMs;
+    private volatile long failureStartNanos = 0;
+    private volatile ConfigSnapshot pendingConfig;
+    private volatile int streamId = -1;
+    private volatile Runnable pendingRotation;
+    private volatile long segmentDurationMs;
+    private volatile boolean idle = false;
+    private volatile boolean paused = false;
+    private volatile boolean shed = false;
+    private volatile boolean snapshotting = false;
+    private volatile long clipEndMs = 0;
+    private volatile long nextClipAtMs = 0;
+    private volatile int epoch = 0;
+    
+    public CameraRecorder(CameraDescriptor camera, String basePath) {
+        this(camera, basePath, basePath);
+    }
+    
+    /**
+     * @param stagingPath root segments are written under while open (see
+     *                    {@link SegmentPublisher}), basePath to write them in place
+     */
+    public CameraRecorder(CameraDescriptor camera, String basePath, String stagingPath) {
+        this.camera = camera;
+        this.cameraName = sanitizeCameraName(camera.getDeviceName());
+        this.directoryName = directoryOf(camera.getDeviceId());
+        this.basePath = basePath + directoryName + "/";
+        this.filePrefix = stagingPath + directoryName + "/" + cameraName + "_";
+    }
+    
+    public CameraDescriptor getCamera() {
+        return camera;
+    }
+    
+    public String getCameraName() {
+        return cameraName;
+    }
+    
+    public String getCameraId() {
+        return camera.getDeviceId();
+    }
+    
+    /**
+     * @return name of the camera's directory under the recordings root, which also keys
+     * its {@link CoverageIndex} spans
+     */
+    public String getDirectoryName() {
+        return directoryName;
+    }
+    
+    /**
+     * @return the directory name of a device ID: letters, digits and '-' as they are,
+     * anything else as '_' and its hex code, so distinct IDs never share a directory
+     */
+    static String directoryOf(String deviceId) {
+        StringBuilder sb = new StringBuilder(deviceId.length() + 8);
+        for (int i = 0; i < deviceId.length(); i++) {
+            char c = deviceId.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-') {
+                sb.append(c);
+            } else {
+                sb.append('_').append(Integer.toHexString(c)).append('_');
+            }
+        }
+        return sb.length() > 0 ? sb.toString() : "_";
+    }
+    
+    /**
+     * Footage recorded before directories were keyed by device ID is in a directory named
+     * after the camera: make it this camera's directory (one rename), unless that exists
+     * already. Call before the camera records, and only for cameras of the primary account,
+     * the only one there was then.
+     * @return true if the directory was moved
+     */
+    public boolean adoptNamedDirectory() {
+        File dir = new File(basePath);
+        File named = new File(dir.getParentFile(), cameraName);
+        if (named.equals(dir) || cameraName.equals(EXPORT_DIR) || !named.isDirectory() || dir.exists()) {
+            return false;
+        }
+        return named.renameTo(dir);
+    }
+    
+    public boolean isRecording() {
+        return isRecording;
+    }
+    
+    public void setRecording(boolean recording) {
+        this.isRecording = recording;
+    }
+    
+    public boolean shouldStop() {
+        return shouldStop;
+    }
+    
+    public void requestStop() {
+        this.shouldStop = true;
+    }
+    
+    public void resetStop() {
+        this.shouldStop = false;
+    }
+    
+    /**
+     * Path of a new still in SNAPSHOT mode:
+     * <basePath>/<device ID>/snapshots/<cameraName>_yyyyMMdd_HHmmss.jpg
+     * (grouped by the hour prefix when packed into a timelapse)
+     */
+    public String generateSnapshotPath() {
+        SimpleDateFormat sdf = new SimpleDateFormat(SNAPSHOT_PATTERN, Locale.US);
+        return basePath + SNAPSHOT_DIR + "/" + cameraName + "_"
+                + sdf.format(new Date(RecorderClock.currentTimeMillis())) + ".jpg";
+    }
+    
+    /**
+     * Generate new video file path with timestamp
+     * Format: /sdcard/recording/<device ID>/<cameraName>_HH_mm_DD_MM_YYYY.mp4
+     * (under the staging root instead while segments are staged)
+     */
+    public String generateNewFilePath() {
+        long now = RecorderClock.currentTimeMillis();
+        currentFilePath = filePrefix + timestamp(now) + ".mp4";
+        recordingStartNanos = RecorderClock.nanoTime();
+        recordingStartMs = RecorderClock.steadyTimeMillis();
+        return currentFilePath;
+    }
+    
+    /**
+     * File timestamp for this time; formatted once per minute and shared by all cameras
+     */
+    static String timestamp(long millis) {
+        long minute = millis / 60_000L;
+        MinuteStamp stamp = lastStamp;
+        if (stamp == null || stamp.minute != minute) {
+            SimpleDateFormat sdf = new SimpleDateFormat(TIMESTAMP_PATTERN, Locale.US);
+            stamp = new MinuteStamp(minute, sdf.format(new Date(millis)));
+            lastStamp = stamp;
+        }
+        return stamp.text;
+    }
+    
+    /**
+     * @return the minute a segment named <cameraName>_HH_mm_dd_MM_yyyy.mp4 was started in
+     * (epoch ms, local time), or -1 if the name has no such timestamp
+     */
+    public static long parseTimestamp(String fileName) {
+        int end = fileName.length() - ".mp4".length();
+        int start = end - TIMESTAMP_PATTERN.length();
+        if (!fileName.endsWith(".mp4") || start < 1 || fileName.charAt(start - 1) != '_') {
+            return -1;
+        }
+        SimpleDateFormat sdf = new SimpleDateFormat(TIMESTAMP_PATTERN, Locale.US);
+        sdf.setLenient(false);
+        try {
+            return sdf.parse(fileName.substring(start, end)).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+    
+    public String getCurrentFilePath() {
+        return currentFilePath;
+    }
+    
+    /**
+     * Path of the proxy of a video segment:
+     * <basePath>/<device ID>/proxy/<segment file name>
+     */
+    public static String proxyOf(String segmentPath) {
+        int slash = segmentPath.lastIndexOf('/');
+        return segmentPath.substring(0, slash + 1) + PROXY_DIR + "/" + segmentPath.substring(slash + 1);
+    }
+    
+    /**
+     * @return true if the file is a segment proxy (in a camera's proxy directory)
+     */
+    public static boolean isProxy(File file) {
+        File dir = file.getParentFile();
+        return dir != null && PROXY_DIR.equals(dir.getName());
+    }
+    
+    /**
+     * @return path of the proxy being recorded, null if none
+     */
+    public String getProxyFilePath() {
+        return proxyFilePath;
+    }
+    
+    public void setProxyFilePath(String proxyFilePath) {
+        this.proxyFilePath = proxyFilePath;
+    }
+    
+    /**
+     * @return path of the last segment that was closed, null if none yet
+     */
+    public String getLastSegmentPath() {
+        return lastSegmentPath;
+    }
+    
+    public void setLastSegmentPath(String lastSegmentPath) {
+        this.lastSegmentPath = lastSegmentPath;
+    }
+    
+    /**
+     * Time since the current segment was requested (monotonic: clock changes do not affect it)
+     */
+    public long getRecordingDuration() {
+        if (recordingStartMs == 0) return 0;
+        return (RecorderClock.nanoTime() - recordingStartNanos) / 1_000_000L;
+    }
+    
+    /**
+     * @return steady wall-clock time (see {@link RecorderClock#steadyTimeMillis()}) the current
+     * segment was requested at; its first frame comes a little later
+     */
+    public long getRecordingStartMs() {
+        return recordingStartMs;
+    }
+    
+    /**
+     * Remember when the camera first stopped recording (kept until recovery)
+     */
+    public void markFailure() {
+        if (failureStartNanos == 0) {
+            failureStartNanos = LifecycleMetrics.now();
+        }
+    }
+    
+    /**
+     * Carry a failure over from before a restart: failing for {@code failingForMs} already
+     */
+    public void restoreFailure(long failingForMs) {
+        long start = LifecycleMetrics.now() - Math.max(0, failingForMs) * 1_000_000L;
+        // 0 means healthy
+        failureStartNanos = start != 0 ? start : 1;
+    }
+    
+    /**
+     * @return monotonic time of the first failure since the last recovery, or 0 if healthy
+     */
+    public long getFailureStart() {
+        return failureStartNanos;
+    }
+    
+    /**
+     * Like {@link #getFailureStart()} but also clears it (recovered)
+     */
+    public long takeFailureStart() {
+        long start = failureStartNanos;
+        failureStartNanos = 0;
+        return start;
+    }
+    
+    /**
+     * Called when a new config snapshot is published; applied at the next safe point
+     * (segment rotation) by the service
+     */
+    public void onConfigChanged(ConfigSnapshot snapshot) {
+        this.pendingConfig = snapshot;
+    }
+    
+    /**
+     * @return the config published since the last call, or null if unchanged
+     */
+    public ConfigSnapshot takePendingConfig() {
+        ConfigSnapshot snapshot = pendingConfig;
+        pendingConfig = null;
+        return snapshot;
+    }
+    
+    public int getStreamId() {
+        return streamId;
+    }
+    
+    public void setStreamId(int streamId) {
+        this.streamId = streamId;
+    }
+    
+    /**
+     * Rotation (or next snapshot) runnable currently posted for this camera
+     */
+    public Runnable getPendingRotation() {
+        return pendingRotation;
+    }
+    
+    public void setPendingRotation(Runnable rotation) {
+        this.pendingRotation = rotation;
+    }
+    
+    /**
+     * Planned length of the current segment
+     */
+    public long getSegmentDurationMs() {
+        return segmentDurationMs;
+    }
+    
+    public void setSegmentDurationMs(long segmentDurationMs) {
+        this.segmentDurationMs = segmentDurationMs;
+    }
+    
+    /**
+     * Idle: disconnected on purpose by the profile schedule (not a failure)
+     */
+    public boolean isIdle() {
+        return idle;
+    }
+    
+    public void setIdle(boolean idle) {
+        this.idle = idle;
+        if (idle) {
+            epoch++;
+        }
+    }
+    
+    /**
+     * Paused by an operator through the control API; schedules do not wake it
+     */
+    public boolean isPaused() {
+        return paused;
+    }
+    
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+    
+    /**
+     * Shed: idled because the memory budget had no room for it; woken again when it fits
+     */
+    public boolean isShed() {
+        return shed;
+    }
+    
+    public void setShed(boolean shed) {
+        this.shed = shed;
+    }
+    
+    /**
+     * Snapshotting: in SNAPSHOT mode, taking stills instead of recording segments
+     */
+    public boolean isSnapshotting() {
+        return snapshotting;
+    }
+    
+    public void setSnapshotting(boolean snapshotting) {
+        this.snapshotting = snapshotting;
+    }
+    
+    /**
+     * Battery duty cycle: wall-clock end of the running clip, 0 when not in a clip
+     */
+    public long getClipEndMs() {
+        return clipEndMs;
+    }
+    
+    public void setClipEndMs(long clipEndMs) {
+        this.clipEndMs = clipEndMs;
+    }
+    
+    /**
+     * Battery duty cycle: wall-clock time of the next scheduled clip, 0 when not planned yet
+     */
+    public long getNextClipAtMs() {
+        return nextClipAtMs;
+    }
+    
+    public void setNextClipAtMs(long nextClipAtMs) {
+        this.nextClipAtMs = nextClipAtMs;
+    }
+    
+    /**
+     * Incremented each time the camera is idled, so callbacks and retries scheduled
+     * before can tell they are stale
+     */
+    public int getEpoch() {
+        return epoch;
+    }
+    
+    public String getBasePath() {
+        return basePath;
+    }
+    
+    /**
+     * Sanitize camera name for use in file paths
+     */
+    private String sanitizeCameraName(String name) {
+        if (name == null || name.isEmpty()) {
+            return "camera_" + camera.getDeviceId();
+        }
+        // Remove special characters and spaces
+        return name.replaceAll("[^a-zA-Z0-9_-]", "_");
+    }
+}
@@ -0,0 +1,71 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Resolves a wall-clock range of one camera to the segment files that may hold it, so an
+ * export opens only those instead of every file of the day. A segment's name gives the
+ * minute it was started in and its modification time when it was finalized; the exact
+ * start is its end minus its duration, which only the container knows (see
+ * {@link Segment#startMs(long)}).
+ */
+public final class ClipPlanner {
+
+    /**
+     * A finished segment file
+     */
+    public static final class Segment {
+        public final File file;
+        // Minute from the file name: the segment started in it or later
+        public final long nameMs;
+        // Finalized (moov written) at about this time
+        public final long modifiedMs;
+
+        Segment(File file, long nameMs, long modifiedMs) {
+            this.file = file;
+            this.nameMs = nameMs;
+            this.modifiedMs = modifiedMs;
+        }
+
+        /**
+         * @param durationMs the segment's duration from its container
+         * @return wall-clock time of its first frame
+         */
+        public long startMs(long durationMs) {
+            return Math.max(nameMs, modifiedMs - durationMs);
+        }
+    }
+
+    private ClipPlanner() {
+    }
+
+    /**
+     * Segments in a camera's directory that may overlap [fromMs, toMs], oldest first.
+     * Disk I/O (one directory listing): call off the scheduler thread.
+     * @param open absolute paths of files still being written (no moov yet), skipped
+     */
+    public static List<Segment> segments(File cameraDir, long fromMs, long toMs, Set<String> open) {
+        List<Segment> segments = new ArrayList<>();
+        File[] files = cameraDir.listFiles((dir, name) -> name.endsWith(".mp4"));
+        if (files == null) {
+            return segments;
+        }
+        for (File file : files) {
+            long nameMs = CameraRecorder.parseTimestamp(file.getName());
+            if (nameMs < 0 || nameMs > toMs || open.contains(file.getAbsolutePath())) {
+                continue;
+            }
+            long modifiedMs = file.lastModified();
+            if (modifiedMs >= fromMs) {
+                segments.add(new Segment(file, nameMs, modifiedMs));
+            }
+        }
+        Collections.sort(segments, (a, b) -> a.nameMs != b.nameMs
+                ? Long.compare(a.nameMs, b.nameMs) : Long.compare(a.modifiedMs, b.modifiedMs));
+        return segments;
+    }
+}
@@ -0,0 +1,426 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable, versioned view of the recorder configuration.
+ * A new snapshot (with a higher version) is published by {@link RecorderConfig}
+ * on every change; readers never touch SharedPreferences.
+ */
+public final class ConfigSnapshot {
+    private final long version;
+    private final int durationMinutes;
+    private final String videoQuality;
+    private final String username;
+    private final String password;
+    private final String country;
+    private final String countryCode;
+    private final Map<String, CameraProfile> profiles;
+    private final Map<String, Account> accounts;
+    private final int controlPort;
+    private final String controlToken;
+    private final String controlAddress;
+    private final int livePort;
+    private final int shardIndex;
+    private final int shardCount;
+    private final int memoryBudgetMb;
+    private final int bandwidthMbps;
+    private final BatteryPolicy batteryPolicy;
+    private final DiskPolicy diskPolicy;
+    private final UploadPolicy uploadPolicy;
+    private final String stagingPath;
+
+    private ConfigSnapshot(Builder builder) {
+        this.version = builder.version;
+        this.durationMinutes = builder.durationMinutes;
+        this.videoQuality = builder.videoQuality;
+        this.username = builder.username;
+        this.password = builder.password;
+        this.country = builder.country;
+        this.countryCode = builder.countryCode;
+        this.profiles = Collections.unmodifiableMap(new HashMap<>(builder.profiles));
+        this.accounts = Collections.unmodifiableMap(new TreeMap<>(builder.accounts));
+        this.controlPort = builder.controlPort;
+        this.controlToken = builder.controlToken;
+        this.controlAddress = builder.controlAddress;
+        this.livePort = builder.livePort;
+        this.shardIndex = builder.shardIndex;
+        this.shardCount = builder.shardCount;
+        this.memoryBudgetMb = builder.memoryBudgetMb;
+        this.bandwidthMbps = builder.bandwidthMbps;
+        this.batteryPolicy = builder.batteryPolicy;
+        this.diskPolicy = builder.diskPolicy;
+        this.uploadPolicy = builder.uploadPolicy;
+        this.stagingPath = builder.stagingPath;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int getDurationMinutes() {
+        return durationMinutes;
+    }
+
+    public String getVideoQuality() {
+        return videoQuality;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public String getCountry() {
+        return country;
+    }
+
+    public String getCountryCode() {
+        return countryCode;
+    }
+
+    /**
+     * @return the per-camera profile for this device ID, or null to use the global settings
+     */
+    public CameraProfile getProfile(String deviceId) {
+        return profiles.get(deviceId);
+    }
+
+    public Map<String, CameraProfile> getProfiles() {
+        return profiles;
+    }
+
+    /**
+     * @return the primary account (top-level credentials) followed by the extra accounts by name
+     */
+    public List<Account> getAccounts() {
+        List<Account> all = new ArrayList<>(accounts.size() + 1);
+        all.add(getAccount(Account.PRIMARY));
+        all.addAll(accounts.values());
+        return all;
+    }
+
+    /**
+     * @return the named account, or null if not configured
+     */
+    public Account getAccount(String name) {
+        if (Account.PRIMARY.equals(name)) {
+            return new Account(Account.PRIMARY, username, password, country, countryCode);
+        }
+        return accounts.get(name);
+    }
+
+    /**
+     * @return the extra accounts only, keyed by name
+     */
+    public Map<String, Account> getExtraAccounts() {
+        return accounts;
+    }
+
+    /**
+     * @return TCP port of the HTTP control API, 0 if disabled
+     */
+    public int getControlPort() {
+        return controlPort;
+    }
+
+    /**
+     * @return token required by the control API, empty for none
+     */
+    public String getControlToken() {
+        return controlToken;
+    }
+
+    /**
+     * @return address the control API and live streams listen on, empty for loopback
+     */
+    public String getControlAddress() {
+        return controlAddress;
+    }
+
+    /**
+     * @return TCP port of the HTTP-FLV live streams, 0 if disabled
+     */
+    public int getLivePort() {
+        return livePort;
+    }
+
+    /**
+     * @return this instance's index among {@link #getShardCount()} recorder instances
+     */
+    public int getShardIndex() {
+        return shardIndex;
+    }
+
+    /**
+     * @return number of recorder instances sharing the account, 1 when unsharded
+     */
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * @return true if this instance records the camera (see {@link ShardRing})
+     */
+    public boolean ownsCamera(String deviceId) {
+        return ShardRing.owns(shardIndex, shardCount, deviceId);
+    }
+
+    /**
+     * @return memory budget for camera streams in MB, 0 for automatic (see {@link ResourceManager})
+     */
+    public int getMemoryBudgetMb() {
+        return memoryBudgetMb;
+    }
+
+    /**
+     * @return total ingest cap in Mbit/s, 0 for none (see {@link BandwidthBudget})
+     */
+    public int getBandwidthMbps() {
+        return bandwidthMbps;
+    }
+
+    /**
+     * @return how battery-powered cameras are duty-cycled
+     */
+    public BatteryPolicy getBatteryPolicy() {
+        return batteryPolicy;
+    }
+
+    /**
+     * @return recording volume thresholds, shedding and retention
+     */
+    public DiskPolicy getDiskPolicy() {
+        return diskPolicy;
+    }
+
+    /**
+     * @return where closed segments are uploaded, {@link UploadPolicy#DEFAULT} (off) for nowhere
+     */
+    public UploadPolicy getUploadPolicy() {
+        return uploadPolicy;
+    }
+
+    /**
+     * @return directory segments are written to until they close (applied when the engine
+     * starts), empty to write them in place
+     */
+    public String getStagingPath() {
+        return stagingPath;
+    }
+
+    public boolean hasCredentials() {
+        return username != null && password != null;
+    }
+
+    /**
+     * @return a builder pre-filled with this snapshot, version bumped by one
+     */
+    public Builder toBuilder() {
+        return new Builder()
+                .setVersion(version + 1)
+                .setDurationMinutes(durationMinutes)
+                .setVideoQuality(videoQuality)
+                .setUsername(username)
+                .setPassword(password)
+                .setCountry(country)
+                .setCountryCode(countryCode)
+                .setProfiles(profiles)
+                .setAccounts(accounts)
+                .setControlPort(controlPort)
+                .setControlToken(controlToken)
+                .setControlAddress(controlAddress)
+                .setLivePort(livePort)
+                .setShard(shardIndex, shardCount)
+                .setMemoryBudgetMb(memoryBudgetMb)
+                .setBandwidthMbps(bandwidthMbps)
+                .setBatteryPolicy(batteryPolicy)
+                .setDiskPolicy(diskPolicy)
+                .setUploadPolicy(uploadPolicy)
+                .setStagingPath(stagingPath);
+    }
+
+    @Override
+    public String toString() {
+        return "ConfigSnapshot{v" + version + ", duration=" + durationMinutes + "min, quality=" + videoQuality
+                + ", user=" + username + ", country=" + country + "/" + countryCode
+                + ", profiles=" + profiles.size()
+                + (accounts.isEmpty() ? "" : ", extra_accounts=" + accounts.keySet())
+                + (shardCount > 1 ? ", shard=" + shardIndex + "/" + shardCount : "")
+                + (memoryBudgetMb > 0 ? ", memory_budget=" + memoryBudgetMb + "MB" : "")
+                + (bandwidthMbps > 0 ? ", bandwidth=" + bandwidthMbps + "Mbps" : "")
+                + (batteryPolicy.equals(BatteryPolicy.DEFAULT) ? "" : ", battery=" + batteryPolicy)
+                + (diskPolicy.equals(DiskPolicy.DEFAULT) ? "" : ", disk=" + diskPolicy)
+                + (uploadPolicy.isEnabled() ? ", upload=" + uploadPolicy : "")
+                + (stagingPath.isEmpty() ? "" : ", staging=" + stagingPath) + "}";
+    }
+
+    public static final class Builder {
+        private long version;
+        private int durationMinutes;
+        private String videoQuality;
+        private String username;
+        private String password;
+        private String country;
+        private String countryCode;
+        private final Map<String, CameraProfile> profiles = new HashMap<>();
+        private final Map<String, Account> accounts = new HashMap<>();
+        private int controlPort;
+        private String controlToken = "";
+        private String controlAddress = "";
+        private int livePort;
+        private int shardIndex;
+        private int shardCount = 1;
+        private int memoryBudgetMb;
+        private int bandwidthMbps;
+        private BatteryPolicy batteryPolicy = BatteryPolicy.DEFAULT;
+        private DiskPolicy diskPolicy = DiskPolicy.DEFAULT;
+        private UploadPolicy uploadPolicy = UploadPolicy.DEFAULT;
+        private String stagingPath = "";
+
+        public Builder setVersion(long version) {
+            this.version = version;
+            return this;
+        }
+
+        public Builder setDurationMinutes(int durationMinutes) {
+            this.durationMinutes = durationMinutes;
+            return this;
+        }
+
+        public Builder setVideoQuality(String videoQuality) {
+            this.videoQuality = videoQuality;
+            return this;
+        }
+
+        public Builder setUsername(String username) {
+            this.username = username;
+            return this;
+        }
+
+        public Builder setPassword(String password) {
+            this.password = password;
+            return this;
+        }
+
+        public Builder setCountry(String country) {
+            this.country = country;
+            return this;
+        }
+
+        public Builder setCountryCode(String countryCode) {
+            this.countryCode = countryCode;
+            return this;
+        }
+
+        public Builder setProfiles(Map<String, CameraProfile> profiles) {
+            this.profiles.clear();
+            this.profiles.putAll(profiles);
+            return this;
+        }
+
+        public Builder putProfile(CameraProfile profile) {
+            this.profiles.put(profile.getDeviceId(), profile);
+            return this;
+        }
+
+        public Builder removeProfile(String deviceId) {
+            this.profiles.remove(deviceId);
+            return this;
+        }
+
+        public Builder setAccounts(Map<String, Account> accounts) {
+            this.accounts.clear();
+            this.accounts.putAll(accounts);
+            return this;
+        }
+
+        /**
+         * Add or replace an extra account (not the primary one, which uses the top-level fields)
+         */
+        public Builder putAccount(Account account) {
+            if (Account.PRIMARY.equals(account.getName())) {
+                throw new IllegalArgumentException("Use the top-level credentials for " + Account.PRIMARY);
+            }
+            this.accounts.put(account.getName(), account);
+            return this;
+        }
+
+        public Builder removeAccount(String name) {
+            this.accounts.remove(name);
+            return this;
+        }
+
+        public Builder setControlPort(int controlPort) {
+            this.controlPort = controlPort;
+            return this;
+        }
+
+        public Builder setControlToken(String controlToken) {
+            this.controlToken = controlToken != null ? controlToken : "";
+            return this;
+        }
+
+        public Builder setControlAddress(String controlAddress) {
+            this.controlAddress = controlAddress != null ? controlAddress.trim() : "";
+            return this;
+        }
+
+        public Builder setLivePort(int livePort) {
+            this.livePort = livePort;
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException unless 0 <= index < count
+         */
+        public Builder setShard(int shardIndex, int shardCount) {
+            ShardRing.validate(shardIndex, shardCount);
+            this.shardIndex = shardIndex;
+            this.shardCount = shardCount;
+            return this;
+        }
+
+        public Builder setMemoryBudgetMb(int memoryBudgetMb) {
+            this.memoryBudgetMb = Math.max(0, memoryBudgetMb);
+            return this;
+        }
+
+        public Builder setBandwidthMbps(int bandwidthMbps) {
+            this.bandwidthMbps = Math.max(0, bandwidthMbps);
+            return this;
+        }
+
+        public Builder setBatteryPolicy(BatteryPolicy batteryPolicy) {
+            this.batteryPolicy = batteryPolicy != null ? batteryPolicy : BatteryPolicy.DEFAULT;
+            return this;
+        }
+
+        public Builder setDiskPolicy(DiskPolicy diskPolicy) {
+            this.diskPolicy = diskPolicy != null ? diskPolicy : DiskPolicy.DEFAULT;
+            return this;
+        }
+
+        public Builder setUploadPolicy(UploadPolicy uploadPolicy) {
+            this.uploadPolicy = uploadPolicy != null ? uploadPolicy : UploadPolicy.DEFAULT;
+            return this;
+        }
+
+        public Builder setStagingPath(String stagingPath) {
+            this.stagingPath = stagingPath != null ? stagingPath : "";
+            return this;
+        }
+
+        public ConfigSnapshot build() {
+            return new ConfigSnapshot(this);
+        }
+    }
+}
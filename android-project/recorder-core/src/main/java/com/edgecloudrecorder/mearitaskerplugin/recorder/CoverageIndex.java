@@ -0,0 +1,250 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Which wall-clock spans each camera has footage for, kept as merged intervals updated
+ * segment by segment, so "where are the holes in the last 7 days" is a tree lookup instead
+ * of a scan of the recordings. Spans come from the segments' stream timestamps (see
+ * {@link RecordingEngine}); footage deleted by retention is taken out again.
+ *
+ * Each camera's set is persisted in its directory as an append-only log (.coverage:
+ * "+start end" / "-start end" in epoch ms), replayed on first use and rewritten compacted
+ * once it holds many more lines than spans. Disk I/O: call off the scheduler thread.
+ */
+public class CoverageIndex {
+    private static final String TAG = "CoverageIndex";
+    public static final String FILE = ".coverage";
+    // Closer spans are one (timestamp rounding, not a hole)
+    private static final long MERGE_MS = 250;
+    private static final int COMPACT_MIN_LINES = 1000;
+
+    /**
+     * A span of time, [startMs, endMs)
+     */
+    public static final class Span {
+        public final long startMs;
+        public final long endMs;
+
+        Span(long startMs, long endMs) {
+            this.startMs = startMs;
+            this.endMs = endMs;
+        }
+
+        public long durationMs() {
+            return endMs - startMs;
+        }
+    }
+
+    private static final class Camera {
+        final TreeMap<Long, Long> spans = new TreeMap<>();
+        int logLines;
+    }
+
+    private final RecorderLogger logger = RecorderLogger.getInstance();
+    private final File root;
+    private final Map<String, Camera> cameras = new HashMap<>();
+
+    /**
+     * @param root recordings root; a camera's log lives in its directory under it
+     */
+    public CoverageIndex(File root) {
+        this.root = root;
+    }
+
+    /**
+     * Add a span of footage to a camera
+     * @param camera the camera's directory name ({@link CameraRecorder#getDirectoryName()})
+     */
+    public synchronized void add(String camera, long startMs, long endMs) {
+        if (endMs <= startMs) {
+            return;
+        }
+        Camera c = load(camera);
+        insert(c.spans, startMs, endMs);
+        append(camera, c, '+', startMs, endMs);
+    }
+
+    /**
+     * Take a span out (its footage was deleted)
+     */
+    public synchronized void remove(String camera, long startMs, long endMs) {
+        if (endMs <= startMs) {
+            return;
+        }
+        Camera c = load(camera);
+        erase(c.spans, startMs, endMs);
+        append(camera, c, '-', startMs, endMs);
+    }
+
+    /**
+     * @return covered spans overlapping [fromMs, toMs), clipped to it, oldest first
+     */
+    public synchronized List<Span> spans(String camera, long fromMs, long toMs) {
+        List<Span> spans = new ArrayList<>();
+        TreeMap<Long, Long> set = load(camera).spans;
+        Map.Entry<Long, Long> first = set.lowerEntry(fromMs);
+        Long from = first != null && first.getValue() > fromMs ? first.getKey() : Long.valueOf(fromMs);
+        for (Map.Entry<Long, Long> span : set.subMap(from, true, toMs, false).entrySet()) {
+            spans.add(new Span(Math.max(span.getKey(), fromMs), Math.min(span.getValue(), toMs)));
+        }
+        return spans;
+    }
+
+    /**
+     * @return uncovered spans of [fromMs, toMs), oldest first
+     */
+    public synchronized List<Span> holes(String camera, long fromMs, long toMs) {
+        List<Span> holes = new ArrayList<>();
+        long cursor = fromMs;
+        for (Span span : spans(camera, fromMs, toMs)) {
+            if (span.startMs > cursor) {
+                holes.add(new Span(cursor, span.startMs));
+            }
+            cursor = Math.max(cursor, span.endMs);
+        }
+        if (cursor < toMs) {
+            holes.add(new Span(cursor, toMs));
+        }
+        return holes;
+    }
+
+    public synchronized long coveredMs(String camera, long fromMs, long toMs) {
+        long covered = 0;
+        for (Span span : spans(camera, fromMs, toMs)) {
+            covered += span.durationMs();
+        }
+        return covered;
+    }
+
+    /**
+     * Forget the in-memory sets (their logs stay; tests and simulator runs)
+     */
+    public synchronized void clear() {
+        cameras.clear();
+    }
+
+    private static void insert(TreeMap<Long, Long> set, long start, long end) {
+        // Absorb every span within MERGE_MS of [start, end)
+        Map.Entry<Long, Long> before = set.floorEntry(start);
+        if (before != null && before.getValue() + MERGE_MS >= start) {
+            start = before.getKey();
+            end = Math.max(end, before.getValue());
+        }
+        NavigableMap<Long, Long> touched = set.subMap(start, true, end + MERGE_MS, true);
+        for (Long value : touched.values()) {
+            end = Math.max(end, value);
+        }
+        touched.clear();
+        set.put(start, end);
+    }
+
+    private static void erase(TreeMap<Long, Long> set, long start, long end) {
+        Map.Entry<Long, Long> before = set.lowerEntry(start);
+        if (before != null && before.getValue() > start) {
+            set.put(before.getKey(), start);
+            if (before.getValue() > end) {
+                set.put(end, before.getValue());
+                return;
+            }
+        }
+        NavigableMap<Long, Long> inside = set.subMap(start, true, end, false);
+        Map.Entry<Long, Long> last = inside.lastEntry();
+        inside.clear();
+        if (last != null && last.getValue() > end) {
+            set.put(end, last.getValue());
+        }
+    }
+
+    private Camera load(String camera) {
+        Camera c = cameras.get(camera);
+        if (c != null) {
+            return c;
+        }
+        c = new Camera();
+        cameras.put(camera, c);
+        File log = logOf(camera);
+        if (!log.isFile()) {
+            return c;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(log))) {
+            for (String line; (line = reader.readLine()) != null; ) {
+                int space = line.indexOf(' ');
+                if (line.length() < 4 || space < 2) {
+                    // Torn last line after a crash
+                    continue;
+                }
+                try {
+                    long start = Long.parseLong(line.substring(1, space));
+                    long end = Long.parseLong(line.substring(space + 1));
+                    if (end <= start) {
+                        // Torn mid-number
+                        continue;
+                    }
+                    if (line.charAt(0) == '+') {
+                        insert(c.spans, start, end);
+                    } else if (line.charAt(0) == '-') {
+                        erase(c.spans, start, end);
+                    }
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                c.logLines++;
+            }
+        } catch (IOException e) {
+            logger.error(TAG, "Cannot read coverage of " + camera + ": " + e.getMessage());
+        }
+        return c;
+    }
+
+    private void append(String camera, Camera c, char op, long startMs, long endMs) {
+        File log = logOf(camera);
+        if (c.logLines >= COMPACT_MIN_LINES && c.logLines > 4 * c.spans.size() && compact(log, c)) {
+            return;
+        }
+        try (Writer writer = new FileWriter(log, true)) {
+            writer.write(op + Long.toString(startMs) + ' ' + endMs + '\n');
+            c.logLines++;
+        } catch (IOException e) {
+            logger.warning(TAG, "Cannot log coverage of " + camera + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Rewrite the log as the current spans (the change just applied included)
+     * @return false if the log was left as it was
+     */
+    private boolean compact(File log, Camera c) {
+        File partial = new File(log.getPath() + ".part");
+        try (Writer writer = new FileWriter(partial, false)) {
+            for (Map.Entry<Long, Long> span : c.spans.entrySet()) {
+                writer.write("+" + span.getKey() + ' ' + span.getValue() + '\n');
+            }
+        } catch (IOException e) {
+            logger.warning(TAG, "Cannot compact " + log + ": " + e.getMessage());
+            partial.delete();
+            return false;
+        }
+        if (!partial.renameTo(log)) {
+            partial.delete();
+            return false;
+        }
+        c.logLines = c.spans.size();
+        return true;
+    }
+
+    private File logOf(String camera) {
+        return new File(new File(root, camera), FILE);
+    }
+}
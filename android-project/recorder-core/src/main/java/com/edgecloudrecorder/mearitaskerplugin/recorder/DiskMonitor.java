@@ -0,0 +1,271 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Pressure on the recording volume, from free space and the latency of a small synced
+ * probe write. When /sdcard nears full every startRecordMP4 fails at once; instead the
+ * engine reads the level on each schedule tick (and after a failed recording start) and
+ * sheds by priority before that happens:
+ * LOW       cameras with priority <= 0 drop to the LOW stream, oldest footage is pruned
+ * CRITICAL  cameras with priority <= 0 stop; higher priorities keep recording
+ * FULL      every camera stops until space is back (no retry storm)
+ * Levels are left with a 10% margin, on free space and on write latency alike, so a
+ * camera is not bounced on every tick. Free space is read on every sample, the probe write
+ * at most once a minute.
+ */
+public class DiskMonitor {
+    private static final long MB = 1024L * 1024L;
+    // Below this nothing can be recorded at all
+    private static final long FULL_BYTES = 64 * MB;
+    private static final double RELEASE_MARGIN = 1.1;
+    // Weight of the newest probe in the write latency
+    private static final double LATENCY_WEIGHT = 0.3;
+    private static final long PROBE_INTERVAL_NANOS = 60_000_000_000L;
+
+    public enum Level {
+        OK, LOW, CRITICAL, FULL
+    }
+
+    /**
+     * The volume recordings are written to
+     */
+    public interface Volume {
+        long usableBytes();
+
+        long totalBytes();
+
+        /**
+         * @return ms taken by a small write synced to the volume, -1 if it failed
+         */
+        long probeWriteMs();
+    }
+
+    /**
+     * No volume installed: never under pressure
+     */
+    public static final Volume UNLIMITED = new Volume() {
+        @Override
+        public long usableBytes() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public long totalBytes() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public long probeWriteMs() {
+            return 0;
+        }
+    };
+
+    /**
+     * A directory on a real file system; the probe writes 64 KB to a hidden file in another
+     * directory of the same volume, out of the recordings that sync and watchers look at
+     */
+    public static final class FileVolume implements Volume {
+        private static final int PROBE_BYTES = 64 * 1024;
+        private final File dir;
+        private final File probeDir;
+        private final byte[] probe = new byte[PROBE_BYTES];
+
+        /**
+         * @param dir      recordings root, whose free space is measured
+         * @param probeDir where the probe is written, on the same volume as {@code dir}
+         */
+        public FileVolume(File dir, File probeDir) {
+            this.dir = dir;
+            this.probeDir = probeDir;
+        }
+
+        @Override
+        public long usableBytes() {
+            return dir.getUsableSpace();
+        }
+
+        @Override
+        public long totalBytes() {
+            return dir.getTotalSpace();
+        }
+
+        @Override
+        public long probeWriteMs() {
+            File file = new File(probeDir, ".disk_probe");
+            long start = System.nanoTime();
+            try (FileOutputStream out = new FileOutputStream(file, false)) {
+                out.write(probe);
+                out.getFD().sync();
+            } catch (IOException e) {
+                return -1;
+            } finally {
+                file.delete();
+            }
+            return (System.nanoTime() - start) / 1_000_000L;
+        }
+    }
+
+    private static DiskMonitor instance;
+
+    private volatile Volume volume = UNLIMITED;
+    private volatile Level level = Level.OK;
+    private volatile long usableBytes = Long.MAX_VALUE;
+    private volatile long writeMs;
+    private boolean probeFailed;
+    private long lastProbeNanos;
+    private boolean probed;
+    private long prunedBytes;
+    private long prunedFiles;
+    private long pressureEvents;
+
+    private DiskMonitor() {
+    }
+
+    public static synchronized DiskMonitor getInstance() {
+        if (instance == null) {
+            instance = new DiskMonitor();
+        }
+        return instance;
+    }
+
+    public synchronized void setVolume(Volume volume) {
+        this.volume = volume != null ? volume : UNLIMITED;
+        probed = false;
+    }
+
+    /**
+     * Measure the volume and update the level. Does disk I/O: call off the scheduler thread.
+     * @return the new level
+     */
+    public Level sample(DiskPolicy policy) {
+        Volume current = volume;
+        long usable = current.usableBytes();
+        long probeMs = 0;
+        boolean probe = current != UNLIMITED && probeDue();
+        if (probe) {
+            probeMs = current.probeWriteMs();
+        }
+        synchronized (this) {
+            usableBytes = usable;
+            if (probe) {
+                probeFailed = probeMs < 0;
+                if (probeMs >= 0) {
+                    writeMs = writeMs == 0 ? probeMs : Math.round(writeMs * (1 - LATENCY_WEIGHT) + probeMs * LATENCY_WEIGHT);
+                }
+            }
+            Level raw = levelFor(usable, writeMs, probeFailed, policy);
+            Level next = raw;
+            if (raw.ordinal() < level.ordinal()) {
+                // Improving: only as far as it clearly is, with the margin on both measures
+                Level clear = levelFor((long) (usable / RELEASE_MARGIN), Math.round(writeMs * RELEASE_MARGIN),
+                        probeFailed, policy);
+                next = clear.ordinal() < level.ordinal() ? clear : level;
+            }
+            if (next.ordinal() > Level.OK.ordinal() && level == Level.OK) {
+                pressureEvents++;
+            }
+            level = next;
+            return next;
+        }
+    }
+
+    /**
+     * @return true (and the probe counted as taken) if the last one is a minute old
+     */
+    private synchronized boolean probeDue() {
+        long now = RecorderClock.nanoTime();
+        if (probed && now - lastProbeNanos < PROBE_INTERVAL_NANOS) {
+            return false;
+        }
+        probed = true;
+        lastProbeNanos = now;
+        return true;
+    }
+
+    private static Level levelFor(long usable, long writeMs, boolean writeFailed, DiskPolicy policy) {
+        if (usable < FULL_BYTES || writeFailed) {
+            return Level.FULL;
+        }
+        if (usable < policy.getCriticalMb() * MB) {
+            return Level.CRITICAL;
+        }
+        if (usable < policy.getReserveMb() * MB
+                || (policy.getSlowWriteMs() > 0 && writeMs > policy.getSlowWriteMs())) {
+            return Level.LOW;
+        }
+        return Level.OK;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public long getUsableBytes() {
+        return usableBytes;
+    }
+
+    public long getWriteMs() {
+        return writeMs;
+    }
+
+    /**
+     * @return bytes to delete to get back above the reserve with margin, 0 without pressure
+     */
+    public long bytesToFree(DiskPolicy policy) {
+        if (level == Level.OK || usableBytes == Long.MAX_VALUE) {
+            return 0;
+        }
+        long target = (long) (policy.getReserveMb() * MB * RELEASE_MARGIN);
+        return Math.max(0, target - usableBytes);
+    }
+
+    /**
+     * @return the mode a camera of this priority may record in at the current level
+     */
+    public CameraProfile.Mode cap(int priority, CameraProfile.Mode mode) {
+        switch (level) {
+            case FULL:
+                return CameraProfile.Mode.IDLE;
+            case CRITICAL:
+                return priority > 0 ? mode : CameraProfile.Mode.IDLE;
+            case LOW:
+                return priority > 0 || mode.ordinal() <= CameraProfile.Mode.LOW.ordinal()
+                        ? mode : CameraProfile.Mode.LOW;
+            default:
+                return mode;
+        }
+    }
+
+    public synchronized void countPruned(long files, long bytes) {
+        prunedFiles += files;
+        prunedBytes += bytes;
+    }
+
+    /**
+     * Level, free space, write latency, pressure episodes and footage pruned
+     */
+    public synchronized String summary() {
+        return String.format(Locale.US, "=== Disk ===%nlevel=%s free=%s write=%dms pressure_events=%d pruned=%d files/%.1fMB%n",
+                level, usableBytes == Long.MAX_VALUE ? "unlimited" : String.format(Locale.US, "%.0fMB", usableBytes / (double) MB),
+                writeMs, pressureEvents, prunedFiles, prunedBytes / (double) MB);
+    }
+
+    /**
+     * Forget everything (tests and simulator runs)
+     */
+    public synchronized void reset() {
+        volume = UNLIMITED;
+        level = Level.OK;
+        usableBytes = Long.MAX_VALUE;
+        writeMs = 0;
+        probeFailed = false;
+        probed = false;
+        prunedBytes = 0;
+        prunedFiles = 0;
+        pressureEvents = 0;
+    }
+}
@@ -0,0 +1,139 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+/**
+ * Thresholds of the recording volume (see {@link DiskMonitor}) and what to do about them.
+ * Below {@code reserve} MB free (or when a probe write is slower than {@code slow_write_ms})
+ * low-priority cameras drop to LOW; below {@code critical} MB they stop until space is back.
+ * With {@code prune=1} the oldest footage is deleted as soon as there is pressure, loop
+ * recorder style; {@code retention_hours} > 0 also deletes footage older than that.
+ *
+ * Encoded form (stored in prefs and accepted from ADB):
+ * reserve=2048;critical=512;slow_write_ms=2000;retention_hours=0;prune=1
+ */
+public final class DiskPolicy {
+    public static final DiskPolicy DEFAULT = new DiskPolicy(2048, 512, 2000, 0, true);
+
+    private final int reserveMb;
+    private final int criticalMb;
+    private final int slowWriteMs;
+    private final int retentionHours;
+    private final boolean prune;
+
+    public DiskPolicy(int reserveMb, int criticalMb, int slowWriteMs, int retentionHours, boolean prune) {
+        if (criticalMb < 0 || reserveMb < criticalMb || slowWriteMs < 0 || retentionHours < 0) {
+            throw new IllegalArgumentException("Bad disk policy: reserve=" + reserveMb + " critical=" + criticalMb
+                    + " slow_write_ms=" + slowWriteMs + " retention_hours=" + retentionHours);
+        }
+        this.reserveMb = reserveMb;
+        this.criticalMb = criticalMb;
+        this.slowWriteMs = slowWriteMs;
+        this.retentionHours = retentionHours;
+        this.prune = prune;
+    }
+
+    /**
+     * @return free MB below which low-priority cameras are downshifted (backpressure)
+     */
+    public int getReserveMb() {
+        return reserveMb;
+    }
+
+    /**
+     * @return free MB below which low-priority cameras stop recording
+     */
+    public int getCriticalMb() {
+        return criticalMb;
+    }
+
+    /**
+     * @return probe write latency that counts as pressure, 0 to ignore latency
+     */
+    public int getSlowWriteMs() {
+        return slowWriteMs;
+    }
+
+    /**
+     * @return age in hours after which footage is deleted, 0 to keep it
+     */
+    public int getRetentionHours() {
+        return retentionHours;
+    }
+
+    /**
+     * @return true to delete the oldest footage while the volume is under pressure
+     */
+    public boolean isPrune() {
+        return prune;
+    }
+
+    public String encode() {
+        return "reserve=" + reserveMb + ";critical=" + criticalMb + ";slow_write_ms=" + slowWriteMs
+                + ";retention_hours=" + retentionHours + ";prune=" + (prune ? 1 : 0);
+    }
+
+    /**
+     * Parse the encoded form; missing fields keep their {@link #DEFAULT}, empty gives DEFAULT.
+     * @throws IllegalArgumentException on malformed input
+     */
+    public static DiskPolicy decode(String encoded) {
+        if (encoded == null || encoded.trim().isEmpty()) {
+            return DEFAULT;
+        }
+        int reserve = DEFAULT.reserveMb;
+        int critical = DEFAULT.criticalMb;
+        int slowWrite = DEFAULT.slowWriteMs;
+        int retention = DEFAULT.retentionHours;
+        boolean prune = DEFAULT.prune;
+        for (String part : encoded.split(";")) {
+            int eq = part.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Bad disk policy field: " + part);
+            }
+            String key = part.substring(0, eq).trim();
+            int value;
+            try {
+                value = Integer.parseInt(part.substring(eq + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad disk policy value: " + part);
+            }
+            switch (key) {
+                case "reserve":
+                    reserve = value;
+                    break;
+                case "critical":
+                    critical = value;
+                    break;
+                case "slow_write_ms":
+                    slowWrite = value;
+                    break;
+                case "retention_hours":
+                    retention = value;
+                    break;
+                case "prune":
+                    prune = value != 0;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown disk policy field: " + key);
+            }
+        }
+        return new DiskPolicy(reserve, critical, slowWrite, retention, prune);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof DiskPolicy)) {
+            return false;
+        }
+        return encode().equals(((DiskPolicy) o).encode());
+    }
+
+    @Override
+    public int hashCode() {
+        return encode().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+}
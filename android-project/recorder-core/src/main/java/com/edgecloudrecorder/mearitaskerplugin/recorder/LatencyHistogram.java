@@ -0,0 +1,113 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-memory log-linear latency histogram (HdrHistogram-style bucketing).
+ * Values below 2^SUB_BUCKET_BITS are exact; above that each power of two is split
+ * into 2^SUB_BUCKET_BITS linear sub-buckets (~3% relative error).
+ * Recording is lock-free and allocation-free.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 31; // values are clamped to < 2^32
+
+    private final AtomicLongArray counts;
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalSum = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    public LatencyHistogram() {
+        counts = new AtomicLongArray(indexOf((1L << (MAX_EXPONENT + 1)) - 1) + 1);
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(indexOf(value));
+        totalCount.incrementAndGet();
+        totalSum.addAndGet(value);
+        long max;
+        while (value > (max = maxValue.get())) {
+            if (maxValue.compareAndSet(max, value)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    public long getMax() {
+        return maxValue.get();
+    }
+
+    public double getMean() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : (double) totalSum.get() / count;
+    }
+
+    /**
+     * @param percentile 0..100
+     * @return upper bound of the bucket holding the given percentile, 0 if empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(count * Math.min(100.0, percentile) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValueAt(i), maxValue.get());
+            }
+        }
+        return maxValue.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        totalSum.set(0);
+        maxValue.set(0);
+    }
+
+    /**
+     * One-line summary: count, mean, p50, p90, p99, max.
+     */
+    public String summary() {
+        return String.format(java.util.Locale.US, "n=%d mean=%.0f p50=%d p90=%d p99=%d max=%d",
+                getCount(), getMean(), getValueAtPercentile(50), getValueAtPercentile(90),
+                getValueAtPercentile(99), getMax());
+    }
+
+    static int indexOf(long value) {
+        if (value >= (1L << (MAX_EXPONENT + 1))) {
+            value = (1L << (MAX_EXPONENT + 1)) - 1;
+        }
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int mantissa = (int) (value >>> shift);
+        return (shift + 1) * SUB_BUCKET_COUNT + (mantissa - SUB_BUCKET_COUNT);
+    }
+
+    static long highestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long mantissa = (index % SUB_BUCKET_COUNT) + SUB_BUCKET_COUNT;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,202 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-phase latency histograms and per-camera span timelines for the camera
+ * lifecycle (login, connect, preview, record start, rotation, retry delays).
+ * Durations are measured with the monotonic clock ({@link #now()}) in milliseconds.
+ *
+ * Dump on demand:
+ * adb shell am broadcast -a com.edgecloudrecorder.DUMP_METRICS
+ */
+public class LifecycleMetrics {
+    private static final int SPANS_PER_CAMERA = 64;
+    private static final String GLOBAL = "_global";
+
+    public enum Phase {
+        LOGIN,
+        DEVICE_LIST,
+        CONNECT,
+        PREVIEW,
+        RECORD_START,
+        ROTATION_STOP,
+        ROTATION_GAP,
+        RETRY_DELAY,
+        RECOVERY,
+        SESSION_RECOVERY,
+        PUBLISH
+    }
+
+    /**
+     * A completed lifecycle span.
+     */
+    public static final class Span {
+        public final Phase phase;
+        public final long wallStartMillis;
+        public final long durationMillis;
+        public final boolean success;
+        public final String detail;
+
+        Span(Phase phase, long wallStartMillis, long durationMillis, boolean success, String detail) {
+            this.phase = phase;
+            this.wallStartMillis = wallStartMillis;
+            this.durationMillis = durationMillis;
+            this.success = success;
+            this.detail = detail;
+        }
+    }
+
+    /**
+     * Fixed-size ring of the most recent spans of one camera.
+     */
+    static final class SpanRing {
+        private final Span[] spans = new Span[SPANS_PER_CAMERA];
+        private int next;
+        private int size;
+
+        synchronized void add(Span span) {
+            spans[next] = span;
+            next = (next + 1) % spans.length;
+            if (size < spans.length) size++;
+        }
+
+        synchronized List<Span> snapshot() {
+            List<Span> result = new ArrayList<>(size);
+            int start = (next - size + spans.length) % spans.length;
+            for (int i = 0; i < size; i++) {
+                result.add(spans[(start + i) % spans.length]);
+            }
+            return result;
+        }
+    }
+
+    private static LifecycleMetrics instance;
+
+    private final Map<Phase, LatencyHistogram> histograms = new EnumMap<>(Phase.class);
+    private final Map<Phase, LatencyHistogram> failures = new EnumMap<>(Phase.class);
+    private final ConcurrentHashMap<String, SpanRing> timelines = new ConcurrentHashMap<>();
+
+    private LifecycleMetrics() {
+        for (Phase phase : Phase.values()) {
+            histograms.put(phase, new LatencyHistogram());
+            failures.put(phase, new LatencyHistogram());
+        }
+    }
+
+    public static synchronized LifecycleMetrics getInstance() {
+        if (instance == null) {
+            instance = new LifecycleMetrics();
+        }
+        return instance;
+    }
+
+    /**
+     * Monotonic timestamp to pass back into {@link #record}.
+     */
+    public static long now() {
+        return RecorderClock.nanoTime();
+    }
+
+    public void record(String cameraId, Phase phase, long startNanos, boolean success) {
+        record(cameraId, phase, startNanos, success, null);
+    }
+
+    /**
+     * Record a span that started at {@code startNanos} (from {@link #now()}) and ends now.
+     * @return the span duration in milliseconds
+     */
+    public long record(String cameraId, Phase phase, long startNanos, boolean success, String detail) {
+        long durationMillis = (now() - startNanos) / 1_000_000L;
+        (success ? histograms : failures).get(phase).record(durationMillis);
+
+        long wallStart = RecorderClock.currentTimeMillis() - durationMillis;
+        timelineFor(cameraId).add(new Span(phase, wallStart, durationMillis, success, detail));
+        return durationMillis;
+    }
+
+    public LatencyHistogram getHistogram(Phase phase) {
+        return histograms.get(phase);
+    }
+
+    public LatencyHistogram getFailureHistogram(Phase phase) {
+        return failures.get(phase);
+    }
+
+    public List<Span> getTimeline(String cameraId) {
+        SpanRing ring = timelines.get(cameraId == null ? GLOBAL : cameraId);
+        return ring == null ? new ArrayList<>() : ring.snapshot();
+    }
+
+    public void forgetCamera(String cameraId) {
+        timelines.remove(cameraId);
+    }
+
+    public void reset() {
+        for (Phase phase : Phase.values()) {
+            histograms.get(phase).reset();
+            failures.get(phase).reset();
+        }
+        timelines.clear();
+    }
+
+    /**
+     * Human readable report: per-phase histograms (ms) followed by each camera's recent spans.
+     */
+    public String dump() {
+        StringBuilder sb = new StringBuilder(summary());
+        SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss.SSS", Locale.US);
+        for (Map.Entry<String, SpanRing> entry : timelines.entrySet()) {
+            sb.append("=== Timeline ").append(entry.getKey()).append(" ===\n");
+            for (Span span : entry.getValue().snapshot()) {
+                sb.append(sdf.format(new Date(span.wallStartMillis)))
+                        .append(' ').append(span.phase)
+                        .append(' ').append(span.durationMillis).append("ms")
+                        .append(span.success ? " ok" : " FAIL");
+                if (span.detail != null) {
+                    sb.append(' ').append(span.detail);
+                }
+                sb.append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Per-phase histograms (ms) only
+     */
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("=== Lifecycle latency (ms) ===\n");
+        for (Phase phase : Phase.values()) {
+            LatencyHistogram ok = histograms.get(phase);
+            LatencyHistogram failed = failures.get(phase);
+            if (ok.getCount() == 0 && failed.getCount() == 0) continue;
+            sb.append(String.format(Locale.US, "%-14s ok   %s%n", phase, ok.summary()));
+            if (failed.getCount() > 0) {
+                sb.append(String.format(Locale.US, "%-14s fail %s%n", "", failed.summary()));
+            }
+        }
+        return sb.toString();
+    }
+
+    private SpanRing timelineFor(String cameraId) {
+        String key = cameraId == null ? GLOBAL : cameraId;
+        SpanRing ring = timelines.get(key);
+        if (ring == null) {
+            SpanRing created = new SpanRing();
+            ring = timelines.putIfAbsent(key, created);
+            if (ring == null) {
+                ring = created;
+            }
+        }
+        return ring;
+    }
+}
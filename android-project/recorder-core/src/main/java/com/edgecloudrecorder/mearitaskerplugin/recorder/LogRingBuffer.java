@@ -0,0 +1,123 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free multi-producer / single-consumer ring of log entries.
+ * Slots are preallocated and reused, so logging from camera callbacks does not
+ * allocate. When the ring is full new entries are dropped and counted instead of
+ * blocking the caller.
+ */
+public final class LogRingBuffer {
+
+    /**
+     * A reusable slot. Fields are only valid inside {@link Consumer#accept(Entry)}.
+     */
+    public static final class Entry {
+        public long timeMillis;
+        public int level;
+        public String tag;
+        public String message;
+        public Throwable throwable;
+
+        void clear() {
+            tag = null;
+            message = null;
+            throwable = null;
+        }
+    }
+
+    public interface Consumer {
+        void accept(Entry entry);
+    }
+
+    private final Entry[] entries;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private long head; // owned by the single consumer
+
+    public LogRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        entries = new Entry[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            entries[i] = new Entry();
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Publish an entry. Never blocks.
+     * @return false if the ring was full and the entry was dropped
+     */
+    public boolean offer(long timeMillis, int level, String tag, String message, Throwable throwable) {
+        long pos;
+        int index;
+        while (true) {
+            pos = tail.get();
+            index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+            } else if (diff < 0) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        }
+
+        Entry entry = entries[index];
+        entry.timeMillis = timeMillis;
+        entry.level = level;
+        entry.tag = tag;
+        entry.message = message;
+        entry.throwable = throwable;
+        sequences.lazySet(index, pos + 1);
+        return true;
+    }
+
+    /**
+     * Hand up to {@code max} published entries to the consumer, in order.
+     * Must only be called from the single consumer thread.
+     * @return number of entries drained
+     */
+    public int drain(Consumer consumer, int max) {
+        int count = 0;
+        while (count < max) {
+            int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1) {
+                break;
+            }
+            Entry entry = entries[index];
+            consumer.accept(entry);
+            entry.clear();
+            sequences.lazySet(index, head + entries.length);
+            head++;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Consumer-side check; producers must not rely on it.
+     */
+    public boolean isEmpty() {
+        return sequences.get((int) (head & mask)) != head + 1;
+    }
+
+    public int capacity() {
+        return entries.length;
+    }
+
+    /**
+     * @return entries dropped since the last call, resetting the counter
+     */
+    public long takeDropped() {
+        return dropped.getAndSet(0);
+    }
+}
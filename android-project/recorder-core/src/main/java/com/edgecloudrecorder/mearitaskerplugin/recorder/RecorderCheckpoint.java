@@ -0,0 +1,181 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraDescriptor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * What every camera was doing, saved while it changes, so a service restarted after a kill
+ * (START_STICKY) puts its cameras back at once instead of rediscovering them one callback
+ * at a time: the cameras and their accounts, operator pauses, the stream each was on, how
+ * long it had been failing (its backoff carries over), and the segment it was writing and
+ * the one it closed last (finished off at restore, see {@link RecordingEngine}).
+ *
+ * One small text file in the recordings root, rewritten whole (.part then rename), so a
+ * kill mid-write leaves the previous checkpoint:
+ * "checkpoint 1 savedAtMs", then one line per camera with tab-separated
+ * deviceId, account, battery (0/1), paused (0/1), stream ID, failing since (epoch s, 0 if healthy),
+ * segment being written, last closed segment ("-" for none) and the device name, last.
+ */
+final class RecorderCheckpoint {
+    private static final String TAG = "RecorderCheckpoint";
+    static final String FILE = ".checkpoint";
+    // A segment that could not be finished off after a kill is set aside under this suffix
+    static final String UNFINISHED_SUFFIX = ".unfinished";
+    private static final String HEADER = "checkpoint 1 ";
+    private static final String NONE = "-";
+
+    /**
+     * One camera as checkpointed
+     */
+    static final class Camera {
+        final CameraDescriptor descriptor;
+        final boolean paused;
+        final int streamId;
+        final long failingForMs;
+        // Null for none
+        final String openSegment;
+        final String lastSegment;
+
+        Camera(CameraDescriptor descriptor, boolean paused, int streamId, long failingForMs, String openSegment,
+               String lastSegment) {
+            this.descriptor = descriptor;
+            this.paused = paused;
+            this.streamId = streamId;
+            this.failingForMs = failingForMs;
+            this.openSegment = openSegment;
+            this.lastSegment = lastSegment;
+        }
+    }
+
+    private final RecorderLogger logger = RecorderLogger.getInstance();
+    private final File file;
+    private String saved;
+    private long savedAtMs;
+
+    /**
+     * @param root recordings root, the checkpoint lives in it
+     */
+    RecorderCheckpoint(File root) {
+        this.file = new File(root, FILE);
+    }
+
+    /**
+     * @return the cameras of the last checkpoint, empty if there is none or it cannot be read
+     */
+    List<Camera> load() {
+        List<Camera> cameras = new ArrayList<>();
+        if (!file.isFile()) {
+            return cameras;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String header = reader.readLine();
+            if (header == null || !header.startsWith(HEADER)) {
+                logger.warning(TAG, "Not a checkpoint: " + file);
+                return cameras;
+            }
+            try {
+                savedAtMs = Long.parseLong(header.substring(HEADER.length()).trim());
+            } catch (NumberFormatException e) {
+                savedAtMs = 0;
+            }
+            long nowMs = RecorderClock.currentTimeMillis();
+            for (String line; (line = reader.readLine()) != null; ) {
+                Camera camera = parse(line, nowMs);
+                if (camera != null) {
+                    cameras.add(camera);
+                }
+            }
+        } catch (IOException e) {
+            logger.error(TAG, "Cannot read " + file + ": " + e.getMessage());
+        }
+        return cameras;
+    }
+
+    /**
+     * @return when the checkpoint read by {@link #load()} was saved (epoch ms), 0 if unknown
+     */
+    long getSavedAtMs() {
+        return savedAtMs;
+    }
+
+    private static Camera parse(String line, long nowMs) {
+        String[] f = line.split("\t", 9);
+        if (f.length < 9) {
+            return null;
+        }
+        try {
+            long failingSince = Long.parseLong(f[5]) * 1000;
+            return new Camera(new CameraDescriptor(f[0], f[8], "1".equals(f[2]), f[1]), "1".equals(f[3]),
+                    Integer.parseInt(f[4]), failingSince != 0 ? Math.max(0, nowMs - failingSince) : 0,
+                    NONE.equals(f[6]) ? null : f[6],
+                    NONE.equals(f[7]) ? null : f[7]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The cameras' current state, to pass to {@link #save} (on the scheduler thread, where
+     * their state changes)
+     */
+    static String encode(Collection<CameraRecorder> recorders) {
+        StringBuilder sb = new StringBuilder();
+        long now = LifecycleMetrics.now();
+        long nowMs = RecorderClock.currentTimeMillis();
+        for (CameraRecorder recorder : recorders) {
+            CameraDescriptor camera = recorder.getCamera();
+            long failedAt = recorder.getFailureStart();
+            // A snapshotting camera's current path is the last video segment, long closed
+            String open = recorder.isRecording() && !recorder.isSnapshotting() ? recorder.getCurrentFilePath() : null;
+            String last = recorder.getLastSegmentPath();
+            sb.append(camera.getDeviceId()).append('\t')
+                    .append(camera.getAccount()).append('\t')
+                    .append(camera.isBatteryPowered() ? '1' : '0').append('\t')
+                    .append(recorder.isPaused() ? '1' : '0').append('\t')
+                    .append(recorder.getStreamId()).append('\t')
+                    // Whole seconds, so a failing camera does not change the file every tick
+                    .append(failedAt != 0 ? (nowMs - Math.max(0, now - failedAt) / 1_000_000L) / 1000 : 0).append('\t')
+                    .append(open != null ? open : NONE).append('\t')
+                    .append(last != null ? last : NONE).append('\t')
+                    .append(String.valueOf(camera.getDeviceName()).replace('\t', ' ').replace('\n', ' '))
+                    .append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write the state unless the file already holds it (disk I/O: off the scheduler thread)
+     * @return true if written
+     */
+    synchronized boolean save(String state) {
+        if (state.equals(saved)) {
+            return false;
+        }
+        File partial = new File(file.getPath() + ".part");
+        try (Writer writer = new FileWriter(partial, false)) {
+            writer.write(String.format(Locale.US, "%s%d%n", HEADER, RecorderClock.currentTimeMillis()));
+            writer.write(state);
+        } catch (IOException e) {
+            logger.warning(TAG, "Cannot write " + partial + ": " + e.getMessage());
+            partial.delete();
+            return false;
+        }
+        if (!partial.renameTo(file)) {
+            logger.warning(TAG, "Cannot publish " + file);
+            partial.delete();
+            return false;
+        }
+        saved = state;
+        return true;
+    }
+}
@@ -0,0 +1,100 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+/**
+ * Time source for the recorder: the system clock, or a virtual clock installed by the
+ * soak harness to run hours of recording in minutes
+ */
+public final class RecorderClock {
+
+    public interface Source {
+        /**
+         * Monotonic time, as System.nanoTime()
+         */
+        long nanoTime();
+
+        /**
+         * Wall-clock time, as System.currentTimeMillis()
+         */
+        long currentTimeMillis();
+    }
+
+    public static final Source SYSTEM = new Source() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    // Wall clock and monotonic clock read together
+    private static final class Anchor {
+        final long wallMs;
+        final long nanos;
+
+        Anchor(long wallMs, long nanos) {
+            this.wallMs = wallMs;
+            this.nanos = nanos;
+        }
+    }
+
+    // Larger disagreements re-anchor the steady clock (network time set after boot, manual change)
+    private static final long MAX_DRIFT_MS = 2000;
+
+    private static volatile Source source = SYSTEM;
+    private static volatile Anchor anchor;
+    private static volatile int reanchors;
+
+    private RecorderClock() {
+    }
+
+    /**
+     * Replace the time source for the whole process (null restores the system clock)
+     */
+    public static void install(Source newSource) {
+        source = newSource != null ? newSource : SYSTEM;
+        anchor = null;
+    }
+
+    public static long nanoTime() {
+        return source.nanoTime();
+    }
+
+    public static long currentTimeMillis() {
+        return source.currentTimeMillis();
+    }
+
+    /**
+     * Wall-clock time advanced by the monotonic clock: it does not step with small clock
+     * corrections, so between two re-anchors it never runs backwards. When the wall clock is
+     * more than 2 s away (it was set) it jumps to it, once, in either direction: a clock
+     * set back moves it back too, since holding it until the wall clock caught up would
+     * stamp all footage of that time with one instant. Callers must not assume two values
+     * taken across a re-anchor ({@link #getReanchors()}) are in order.
+     */
+    public static long steadyTimeMillis() {
+        Source current = source;
+        long nanos = current.nanoTime();
+        long wall = current.currentTimeMillis();
+        Anchor a = anchor;
+        if (a != null) {
+            long steady = a.wallMs + (nanos - a.nanos) / 1_000_000L;
+            if (Math.abs(steady - wall) <= MAX_DRIFT_MS) {
+                return steady;
+            }
+            reanchors++;
+        }
+        anchor = new Anchor(wall, nanos);
+        return wall;
+    }
+
+    /**
+     * @return how many times {@link #steadyTimeMillis()} had to jump to the wall clock
+     */
+    public static int getReanchors() {
+        return reanchors;
+    }
+}
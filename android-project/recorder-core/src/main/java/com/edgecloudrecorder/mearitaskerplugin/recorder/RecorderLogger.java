@@ -0,0 +1,196 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Logger for recording errors and events
+ * Logs to the console {@link Sink} (logcat on Android, installed by the application)
+ * on the calling thread; file output goes through a lock-free ring buffer drained by
+ * a single background writer into size-rotated files in app-private storage
+ * (enabled by {@link #attachLogDirectory(File)}).
+ */
+public class RecorderLogger {
+    private static final String TAG = "RecorderLogger";
+
+    public static final int VERBOSE = 0;
+    public static final int DEBUG = 1;
+    public static final int INFO = 2;
+    public static final int WARN = 3;
+    public static final int ERROR = 4;
+
+    private static final String[] LEVEL_NAMES = {"V", "D", "I", "W", "E"};
+
+    private static final int RING_CAPACITY = 8192;
+    private static final int DRAIN_BATCH = 512;
+    private static final long IDLE_PARK_NANOS = 100_000_000L; // 100 ms
+    private static final long MAX_FILE_BYTES = 2 * 1024 * 1024;
+    private static final int MAX_FILES = 5;
+
+    /**
+     * Immediate log output, called on the logging thread
+     */
+    public interface Sink {
+        void write(int level, String tag, String message, Throwable throwable);
+    }
+
+    /**
+     * Default sink for plain JVMs (simulator, benchmarks)
+     */
+    public static final Sink CONSOLE = (level, tag, message, throwable) -> {
+        PrintStream out = level >= WARN ? System.err : System.out;
+        out.println(LEVEL_NAMES[level] + "/" + tag + ": " + message);
+        if (throwable != null) {
+            throwable.printStackTrace(out);
+        }
+    };
+
+    /**
+     * Drops console output (file logging is unaffected)
+     */
+    public static final Sink NONE = (level, tag, message, throwable) -> { };
+
+    private static RecorderLogger instance;
+
+    private final LogRingBuffer ring = new LogRingBuffer(RING_CAPACITY);
+    private volatile int minLevel = INFO;
+    private volatile Sink sink = CONSOLE;
+    private volatile boolean fileLoggingEnabled = false;
+    private volatile boolean clearRequested = false;
+    private Thread writerThread;
+
+    private RecorderLogger() {
+    }
+
+    public static synchronized RecorderLogger getInstance() {
+        if (instance == null) {
+            instance = new RecorderLogger();
+        }
+        return instance;
+    }
+
+    /**
+     * Enable persistent logging into the given (app-private) directory and start
+     * the background writer. Safe to call more than once; only the first call wins.
+     */
+    public synchronized void attachLogDirectory(File directory) {
+        if (writerThread != null) {
+            return;
+        }
+        final RotatingLogWriter writer = new RotatingLogWriter(directory, MAX_FILE_BYTES, MAX_FILES);
+        writerThread = new Thread(() -> runWriter(writer), "RecorderLogWriter");
+        writerThread.setDaemon(true);
+        writerThread.setPriority(Thread.MIN_PRIORITY);
+        writerThread.start();
+        fileLoggingEnabled = true;
+        sink.write(INFO, TAG, "File logging enabled in " + directory.getAbsolutePath(), null);
+    }
+
+    public void setSink(Sink sink) {
+        this.sink = sink != null ? sink : NONE;
+    }
+
+    public void setLevel(int level) {
+        this.minLevel = level;
+    }
+
+    public boolean isLoggable(int level) {
+        return level >= minLevel;
+    }
+
+    public void log(String tag, String message) {
+        write(INFO, tag, message, null);
+    }
+
+    public void log(String tag, String message, Throwable throwable) {
+        write(throwable != null ? ERROR : INFO, tag, message, throwable);
+    }
+
+    public void debug(String tag, String message) {
+        write(DEBUG, tag, message, null);
+    }
+
+    public void error(String tag, String message) {
+        write(ERROR, tag, message, null);
+    }
+
+    public void error(String tag, String message, Throwable throwable) {
+        write(ERROR, tag, message, throwable);
+    }
+
+    public void info(String tag, String message) {
+        write(INFO, tag, message, null);
+    }
+
+    public void warning(String tag, String message) {
+        write(WARN, tag, message, null);
+    }
+
+    private void write(int level, String tag, String message, Throwable throwable) {
+        if (level < minLevel) {
+            return;
+        }
+
+        // Log to logcat / console
+        sink.write(level, tag, message, throwable);
+
+        // Hand off to the background writer; formatting happens there
+        if (fileLoggingEnabled) {
+            ring.offer(RecorderClock.currentTimeMillis(), level, tag, message, throwable);
+        }
+    }
+
+    private void runWriter(final RotatingLogWriter writer) {
+        LogRingBuffer.Consumer consumer = entry -> writer.append(
+                entry.timeMillis, entry.level, entry.tag, entry.message,
+                entry.throwable != null ? stackTraceOf(entry.throwable) : null);
+
+        while (true) {
+            try {
+                if (clearRequested) {
+                    clearRequested = false;
+                    writer.deleteAll();
+                }
+
+                int drained = ring.drain(consumer, DRAIN_BATCH);
+                long dropped = ring.takeDropped();
+                if (dropped > 0) {
+                    writer.append(RecorderClock.currentTimeMillis(), WARN, TAG,
+                            "Log ring full, dropped " + dropped + " entries", null);
+                }
+                if (writer.hasPending()) {
+                    writer.flush();
+                }
+                if (drained < DRAIN_BATCH && ring.isEmpty()) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            } catch (IOException e) {
+                sink.write(ERROR, TAG, "Failed to write to log file", e);
+                writer.close();
+                LockSupport.parkNanos(IDLE_PARK_NANOS * 10);
+            } catch (Throwable t) {
+                sink.write(ERROR, TAG, "Log writer error", t);
+            }
+        }
+    }
+
+    private static String stackTraceOf(Throwable throwable) {
+        StringWriter buffer = new StringWriter(256);
+        PrintWriter writer = new PrintWriter(buffer);
+        throwable.printStackTrace(writer);
+        writer.flush();
+        return buffer.toString();
+    }
+
+    public void clearLog() {
+        clearRequested = true;
+        Thread thread = writerThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+}
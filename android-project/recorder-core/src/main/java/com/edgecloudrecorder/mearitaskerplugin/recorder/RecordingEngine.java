@@ -0,0 +1,1947 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.control.RecorderControl;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.live.LiveFanout;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraBackend;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraDescriptor;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraSession;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.upload.SegmentUploader;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Continuous recording state machine for every camera of one or more accounts, each
+ * behind its own {@link CameraBackend}: login, connect, preview, record, rotate segments,
+ * retry and recover, and follow per-camera schedules. Accounts log in and list their
+ * cameras independently; threads, metrics and storage are shared. Has no Android
+ * dependency; VideoRecorderService runs it on the main looper against the Meari SDK,
+ * the simulator against virtual cameras.
+ */
+public class RecordingEngine implements RecorderControl {
+    private static final String TAG = "RecordingEngine";
+    // Failing this long: free the camera's backend resources and retry less often
+    private static final long LONG_FAILURE_NANOS = 10 * 60 * 1_000_000_000L;
+    // Shed cameras come back once measured memory is below this fraction of the budget
+    private static final double SHED_RESUME_FRACTION = 0.8;
+    // Snapshot intervals at least this long stop the preview between shots
+    private static final int SNAPSHOT_PREVIEW_OFF_SECONDS = 20;
+    // Wait after starting the preview so the first shot is taken from a decoded keyframe
+    private static final long SNAPSHOT_SETTLE_MS = 2000;
+    // A battery clip that has not ended this long after its end is cut (never got to record)
+    private static final long CLIP_GRACE_MS = 60_000;
+    private static final long RETENTION_INTERVAL_MS = 60 * 60_000L;
+    // State checkpoint: sampled this often, written only when it changed
+    private static final long CHECKPOINT_INTERVAL_MS = 1000;
+    // Segment proxies: after a failure the next segments record without one for this long,
+    // doubling per failure in a row up to the cap
+    private static final long PROXY_RETRY_MIN_MS = 60_000;
+    private static final long PROXY_RETRY_MAX_MS = 30 * 60_000L;
+    // Shutdown completes without the cameras whose stop chains have not called back by then
+    private static final long SHUTDOWN_STOP_MS = 10_000;
+
+    /**
+     * Short human-readable progress (shown in the service notification)
+     */
+    public interface StatusListener {
+        void onStatus(String status);
+    }
+
+    private final RecorderLogger logger = RecorderLogger.getInstance();
+    private final LifecycleMetrics metrics = LifecycleMetrics.getInstance();
+    private final ResourceManager resources = ResourceManager.getInstance();
+    private final BandwidthBudget bandwidth = BandwidthBudget.getInstance();
+    private final DiskMonitor disk = DiskMonitor.getInstance();
+    private final CoverageIndex coverage;
+    private final SegmentUploader uploader;
+    private final RecorderCheckpoint checkpoint;
+    // Live re-publishing of every camera's preview to local consumers
+    private final LiveFanout live = new LiveFanout();
+    // Indexes, publishes and queues closed segments; fixed when the engine starts
+    private volatile SegmentFinisher finisher;
+    private final Map<String, CameraBackend> backends;
+    private final Supplier<ConfigSnapshot> config;
+    private final Scheduler scheduler;
+    private final Executor worker;
+    private final String basePath;
+    private final StatusListener status;
+
+    private final Map<String, CameraRecorder> cameraRecorders = new ConcurrentHashMap<>();
+    private final Map<String, CameraSession> sessions = new ConcurrentHashMap<>();
+    // Segment proxies by camera, and when a camera whose proxy failed may try again
+    private final Map<String, ProxyStream> proxies = new ConcurrentHashMap<>();
+    private final Map<String, long[]> proxyBackoff = new ConcurrentHashMap<>();
+    // Session losses, by account
+    private final SessionRecovery recovery;
+    // Cameras restored from the checkpoint (scheduler thread): waiting for their account's
+    // login by account, and not yet confirmed by a device list by ID
+    private final Map<String, List<CameraRecorder>> restored = new HashMap<>();
+    private final Set<String> unlisted = new HashSet<>();
+
+    private volatile boolean isRunning = false;
+    private long startedAtNanos;
+    private final Runnable scheduleTick = this::runScheduleTick;
+    private volatile boolean diskCheckPending = false;
+    private volatile long lastRetentionMs = 0;
+    private final Runnable checkpointTick = this::runCheckpointTick;
+    private volatile boolean checkpointPending = false;
+    // Until the checkpoint of the previous run is read back, it is the one to keep
+    private volatile boolean restoring = false;
+
+    /**
+     * Single account: the primary credentials of the config
+     */
+    public RecordingEngine(CameraBackend backend, Supplier<ConfigSnapshot> config, Scheduler scheduler,
+                           Executor worker, String basePath, StatusListener status) {
+        this(Collections.singletonMap(Account.PRIMARY, backend), config, scheduler, worker, basePath, status);
+    }
+
+    /**
+     * @param backends one backend per account name (see {@link ConfigSnapshot#getAccounts()})
+     * @param config   source of the current configuration snapshot
+     * @param worker   runs connection attempts off the scheduler thread
+     * @param basePath recordings root, one sub-directory per camera
+     */
+    public RecordingEngine(Map<String, CameraBackend> backends, Supplier<ConfigSnapshot> config,
+                           Scheduler scheduler, Executor worker, String basePath, StatusListener status) {
+        this.backends = Collections.unmodifiableMap(new LinkedHashMap<>(backends));
+        this.config = config;
+        this.scheduler = scheduler;
+        this.worker = worker;
+        this.basePath = basePath;
+        this.coverage = new CoverageIndex(new File(basePath));
+        this.uploader = new SegmentUploader(new File(basePath));
+        this.checkpoint = new RecorderCheckpoint(new File(basePath));
+        this.finisher = new SegmentFinisher(new SegmentPublisher(basePath, null), coverage, uploader, worker);
+        this.status = status != null ? status : s -> { };
+        this.recovery = new SessionRecovery(this, this.backends, config, scheduler, this.status);
+    }
+
+    /**
+     * Log in if needed, load the cameras and start recording them (once). Cameras in the
+     * checkpoint of a previous run are put back first and resume as soon as their account
+     * is logged in, without waiting for its device list. Segments are written to the
+     * configured staging directory from here on if it is on the recordings' mount (see
+     * {@link SegmentPublisher}), else in place. What a previous run left behind is read
+     * and set aside on the worker first; the accounts are started once that is done.
+     */
+    public void start() {
+        if (isRunning) {
+            return;
+        }
+        isRunning = true;
+        startedAtNanos = LifecycleMetrics.now();
+        resources.setBudgetMb(config.get().getMemoryBudgetMb());
+        bandwidth.setCapMbps(config.get().getBandwidthMbps());
+        uploader.setPolicy(config.get().getUploadPolicy());
+        String staging = config.get().getStagingPath();
+        SegmentPublisher publisher = new SegmentPublisher(basePath, staging);
+        SegmentFinisher stale = null;
+        if (publisher.isStaged() && !SegmentPublisher.sameMount(basePath, staging)) {
+            // Every segment would be copied: write in place, only publishing what is left there
+            logger.warning(TAG, "Staging directory " + staging + " is not on the mount of " + basePath
+                    + ", writing segments in place");
+            stale = new SegmentFinisher(publisher, coverage, uploader, worker);
+            publisher = new SegmentPublisher(basePath, null);
+        }
+        final SegmentFinisher offMount = stale;
+        final SegmentFinisher current = new SegmentFinisher(publisher, coverage, uploader, worker);
+        finisher = current;
+        if (publisher.isStaged()) {
+            logger.info(TAG, "Staging segments in " + publisher.getStagingRoot());
+        }
+        restoring = true;
+        worker.execute(() -> {
+            // Before any camera starts: a new segment started in the same minute would get
+            // the name of one set aside here
+            if (offMount != null) {
+                offMount.recoverStaged();
+            }
+            current.recoverStaged();
+            final List<RecorderCheckpoint.Camera> saved = checkpoint.load();
+            final List<File> open = setAside(saved);
+            scheduler.post(() -> {
+                restoring = false;
+                if (!isRunning) {
+                    return;
+                }
+                restoreCheckpoint(saved, open);
+                for (String account : backends.keySet()) {
+                    startRecordingProcess(account);
+                }
+                scheduler.postDelayed(checkpointTick, CHECKPOINT_INTERVAL_MS);
+            });
+        });
+    }
+
+    public boolean isRunning() {
+        return isRunning;
+    }
+
+    /**
+     * Log in to one account (unless already logged in), then load its cameras. Every
+     * account runs this on its own, so a slow or failing account does not hold up the others.
+     */
+    private void startRecordingProcess(final String account) {
+        logger.info(TAG, "Starting recording process for account " + account + "...");
+        CameraBackend backend = backends.get(account);
+
+        if (backend.isLoggedIn()) {
+            logger.info(TAG, "Already logged in to " + account + ", loading cameras...");
+            resumeRestored(account);
+            loadCamerasAndStartRecording(account);
+            return;
+        }
+        Account credentials = config.get().getAccount(account);
+        if (credentials == null) {
+            logger.error(TAG, "Account " + account + " is no longer configured, skipping");
+            return;
+        }
+        logger.info(TAG, "Not logged in to " + account + ", attempting login...");
+        final long loginStart = LifecycleMetrics.now();
+        backend.login(credentials, new CameraBackend.LoginCallback() {
+            @Override
+            public void onLoginSuccess() {
+                metrics.record(null, LifecycleMetrics.Phase.LOGIN, loginStart, true, account);
+                logger.info(TAG, "Login to " + account + " successful, loading cameras...");
+                resumeRestored(account);
+                loadCamerasAndStartRecording(account);
+            }
+
+            @Override
+            public void onLoginFailed(String error) {
+                metrics.record(null, LifecycleMetrics.Phase.LOGIN, loginStart, false, account + ": " + error);
+                logger.error(TAG, "Login to " + account + " failed: " + error);
+                status.onStatus("Login failed (" + account + "): " + error);
+                // Retry login after 30 seconds
+                scheduler.postDelayed(() -> {
+                    if (isRunning) {
+                        logger.info(TAG, "Retrying login to " + account + "...");
+                        startRecordingProcess(account);
+                    }
+                }, 30000);
+            }
+        });
+    }
+
+    private void loadCamerasAndStartRecording(final String account) {
+        final long listStart = LifecycleMetrics.now();
+        backends.get(account).listCameras(new CameraBackend.CameraListCallback() {
+            @Override
+            public void onSuccess(List<CameraDescriptor> cameraList) {
+                metrics.record(null, LifecycleMetrics.Phase.DEVICE_LIST, listStart, true, account);
+
+                ConfigSnapshot snapshot = config.get();
+                int owned = 0;
+                for (CameraDescriptor camera : cameraList) {
+                    if (snapshot.ownsCamera(camera.getDeviceId())) owned++;
+                }
+                String shard = snapshot.getShardCount() > 1
+                        ? " (shard " + snapshot.getShardIndex() + "/" + snapshot.getShardCount() + ")" : "";
+                logger.info(TAG, "Loaded " + cameraList.size() + " cameras from " + account + ", "
+                        + owned + " assigned here" + shard);
+                status.onStatus("Found " + cameraList.size() + " cameras" + shard);
+
+                Set<String> listed = new HashSet<>();
+                for (CameraDescriptor camera : cameraList) {
+                    String cameraId = camera.getDeviceId();
+                    listed.add(cameraId);
+                    // Recorded by another instance, or already running here
+                    if (!snapshot.ownsCamera(cameraId) || cameraRecorders.containsKey(cameraId)) {
+                        continue;
+                    }
+                    CameraRecorder recorder = createRecorder(camera);
+                    cameraRecorders.put(cameraId, recorder);
+                    beginCamera(recorder);
+                }
+                dropUnlisted(account, listed);
+
+                status.onStatus("Recording " + cameraRecorders.size() + " cameras" + shard);
+                scheduleNextTick();
+            }
+
+            @Override
+            public void onError(int code, String error) {
+                metrics.record(null, LifecycleMetrics.Phase.DEVICE_LIST, listStart, false,
+                        account + ": [" + code + "] " + error);
+                logger.error(TAG, "Failed to load cameras from " + account + ": [" + code + "] " + error);
+                status.onStatus("Failed to load cameras (" + account + ")");
+                // Retry after 30 seconds
+                scheduler.postDelayed(() -> {
+                    if (isRunning) {
+                        loadCamerasAndStartRecording(account);
+                    }
+                }, 30000);
+            }
+        });
+    }
+
+    /**
+     * @return the recorder of a camera just listed or restored, its footage from before
+     * directories were keyed by device ID moved into its directory (primary account only)
+     */
+    private CameraRecorder createRecorder(CameraDescriptor camera) {
+        CameraRecorder recorder = new CameraRecorder(camera, basePath, finisher.getPublisher().getStagingRoot());
+        if (Account.PRIMARY.equals(camera.getAccount()) && recorder.adoptNamedDirectory()) {
+            logger.info(TAG, "Moved " + recorder.getCameraName() + "/ to " + recorder.getDirectoryName() + "/");
+        }
+        return recorder;
+    }
+
+    /**
+     * Start recording a camera just added, unless it is paused, its schedule says idle or
+     * it is a battery camera waiting for its duty-cycle slot
+     */
+    private void beginCamera(CameraRecorder recorder) {
+        // Create directory for this camera
+        File cameraDir = new File(recorder.getBasePath());
+        if (!cameraDir.exists()) {
+            cameraDir.mkdirs();
+        }
+
+        if (recorder.isPaused()) {
+            logger.info(TAG, "Camera " + recorder.getCameraName() + " stays paused");
+            recorder.setIdle(true);
+            recorder.requestStop();
+        } else if (isDutyCycled(recorder)) {
+            logger.info(TAG, "Battery camera " + recorder.getCameraName() + " is duty-cycled");
+            recorder.setIdle(true);
+            recorder.requestStop();
+        } else if (effectiveMode(recorder).isRecording()) {
+            startCameraRecording(recorder);
+        } else {
+            logger.info(TAG, "Camera " + recorder.getCameraName() + " idle by schedule");
+            recorder.setIdle(true);
+            recorder.requestStop();
+        }
+    }
+
+    /**
+     * Put back the cameras of the last checkpoint (owned here, and that their backend can
+     * still open), with their pause, stream and failure state; they start once their
+     * account is logged in ({@link #resumeRestored}). The segments they were writing are
+     * already set aside ({@link #setAside}), so consumers only ever see complete segments.
+     * On the worker, each set aside segment that turns out complete (the muxer finalized it
+     * before the kill) is put back, and it and the last closed segments the engine never got
+     * to index are indexed, covered and queued for upload.
+     * @param saved the cameras of the checkpoint
+     * @param open  their segments set aside
+     */
+    private void restoreCheckpoint(List<RecorderCheckpoint.Camera> saved, List<File> open) {
+        if (saved.isEmpty()) {
+            return;
+        }
+        ConfigSnapshot snapshot = config.get();
+        final List<File> closed = new ArrayList<>();
+        Map<String, RecorderCheckpoint.Camera> byId = new HashMap<>();
+        Map<String, List<CameraDescriptor>> byAccount = new LinkedHashMap<>();
+        for (RecorderCheckpoint.Camera camera : saved) {
+            if (camera.lastSegment != null) {
+                closed.add(new File(camera.lastSegment));
+                closed.add(new File(CameraRecorder.proxyOf(camera.lastSegment)));
+            }
+            String cameraId = camera.descriptor.getDeviceId();
+            String account = camera.descriptor.getAccount();
+            if (backends.containsKey(account) && snapshot.ownsCamera(cameraId)) {
+                byId.put(cameraId, camera);
+                byAccount.computeIfAbsent(account, a -> new ArrayList<>()).add(camera.descriptor);
+            }
+        }
+        finisher.finishInterrupted(open, closed);
+
+        int count = 0;
+        for (Map.Entry<String, List<CameraDescriptor>> entry : byAccount.entrySet()) {
+            List<CameraRecorder> waiting = new ArrayList<>();
+            for (CameraDescriptor camera : backends.get(entry.getKey()).restoreCameras(entry.getValue())) {
+                RecorderCheckpoint.Camera state = byId.get(camera.getDeviceId());
+                if (state == null || cameraRecorders.containsKey(camera.getDeviceId())) {
+                    continue;
+                }
+                CameraRecorder recorder = createRecorder(camera);
+                recorder.setPaused(state.paused);
+                recorder.setStreamId(state.streamId);
+                recorder.setLastSegmentPath(state.lastSegment);
+                if (state.failingForMs > 0) {
+                    recorder.restoreFailure(state.failingForMs);
+                }
+                cameraRecorders.put(camera.getDeviceId(), recorder);
+                unlisted.add(camera.getDeviceId());
+                waiting.add(recorder);
+            }
+            if (!waiting.isEmpty()) {
+                restored.put(entry.getKey(), waiting);
+                count += waiting.size();
+            }
+        }
+        long savedAt = checkpoint.getSavedAtMs();
+        logger.info(TAG, "Restored " + count + " of " + saved.size() + " cameras from the checkpoint"
+                + (savedAt > 0 ? " saved " + (RecorderClock.currentTimeMillis() - savedAt) / 1000 + " s ago" : ""));
+        status.onStatus("Resuming " + count + " cameras");
+    }
+
+    /**
+     * Set aside the segments the checkpoint's cameras were writing, with their proxies, as
+     * .unfinished (a new segment started in the same minute would get the same name);
+     * ones already indexed were closed before the kill. Worker thread.
+     * @return the set aside files
+     */
+    private static List<File> setAside(List<RecorderCheckpoint.Camera> saved) {
+        List<File> open = new ArrayList<>();
+        for (RecorderCheckpoint.Camera camera : saved) {
+            if (camera.openSegment == null) {
+                continue;
+            }
+            for (String path : new String[]{camera.openSegment, CameraRecorder.proxyOf(camera.openSegment)}) {
+                File segment = new File(path);
+                if (segment.isFile() && !SegmentIndex.sidecarOf(segment).isFile()) {
+                    File aside = new File(path + RecorderCheckpoint.UNFINISHED_SUFFIX);
+                    if (segment.renameTo(aside)) {
+                        open.add(aside);
+                    }
+                }
+            }
+        }
+        return open;
+    }
+
+    /**
+     * The account is logged in: start its restored cameras all at once. Healthy ones
+     * connect now; ones that were failing keep their backoff and retry after the delay
+     * they would have waited anyway.
+     */
+    private void resumeRestored(String account) {
+        List<CameraRecorder> waiting = restored.remove(account);
+        if (waiting == null) {
+            return;
+        }
+        logger.info(TAG, "Resuming " + waiting.size() + " restored cameras of " + account);
+        for (final CameraRecorder recorder : waiting) {
+            if (cameraRecorders.get(recorder.getCameraId()) != recorder) {
+                // Released meanwhile (shard change)
+                continue;
+            }
+            long failedAt = recorder.getFailureStart();
+            boolean resumable = !recorder.isPaused() && !isDutyCycled(recorder) && effectiveMode(recorder).isRecording();
+            if (failedAt != 0 && resumable) {
+                long delayMs = LifecycleMetrics.now() - failedAt > LONG_FAILURE_NANOS ? 60000 : 10000;
+                scheduleRetry(recorder, "restored", () -> startCameraRecording(recorder), delayMs);
+                continue;
+            }
+            if (resumable) {
+                // Time the way back to recording as a recovery from the restart
+                recorder.markFailure();
+            }
+            beginCamera(recorder);
+        }
+        scheduleNextTick();
+    }
+
+    /**
+     * Restored cameras missing from their account's device list (removed from the account
+     * meanwhile) are released; the listed ones are confirmed
+     */
+    private void dropUnlisted(String account, Set<String> listed) {
+        for (CameraRecorder recorder : new ArrayList<>(cameraRecorders.values())) {
+            final CameraRecorder dropped = recorder;
+            String cameraId = recorder.getCameraId();
+            if (!accountOf(recorder).equals(account) || !unlisted.remove(cameraId) || listed.contains(cameraId)) {
+                continue;
+            }
+            logger.warning(TAG, "Restored camera " + recorder.getCameraName() + " is no longer listed, releasing it");
+            cameraRecorders.remove(cameraId);
+            live.remove(cameraId);
+            stopCamera(dropped, () -> {
+                backendOf(dropped).releaseCamera(dropped.getCamera());
+                metrics.forgetCamera(dropped.getCameraId());
+            });
+        }
+    }
+
+    /**
+     * Sample the cameras' state for the checkpoint; written on the worker if it changed
+     */
+    private void runCheckpointTick() {
+        if (!isRunning) {
+            return;
+        }
+        if (!checkpointPending) {
+            checkpointPending = true;
+            final String state = RecorderCheckpoint.encode(cameraRecorders.values());
+            worker.execute(() -> {
+                try {
+                    checkpoint.save(state);
+                } finally {
+                    checkpointPending = false;
+                }
+            });
+        }
+        scheduler.postDelayed(checkpointTick, CHECKPOINT_INTERVAL_MS);
+    }
+
+    void startCameraRecording(final CameraRecorder recorder) {
+        // Joining camera: make room for it under the bandwidth cap before it picks a stream
+        rebalanceBandwidth();
+        worker.execute(() -> {
+            logger.info(TAG, "Starting recording for camera: " + recorder.getCameraName());
+            connectAndRecord(recorder);
+        });
+    }
+
+    private void connectAndRecord(final CameraRecorder recorder) {
+        final String cameraId = recorder.getCameraId();
+
+        // Create session if not exists
+        CameraSession session = sessions.get(cameraId);
+        if (session == null) {
+            if (!admit(recorder)) {
+                return;
+            }
+            session = backendOf(recorder).openSession(recorder.getCamera());
+            resources.opened(cameraId, ResourceManager.Kind.SESSION);
+            sessions.put(cameraId, session);
+            live.attach(cameraId, session);
+        }
+
+        final CameraSession finalSession = session;
+        final long connectStart = LifecycleMetrics.now();
+
+        // Connect to camera
+        finalSession.connect(new CameraSession.Callback() {
+            @Override
+            public void onSuccess(String successMsg) {
+                metrics.record(cameraId, LifecycleMetrics.Phase.CONNECT, connectStart, true);
+                logger.info(TAG, "Camera connected: " + recorder.getCameraName());
+                startStreamRecording(recorder, finalSession);
+            }
+
+            @Override
+            public void onFailed(String errorMsg) {
+                metrics.record(cameraId, LifecycleMetrics.Phase.CONNECT, connectStart, false, errorMsg);
+                logger.error(TAG, "Camera connection failed: " + recorder.getCameraName() + " - " + errorMsg);
+
+                // Release the failed session to avoid reusing corrupted state, unless
+                // stopCamera already took it (clip ended or camera stopped mid-connect)
+                if (sessions.remove(cameraId, finalSession)) {
+                    releaseSession(cameraId, finalSession);
+                }
+
+                // Retry connection after 10 seconds with a fresh session
+                long delayMs = 10000;
+                long failedAt = recorder.getFailureStart();
+                if (failedAt != 0 && LifecycleMetrics.now() - failedAt > LONG_FAILURE_NANOS) {
+                    // Unreachable for a while: don't keep its surface alive between attempts
+                    scheduler.post(() -> backendOf(recorder).releaseCamera(recorder.getCamera()));
+                    delayMs = 60000;
+                }
+                scheduleRetry(recorder, "connect", () -> {
+                    logger.info(TAG, "Retrying connection for: " + recorder.getCameraName());
+                    connectAndRecord(recorder);
+                }, delayMs);
+            }
+        });
+    }
+
+    /**
+     * Reserve the camera's share of the memory budget before it gets a session
+     * @return false if it does not fit; the camera is then shed (idle) and the schedule
+     * tick wakes it once there is room again
+     */
+    private boolean admit(CameraRecorder recorder) {
+        CameraProfile.Mode mode = effectiveMode(recorder);
+        long cost = ResourceManager.costOf(mode) + (isProxied(recorder, mode) ? ResourceManager.costOf(CameraProfile.Mode.LOW) : 0);
+        if (resources.reserve(recorder.getCameraId(), cost)) {
+            if (recorder.isShed()) {
+                recorder.setShed(false);
+                logger.info(TAG, "Memory budget has room again for " + recorder.getCameraName());
+            }
+            return true;
+        }
+        if (!recorder.isShed()) {
+            recorder.setShed(true);
+            logger.warning(TAG, "Memory budget full, not connecting " + recorder.getCameraName());
+        }
+        recorder.setIdle(true);
+        recorder.setRecording(false);
+        recovery.settled(recorder, false);
+        return false;
+    }
+
+    /**
+     * Release a session and drop it from the session map if it is still the camera's one
+     */
+    private void releaseSession(String cameraId, CameraSession session) {
+        try {
+            live.detach(session);
+            session.release();
+        } catch (Exception e) {
+            logger.error(TAG, "Error releasing session: " + e.getMessage());
+        }
+        resources.closed(cameraId, ResourceManager.Kind.SESSION);
+        sessions.remove(cameraId, session);
+    }
+
+    private void startStreamRecording(final CameraRecorder recorder, final CameraSession session) {
+        if (!session.isConnected()) {
+            // Stream closed under us (onVideoClosed): reconnect instead of giving up
+            logger.warning(TAG, "Session not connected for " + recorder.getCameraName() + ", reconnecting");
+            recorder.setRecording(false);
+            scheduleRetry(recorder, "disconnected", () -> connectAndRecord(recorder), 10000);
+            return;
+        }
+
+        if (effectiveMode(recorder) == CameraProfile.Mode.SNAPSHOT) {
+            recorder.takePendingConfig();
+            closeProxy(recorder);
+            logger.info(TAG, "Snapshot mode for " + recorder.getCameraName());
+            recorder.setSnapshotting(true);
+            new SnapshotLoop(recorder, session).run();
+            return;
+        }
+
+        recorder.setSnapshotting(false);
+        final String filePath = recorder.generateNewFilePath();
+
+        // Create directory if not exists
+        File fileDir = new File(filePath).getParentFile();
+        if (!fileDir.exists()) {
+            fileDir.mkdirs();
+        }
+
+        logger.info(TAG, "Starting preview for " + recorder.getCameraName());
+
+        // STEP 1: Get the correct stream ID for the desired quality
+        // (any pending config change is applied here, since the preview restarts)
+        recorder.takePendingConfig();
+        CameraProfile.Mode mode = effectiveMode(recorder);
+        int streamId = backendOf(recorder).resolveStreamId(recorder.getCamera(), mode);
+        recorder.setStreamId(streamId);
+        logger.info(TAG, "Using stream ID: " + streamId + " for quality: " + mode);
+
+        // STEP 2: Start preview with the correct stream ID (REQUIRED before recording)
+        final String cameraId = recorder.getCameraId();
+        final long previewStart = LifecycleMetrics.now();
+        session.startPreview(streamId, new CameraSession.Callback() {
+            @Override
+            public void onSuccess(String msg) {
+                metrics.record(cameraId, LifecycleMetrics.Phase.PREVIEW, previewStart, true);
+                logger.info(TAG, "Preview started for " + recorder.getCameraName() + ", now starting recording");
+
+                // STEP 3: Now that preview is active, start recording (and its proxy, if any)
+                final long recordStart = LifecycleMetrics.now();
+                startProxy(recorder, filePath);
+                session.startRecording(filePath, new CameraSession.Callback() {
+                    @Override
+                    public void onSuccess(String successMsg) {
+                        metrics.record(cameraId, LifecycleMetrics.Phase.RECORD_START, recordStart, true);
+                        recordRecovery(recorder);
+                        recorder.setRecording(true);
+                        logger.info(TAG, "Recording started successfully for " + recorder.getCameraName() + " to " + filePath);
+
+                        // Schedule file rotation based on configured duration
+                        scheduleFileRotation(recorder, session);
+                    }
+
+                    @Override
+                    public void onFailed(String errorMsg) {
+                        metrics.record(cameraId, LifecycleMetrics.Phase.RECORD_START, recordStart, false, errorMsg);
+                        logger.error(TAG, "Failed to start recording for " + recorder.getCameraName() + ": " + errorMsg);
+                        recorder.setRecording(false);
+                        // Full volume? Re-check now rather than at the next tick, before the retries pile up
+                        checkDisk();
+
+                        // Retry after 10 seconds
+                        scheduleRetry(recorder, "record", () -> {
+                            logger.info(TAG, "Retrying recording for " + recorder.getCameraName());
+                            connectAndRecord(recorder);
+                        }, 10000);
+                    }
+                }, restartOnInterrupt(recorder, session, filePath));
+            }
+
+            @Override
+            public void onFailed(String errorMsg) {
+                metrics.record(cameraId, LifecycleMetrics.Phase.PREVIEW, previewStart, false, errorMsg);
+                logger.error(TAG, "Preview failed for " + recorder.getCameraName() + ": " + errorMsg);
+                // Retry connection
+                scheduleRetry(recorder, "preview", () -> {
+                    logger.info(TAG, "Retrying connection for " + recorder.getCameraName());
+                    connectAndRecord(recorder);
+                }, 10000);
+            }
+        }, code -> logger.warning(TAG, "Video stream closed for " + recorder.getCameraName() + ", code: " + code));
+    }
+
+    private void scheduleFileRotation(final CameraRecorder recorder, final CameraSession session) {
+        long durationMs = effectiveDurationMs(recorder);
+        long clipEnd = recorder.getClipEndMs();
+        if (clipEnd != 0) {
+            // The last segment of a battery clip ends with the clip
+            durationMs = Math.max(1000, Math.min(durationMs, clipEnd - RecorderClock.currentTimeMillis()));
+        }
+        recorder.setSegmentDurationMs(durationMs);
+        scheduleRotationIn(recorder, session, durationMs);
+    }
+
+    /**
+     * Post the rotation of the current segment, replacing any rotation already pending
+     */
+    private void scheduleRotationIn(final CameraRecorder recorder, final CameraSession session, long delayMs) {
+        Runnable previous = recorder.getPendingRotation();
+        if (previous != null) {
+            scheduler.cancel(previous);
+        }
+
+        logger.info(TAG, "Scheduled file rotation for " + recorder.getCameraName() + " in " + (delayMs / 1000) + " seconds");
+
+        Runnable rotation = () -> {
+            recorder.setPendingRotation(null);
+            if (recorder.isRecording() && !recorder.shouldStop()) {
+                logger.info(TAG, "Rotating file for " + recorder.getCameraName());
+                final String cameraId = recorder.getCameraId();
+                final long gapStart = LifecycleMetrics.now();
+                final String segmentPath = recorder.getCurrentFilePath();
+                final long segmentMs = recorder.getRecordingDuration();
+                final long segmentStartMs = recorder.getRecordingStartMs();
+                final int streamId = recorder.getStreamId();
+
+                // Stop current recording, and its proxy at the same instant
+                stopProxy(recorder);
+                session.stopRecording(new CameraSession.Callback() {
+                    @Override
+                    public void onSuccess(String s) {
+                        metrics.record(cameraId, LifecycleMetrics.Phase.ROTATION_STOP, gapStart, true);
+                        logger.info(TAG, "Recording stopped successfully for rotation: " + recorder.getCameraName());
+                        recorder.setRecording(false);
+                        if (segmentPath != null) {
+                            segmentClosed(recorder, segmentPath, segmentStartMs,
+                                    bytes -> bandwidth.observe(cameraId, streamId, bytes, segmentMs));
+                        }
+
+                        // Wait 3 seconds before starting new recording
+                        // (SDK requires minimum 3 seconds between recordings)
+                        scheduler.postDelayed(() -> {
+                            if (!recorder.shouldStop()) {
+                                // DON'T restart preview - just continue recording with new file
+                                resumeAfterRotation(recorder, session, gapStart);
+                            }
+                        }, 3000);
+                    }
+
+                    @Override
+                    public void onFailed(String s) {
+                        metrics.record(cameraId, LifecycleMetrics.Phase.ROTATION_STOP, gapStart, false, s);
+                        logger.error(TAG, "Failed to stop recording for rotation: " + s);
+                        recorder.setRecording(false);
+
+                        // Try to start new recording anyway
+                        scheduler.postDelayed(() -> {
+                            if (!recorder.shouldStop()) {
+                                resumeAfterRotation(recorder, session, gapStart);
+                            }
+                        }, 3000);
+                    }
+                });
+            }
+        };
+        recorder.setPendingRotation(rotation);
+        scheduler.postDelayed(rotation, delayMs);
+    }
+
+    /**
+     * Safe point between two segments: idle the camera if its schedule says so, apply a
+     * quality change (config or schedule window) by restarting the preview on the new
+     * stream, otherwise keep the preview and just open the next file
+     */
+    private void resumeAfterRotation(final CameraRecorder recorder, final CameraSession session,
+                                     final long gapStart) {
+        recorder.takePendingConfig();
+        CameraProfile.Mode mode = effectiveMode(recorder);
+        if (!mode.isRecording()) {
+            idleCamera(recorder);
+            return;
+        }
+        long clipEnd = recorder.getClipEndMs();
+        if (clipEnd != 0 && RecorderClock.currentTimeMillis() >= clipEnd - 1000) {
+            logger.info(TAG, "Battery clip done for " + recorder.getCameraName() + ", disconnecting");
+            stopCamera(recorder, null);
+            return;
+        }
+        if (mode == CameraProfile.Mode.SNAPSHOT) {
+            logger.info(TAG, "Switching " + recorder.getCameraName() + " to snapshots");
+            session.stopPreview(then(() -> startStreamRecording(recorder, session)));
+            return;
+        }
+        if (session.isConnected() && backendOf(recorder).resolveStreamId(recorder.getCamera(), mode) != recorder.getStreamId()) {
+            logger.info(TAG, "Applying quality " + mode + " to " + recorder.getCameraName()
+                    + ", restarting preview");
+            session.stopPreview(then(() -> startStreamRecording(recorder, session)));
+            return;
+        }
+        continueRecording(recorder, session, gapStart);
+    }
+
+    /**
+     * SNAPSHOT mode: take a JPEG from the camera's lowest stream every snapshot interval
+     * instead of recording. For long intervals the preview is stopped between shots, so the
+     * camera streams only a few seconds per still; the P2P session stays connected. The
+     * mode is re-checked before every shot, so a schedule window switching the camera back
+     * to video (or idle) applies within one interval. The loop is posted as the camera's
+     * pending rotation, so stopping the camera cancels it.
+     */
+    private final class SnapshotLoop implements Runnable {
+        private final CameraRecorder recorder;
+        private final CameraSession session;
+        private final int epoch;
+        private boolean previewing;
+
+        SnapshotLoop(CameraRecorder recorder, CameraSession session) {
+            this.recorder = recorder;
+            this.session = session;
+            this.epoch = recorder.getEpoch();
+        }
+
+        @Override
+        public void run() {
+            recorder.setPendingRotation(null);
+            if (isStale()) {
+                return;
+            }
+            CameraProfile.Mode mode = effectiveMode(recorder);
+            if (mode != CameraProfile.Mode.SNAPSHOT) {
+                leave(mode);
+                return;
+            }
+            if (!session.isConnected()) {
+                logger.warning(TAG, "Session not connected for " + recorder.getCameraName() + ", reconnecting");
+                recorder.setSnapshotting(false);
+                recorder.setRecording(false);
+                scheduleRetry(recorder, "disconnected", () -> connectAndRecord(recorder), 10000);
+                return;
+            }
+            if (previewing) {
+                shoot();
+            } else {
+                startPreview(mode);
+            }
+        }
+
+        private boolean isStale() {
+            return recorder.shouldStop() || recorder.getEpoch() != epoch;
+        }
+
+        private void startPreview(CameraProfile.Mode mode) {
+            final String cameraId = recorder.getCameraId();
+            int streamId = backendOf(recorder).resolveStreamId(recorder.getCamera(), mode);
+            recorder.setStreamId(streamId);
+            final long previewStart = LifecycleMetrics.now();
+            session.startPreview(streamId, new CameraSession.Callback() {
+                @Override
+                public void onSuccess(String msg) {
+                    metrics.record(cameraId, LifecycleMetrics.Phase.PREVIEW, previewStart, true);
+                    previewing = true;
+                    post(SNAPSHOT_SETTLE_MS);
+                }
+
+                @Override
+                public void onFailed(String errorMsg) {
+                    metrics.record(cameraId, LifecycleMetrics.Phase.PREVIEW, previewStart, false, errorMsg);
+                    logger.error(TAG, "Snapshot preview failed for " + recorder.getCameraName() + ": " + errorMsg);
+                    recorder.markFailure();
+                    post(10000);
+                }
+            }, code -> {
+                logger.warning(TAG, "Video stream closed for " + recorder.getCameraName() + ", code: " + code);
+                previewing = false;
+            });
+        }
+
+        private void shoot() {
+            final String path = recorder.generateSnapshotPath();
+            File dir = new File(path).getParentFile();
+            if (!dir.exists()) {
+                dir.mkdirs();
+            }
+            session.snapshot(path, new CameraSession.Callback() {
+                @Override
+                public void onSuccess(String msg) {
+                    if (isStale()) {
+                        return;
+                    }
+                    recordRecovery(recorder);
+                    recorder.setRecording(true);
+                    long intervalMs = snapshotIntervalSeconds() * 1000L;
+                    if (snapshotIntervalSeconds() >= SNAPSHOT_PREVIEW_OFF_SECONDS) {
+                        previewing = false;
+                        session.stopPreview(then(() -> post(intervalMs - SNAPSHOT_SETTLE_MS)));
+                    } else {
+                        post(intervalMs);
+                    }
+                }
+
+                @Override
+                public void onFailed(String errorMsg) {
+                    if (isStale()) {
+                        return;
+                    }
+                    logger.error(TAG, "Snapshot failed for " + recorder.getCameraName() + ": " + errorMsg);
+                    recorder.markFailure();
+                    recorder.setRecording(false);
+                    // Start over with a fresh preview
+                    previewing = false;
+                    session.stopPreview(then(() -> post(10000)));
+                }
+            });
+        }
+
+        /**
+         * Leave snapshot mode for video or idle at this safe point
+         */
+        private void leave(CameraProfile.Mode mode) {
+            recorder.setSnapshotting(false);
+            recorder.setRecording(false);
+            if (!mode.isRecording()) {
+                idleCamera(recorder);
+                return;
+            }
+            logger.info(TAG, "Leaving snapshot mode for " + recorder.getCameraName() + ": " + mode);
+            if (previewing) {
+                session.stopPreview(then(() -> startStreamRecording(recorder, session)));
+            } else {
+                startStreamRecording(recorder, session);
+            }
+        }
+
+        private void post(long delayMs) {
+            if (isStale()) {
+                return;
+            }
+            recorder.setPendingRotation(this);
+            scheduler.postDelayed(this, Math.max(0, delayMs));
+        }
+
+        private int snapshotIntervalSeconds() {
+            CameraProfile profile = config.get().getProfile(recorder.getCameraId());
+            return profile != null ? profile.getSnapshotSeconds() : CameraProfile.DEFAULT_SNAPSHOT_SECONDS;
+        }
+    }
+
+    /**
+     * Apply a newly published config snapshot (may be called from any thread)
+     */
+    public void onConfigChanged(final ConfigSnapshot previous, final ConfigSnapshot current) {
+        scheduler.post(() -> applyConfigChange(previous, current));
+    }
+
+    private void applyConfigChange(ConfigSnapshot previous, ConfigSnapshot current) {
+        logger.info(TAG, "Config changed: " + current);
+        resources.setBudgetMb(current.getMemoryBudgetMb());
+        bandwidth.setCapMbps(current.getBandwidthMbps());
+        uploader.setPolicy(current.getUploadPolicy());
+        boolean batteryPolicyChanged = previous == null
+                || !previous.getBatteryPolicy().equals(current.getBatteryPolicy());
+
+        for (CameraRecorder recorder : cameraRecorders.values()) {
+            recorder.onConfigChanged(current);
+            if (batteryPolicyChanged) {
+                // Re-plan duty-cycle slots for the new period
+                recorder.setNextClipAtMs(0);
+            }
+
+            // Re-time the running segment so the new duration applies from its start
+            long durationMs = effectiveDurationMs(recorder);
+            if (durationMs != recorder.getSegmentDurationMs() && recorder.isRecording()
+                    && !recorder.isSnapshotting() && recorder.getPendingRotation() != null) {
+                CameraSession session = sessions.get(recorder.getCameraId());
+                if (session != null) {
+                    recorder.setSegmentDurationMs(durationMs);
+                    long remaining = durationMs - recorder.getRecordingDuration();
+                    scheduleRotationIn(recorder, session, Math.max(0, remaining));
+                }
+            }
+        }
+
+        if (previous == null || previous.getShardIndex() != current.getShardIndex()
+                || previous.getShardCount() != current.getShardCount()) {
+            rebalance(current);
+        }
+
+        // Profiles may have switched cameras to or from idle
+        runScheduleTick();
+    }
+
+    /**
+     * Shard changed: release the cameras now assigned to another instance, then reload the
+     * camera list to pick up the ones assigned here. Cameras that stay keep recording.
+     */
+    private void rebalance(ConfigSnapshot current) {
+        if (!isRunning) {
+            return;
+        }
+        int released = 0;
+        for (final CameraRecorder recorder : cameraRecorders.values()) {
+            if (!current.ownsCamera(recorder.getCameraId())) {
+                released++;
+                cameraRecorders.remove(recorder.getCameraId());
+                live.remove(recorder.getCameraId());
+                stopCamera(recorder, () -> {
+                    backendOf(recorder).releaseCamera(recorder.getCamera());
+                    metrics.forgetCamera(recorder.getCameraId());
+                });
+            }
+        }
+        logger.info(TAG, "Shard now " + current.getShardIndex() + "/" + current.getShardCount()
+                + ", released " + released + " cameras");
+        for (String account : backends.keySet()) {
+            loadCamerasAndStartRecording(account);
+        }
+    }
+
+    private CameraBackend backendOf(CameraRecorder recorder) {
+        return backends.get(accountOf(recorder));
+    }
+
+    /**
+     * @return the name of the account the camera was listed from (the first one if unknown)
+     */
+    String accountOf(CameraRecorder recorder) {
+        String account = recorder.getCamera().getAccount();
+        return backends.containsKey(account) ? account : backends.keySet().iterator().next();
+    }
+
+    /**
+     * @return account names, in login order
+     */
+    public Collection<String> getAccounts() {
+        return backends.keySet();
+    }
+
+    /**
+     * Mode for this camera right now: its scheduled mode, lowered to its share of the
+     * bandwidth budget
+     */
+    CameraProfile.Mode effectiveMode(CameraRecorder recorder) {
+        return bandwidth.cap(recorder.getCameraId(), diskCappedMode(recorder));
+    }
+
+    /**
+     * Scheduled mode, lowered (or idled) by its priority while the recording volume is
+     * under pressure
+     */
+    private CameraProfile.Mode diskCappedMode(CameraRecorder recorder) {
+        return disk.cap(priorityOf(recorder), scheduledMode(recorder));
+    }
+
+    private int priorityOf(CameraRecorder recorder) {
+        CameraProfile profile = config.get().getProfile(recorder.getCameraId());
+        return profile != null ? profile.getPriority() : 0;
+    }
+
+    /**
+     * Mode the camera's profile asks for right now (schedule window, then profile default)
+     * or the global quality
+     */
+    private CameraProfile.Mode scheduledMode(CameraRecorder recorder) {
+        ConfigSnapshot snapshot = config.get();
+        CameraProfile profile = snapshot.getProfile(recorder.getCameraId());
+        CameraProfile.Mode mode = profile != null ? profile.modeAt(minuteOfDay()) : null;
+        if (mode != null) {
+            return mode;
+        }
+        try {
+            return CameraProfile.parseMode(snapshot.getVideoQuality());
+        } catch (IllegalArgumentException e) {
+            return CameraProfile.Mode.HD;
+        }
+    }
+
+    private long effectiveDurationMs(CameraRecorder recorder) {
+        ConfigSnapshot snapshot = config.get();
+        CameraProfile profile = snapshot.getProfile(recorder.getCameraId());
+        int minutes = profile != null && profile.getDurationMinutes() > 0
+                ? profile.getDurationMinutes() : snapshot.getDurationMinutes();
+        return minutes * 60 * 1000L;
+    }
+
+    private static int minuteOfDay() {
+        Calendar now = Calendar.getInstance();
+        now.setTimeInMillis(RecorderClock.currentTimeMillis());
+        return now.get(Calendar.HOUR_OF_DAY) * 60 + now.get(Calendar.MINUTE);
+    }
+
+    /**
+     * Run the profile scheduler just after the next minute boundary
+     */
+    private void scheduleNextTick() {
+        scheduler.cancel(scheduleTick);
+        long now = RecorderClock.currentTimeMillis();
+        long delay = 60_000L - (now % 60_000L) + 1000L;
+        scheduler.postDelayed(scheduleTick, delay);
+    }
+
+    /**
+     * Connect cameras whose schedule window opened and idle the ones whose window closed.
+     * Quality changes are picked up at each camera's next rotation.
+     */
+    private void runScheduleTick() {
+        if (!isRunning) {
+            return;
+        }
+        checkDisk();
+        enforceBudget();
+        rebalanceBandwidth();
+        boolean headroom = resources.hasHeadroom(SHED_RESUME_FRACTION);
+        long nowMs = RecorderClock.currentTimeMillis();
+        for (CameraRecorder recorder : cameraRecorders.values()) {
+            if (recovery.isRecovering(recorder.getCameraId())) {
+                // Its session recovery brings it back
+                continue;
+            }
+            if (isDutyCycled(recorder)) {
+                dutyTick(recorder, nowMs);
+                continue;
+            }
+            // Battery policy switched to always-on in the middle of a clip
+            recorder.setClipEndMs(0);
+            boolean wantRecording = effectiveMode(recorder).isRecording();
+            if (wantRecording && recorder.isIdle() && !recorder.isPaused()) {
+                if (recorder.isShed()) {
+                    if (headroom) {
+                        wakeCamera(recorder);
+                    }
+                    continue;
+                }
+                logger.info(TAG, "Schedule window open, waking " + recorder.getCameraName());
+                wakeCamera(recorder);
+            } else if (!wantRecording && !recorder.isIdle()) {
+                idleCamera(recorder);
+            }
+        }
+        scheduleNextTick();
+    }
+
+    /**
+     * Share the bandwidth cap among the cameras that are (or are about to be) connected.
+     * New caps apply at each camera's next rotation.
+     */
+    private void rebalanceBandwidth() {
+        List<BandwidthBudget.Demand> demands = new ArrayList<>();
+        for (CameraRecorder recorder : cameraRecorders.values()) {
+            CameraProfile.Mode wanted = diskCappedMode(recorder);
+            if (recorder.isIdle() || recorder.isPaused() || !wanted.isRecording()) {
+                continue;
+            }
+            CameraBackend backend = backendOf(recorder);
+            long[] kbps = new long[CameraProfile.Mode.values().length];
+            for (CameraProfile.Mode mode : CameraProfile.Mode.values()) {
+                if (mode.isRecording()) {
+                    int streamId = backend.resolveStreamId(recorder.getCamera(), mode);
+                    kbps[mode.ordinal()] = bandwidth.rateKbps(recorder.getCameraId(), streamId,
+                            backend.advertisedKbps(recorder.getCamera(), streamId), mode);
+                }
+            }
+            for (CameraProfile.Mode mode : CameraProfile.Mode.values()) {
+                if (isProxied(recorder, mode)) {
+                    // Its proxy streams the LOW rate on top
+                    kbps[mode.ordinal()] += kbps[CameraProfile.Mode.LOW.ordinal()];
+                }
+            }
+            demands.add(new BandwidthBudget.Demand(recorder.getCameraId(), priorityOf(recorder), wanted, kbps));
+        }
+        bandwidth.rebalance(cameraRecorders.keySet(), demands);
+    }
+
+    /**
+     * Sample the recording volume on the worker (disk I/O). Under pressure the oldest
+     * footage is pruned first (if the policy allows); a change of level re-runs the
+     * schedule, which stops or downshifts cameras by priority, or brings them back.
+     */
+    private void checkDisk() {
+        if (diskCheckPending) {
+            return;
+        }
+        diskCheckPending = true;
+        final DiskPolicy policy = config.get().getDiskPolicy();
+        final Set<String> open = new HashSet<>();
+        for (CameraRecorder recorder : cameraRecorders.values()) {
+            String path = recorder.getCurrentFilePath();
+            if (path != null) {
+                open.add(new File(path).getAbsolutePath());
+            }
+            String proxy = recorder.getProxyFilePath();
+            if (proxy != null) {
+                open.add(new File(proxy).getAbsolutePath());
+            }
+        }
+        worker.execute(() -> {
+            try {
+                DiskMonitor.Level before = disk.getLevel();
+                DiskMonitor.Level level = disk.sample(policy);
+                long toFree = disk.bytesToFree(policy);
+                if (toFree > 0 && policy.isPrune()) {
+                    Retention.Freed freed = Retention.deleteOldest(new File(basePath), toFree, open, coverage);
+                    disk.countPruned(freed.files, freed.bytes);
+                    if (freed.bytes > 0) {
+                        level = disk.sample(policy);
+                    }
+                }
+                long now = RecorderClock.currentTimeMillis();
+                if (policy.getRetentionHours() > 0 && now - lastRetentionMs >= RETENTION_INTERVAL_MS) {
+                    lastRetentionMs = now;
+                    Retention.Freed freed = Retention.deleteOlderThan(new File(basePath),
+                            now - policy.getRetentionHours() * 3_600_000L, open, coverage);
+                    disk.countPruned(freed.files, freed.bytes);
+                }
+                if (level != before) {
+                    logger.warning(TAG, "Recording volume " + before + " -> " + level
+                            + " (" + (disk.getUsableBytes() / (1024 * 1024)) + " MB free, write " + disk.getWriteMs() + " ms)");
+                    scheduler.post(this::runScheduleTick);
+                }
+            } finally {
+                diskCheckPending = false;
+            }
+        });
+    }
+
+    /**
+     * A segment just closed: index, cover, publish and queue it on the worker (see
+     * {@link SegmentFinisher#segmentClosed})
+     * @param startMs steady time the segment was requested at
+     */
+    private void segmentClosed(CameraRecorder recorder, String path, long startMs) {
+        segmentClosed(recorder, path, startMs, null);
+    }
+
+    /**
+     * @param sized given the segment's size in bytes, on the worker (may be null)
+     */
+    private void segmentClosed(CameraRecorder recorder, String path, long startMs, LongConsumer sized) {
+        if (path != null) {
+            recorder.setLastSegmentPath(finisher.segmentClosed(recorder, path, startMs, sized));
+        }
+    }
+
+    @Override
+    public CoverageIndex getCoverage() {
+        return coverage;
+    }
+
+    @Override
+    public SegmentUploader getUploader() {
+        return uploader;
+    }
+
+    @Override
+    public LiveFanout getLive() {
+        return live;
+    }
+
+    /**
+     * Battery camera under a duty cycle: connected only for clips (see {@link BatteryPolicy})
+     */
+    boolean isDutyCycled(CameraRecorder recorder) {
+        return recorder.getCamera().isBatteryPowered() && !config.get().getBatteryPolicy().isAlwaysOn();
+    }
+
+    /**
+     * Duty cycle of one battery camera, from the schedule tick: start its clip when the slot
+     * comes (at a later tick if the concurrent-clip cap is reached), and cut a clip that
+     * overran because it never got to record
+     */
+    private void dutyTick(CameraRecorder recorder, long nowMs) {
+        long clipEnd = recorder.getClipEndMs();
+        if (clipEnd != 0) {
+            if (nowMs >= clipEnd + CLIP_GRACE_MS) {
+                logger.warning(TAG, "Battery clip overran for " + recorder.getCameraName() + ", disconnecting");
+                stopCamera(recorder, null);
+            }
+            return;
+        }
+        if (!recorder.isIdle()) {
+            // Was connected before the duty cycle applied to it
+            logger.info(TAG, "Duty-cycling battery camera " + recorder.getCameraName());
+            stopCamera(recorder, null);
+            return;
+        }
+        if (recorder.isPaused() || !effectiveMode(recorder).isRecording()) {
+            return;
+        }
+        BatteryPolicy policy = config.get().getBatteryPolicy();
+        if (recorder.getNextClipAtMs() == 0) {
+            recorder.setNextClipAtMs(policy.nextSlot(recorder.getCameraId(), nowMs));
+        }
+        if (nowMs >= recorder.getNextClipAtMs() && startClip(recorder, policy.getClipSeconds(), "duty cycle", false)) {
+            recorder.setNextClipAtMs(policy.nextSlot(recorder.getCameraId(), nowMs + 1));
+        }
+    }
+
+    /**
+     * Connect a duty-cycled camera for a clip of the given length
+     * @param force start even if the concurrent-clip cap is reached (wake events)
+     * @return false if the cap is reached
+     */
+    private boolean startClip(CameraRecorder recorder, int seconds, String reason, boolean force) {
+        if (!force && activeClips() >= config.get().getBatteryPolicy().getConcurrent()) {
+            logger.info(TAG, "Battery clip slots busy, delaying " + recorder.getCameraName());
+            return false;
+        }
+        logger.info(TAG, "Battery clip (" + reason + ") for " + recorder.getCameraName() + ": " + seconds + " s");
+        recorder.setClipEndMs(RecorderClock.currentTimeMillis() + seconds * 1000L);
+        recorder.setIdle(false);
+        recorder.resetStop();
+        startCameraRecording(recorder);
+        return true;
+    }
+
+    private int activeClips() {
+        int clips = 0;
+        for (CameraRecorder recorder : cameraRecorders.values()) {
+            if (recorder.getClipEndMs() != 0) clips++;
+        }
+        return clips;
+    }
+
+    /**
+     * The cloud reports a camera awake (doorbell press, motion): record a wake clip now if
+     * it is duty-cycled, or extend the clip already running. May be called from any thread.
+     */
+    public void onCameraWake(final String deviceId, final String reason) {
+        scheduler.post(() -> {
+            CameraRecorder recorder = cameraRecorders.get(deviceId);
+            if (!isRunning || recorder == null || !isDutyCycled(recorder) || recorder.isPaused()
+                    || !effectiveMode(recorder).isRecording()) {
+                return;
+            }
+            int seconds = config.get().getBatteryPolicy().getWakeClipSeconds();
+            long until = RecorderClock.currentTimeMillis() + seconds * 1000L;
+            if (recorder.getClipEndMs() != 0) {
+                recorder.setClipEndMs(Math.max(recorder.getClipEndMs(), until));
+                logger.info(TAG, "Wake (" + reason + ") extends the clip of " + recorder.getCameraName());
+            } else {
+                startClip(recorder, seconds, reason, true);
+            }
+        });
+    }
+
+    /**
+     * An account's cloud session was lost (logged in on another device, or the cloud
+     * dropped it): its cameras would each drift into their own slow retry loop. Instead
+     * {@link SessionRecovery} stops them, logs in again once per account and reconnects
+     * them together. A loss reported while the account is already recovering joins that
+     * recovery. May be called from any thread.
+     * @param account       the account whose session was lost, null for every account
+     * @param staleSessions the cameras' sessions died with it: take over every connected
+     *                      camera; otherwise only the ones not recording
+     */
+    public void onSessionLost(final String account, final String reason, final boolean staleSessions) {
+        scheduler.post(() -> {
+            if (!isRunning) {
+                return;
+            }
+            for (String name : backends.keySet()) {
+                if (account == null || account.equals(name)) {
+                    recovery.sessionLost(name, reason, staleSessions);
+                }
+            }
+        });
+    }
+
+    /**
+     * Measured memory over the budget: shed the most recently admitted camera. One per
+     * tick, so the memory it frees shows up before the next decision.
+     */
+    private void enforceBudget() {
+        if (!resources.isOverBudget()) {
+            return;
+        }
+        String newest = resources.newestAdmitted(cameraRecorders.keySet());
+        CameraRecorder recorder = newest != null ? cameraRecorders.get(newest) : null;
+        if (recorder == null) {
+            return;
+        }
+        logger.warning(TAG, "Over memory budget, shedding " + recorder.getCameraName());
+        resources.countShed();
+        recorder.setShed(true);
+        stopCamera(recorder, null);
+    }
+
+    /**
+     * Reconnect an idle camera unless it is paused or its schedule says idle
+     */
+    private void wakeCamera(CameraRecorder recorder) {
+        if (recorder.isPaused() || !effectiveMode(recorder).isRecording()
+                || recovery.isRecovering(recorder.getCameraId())) {
+            return;
+        }
+        if (isDutyCycled(recorder)) {
+            // Resumed or restarted by an operator: one clip, then back to the duty cycle
+            startClip(recorder, config.get().getBatteryPolicy().getClipSeconds(), "manual", true);
+            return;
+        }
+        recorder.setIdle(false);
+        recorder.resetStop();
+        startCameraRecording(recorder);
+    }
+
+    /**
+     * Stop recording and disconnect a camera on purpose (profile schedule), freeing its
+     * P2P session and bandwidth until the next window opens
+     */
+    private void idleCamera(final CameraRecorder recorder) {
+        logger.info(TAG, "Idling " + recorder.getCameraName() + " by schedule");
+        stopCamera(recorder, null);
+    }
+
+    /**
+     * Stop recording, disconnect and release the camera's session, leaving it idle
+     * @param after run once the session is released (may be null)
+     */
+    void stopCamera(final CameraRecorder recorder, final Runnable after) {
+        recorder.setIdle(true);
+        recorder.requestStop();
+        recorder.setSnapshotting(false);
+        recorder.setClipEndMs(0);
+        closeProxy(recorder);
+        Runnable rotation = recorder.getPendingRotation();
+        if (rotation != null) {
+            scheduler.cancel(rotation);
+            recorder.setPendingRotation(null);
+        }
+
+        final String cameraId = recorder.getCameraId();
+        resources.unreserve(cameraId);
+        // Leaving camera: its bandwidth goes to the others at their next rotation
+        rebalanceBandwidth();
+        final CameraSession session = sessions.remove(cameraId);
+        if (session == null) {
+            recorder.setRecording(false);
+            if (after != null) after.run();
+            return;
+        }
+        final String segmentPath = recorder.isRecording() ? recorder.getCurrentFilePath() : null;
+        final long segmentStartMs = recorder.getRecordingStartMs();
+        session.stopRecording(then(() -> {
+            recorder.setRecording(false);
+            segmentClosed(recorder, segmentPath, segmentStartMs);
+            session.stopPreview(then(() -> session.disconnect(then(() -> {
+                releaseSession(cameraId, session);
+                if (after != null) after.run();
+            }))));
+        }));
+    }
+
+    // RecorderControl (HTTP control API); actions run on the scheduler
+
+    @Override
+    public Collection<CameraRecorder> getCameras() {
+        return cameraRecorders.values();
+    }
+
+    @Override
+    public CameraRecorder getCamera(String deviceId) {
+        return cameraRecorders.get(deviceId);
+    }
+
+    @Override
+    public long getUptimeMillis() {
+        return isRunning ? (LifecycleMetrics.now() - startedAtNanos) / 1_000_000L : 0;
+    }
+
+    @Override
+    public boolean restartCamera(String deviceId) {
+        final CameraRecorder recorder = cameraRecorders.get(deviceId);
+        if (recorder == null) {
+            return false;
+        }
+        scheduler.post(() -> {
+            logger.info(TAG, "Restart requested for " + recorder.getCameraName());
+            // SDK requires a pause between stopping and starting again
+            stopCamera(recorder, () -> scheduler.postDelayed(() -> wakeCamera(recorder), 3000));
+        });
+        return true;
+    }
+
+    @Override
+    public boolean pauseCamera(String deviceId) {
+        final CameraRecorder recorder = cameraRecorders.get(deviceId);
+        if (recorder == null) {
+            return false;
+        }
+        scheduler.post(() -> {
+            logger.info(TAG, "Pause requested for " + recorder.getCameraName());
+            recorder.setPaused(true);
+            if (!recorder.isIdle()) {
+                stopCamera(recorder, null);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean resumeCamera(String deviceId) {
+        final CameraRecorder recorder = cameraRecorders.get(deviceId);
+        if (recorder == null) {
+            return false;
+        }
+        scheduler.post(() -> {
+            logger.info(TAG, "Resume requested for " + recorder.getCameraName());
+            recorder.setPaused(false);
+            if (recorder.isIdle()) {
+                wakeCamera(recorder);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * @return true if the camera records a proxy next to its video in this mode: its
+     * profile asks for one and the mode is a video stream above LOW
+     */
+    private boolean isProxied(CameraRecorder recorder, CameraProfile.Mode mode) {
+        CameraProfile profile = config.get().getProfile(recorder.getCameraId());
+        return profile != null && profile.isProxy() && mode.isVideo() && mode != CameraProfile.Mode.LOW;
+    }
+
+    /**
+     * A video segment is starting: record its proxy too, under the same name in the proxy
+     * directory, opening the proxy session first if needed (its first proxy then starts
+     * once it previews). The proxy session is closed when the camera no longer wants one.
+     */
+    private void startProxy(CameraRecorder recorder, String segmentPath) {
+        String cameraId = recorder.getCameraId();
+        ProxyStream proxy = proxies.get(cameraId);
+        int streamId = isProxied(recorder, effectiveMode(recorder))
+                ? backendOf(recorder).resolveStreamId(recorder.getCamera(), CameraProfile.Mode.LOW) : -1;
+        if (streamId == recorder.getStreamId()) {
+            // Already the lowest stream this camera has
+            streamId = -1;
+        }
+        if (proxy != null && proxy.streamId != streamId) {
+            proxy.close();
+            proxy = null;
+        }
+        long[] backoff = proxyBackoff.get(cameraId);
+        if (streamId < 0 || backoff != null && RecorderClock.currentTimeMillis() < backoff[0]) {
+            return;
+        }
+        String path = CameraRecorder.proxyOf(segmentPath);
+        File dir = new File(path).getParentFile();
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        if (proxy == null) {
+            proxy = new ProxyStream(recorder, backendOf(recorder).openProxySession(recorder.getCamera()), streamId);
+            resources.opened(cameraId, ResourceManager.Kind.SESSION);
+            proxies.put(cameraId, proxy);
+            proxy.open(path);
+        } else {
+            proxy.record(path);
+        }
+    }
+
+    /**
+     * Close the proxy being recorded, if any (the proxy session stays up for the next one)
+     */
+    private void stopProxy(CameraRecorder recorder) {
+        ProxyStream proxy = proxies.get(recorder.getCameraId());
+        if (proxy != null) {
+            proxy.stop(null);
+        }
+    }
+
+    /**
+     * Close the proxy and release the proxy session, if any
+     */
+    private void closeProxy(CameraRecorder recorder) {
+        ProxyStream proxy = proxies.get(recorder.getCameraId());
+        if (proxy != null) {
+            proxy.close();
+        }
+    }
+
+    /**
+     * Proxy of one camera's video: a second session on the camera previewing its lowest
+     * stream, recording one proxy per video segment. Proxies start and stop with their
+     * segments, so both cut at the same points. Best effort: a failure releases the proxy
+     * session and the camera records without proxies for a while (see PROXY_RETRY_MIN_MS);
+     * the video itself is never held up.
+     */
+    private final class ProxyStream {
+        private final CameraRecorder recorder;
+        private final CameraSession session;
+        final int streamId;
+        private boolean ready;
+        private boolean closed;
+        // Proxy to record once ready, the one being recorded, and whether its start was confirmed
+        private String wanted;
+        private String file;
+        private boolean started;
+
+        ProxyStream(CameraRecorder recorder, CameraSession session, int streamId) {
+            this.recorder = recorder;
+            this.session = session;
+            this.streamId = streamId;
+        }
+
+        void open(String path) {
+            wanted = path;
+            logger.info(TAG, "Opening proxy stream " + streamId + " for " + recorder.getCameraName());
+            session.connect(new CameraSession.Callback() {
+                @Override
+                public void onSuccess(String message) {
+                    if (closed) {
+                        return;
+                    }
+                    session.startPreview(streamId, new CameraSession.Callback() {
+                        @Override
+                        public void onSuccess(String message) {
+                            if (closed) {
+                                return;
+                            }
+                            ready = true;
+                            String next = wanted;
+                            if (next != null) {
+                                wanted = null;
+                                record(next);
+                            }
+                        }
+
+                        @Override
+                        public void onFailed(String error) {
+                            fail("preview", error);
+                        }
+                    }, code -> fail("stream", "closed, code " + code));
+                }
+
+                @Override
+                public void onFailed(String error) {
+                    fail("connect", error);
+                }
+            });
+        }
+
+        void record(final String path) {
+            if (closed) {
+                return;
+            }
+            if (!ready) {
+                wanted = path;
+                return;
+            }
+            if (file != null) {
+                // Previous proxy still open (its segment ended unexpectedly): the SDK wants a pause
+                stop(() -> scheduler.postDelayed(() -> record(path), 3000));
+                return;
+            }
+            file = path;
+            recorder.setProxyFilePath(path);
+            session.startRecording(path, new CameraSession.Callback() {
+                @Override
+                public void onSuccess(String message) {
+                    proxyBackoff.remove(recorder.getCameraId());
+                    if (path.equals(file)) {
+                        started = true;
+                    } else {
+                        // Stopped or closed while starting
+                        session.stopRecording(then(() -> finisher.proxyClosed(recorder, path)));
+                    }
+                }
+
+                @Override
+                public void onFailed(String error) {
+                    if (path.equals(file)) {
+                        file = null;
+                        recorder.setProxyFilePath(null);
+                    }
+                    fail("record", error);
+                }
+            }, code -> {
+                if (path.equals(file)) {
+                    // The muxer finalized what it had; the next segment starts a new proxy
+                    file = null;
+                    started = false;
+                    recorder.setProxyFilePath(null);
+                    finisher.proxyClosed(recorder, path);
+                }
+            });
+        }
+
+        /**
+         * Close the proxy being recorded
+         * @param after run once it is closed (may be null)
+         */
+        void stop(final Runnable after) {
+            wanted = null;
+            final String path = file;
+            boolean recording = started;
+            file = null;
+            started = false;
+            recorder.setProxyFilePath(null);
+            if (path == null || !recording) {
+                // Nothing recorded yet: a start still in flight stops itself
+                if (after != null) after.run();
+                return;
+            }
+            session.stopRecording(then(() -> {
+                finisher.proxyClosed(recorder, path);
+                if (after != null) after.run();
+            }));
+        }
+
+        /**
+         * Close the proxy and release the session (once)
+         */
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            ready = false;
+            proxies.remove(recorder.getCameraId(), this);
+            final String cameraId = recorder.getCameraId();
+            stop(() -> session.stopPreview(then(() -> session.disconnect(then(() -> {
+                try {
+                    session.release();
+                } catch (Exception e) {
+                    logger.error(TAG, "Error releasing proxy session: " + e.getMessage());
+                }
+                resources.closed(cameraId, ResourceManager.Kind.SESSION);
+            })))));
+        }
+
+        private void fail(String step, String error) {
+            if (closed) {
+                return;
+            }
+            long[] backoff = proxyBackoff.get(recorder.getCameraId());
+            long delayMs = backoff == null ? PROXY_RETRY_MIN_MS : Math.min(PROXY_RETRY_MAX_MS, backoff[1] * 2);
+            proxyBackoff.put(recorder.getCameraId(), new long[]{RecorderClock.currentTimeMillis() + delayMs, delayMs});
+            logger.warning(TAG, "Proxy " + step + " failed for " + recorder.getCameraName() + ": " + error
+                    + ", no proxies for " + delayMs / 1000 + " s");
+            close();
+        }
+    }
+
+    /**
+     * Callback that runs the next step whatever the outcome
+     */
+    private static CameraSession.Callback then(final Runnable next) {
+        return new CameraSession.Callback() {
+            @Override
+            public void onSuccess(String s) {
+                next.run();
+            }
+
+            @Override
+            public void onFailed(String s) {
+                next.run();
+            }
+        };
+    }
+
+    /**
+     * Continue recording with a new file without restarting preview
+     * (preview is already active, just start new recording)
+     * @param gapStart monotonic time the previous segment started stopping
+     */
+    private void continueRecording(final CameraRecorder recorder, final CameraSession session,
+                                   final long gapStart) {
+        if (!session.isConnected()) {
+            logger.warning(TAG, "Session not connected for " + recorder.getCameraName());
+            // If disconnected, need to reconnect fully
+            recorder.markFailure();
+            connectAndRecord(recorder);
+            return;
+        }
+
+        final String filePath = recorder.generateNewFilePath();
+
+        // Create directory if not exists
+        File fileDir = new File(filePath).getParentFile();
+        if (!fileDir.exists()) {
+            fileDir.mkdirs();
+        }
+
+        logger.info(TAG, "Continuing recording for " + recorder.getCameraName() + " to new file");
+
+        // Start recording with new file (preview is already running)
+        final String cameraId = recorder.getCameraId();
+        final long recordStart = LifecycleMetrics.now();
+        startProxy(recorder, filePath);
+        session.startRecording(filePath, new CameraSession.Callback() {
+            @Override
+            public void onSuccess(String successMsg) {
+                metrics.record(cameraId, LifecycleMetrics.Phase.RECORD_START, recordStart, true);
+                metrics.record(cameraId, LifecycleMetrics.Phase.ROTATION_GAP, gapStart, true);
+                recorder.setRecording(true);
+                logger.info(TAG, "Recording continued successfully for " + recorder.getCameraName() + " to " + filePath);
+
+                // Schedule next rotation
+                scheduleFileRotation(recorder, session);
+            }
+
+            @Override
+            public void onFailed(String errorMsg) {
+                metrics.record(cameraId, LifecycleMetrics.Phase.RECORD_START, recordStart, false, errorMsg);
+                logger.error(TAG, "Failed to continue recording for " + recorder.getCameraName() + ": " + errorMsg);
+                recorder.setRecording(false);
+
+                // If recording fails, try to restart everything
+                scheduleRetry(recorder, "continue", () -> {
+                    logger.info(TAG, "Reconnecting and restarting for " + recorder.getCameraName());
+
+                    // Stop preview and reconnect
+                    session.stopPreview(then(() -> connectAndRecord(recorder)));
+                }, 10000);
+            }
+        }, restartOnInterrupt(recorder, session, filePath));
+    }
+
+    /**
+     * Listener for an unexpected end of recording: restart the stream after a short pause
+     * (a closed stream goes on to a full reconnect in startStreamRecording)
+     */
+    private CameraSession.RecordListener restartOnInterrupt(final CameraRecorder recorder,
+                                                           final CameraSession session, final String filePath) {
+        return code -> {
+            logger.warning(TAG, "Recording interrupted for " + recorder.getCameraName() + ", code: " + code);
+
+            if (code > 0) {
+                logger.info(TAG, "Recording completed successfully, file saved: " + filePath);
+            } else {
+                logger.error(TAG, "Recording failed with code: " + code);
+            }
+
+            if (recorder.isRecording() && filePath.equals(recorder.getCurrentFilePath())) {
+                // The muxer finalizes what it has on an interruption
+                segmentClosed(recorder, filePath, recorder.getRecordingStartMs());
+            }
+            // The proxy ends with its segment
+            stopProxy(recorder);
+            recorder.setRecording(false);
+            Runnable rotation = recorder.getPendingRotation();
+            if (rotation != null) {
+                scheduler.cancel(rotation);
+                recorder.setPendingRotation(null);
+            }
+
+            // Start new recording automatically
+            scheduleRetry(recorder, "interrupt " + code, () -> {
+                if (!recorder.shouldStop()) {
+                    logger.info(TAG, "Auto-restarting recording for " + recorder.getCameraName());
+                    startStreamRecording(recorder, session);
+                }
+            }, 2000);
+        };
+    }
+
+    /**
+     * Post a retry on the scheduler, marking the camera as failed and timing the wait
+     */
+    private void scheduleRetry(final CameraRecorder recorder, final String reason,
+                               final Runnable action, long delayMs) {
+        recorder.markFailure();
+        recovery.settled(recorder, false);
+        final long scheduledAt = LifecycleMetrics.now();
+        final int epoch = recorder.getEpoch();
+        scheduler.postDelayed(() -> {
+            if (recorder.shouldStop() || recorder.getEpoch() != epoch) {
+                return;
+            }
+            if (!effectiveMode(recorder).isRecording()) {
+                // Held by its schedule or by disk pressure meanwhile: no point retrying
+                idleCamera(recorder);
+                return;
+            }
+            metrics.record(recorder.getCameraId(), LifecycleMetrics.Phase.RETRY_DELAY, scheduledAt, true, reason);
+            action.run();
+        }, delayMs);
+    }
+
+    /**
+     * Record time from the first failure to recording again, if the camera had failed
+     */
+    private void recordRecovery(CameraRecorder recorder) {
+        recovery.settled(recorder, true);
+        long failedAt = recorder.takeFailureStart();
+        if (failedAt != 0) {
+            long ms = metrics.record(recorder.getCameraId(), LifecycleMetrics.Phase.RECOVERY, failedAt, true, null);
+            logger.info(TAG, "Recovered " + recorder.getCameraName() + " after " + ms + " ms");
+        }
+    }
+
+    /**
+     * Stop every camera's recording, cancel all timers and release every session and
+     * per-camera backend resource (the stop chains complete asynchronously)
+     */
+    public void shutdown() {
+        shutdown(null);
+    }
+
+    /**
+     * {@link #shutdown()}, then run {@code done} on the scheduler thread once every camera
+     * is stopped and released, or after {@link #SHUTDOWN_STOP_MS} if some stop chain never
+     * calls back (a dead session)
+     */
+    public void shutdown(final Runnable done) {
+        isRunning = false;
+        scheduler.cancel(scheduleTick);
+        scheduler.cancel(checkpointTick);
+        // What was running, for the next start (the stops below are not its business);
+        // stopped before it was restored, the previous one still is
+        if (!restoring) {
+            checkpoint.save(RecorderCheckpoint.encode(cameraRecorders.values()));
+        }
+        uploader.shutdown();
+        live.close();
+
+        final int[] stopping = {cameraRecorders.size()};
+        final Runnable[] timeout = new Runnable[1];
+        final Runnable finished = () -> {
+            if (stopping[0] >= 0) {
+                stopping[0] = -1;
+                scheduler.cancel(timeout[0]);
+                done.run();
+            }
+        };
+        timeout[0] = () -> {
+            if (stopping[0] > 0) {
+                logger.warning(TAG, stopping[0] + " cameras not stopped after " + SHUTDOWN_STOP_MS + " ms, shutting down");
+            }
+            finished.run();
+        };
+        for (final CameraRecorder recorder : cameraRecorders.values()) {
+            stopCamera(recorder, () -> {
+                backendOf(recorder).releaseCamera(recorder.getCamera());
+                logger.info(TAG, "Released camera: " + recorder.getCameraId());
+                if (done != null) {
+                    scheduler.post(() -> {
+                        if (stopping[0] > 0 && --stopping[0] == 0) {
+                            finished.run();
+                        }
+                    });
+                }
+            });
+        }
+        if (done == null) {
+            return;
+        }
+        if (stopping[0] == 0) {
+            scheduler.post(finished);
+        } else {
+            scheduler.postDelayed(timeout[0], SHUTDOWN_STOP_MS);
+        }
+    }
+}
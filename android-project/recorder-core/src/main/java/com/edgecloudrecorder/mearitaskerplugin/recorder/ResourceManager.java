@@ -0,0 +1,326 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Per-camera ownership of native resources (device sessions, decoder surfaces) and a
+ * global memory budget. A camera is admitted with an estimated cost for its stream; a
+ * camera that does not fit is refused (shed) instead of pushing the process towards OOM,
+ * and the engine sheds the most recently admitted cameras when measured memory goes over
+ * the budget. Per-camera memory is an estimate: the SDK does not account memory per
+ * controller, so measured native/Java heap is attributed in proportion to the estimates.
+ */
+public class ResourceManager {
+    private static final long MB = 1024L * 1024L;
+
+    public enum Kind {
+        SESSION, SURFACE
+    }
+
+    /**
+     * Process memory as seen by the platform (Debug/ActivityManager on Android)
+     */
+    public interface MemoryProbe {
+        long javaHeapBytes();
+
+        long nativeHeapBytes();
+
+        /**
+         * @return budget to use when none is configured, Long.MAX_VALUE for no limit
+         */
+        long defaultBudgetBytes();
+    }
+
+    public static final MemoryProbe JVM = new MemoryProbe() {
+        @Override
+        public long javaHeapBytes() {
+            Runtime runtime = Runtime.getRuntime();
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+
+        @Override
+        public long nativeHeapBytes() {
+            return 0;
+        }
+
+        @Override
+        public long defaultBudgetBytes() {
+            return Long.MAX_VALUE;
+        }
+    };
+
+    /**
+     * Resources and reservation of one camera
+     */
+    public static final class Usage {
+        public final String cameraId;
+        public final long reservedBytes;
+        public final long estimatedBytes;
+        public final int sessions;
+        public final int surfaces;
+
+        Usage(String cameraId, long reservedBytes, long estimatedBytes, int sessions, int surfaces) {
+            this.cameraId = cameraId;
+            this.reservedBytes = reservedBytes;
+            this.estimatedBytes = estimatedBytes;
+            this.sessions = sessions;
+            this.surfaces = surfaces;
+        }
+    }
+
+    private static final class Entry {
+        long reservedBytes;
+        final int[] open = new int[Kind.values().length];
+
+        boolean isEmpty() {
+            if (reservedBytes != 0) return false;
+            for (int count : open) {
+                if (count != 0) return false;
+            }
+            return true;
+        }
+    }
+
+    private static ResourceManager instance;
+
+    // Insertion order = admission order, so the newest camera is shed first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private final Map<Kind, Long> opened = new EnumMap<>(Kind.class);
+    private final Map<Kind, Long> closed = new EnumMap<>(Kind.class);
+    private volatile MemoryProbe probe = JVM;
+    private volatile long budgetBytes;
+    private long reservedBytes;
+    private long refused;
+    private long shed;
+
+    private ResourceManager() {
+        for (Kind kind : Kind.values()) {
+            opened.put(kind, 0L);
+            closed.put(kind, 0L);
+        }
+    }
+
+    public static synchronized ResourceManager getInstance() {
+        if (instance == null) {
+            instance = new ResourceManager();
+        }
+        return instance;
+    }
+
+    public void setProbe(MemoryProbe probe) {
+        this.probe = probe != null ? probe : JVM;
+    }
+
+    /**
+     * @param budgetMb memory budget, 0 for the probe's default
+     */
+    public void setBudgetMb(int budgetMb) {
+        budgetBytes = budgetMb > 0 ? budgetMb * MB : 0;
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes > 0 ? budgetBytes : probe.defaultBudgetBytes();
+    }
+
+    /**
+     * Estimated native memory of one live stream (decoder, buffers, P2P session)
+     */
+    public static long costOf(CameraProfile.Mode mode) {
+        switch (mode) {
+            case IDLE:
+                return 0;
+            case SNAPSHOT:
+                return 4 * MB;
+            case LOW:
+                return 6 * MB;
+            case SD:
+                return 12 * MB;
+            default:
+                return 24 * MB;
+        }
+    }
+
+    /**
+     * Admit a camera, or update the cost of one already admitted (always granted)
+     * @return false if a new camera does not fit in the budget
+     */
+    public synchronized boolean reserve(String cameraId, long bytes) {
+        Entry entry = entries.get(cameraId);
+        if (entry != null && entry.reservedBytes > 0) {
+            reservedBytes += bytes - entry.reservedBytes;
+            entry.reservedBytes = bytes;
+            return true;
+        }
+        long budget = getBudgetBytes();
+        if (budget != Long.MAX_VALUE && reservedBytes + bytes > budget) {
+            refused++;
+            return false;
+        }
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(cameraId, entry);
+        }
+        entry.reservedBytes = bytes;
+        reservedBytes += bytes;
+        return true;
+    }
+
+    public synchronized void unreserve(String cameraId) {
+        Entry entry = entries.get(cameraId);
+        if (entry == null) {
+            return;
+        }
+        reservedBytes -= entry.reservedBytes;
+        entry.reservedBytes = 0;
+        if (entry.isEmpty()) {
+            entries.remove(cameraId);
+        }
+    }
+
+    public synchronized boolean isAdmitted(String cameraId) {
+        Entry entry = entries.get(cameraId);
+        return entry != null && entry.reservedBytes > 0;
+    }
+
+    public synchronized void opened(String cameraId, Kind kind) {
+        Entry entry = entries.get(cameraId);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(cameraId, entry);
+        }
+        entry.open[kind.ordinal()]++;
+        opened.put(kind, opened.get(kind) + 1);
+    }
+
+    public synchronized void closed(String cameraId, Kind kind) {
+        closed.put(kind, closed.get(kind) + 1);
+        Entry entry = entries.get(cameraId);
+        if (entry == null || entry.open[kind.ordinal()] == 0) {
+            return;
+        }
+        entry.open[kind.ordinal()]--;
+        if (entry.isEmpty()) {
+            entries.remove(cameraId);
+        }
+    }
+
+    /**
+     * @return open resources of this kind across all cameras
+     */
+    public synchronized long openCount(Kind kind) {
+        return opened.get(kind) - closed.get(kind);
+    }
+
+    /**
+     * @return true if measured memory (Java + native heap) is over the budget
+     */
+    public boolean isOverBudget() {
+        long budget = getBudgetBytes();
+        return budget != Long.MAX_VALUE && measuredBytes() > budget;
+    }
+
+    /**
+     * @return true if measured memory is below the given fraction of the budget
+     */
+    public boolean hasHeadroom(double fraction) {
+        long budget = getBudgetBytes();
+        return budget == Long.MAX_VALUE || measuredBytes() < budget * fraction;
+    }
+
+    public long measuredBytes() {
+        return probe.javaHeapBytes() + probe.nativeHeapBytes();
+    }
+
+    /**
+     * @return the most recently admitted camera among the candidates, or null
+     */
+    public synchronized String newestAdmitted(Collection<String> candidates) {
+        String newest = null;
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().reservedBytes > 0 && candidates.contains(entry.getKey())) {
+                newest = entry.getKey();
+            }
+        }
+        return newest;
+    }
+
+    public synchronized void countShed() {
+        shed++;
+    }
+
+    public synchronized List<Usage> getUsage() {
+        long measured = measuredBytes();
+        List<Usage> usage = new ArrayList<>(entries.size());
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            long estimated = reservedBytes > 0 ? measured * entry.reservedBytes / reservedBytes : 0;
+            usage.add(new Usage(e.getKey(), entry.reservedBytes, estimated,
+                    entry.open[Kind.SESSION.ordinal()], entry.open[Kind.SURFACE.ordinal()]));
+        }
+        return usage;
+    }
+
+    public synchronized long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    public synchronized long getRefused() {
+        return refused;
+    }
+
+    public synchronized long getShed() {
+        return shed;
+    }
+
+    /**
+     * Human readable report: totals, then per-camera reservation and open resources
+     */
+    public String dump() {
+        StringBuilder sb = new StringBuilder(summary());
+        for (Usage usage : getUsage()) {
+            sb.append(String.format(Locale.US, "%s reserved=%.1fMB est=%.1fMB sessions=%d surfaces=%d%n",
+                    usage.cameraId, usage.reservedBytes / (double) MB, usage.estimatedBytes / (double) MB,
+                    usage.sessions, usage.surfaces));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Measured memory, budget and reservations, and open/opened/closed per resource kind
+     */
+    public synchronized String summary() {
+        long budget = getBudgetBytes();
+        StringBuilder sb = new StringBuilder();
+        sb.append("=== Resources ===\n");
+        sb.append(String.format(Locale.US,
+                "java=%.1fMB native=%.1fMB budget=%s reserved=%.1fMB refused=%d shed=%d%n",
+                probe.javaHeapBytes() / (double) MB, probe.nativeHeapBytes() / (double) MB,
+                budget == Long.MAX_VALUE ? "none" : String.format(Locale.US, "%.0fMB", budget / (double) MB),
+                reservedBytes / (double) MB, refused, shed));
+        for (Kind kind : Kind.values()) {
+            sb.append(String.format(Locale.US, "%-8s open=%d opened=%d closed=%d%n",
+                    kind, opened.get(kind) - closed.get(kind), opened.get(kind), closed.get(kind)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Forget everything (tests and simulator runs)
+     */
+    public synchronized void reset() {
+        entries.clear();
+        reservedBytes = 0;
+        refused = 0;
+        shed = 0;
+        for (Kind kind : Kind.values()) {
+            opened.put(kind, 0L);
+            closed.put(kind, 0L);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Deletes footage (finished .mp4 segments and their proxies with their index sidecars,
+ * .jpg stills, and segments set aside as unfinished after a kill)
+ * in the camera directories under the recordings root (each one's files with its
+ * {@link CameraRecorder#PROXY_DIR} and {@link CameraRecorder#SNAPSHOT_DIR}), oldest first, taking deleted segments out of the cameras'
+ * {@link CoverageIndex} and their SHA256SUMS. Files still being written are passed in and never touched, nor are
+ * .part files of an unfinished timelapse. Hidden directories (publish copies in progress) and
+ * {@link CameraRecorder#EXPORT_DIR} are not footage and are left alone. Disk I/O: run off the scheduler thread.
+ */
+final class Retention {
+    private static final String TAG = "Retention";
+
+    /**
+     * Result of one pass
+     */
+    static final class Freed {
+        final int files;
+        final long bytes;
+
+        Freed(int files, long bytes) {
+            this.files = files;
+            this.bytes = bytes;
+        }
+    }
+
+    private Retention() {
+    }
+
+    /**
+     * Delete the oldest footage until {@code bytes} are freed (or none is left)
+     */
+    static Freed deleteOldest(File root, long bytes, Set<String> open, CoverageIndex coverage) {
+        return delete(footage(root, open), bytes, Long.MAX_VALUE, coverage);
+    }
+
+    /**
+     * Delete footage last modified before {@code cutoffMs}
+     */
+    static Freed deleteOlderThan(File root, long cutoffMs, Set<String> open, CoverageIndex coverage) {
+        return delete(footage(root, open), Long.MAX_VALUE, cutoffMs, coverage);
+    }
+
+    private static Freed delete(List<Footage> oldestFirst, long bytes, long cutoffMs, CoverageIndex coverage) {
+        int files = 0;
+        long freed = 0;
+        Set<File> dirs = new HashSet<>();
+        for (Footage footage : oldestFirst) {
+            if (freed >= bytes || footage.modifiedMs >= cutoffMs) {
+                break;
+            }
+            long length = footage.file.length();
+            long startMs = startOf(footage);
+            if (footage.file.delete()) {
+                if (startMs >= 0) {
+                    // A proxy's span stays covered by its segment
+                    if (!CameraRecorder.isProxy(footage.file)) {
+                        coverage.remove(footage.file.getParentFile().getName(), startMs, footage.modifiedMs);
+                    }
+                    dirs.add(footage.file.getParentFile());
+                }
+                files++;
+                freed += length;
+                File sidecar = SegmentIndex.sidecarOf(footage.file);
+                long sidecarLength = sidecar.length();
+                if (sidecar.delete()) {
+                    freed += sidecarLength;
+                }
+            }
+        }
+        for (File dir : dirs) {
+            try {
+                SegmentIndex.pruneChecksums(dir);
+            } catch (IOException e) {
+                RecorderLogger.getInstance().warning(TAG, "Cannot prune checksums of " + dir.getName() + ": " + e.getMessage());
+            }
+        }
+        if (files > 0) {
+            RecorderLogger.getInstance().info(TAG, "Deleted " + files + " files, " + (freed / (1024 * 1024)) + " MB");
+        }
+        return new Freed(files, freed);
+    }
+
+    /**
+     * @return when a segment's footage starts (its end is its modification time), -1 for stills
+     */
+    private static long startOf(Footage footage) {
+        String name = footage.file.getName();
+        if (!name.endsWith(".mp4")) {
+            return -1;
+        }
+        File sidecar = SegmentIndex.sidecarOf(footage.file);
+        if (sidecar.isFile()) {
+            try {
+                return footage.modifiedMs - SegmentIndex.map(sidecar).durationUs() / 1000;
+            } catch (IOException e) {
+                // fall back to the name
+            }
+        }
+        return CameraRecorder.parseTimestamp(name);
+    }
+
+    private static final class Footage {
+        final File file;
+        final long modifiedMs;
+
+        Footage(File file) {
+            this.file = file;
+            this.modifiedMs = file.lastModified();
+        }
+    }
+
+    /**
+     * @return footage files under root, oldest first
+     * @param open absolute paths of files being written
+     */
+    private static List<Footage> footage(File root, Set<String> open) {
+        List<Footage> files = new ArrayList<>();
+        File[] cameras = root.listFiles(File::isDirectory);
+        for (File camera : cameras != null ? cameras : new File[0]) {
+            String name = camera.getName();
+            if (name.startsWith(".") || name.equals(CameraRecorder.EXPORT_DIR)) {
+                continue;
+            }
+            collect(camera, open, files);
+            collect(new File(camera, CameraRecorder.PROXY_DIR), open, files);
+            collect(new File(camera, CameraRecorder.SNAPSHOT_DIR), open, files);
+        }
+        Collections.sort(files, (a, b) -> Long.compare(a.modifiedMs, b.modifiedMs));
+        return files;
+    }
+
+    private static void collect(File dir, Set<String> open, List<Footage> out) {
+        File[] children = dir.listFiles(File::isFile);
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String name = child.getName();
+            if ((name.endsWith(".mp4") || name.endsWith(".jpg") || name.endsWith(RecorderCheckpoint.UNFINISHED_SUFFIX))
+                    && !open.contains(child.getAbsolutePath())) {
+                out.add(new Footage(child));
+            }
+        }
+    }
+}
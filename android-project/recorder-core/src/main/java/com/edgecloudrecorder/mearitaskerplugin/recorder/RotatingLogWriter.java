@@ -0,0 +1,151 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Batched, size-rotated log file writer.
+ * Files: recorder.log (current), recorder.1.log ... recorder.N.log (older).
+ * Not thread-safe: owned by the logger's single writer thread.
+ */
+public final class RotatingLogWriter {
+    private static final String BASE_NAME = "recorder";
+    private static final char[] LEVEL_CHARS = {'V', 'D', 'I', 'W', 'E'};
+
+    private final File directory;
+    private final long maxFileBytes;
+    private final int maxFiles;
+
+    private final StringBuilder batch = new StringBuilder(16 * 1024);
+    private final SimpleDateFormat secondFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+    private long cachedSecond = Long.MIN_VALUE;
+    private String cachedSecondText = "";
+
+    private OutputStream out;
+    private long currentSize;
+
+    public RotatingLogWriter(File directory, long maxFileBytes, int maxFiles) {
+        this.directory = directory;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = Math.max(1, maxFiles);
+    }
+
+    /**
+     * Format one entry into the pending batch. The second-resolution part of the
+     * timestamp is formatted at most once per second.
+     */
+    public void append(long timeMillis, int level, String tag, String message, String stackTrace) {
+        long second = timeMillis / 1000;
+        if (second != cachedSecond) {
+            cachedSecond = second;
+            cachedSecondText = secondFormat.format(new Date(second * 1000));
+        }
+        int millis = (int) (timeMillis % 1000);
+
+        batch.append(cachedSecondText).append('.');
+        if (millis < 100) batch.append('0');
+        if (millis < 10) batch.append('0');
+        batch.append(millis)
+                .append(' ').append(levelChar(level))
+                .append(" [").append(tag).append("] ")
+                .append(message).append('\n');
+        if (stackTrace != null && !stackTrace.isEmpty()) {
+            batch.append(stackTrace).append('\n');
+        }
+    }
+
+    public boolean hasPending() {
+        return batch.length() > 0;
+    }
+
+    /**
+     * Write the pending batch with a single write call, rotating first if needed.
+     */
+    public void flush() throws IOException {
+        if (batch.length() == 0) {
+            return;
+        }
+        byte[] bytes = batch.toString().getBytes(StandardCharsets.UTF_8);
+        batch.setLength(0);
+
+        if (out == null) {
+            open();
+        } else if (currentSize + bytes.length > maxFileBytes) {
+            rotate();
+        }
+        out.write(bytes);
+        out.flush();
+        currentSize += bytes.length;
+    }
+
+    public void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Close and delete all log files.
+     */
+    public void deleteAll() {
+        close();
+        batch.setLength(0);
+        for (int i = 0; i <= maxFiles; i++) {
+            File file = fileAt(i);
+            if (file.exists()) {
+                file.delete();
+            }
+        }
+    }
+
+    public File getCurrentFile() {
+        return fileAt(0);
+    }
+
+    private void open() throws IOException {
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        File current = fileAt(0);
+        currentSize = current.length();
+        if (currentSize >= maxFileBytes) {
+            rotate();
+            return;
+        }
+        out = new FileOutputStream(current, true);
+    }
+
+    private void rotate() throws IOException {
+        close();
+        File oldest = fileAt(maxFiles - 1);
+        if (oldest.exists()) {
+            oldest.delete();
+        }
+        for (int i = maxFiles - 2; i >= 0; i--) {
+            File file = fileAt(i);
+            if (file.exists()) {
+                file.renameTo(fileAt(i + 1));
+            }
+        }
+        out = new FileOutputStream(fileAt(0), false);
+        currentSize = 0;
+    }
+
+    private File fileAt(int index) {
+        return new File(directory, index == 0 ? BASE_NAME + ".log" : BASE_NAME + "." + index + ".log");
+    }
+
+    private static char levelChar(int level) {
+        return level >= 0 && level < LEVEL_CHARS.length ? LEVEL_CHARS[level] : '?';
+    }
+}
@@ -0,0 +1,17 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+/**
+ * Single-threaded task queue the recording engine runs its timers on
+ * (the main looper on Android, an executor or virtual clock in the simulator)
+ */
+public interface Scheduler {
+
+    void post(Runnable task);
+
+    void postDelayed(Runnable task, long delayMs);
+
+    /**
+     * Remove every pending run of this task
+     */
+    void cancel(Runnable task);
+}
@@ -0,0 +1,240 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.upload.SegmentUploader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.LongConsumer;
+
+/**
+ * What happens to a segment (or proxy) of the {@link RecordingEngine} once it closed, on
+ * the worker: its keyframe index and checksum ({@link SegmentIndex}), its span in the
+ * camera's coverage, the move from the staging directory to the recordings root
+ * ({@link SegmentPublisher}) and the upload queue. Also finishes off the segments a
+ * killed run left half-written.
+ */
+final class SegmentFinisher {
+    private static final String TAG = "SegmentFinisher";
+
+    private final RecorderLogger logger = RecorderLogger.getInstance();
+    private final LifecycleMetrics metrics = LifecycleMetrics.getInstance();
+    private final SegmentPublisher publisher;
+    private final CoverageIndex coverage;
+    private final SegmentUploader uploader;
+    private final Executor worker;
+
+    SegmentFinisher(SegmentPublisher publisher, CoverageIndex coverage, SegmentUploader uploader, Executor worker) {
+        this.publisher = publisher;
+        this.coverage = coverage;
+        this.uploader = uploader;
+        this.worker = worker;
+    }
+
+    SegmentPublisher getPublisher() {
+        return publisher;
+    }
+
+    /**
+     * Set aside what a previous run left in the staging directory (the segments it was
+     * writing, and closed ones it did not get to publish) before any camera starts, as a
+     * new segment started in the same minute would get the same name. They are finished
+     * off on the worker like the open segments of the checkpoint: published if complete,
+     * else published as .unfinished.
+     */
+    void recoverStaged() {
+        int stale = publisher.dropStaleParts();
+        if (stale > 0) {
+            logger.info(TAG, "Dropped " + stale + " partial publish copies");
+        }
+        final List<File> open = new ArrayList<>();
+        for (File file : publisher.leftovers()) {
+            if (file.getName().endsWith(RecorderCheckpoint.UNFINISHED_SUFFIX)) {
+                open.add(file);
+                continue;
+            }
+            SegmentIndex.sidecarOf(file).delete();
+            File aside = new File(file.getPath() + RecorderCheckpoint.UNFINISHED_SUFFIX);
+            if (file.renameTo(aside)) {
+                open.add(aside);
+            }
+        }
+        if (!open.isEmpty()) {
+            logger.info(TAG, "Recovering " + open.size() + " staged segments");
+            finishInterrupted(open, new ArrayList<>());
+        }
+    }
+
+    /**
+     * Finish off, on the worker, segments a kill may have interrupted. Each set aside
+     * segment that turns out complete (the muxer finalized it before the kill) is put back,
+     * and it and the last closed segments never indexed are indexed, covered and queued
+     * for upload; an incomplete one is published as .unfinished.
+     * @param open   segments that were being written, already set aside as .unfinished
+     * @param closed last closed segments, indexed unless they already are
+     */
+    void finishInterrupted(final List<File> open, final List<File> closed) {
+        worker.execute(() -> finishSegments(open, closed));
+    }
+
+    /**
+     * A segment just closed: on the worker (it reads the segment once, front to back), write
+     * its keyframe index and checksum next to it and add its span to the camera's coverage.
+     * The span is measured by the stream's own timestamps (the indexed duration) and placed
+     * on the steady clock ending now, so rotation pauses and reconnects show as holes and
+     * clock changes cannot reorder footage. Segments left without an index are indexed on
+     * first use. Then it is published and queued for upload (if uploads are on).
+     * @param startMs steady time the segment was requested at (its footage cannot start earlier)
+     * @param sized   given its size in bytes before it is published (may be null)
+     * @return where the segment is published
+     */
+    String segmentClosed(CameraRecorder recorder, final String path, final long startMs, final LongConsumer sized) {
+        final String camera = recorder.getDirectoryName();
+        final String cameraId = recorder.getCameraId();
+        final long stopMs = RecorderClock.steadyTimeMillis();
+        final String published = publisher.publishedPathOf(path);
+        worker.execute(() -> {
+            File staged = new File(path);
+            if (!staged.isFile()) {
+                // Discarded output (simulator): the requested span is all there is to go by
+                coverage.add(camera, startMs, stopMs);
+                return;
+            }
+            if (sized != null) {
+                sized.accept(staged.length());
+            }
+            File segment = new File(published);
+            SegmentIndex index = null;
+            try {
+                index = SegmentIndex.write(staged);
+                long durationMs = index.durationUs() / 1000;
+                long start = Math.max(startMs, stopMs - durationMs);
+                coverage.add(camera, start, Math.min(stopMs, start + durationMs));
+            } catch (IOException e) {
+                logger.warning(TAG, "Cannot index " + staged.getName() + ": " + e.getMessage());
+            }
+            if (!publish(cameraId, staged, segment)) {
+                return;
+            }
+            try {
+                if (index != null) {
+                    index.appendChecksum(segment);
+                }
+            } catch (IOException e) {
+                logger.warning(TAG, "Cannot checksum " + segment.getName() + ": " + e.getMessage());
+            }
+            uploader.enqueue(segment);
+        });
+        return published;
+    }
+
+    /**
+     * A proxy closed: on the worker, index, publish and queue it for upload like its
+     * segment (its span is the segment's, already in the coverage)
+     */
+    void proxyClosed(CameraRecorder recorder, final String path) {
+        final String cameraId = recorder.getCameraId();
+        final String published = publisher.publishedPathOf(path);
+        worker.execute(() -> {
+            File staged = new File(path);
+            if (!staged.isFile()) {
+                return;
+            }
+            File proxy = new File(published);
+            SegmentIndex index = null;
+            try {
+                index = SegmentIndex.write(staged);
+            } catch (IOException e) {
+                logger.warning(TAG, "Cannot index proxy " + staged.getName() + ": " + e.getMessage());
+            }
+            if (!publish(cameraId, staged, proxy)) {
+                return;
+            }
+            try {
+                if (index != null) {
+                    index.appendChecksum(proxy);
+                }
+            } catch (IOException e) {
+                logger.warning(TAG, "Cannot checksum proxy " + proxy.getName() + ": " + e.getMessage());
+            }
+            uploader.enqueue(proxy);
+        });
+    }
+
+    /**
+     * See {@link #finishInterrupted}; worker thread
+     */
+    private void finishSegments(List<File> open, List<File> closed) {
+        for (File aside : open) {
+            String path = aside.getPath();
+            File segment = new File(publisher.publishedPathOf(
+                    path.substring(0, path.length() - RecorderCheckpoint.UNFINISHED_SUFFIX.length())));
+            try {
+                SegmentIndex.write(aside);
+            } catch (IOException | RuntimeException e) {
+                SegmentIndex.sidecarOf(aside).delete();
+                logger.warning(TAG, "Interrupted segment " + segment.getName() + " is not playable ("
+                        + e.getMessage() + "), kept as " + aside.getName());
+                publish(null, aside, new File(publisher.publishedPathOf(path)));
+                continue;
+            }
+            SegmentIndex.sidecarOf(aside).delete();
+            if (segment.exists()) {
+                logger.warning(TAG, "Interrupted segment " + segment.getName() + " is complete but its name was"
+                        + " taken again, kept as " + aside.getName());
+                publish(null, aside, new File(publisher.publishedPathOf(path)));
+                continue;
+            }
+            if (publish(null, aside, segment)) {
+                closed.add(segment);
+            }
+        }
+        for (File segment : closed) {
+            if (!segment.isFile() || SegmentIndex.sidecarOf(segment).isFile()) {
+                // Gone (retention), or indexed when it closed
+                continue;
+            }
+            try {
+                SegmentIndex index = SegmentIndex.write(segment);
+                long endMs = segment.lastModified();
+                if (!CameraRecorder.isProxy(segment)) {
+                    coverage.add(segment.getParentFile().getName(), endMs - index.durationUs() / 1000, endMs);
+                }
+                index.appendChecksum(segment);
+                logger.info(TAG, "Finished interrupted segment " + segment.getName());
+                uploader.enqueue(segment);
+            } catch (IOException e) {
+                logger.warning(TAG, "Cannot index " + segment.getName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Move a closed segment or proxy (with its sidecar, first, so it is indexed as soon as
+     * it appears) from the staging directory to the recordings root; no-op when written in
+     * place. Worker thread.
+     * @return false if it could not be moved: it stays staged and is recovered at the next start
+     */
+    private boolean publish(String cameraId, File staged, File target) {
+        if (staged.equals(target)) {
+            return true;
+        }
+        long startNanos = LifecycleMetrics.now();
+        try {
+            File sidecar = SegmentIndex.sidecarOf(staged);
+            if (sidecar.isFile()) {
+                publisher.publish(sidecar, SegmentIndex.sidecarOf(target));
+            }
+            boolean renamed = publisher.publish(staged, target);
+            metrics.record(cameraId, LifecycleMetrics.Phase.PUBLISH, startNanos, true,
+                    renamed ? "rename" : "copy " + target.length() / 1024 + " KB");
+            return true;
+        } catch (IOException e) {
+            metrics.record(cameraId, LifecycleMetrics.Phase.PUBLISH, startNanos, false, e.getMessage());
+            logger.error(TAG, "Cannot publish " + staged.getName() + ": " + e.getMessage());
+            return false;
+        }
+    }
+}
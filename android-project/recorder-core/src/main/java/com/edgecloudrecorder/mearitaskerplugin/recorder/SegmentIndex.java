@@ -0,0 +1,596 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keyframe index and checksum of one finished segment, kept in a sidecar next to it
+ * (<segment>.mp4.idx) so tools can seek by time without parsing the container again, and
+ * sync, upload and integrity checks can compare content without reading it again.
+ * Built once when the segment closes (or on first use for older footage) in a single
+ * front-to-back read: every byte goes through SHA-256, and the moov box is kept on the way
+ * for the video track's sample tables (stts/ctts/stss/stsz/stsc/stco). The segment is
+ * written by the camera SDK's own muxer, which patches its header on close, so this is the
+ * earliest point the final bytes can be hashed; right after close they come from the page
+ * cache. Read back by memory-mapping the sidecar.
+ *
+ * Sidecar layout, big-endian:
+ * header  magic "ECRX", version, keyframe count, sample count, duration (us),
+ *         length of the segment it describes (a rewritten segment invalidates it),
+ *         SHA-256 of the segment
+ * records one per keyframe: pts (us), byte offset, sample index, samples until the next
+ *         keyframe (the GOP)
+ *
+ * Each camera directory also gets a SHA256SUMS line per closed segment, in the format of
+ * {@code sha256sum -c}, so files pulled off the device can be checked where they land.
+ *
+ * Every count read from the segment is checked against the box it sits in (or the file)
+ * before anything is sized from it, so a corrupt segment fails with an IOException.
+ */
+public final class SegmentIndex {
+    public static final String SUFFIX = ".idx";
+    private static final int MAGIC = 0x45435258; // "ECRX"
+    // Version 1 had no checksum; such sidecars are rebuilt on first use
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 64;
+    private static final int SHA256_OFFSET = 32;
+    private static final int SHA256_BYTES = 32;
+    public static final String SUMS_FILE = "SHA256SUMS";
+    private static final int SCAN_BUFFER_BYTES = 256 * 1024;
+    private static final int RECORD_BYTES = 24;
+    // A moov bigger than this is not one of ours
+    private static final long MAX_MOOV_BYTES = 64L * 1024 * 1024;
+
+    private final ByteBuffer data;
+    private final int keyframes;
+    private final int samples;
+    private final long durationUs;
+    private final long segmentBytes;
+
+    private SegmentIndex(ByteBuffer data) throws IOException {
+        this.data = data;
+        if (data.limit() < HEADER_BYTES || data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+            throw new IOException("Not a segment index");
+        }
+        this.keyframes = data.getInt(8);
+        this.samples = data.getInt(12);
+        this.durationUs = data.getLong(16);
+        this.segmentBytes = data.getLong(24);
+        if (keyframes < 0 || data.limit() != HEADER_BYTES + (long) keyframes * RECORD_BYTES) {
+            throw new IOException("Truncated segment index");
+        }
+    }
+
+    public static File sidecarOf(File segment) {
+        return new File(segment.getPath() + SUFFIX);
+    }
+
+    /**
+     * Map the segment's sidecar, or build and write it if it is missing or stale.
+     * Disk I/O: call off the scheduler thread.
+     * @throws IOException if the segment is not a readable MP4 with a video track
+     */
+    public static SegmentIndex load(File segment) throws IOException {
+        File sidecar = sidecarOf(segment);
+        if (sidecar.isFile()) {
+            try {
+                SegmentIndex index = map(sidecar);
+                if (index.segmentBytes == segment.length()) {
+                    return index;
+                }
+            } catch (IOException e) {
+                // rebuilt below
+            }
+        }
+        return write(segment);
+    }
+
+    /**
+     * Parse the segment and (re)write its sidecar
+     */
+    public static SegmentIndex write(File segment) throws IOException {
+        ByteBuffer built = build(segment);
+        File sidecar = sidecarOf(segment);
+        File partial = new File(sidecar.getPath() + ".part");
+        try (FileOutputStream out = new FileOutputStream(partial)) {
+            out.getChannel().write(built.duplicate());
+        }
+        if (!partial.renameTo(sidecar)) {
+            partial.delete();
+            throw new IOException("Cannot publish " + sidecar.getName());
+        }
+        return new SegmentIndex(built);
+    }
+
+    public static SegmentIndex map(File sidecar) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(sidecar, "r")) {
+            // The mapping outlives the channel
+            return new SegmentIndex(file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length()));
+        }
+    }
+
+    public int keyframeCount() {
+        return keyframes;
+    }
+
+    public int sampleCount() {
+        return samples;
+    }
+
+    public long durationUs() {
+        return durationUs;
+    }
+
+    /**
+     * @return the segment's SHA-256, lower-case hex (as sha256sum prints it)
+     */
+    public String sha256Hex() {
+        StringBuilder sb = new StringBuilder(SHA256_BYTES * 2);
+        for (int i = 0; i < SHA256_BYTES; i++) {
+            int b = data.get(SHA256_OFFSET + i);
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Add this segment's line to the SHA256SUMS of its directory
+     */
+    public void appendChecksum(File segment) throws IOException {
+        synchronized (SegmentIndex.class) {
+            try (Writer writer = new FileWriter(new File(segment.getParentFile(), SUMS_FILE), true)) {
+                writer.write(sha256Hex() + "  " + segment.getName() + "\n");
+            }
+        }
+    }
+
+    /**
+     * Drop the SHA256SUMS lines of segments no longer in {@code dir} (after retention)
+     */
+    public static void pruneChecksums(File dir) throws IOException {
+        synchronized (SegmentIndex.class) {
+            File sums = new File(dir, SUMS_FILE);
+            if (!sums.isFile()) {
+                return;
+            }
+            List<String> kept = new ArrayList<>();
+            int dropped = 0;
+            try (BufferedReader reader = new BufferedReader(new FileReader(sums))) {
+                for (String line; (line = reader.readLine()) != null; ) {
+                    int space = line.indexOf("  ");
+                    if (space > 0 && new File(dir, line.substring(space + 2)).isFile()) {
+                        kept.add(line);
+                    } else {
+                        dropped++;
+                    }
+                }
+            }
+            if (dropped == 0) {
+                return;
+            }
+            File partial = new File(sums.getPath() + ".part");
+            try (Writer writer = new FileWriter(partial, false)) {
+                for (String line : kept) {
+                    writer.write(line + "\n");
+                }
+            }
+            if (!partial.renameTo(sums)) {
+                partial.delete();
+                throw new IOException("Cannot rewrite " + sums);
+            }
+        }
+    }
+
+    /**
+     * @return presentation time of keyframe {@code i}, from the start of the segment
+     */
+    public long timeUs(int i) {
+        return data.getLong(record(i));
+    }
+
+    /**
+     * @return file offset of keyframe {@code i}'s sample
+     */
+    public long offset(int i) {
+        return data.getLong(record(i) + 8);
+    }
+
+    /**
+     * @return index of keyframe {@code i} among the video samples
+     */
+    public int sampleIndex(int i) {
+        return data.getInt(record(i) + 16);
+    }
+
+    /**
+     * @return video samples from keyframe {@code i} up to the next one
+     */
+    public int gopSamples(int i) {
+        return data.getInt(record(i) + 20);
+    }
+
+    /**
+     * @return the last keyframe at or before {@code timeUs} (the first one if none), -1 when empty
+     */
+    public int keyframeAtOrBefore(long timeUs) {
+        int low = 0;
+        int high = keyframes - 1;
+        int found = keyframes > 0 ? 0 : -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (timeUs(mid) <= timeUs) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private int record(int i) {
+        if (i < 0 || i >= keyframes) {
+            throw new IndexOutOfBoundsException("Keyframe " + i + " of " + keyframes);
+        }
+        return HEADER_BYTES + i * RECORD_BYTES;
+    }
+
+    // Building
+
+    /**
+     * Sample tables of the video track
+     */
+    private static final class Track {
+        long timescale;
+        long duration;
+        ByteBuffer stts;
+        ByteBuffer ctts;
+        ByteBuffer stss;
+        ByteBuffer stsz;
+        ByteBuffer stsc;
+        ByteBuffer stco;
+        boolean co64;
+    }
+
+    private static ByteBuffer build(File segment) throws IOException {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer moov;
+        long length;
+        try (FileInputStream file = new FileInputStream(segment)) {
+            length = file.getChannel().size();
+            moov = scan(new DigestInputStream(new BufferedInputStream(file, SCAN_BUFFER_BYTES), sha256), length);
+        }
+        Track track = null;
+        for (ByteBuffer trak = child(moov, "trak"); trak != null; trak = next(moov, trak, "trak")) {
+            track = videoTrack(trak);
+            if (track != null) {
+                break;
+            }
+        }
+        if (track == null || track.timescale <= 0 || track.stts == null || track.stsz == null
+                || track.stsc == null || track.stco == null) {
+            throw new IOException("No video track in " + segment.getName());
+        }
+        return index(track, length, sha256.digest());
+    }
+
+    /**
+     * Read the whole segment once, front to back, keeping only the top-level moov box
+     * (everything read, skipped boxes and trailing bytes included, goes through the digest)
+     */
+    private static ByteBuffer scan(InputStream in, long length) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        byte[] scratch = new byte[SCAN_BUFFER_BYTES];
+        ByteBuffer moov = null;
+        long position = 0;
+        while (position + 8 <= length) {
+            long size = data.readInt() & 0xFFFFFFFFL;
+            int type = data.readInt();
+            int header = 8;
+            if (size == 1) {
+                size = data.readLong();
+                header = 16;
+            } else if (size == 0) {
+                size = length - position;
+            }
+            if (size < header || position + size > length) {
+                break;
+            }
+            if (type == fourcc("moov") && moov == null) {
+                if (size > MAX_MOOV_BYTES) {
+                    throw new IOException("moov too large: " + size);
+                }
+                byte[] body = new byte[(int) (size - header)];
+                data.readFully(body);
+                moov = ByteBuffer.wrap(body);
+            } else {
+                for (long left = size - header; left > 0; ) {
+                    int read = data.read(scratch, 0, (int) Math.min(scratch.length, left));
+                    if (read < 0) {
+                        throw new IOException("Segment shrank while indexing");
+                    }
+                    left -= read;
+                }
+            }
+            position += size;
+        }
+        while (data.read(scratch) > 0) {
+            // A torn last box still counts in the checksum
+        }
+        if (moov == null) {
+            // Unfinished segments have no moov yet
+            throw new IOException("No moov box");
+        }
+        return moov;
+    }
+
+    private static Track videoTrack(ByteBuffer trak) throws IOException {
+        ByteBuffer mdia = child(trak, "mdia");
+        ByteBuffer hdlr = mdia != null ? child(mdia, "hdlr") : null;
+        if (hdlr == null || hdlr.remaining() < 12 || hdlr.getInt(hdlr.position() + 8) != fourcc("vide")) {
+            return null;
+        }
+        Track track = new Track();
+        ByteBuffer mdhd = child(mdia, "mdhd");
+        if (mdhd != null) {
+            int at = mdhd.position();
+            if (mdhd.remaining() < 20 || (mdhd.get(at) == 1 && mdhd.remaining() < 32)) {
+                throw new IOException("Bad mdhd");
+            }
+            if (mdhd.get(at) == 1) {
+                track.timescale = mdhd.getInt(at + 20) & 0xFFFFFFFFL;
+                track.duration = mdhd.getLong(at + 24);
+            } else {
+                track.timescale = mdhd.getInt(at + 12) & 0xFFFFFFFFL;
+                track.duration = mdhd.getInt(at + 16) & 0xFFFFFFFFL;
+            }
+        }
+        ByteBuffer minf = child(mdia, "minf");
+        ByteBuffer stbl = minf != null ? child(minf, "stbl") : null;
+        if (stbl == null) {
+            return null;
+        }
+        track.stts = child(stbl, "stts");
+        track.ctts = child(stbl, "ctts");
+        track.stss = child(stbl, "stss");
+        track.stsz = child(stbl, "stsz");
+        track.stsc = child(stbl, "stsc");
+        track.stco = child(stbl, "stco");
+        if (track.stco == null) {
+            track.stco = child(stbl, "co64");
+            track.co64 = true;
+        }
+        return track;
+    }
+
+    private static ByteBuffer index(Track track, long segmentBytes, byte[] sha256) throws IOException {
+        // stsz: version/flags, sample_size, sample_count, [entry_size...]
+        int stsz = track.stsz.position();
+        if (track.stsz.remaining() < 12) {
+            throw new IOException("Bad stsz");
+        }
+        int fixedSize = track.stsz.getInt(stsz + 4);
+        int samples = track.stsz.getInt(stsz + 8);
+        // Per-sample sizes must fit the box; a fixed size times the count must fit the file
+        if (samples < 0 || (fixedSize == 0 && track.stsz.remaining() < 12 + 4L * samples)
+                || (fixedSize != 0 && (fixedSize & 0xFFFFFFFFL) * samples > segmentBytes)) {
+            throw new IOException("Bad stsz");
+        }
+        // A tiny fixed size fits almost any count: bound it by the tables before sizing arrays by it
+        long described = described(track);
+        if (samples > described) {
+            throw new IOException("stsz has " + samples + " samples, stts/stsc/stco describe " + described);
+        }
+
+        // Keyframe sample numbers (1-based); without stss every sample is one
+        int[] keys;
+        if (track.stss != null) {
+            int at = track.stss.position();
+            int count = entries(track.stss, "stss", 4);
+            keys = new int[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = track.stss.getInt(at + 8 + 4 * i);
+                if (i > 0 && keys[i] <= keys[i - 1]) {
+                    throw new IOException("Unordered stss entry " + keys[i]);
+                }
+            }
+        } else {
+            keys = new int[samples];
+            for (int i = 0; i < samples; i++) {
+                keys[i] = i + 1;
+            }
+        }
+
+        long[] pts = times(track, samples);
+        long[] offsets = offsets(track, samples, fixedSize);
+
+        ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + keys.length * RECORD_BYTES);
+        out.putInt(MAGIC).putInt(VERSION).putInt(keys.length).putInt(samples)
+                .putLong(track.duration * 1_000_000L / track.timescale).putLong(segmentBytes).put(sha256);
+        for (int i = 0; i < keys.length; i++) {
+            int sample = keys[i] - 1;
+            if (sample < 0 || sample >= samples) {
+                throw new IOException("Bad stss entry " + keys[i]);
+            }
+            int nextSample = i + 1 < keys.length ? keys[i + 1] - 1 : samples;
+            out.putLong(pts[sample] * 1_000_000L / track.timescale)
+                    .putLong(offsets[sample])
+                    .putInt(sample)
+                    .putInt(nextSample - sample);
+        }
+        out.flip();
+        return out;
+    }
+
+    /**
+     * @return how many samples both stts times and stsc places in stco's chunks (read as
+     * {@link #times} and {@link #offsets} do), without allocating per sample
+     */
+    private static long described(Track track) throws IOException {
+        int stts = track.stts.position();
+        int sttsEntries = entries(track.stts, "stts", 8);
+        long timed = 0;
+        for (int e = 0; e < sttsEntries; e++) {
+            timed += Math.max(0, track.stts.getInt(stts + 8 + 8 * e));
+        }
+        int stsc = track.stsc.position();
+        int stscEntries = entries(track.stsc, "stsc", 12);
+        int chunks = entries(track.stco, track.co64 ? "co64" : "stco", track.co64 ? 8 : 4);
+        long placed = 0;
+        int entry = 0;
+        for (int chunk = 1; chunk <= chunks && stscEntries > 0; chunk++) {
+            while (entry + 1 < stscEntries && track.stsc.getInt(stsc + 8 + 12 * (entry + 1)) <= chunk) {
+                entry++;
+            }
+            placed += Math.max(0, track.stsc.getInt(stsc + 12 + 12 * entry));
+        }
+        return Math.min(timed, placed);
+    }
+
+    /**
+     * @return presentation time of every sample in timescale units (decode time plus ctts)
+     */
+    private static long[] times(Track track, int samples) throws IOException {
+        long[] times = new long[samples];
+        int at = track.stts.position();
+        int entries = entries(track.stts, "stts", 8);
+        int sample = 0;
+        long time = 0;
+        for (int e = 0; e < entries && sample < samples; e++) {
+            int count = track.stts.getInt(at + 8 + 8 * e);
+            long delta = track.stts.getInt(at + 12 + 8 * e) & 0xFFFFFFFFL;
+            for (int i = 0; i < count && sample < samples; i++) {
+                times[sample++] = time;
+                time += delta;
+            }
+        }
+        if (sample < samples) {
+            throw new IOException("stts covers " + sample + " of " + samples + " samples");
+        }
+        if (track.ctts != null) {
+            at = track.ctts.position();
+            // Version 1 offsets are signed; version 0 ones fit in an int in practice
+            entries = entries(track.ctts, "ctts", 8);
+            sample = 0;
+            for (int e = 0; e < entries && sample < samples; e++) {
+                int count = track.ctts.getInt(at + 8 + 8 * e);
+                int offset = track.ctts.getInt(at + 12 + 8 * e);
+                for (int i = 0; i < count && sample < samples; i++) {
+                    times[sample++] += offset;
+                }
+            }
+        }
+        return times;
+    }
+
+    /**
+     * @return file offset of every sample, from chunk offsets, samples per chunk and sizes
+     */
+    private static long[] offsets(Track track, int samples, int fixedSize) throws IOException {
+        long[] offsets = new long[samples];
+        int stsz = track.stsz.position() + 12;
+        int stsc = track.stsc.position();
+        int stscEntries = entries(track.stsc, "stsc", 12);
+        int stco = track.stco.position();
+        int chunks = entries(track.stco, track.co64 ? "co64" : "stco", track.co64 ? 8 : 4);
+        int sample = 0;
+        int entry = 0;
+        for (int chunk = 1; chunk <= chunks && sample < samples; chunk++) {
+            // stsc: first_chunk, samples_per_chunk, description index
+            while (entry + 1 < stscEntries && track.stsc.getInt(stsc + 8 + 12 * (entry + 1)) <= chunk) {
+                entry++;
+            }
+            int perChunk = stscEntries > 0 ? track.stsc.getInt(stsc + 12 + 12 * entry) : 0;
+            long offset = track.co64 ? track.stco.getLong(stco + 8 + 8 * (chunk - 1))
+                    : track.stco.getInt(stco + 8 + 4 * (chunk - 1)) & 0xFFFFFFFFL;
+            for (int i = 0; i < perChunk && sample < samples; i++) {
+                offsets[sample] = offset;
+                offset += fixedSize != 0 ? fixedSize : track.stsz.getInt(stsz + 4 * sample) & 0xFFFFFFFFL;
+                sample++;
+            }
+        }
+        if (sample < samples) {
+            throw new IOException("Chunks cover " + sample + " of " + samples + " samples");
+        }
+        return offsets;
+    }
+
+    /**
+     * @return the entry count of a full box (version/flags, count, entries), checked to fit it
+     */
+    private static int entries(ByteBuffer box, String type, int entryBytes) throws IOException {
+        if (box.remaining() < 8) {
+            throw new IOException("Truncated " + type);
+        }
+        int count = box.getInt(box.position() + 4);
+        if (count < 0 || box.remaining() < 8 + (long) entryBytes * count) {
+            throw new IOException("Bad " + type + " entry count " + count);
+        }
+        return count;
+    }
+
+    /**
+     * @return the body of the first child box of this type (position at its start), or null
+     */
+    private static ByteBuffer child(ByteBuffer parent, String type) {
+        return find(parent, parent.position(), fourcc(type));
+    }
+
+    /**
+     * @return the next sibling of {@code previous} with this type, or null
+     */
+    private static ByteBuffer next(ByteBuffer parent, ByteBuffer previous, String type) {
+        return find(parent, previous.limit(), fourcc(type));
+    }
+
+    private static ByteBuffer find(ByteBuffer parent, int from, int type) {
+        int position = from;
+        while (position + 8 <= parent.limit()) {
+            long size = parent.getInt(position) & 0xFFFFFFFFL;
+            int header = 8;
+            if (size == 1 && position + 16 <= parent.limit()) {
+                size = parent.getLong(position + 8);
+                header = 16;
+            } else if (size == 0) {
+                size = parent.limit() - position;
+            }
+            if (size < header || position + size > parent.limit()) {
+                return null;
+            }
+            if (parent.getInt(position + 4) == type) {
+                ByteBuffer body = parent.duplicate();
+                body.limit((int) (position + size));
+                body.position(position + header);
+                return body;
+            }
+            position += (int) size;
+        }
+        return null;
+    }
+
+    private static int fourcc(String type) {
+        return (type.charAt(0) << 24) | (type.charAt(1) << 16) | (type.charAt(2) << 8) | type.charAt(3);
+    }
+}
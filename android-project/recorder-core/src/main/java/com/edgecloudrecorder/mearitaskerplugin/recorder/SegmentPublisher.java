@@ -0,0 +1,243 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Where segments are written while open, and how they reach the recordings root once
+ * closed. On Android 11+ /sdcard goes through the FUSE/MediaProvider layer, which every
+ * write of every muxer pays for; with a staging directory (opt-in, and only used when it
+ * is on the root's mount, see {@link #sameMount}) segments and proxies are written there,
+ * under the same {@code <camera>/[proxy/]<name>} layout, and renamed into the root when they
+ * close. A segment thus appears in the root complete and under its final name, or not at
+ * all; players, sync, retention, export and uploads never see a file being written. A file
+ * that cannot be renamed (left in a staging directory on another volume, which is then not
+ * used) is copied into the hidden {@code .publishing/} directory of the root (same volume
+ * as the target, but no camera directory, so consumers and the media layer do not pick it
+ * up), synced, and renamed into place (the staged file is deleted last). Without a staging
+ * directory segments are written in place. Disk I/O: run off the scheduler thread.
+ */
+final class SegmentPublisher {
+    private static final String TAG = "SegmentPublisher";
+    static final String PART_SUFFIX = ".part";
+    static final String PUBLISHING_DIR = ".publishing";
+    private static final int COPY_CHUNK = 8 * 1024 * 1024;
+    private static final String MOUNT_INFO = "/proc/self/mountinfo";
+
+    private final RecorderLogger logger = RecorderLogger.getInstance();
+    // Both end with a separator; the same path when segments are written in place
+    private final String root;
+    private final String staging;
+
+    /**
+     * @param root    recordings root
+     * @param staging directory segments are written to while open, null or empty to write
+     *                them in place
+     */
+    SegmentPublisher(String root, String staging) {
+        this.root = withSlash(root);
+        this.staging = staging == null || staging.isEmpty() ? this.root : withSlash(staging);
+    }
+
+    private static String withSlash(String path) {
+        return path.endsWith("/") ? path : path + "/";
+    }
+
+    boolean isStaged() {
+        return !staging.equals(root);
+    }
+
+    /**
+     * @return the root open segments are written under (the recordings root when in place)
+     */
+    String getStagingRoot() {
+        return staging;
+    }
+
+    /**
+     * @return where a file written under the staging root is published; other paths as they are
+     */
+    String publishedPathOf(String path) {
+        return path.startsWith(staging) ? root + path.substring(staging.length()) : path;
+    }
+
+    /**
+     * Move a closed file to its place under the root, replacing any file of that name
+     * @return true if it was renamed, false if it had to be copied
+     */
+    boolean publish(File staged, File target) throws IOException {
+        if (staged.equals(target)) {
+            return true;
+        }
+        File dir = target.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        if (staged.renameTo(target)) {
+            return true;
+        }
+        // Another file system: copy onto the target's volume, out of sight, then rename there
+        File part = partOf(target);
+        File partDir = part.getParentFile();
+        if (!partDir.isDirectory() && !partDir.mkdirs() && !partDir.isDirectory()) {
+            throw new IOException("Cannot create " + partDir);
+        }
+        try (FileChannel in = new FileInputStream(staged).getChannel();
+             FileOutputStream stream = new FileOutputStream(part);
+             FileChannel out = stream.getChannel()) {
+            long size = in.size();
+            for (long position = 0; position < size; ) {
+                long copied = in.transferTo(position, Math.min(COPY_CHUNK, size - position), out);
+                if (copied <= 0) {
+                    throw new IOException("Short copy of " + staged.getName() + " at " + position + "/" + size);
+                }
+                position += copied;
+            }
+            out.force(true);
+        } catch (IOException e) {
+            part.delete();
+            throw e;
+        }
+        part.setLastModified(staged.lastModified());
+        if (!part.renameTo(target)) {
+            part.delete();
+            throw new IOException("Cannot rename " + part.getName() + " into place");
+        }
+        if (!staged.delete()) {
+            logger.warning(TAG, "Published " + target.getName() + " but cannot delete " + staged);
+        }
+        return false;
+    }
+
+    /**
+     * @return true if both paths are on the same mount, so a file renames from one to the
+     * other (a rename across mounts fails even within one file system); false if not, or if
+     * the mount table cannot be read. Reads the mount table: call off the scheduler thread.
+     */
+    static boolean sameMount(String a, String b) {
+        List<String> mountPoints = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(MOUNT_INFO))) {
+            for (String line; (line = reader.readLine()) != null; ) {
+                // id parent major:minor root mount-point ...
+                String[] fields = line.split(" ");
+                if (fields.length > 4) {
+                    mountPoints.add(unescape(fields[4]));
+                }
+            }
+            return mountOf(new File(a).getCanonicalPath(), mountPoints)
+                    == mountOf(new File(b).getCanonicalPath(), mountPoints);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param mountPoints in mount table order
+     * @return index of the mount an absolute path is on: the deepest mount point containing
+     * it, the last one mounted over it if several; -1 if none
+     */
+    static int mountOf(String path, List<String> mountPoints) {
+        int found = -1;
+        int depth = -1;
+        for (int i = 0; i < mountPoints.size(); i++) {
+            String point = mountPoints.get(i);
+            boolean contains = point.equals("/") || path.equals(point) || path.startsWith(point + "/");
+            if (contains && point.length() >= depth) {
+                found = i;
+                depth = point.length();
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return a mount table path with its octal escapes (space, tab, newline, backslash) decoded
+     */
+    private static String unescape(String field) {
+        StringBuilder sb = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '\\' && i + 3 < field.length() && isOctal(field, i + 1)) {
+                sb.append((char) Integer.parseInt(field.substring(i + 1, i + 4), 8));
+                i += 3;
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isOctal(String s, int from) {
+        for (int i = from; i < from + 3; i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '7') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return where the copy of a file published to {@code target} is written before its
+     * rename: the same path under {@link #PUBLISHING_DIR}
+     */
+    private File partOf(File target) {
+        String path = target.getPath();
+        String relative = path.startsWith(root) ? path.substring(root.length()) : target.getName();
+        return new File(root + PUBLISHING_DIR, relative + PART_SUFFIX);
+    }
+
+    /**
+     * Delete the copies a previous run was publishing when it died (their staged files are
+     * still there and published again)
+     * @return how many were deleted
+     */
+    int dropStaleParts() {
+        return isStaged() ? deleteParts(new File(root + PUBLISHING_DIR)) : 0;
+    }
+
+    private static int deleteParts(File dir) {
+        int deleted = 0;
+        File[] children = dir.listFiles();
+        for (File child : children != null ? children : new File[0]) {
+            if (child.isDirectory()) {
+                deleted += deleteParts(child);
+            } else if (child.getName().endsWith(PART_SUFFIX) && child.delete()) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * @return the staged segments and proxies a previous run left behind (being written,
+     * or closed and not yet published, when it died), also those already set aside as
+     * unfinished; none when in place
+     */
+    List<File> leftovers() {
+        List<File> found = new ArrayList<>();
+        if (!isStaged()) {
+            return found;
+        }
+        File[] cameras = new File(staging).listFiles(File::isDirectory);
+        for (File camera : cameras != null ? cameras : new File[0]) {
+            collect(camera, found);
+            collect(new File(camera, CameraRecorder.PROXY_DIR), found);
+        }
+        return found;
+    }
+
+    private static void collect(File dir, List<File> found) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".mp4")
+                || name.endsWith(".mp4" + RecorderCheckpoint.UNFINISHED_SUFFIX));
+        for (File file : files != null ? files : new File[0]) {
+            found.add(file);
+        }
+    }
+}
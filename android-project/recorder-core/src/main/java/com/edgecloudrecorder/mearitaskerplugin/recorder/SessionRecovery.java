@@ -0,0 +1,255 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraBackend;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coordinated recovery of an account after its cloud session was lost, for the
+ * {@link RecordingEngine} and on its scheduler thread: stop the account's cameras (closing
+ * their segments), log in again with exponential backoff while they stop, then reconnect
+ * them in parallel, {@link #RECOVERY_CONNECTS} at a time, each still through the memory
+ * admission. A camera leaves its slot once it records again, fails (and goes on with its
+ * own retries) or overstays {@link #RECOVERY_SLOT_MS}. The time from the loss to the last
+ * camera settled is recorded as {@link LifecycleMetrics.Phase#SESSION_RECOVERY}; each
+ * camera also records its own RECOVERY. Duty-cycled cameras are only stopped: their next
+ * clip comes from the schedule tick.
+ */
+final class SessionRecovery {
+    private static final String TAG = "SessionRecovery";
+    // Re-login backoff, from the first retry up to the cap
+    private static final long RELOGIN_MIN_MS = 1000;
+    private static final long RELOGIN_MAX_MS = 60_000;
+    // Cameras reconnecting at once, and how long each may hold its slot
+    private static final int RECOVERY_CONNECTS = 4;
+    private static final long RECOVERY_SLOT_MS = 30_000;
+    // Stop chains on a dead session may never call back
+    private static final long RECOVERY_STOP_MS = 10_000;
+
+    private final RecorderLogger logger = RecorderLogger.getInstance();
+    private final LifecycleMetrics metrics = LifecycleMetrics.getInstance();
+    private final RecordingEngine engine;
+    private final Map<String, CameraBackend> backends;
+    private final Supplier<ConfigSnapshot> config;
+    private final Scheduler scheduler;
+    private final RecordingEngine.StatusListener status;
+    // Recoveries in progress by account (scheduler thread), and the cameras they hold
+    private final Map<String, AccountRecovery> recoveries = new HashMap<>();
+    private final Map<String, AccountRecovery> recovering = new ConcurrentHashMap<>();
+
+    SessionRecovery(RecordingEngine engine, Map<String, CameraBackend> backends, Supplier<ConfigSnapshot> config,
+                    Scheduler scheduler, RecordingEngine.StatusListener status) {
+        this.engine = engine;
+        this.backends = backends;
+        this.config = config;
+        this.scheduler = scheduler;
+        this.status = status;
+    }
+
+    /**
+     * The account's session was lost: start its recovery, or have the one in progress take
+     * over the cameras it does not hold yet. Scheduler thread.
+     * @param staleSessions the cameras' sessions died with it: take over every connected
+     *                      camera; otherwise only the ones not recording
+     */
+    void sessionLost(String account, String reason, boolean staleSessions) {
+        AccountRecovery recovery = recoveries.get(account);
+        if (recovery == null) {
+            recovery = new AccountRecovery(account, reason);
+            recoveries.put(account, recovery);
+        } else {
+            logger.info(TAG, "Session of " + account + " lost again (" + reason + ") while recovering");
+        }
+        recovery.take(staleSessions);
+    }
+
+    /**
+     * @return true while a recovery holds the camera (it brings it back, not the schedule)
+     */
+    boolean isRecovering(String cameraId) {
+        return recovering.containsKey(cameraId);
+    }
+
+    /**
+     * The camera a recovery reconnected is recording again ({@code ok}) or back on its own
+     * retries: its reconnect slot is free. May be called from any thread.
+     */
+    void settled(CameraRecorder recorder, boolean ok) {
+        final AccountRecovery recovery = recovering.get(recorder.getCameraId());
+        if (recovery != null && recovery.launched.contains(recorder)) {
+            scheduler.post(() -> recovery.settle(recorder, ok));
+        }
+    }
+
+    /**
+     * Recovery of one account
+     */
+    private final class AccountRecovery {
+        private final String account;
+        private final String reason;
+        private final long startNanos = LifecycleMetrics.now();
+        // Cameras taken over, not settled yet
+        private final Set<CameraRecorder> held = new HashSet<>();
+        // Stopped, waiting for the login and a slot
+        private final ArrayDeque<CameraRecorder> ready = new ArrayDeque<>();
+        // Reconnecting in a slot
+        private final Set<CameraRecorder> launched = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        private int total;
+        private int recovered;
+        private int attempts;
+        private boolean loggingIn;
+        private boolean loggedIn;
+
+        AccountRecovery(String account, String reason) {
+            this.account = account;
+            this.reason = reason;
+        }
+
+        /**
+         * Take over the account's connected cameras not held yet (all of them, or only the
+         * ones not recording), and log in again unless the session is there
+         */
+        void take(boolean staleSessions) {
+            List<CameraRecorder> cameras = new ArrayList<>();
+            for (CameraRecorder recorder : engine.getCameras()) {
+                if (account.equals(engine.accountOf(recorder)) && !recorder.isIdle() && !held.contains(recorder)
+                        && (staleSessions || !recorder.isRecording())) {
+                    cameras.add(recorder);
+                }
+            }
+            logger.warning(TAG, "Session of " + account + " lost (" + reason + "), recovering "
+                    + cameras.size() + " cameras");
+            status.onStatus("Session lost (" + account + "), recovering");
+            for (final CameraRecorder recorder : cameras) {
+                recorder.markFailure();
+                if (engine.isDutyCycled(recorder)) {
+                    engine.stopCamera(recorder, null);
+                    continue;
+                }
+                total++;
+                held.add(recorder);
+                recovering.put(recorder.getCameraId(), this);
+                final boolean[] done = new boolean[1];
+                final Runnable stopped = () -> {
+                    if (!done[0]) {
+                        done[0] = true;
+                        ready.add(recorder);
+                        launch();
+                    }
+                };
+                engine.stopCamera(recorder, () -> scheduler.post(stopped));
+                scheduler.postDelayed(stopped, RECOVERY_STOP_MS);
+            }
+            if (!loggingIn && !(loggedIn && backends.get(account).isLoggedIn())) {
+                loggedIn = false;
+                loggingIn = true;
+                login();
+            }
+            launch();
+        }
+
+        private void login() {
+            if (!engine.isRunning()) {
+                return;
+            }
+            CameraBackend backend = backends.get(account);
+            if (backend.isLoggedIn()) {
+                loggedIn();
+                return;
+            }
+            Account credentials = config.get().getAccount(account);
+            if (credentials == null) {
+                logger.error(TAG, "Account " + account + " is no longer configured, not recovering it");
+                loggedIn();
+                return;
+            }
+            attempts++;
+            final long loginStart = LifecycleMetrics.now();
+            backend.login(credentials, new CameraBackend.LoginCallback() {
+                @Override
+                public void onLoginSuccess() {
+                    metrics.record(null, LifecycleMetrics.Phase.LOGIN, loginStart, true, account + " (recovery)");
+                    scheduler.post(AccountRecovery.this::loggedIn);
+                }
+
+                @Override
+                public void onLoginFailed(String error) {
+                    metrics.record(null, LifecycleMetrics.Phase.LOGIN, loginStart, false, account + ": " + error);
+                    long delayMs = Math.min(RELOGIN_MAX_MS, RELOGIN_MIN_MS << Math.min(10, attempts - 1));
+                    logger.error(TAG, "Re-login to " + account + " failed (attempt " + attempts + "), retrying in "
+                            + delayMs + " ms: " + error);
+                    scheduler.postDelayed(AccountRecovery.this::login, delayMs);
+                }
+            });
+        }
+
+        private void loggedIn() {
+            if (loggedIn) {
+                return;
+            }
+            loggingIn = false;
+            loggedIn = true;
+            logger.info(TAG, "Session of " + account + " back after " + (LifecycleMetrics.now() - startNanos) / 1_000_000L
+                    + " ms, reconnecting " + total + " cameras");
+            launch();
+        }
+
+        /**
+         * Reconnect the stopped cameras while there are free slots
+         */
+        private void launch() {
+            while (loggedIn && engine.isRunning() && launched.size() < RECOVERY_CONNECTS && !ready.isEmpty()) {
+                final CameraRecorder recorder = ready.poll();
+                if (recorder.isPaused() || !engine.effectiveMode(recorder).isRecording()) {
+                    // Paused or idled by its schedule meanwhile
+                    settle(recorder, false);
+                    continue;
+                }
+                launched.add(recorder);
+                recorder.setIdle(false);
+                recorder.resetStop();
+                engine.startCameraRecording(recorder);
+                scheduler.postDelayed(() -> {
+                    if (launched.contains(recorder)) {
+                        logger.warning(TAG, "Recovery of " + recorder.getCameraName() + " slow, freeing its slot");
+                        settle(recorder, false);
+                    }
+                }, RECOVERY_SLOT_MS);
+            }
+            finishIfDone();
+        }
+
+        void settle(CameraRecorder recorder, boolean ok) {
+            if (!held.remove(recorder)) {
+                return;
+            }
+            launched.remove(recorder);
+            recovering.remove(recorder.getCameraId(), this);
+            if (ok) {
+                recovered++;
+            }
+            launch();
+        }
+
+        private void finishIfDone() {
+            if (!held.isEmpty() || !loggedIn || recoveries.get(account) != this) {
+                return;
+            }
+            recoveries.remove(account);
+            long ms = metrics.record(null, LifecycleMetrics.Phase.SESSION_RECOVERY, startNanos, recovered == total,
+                    account + ": " + recovered + "/" + total + " cameras recording (" + reason + ")");
+            logger.info(TAG, "Session recovery of " + account + ": " + recovered + "/" + total
+                    + " cameras recording after " + ms + " ms, " + attempts + " logins");
+            status.onStatus("Recording " + engine.getCameras().size() + " cameras");
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+/**
+ * Camera-to-instance assignment for a fleet split across several recorder containers.
+ * Uses jump consistent hashing (Lamping and Veach) on the device ID: no state to share
+ * between instances, an even spread, and going from N to N+1 shards moves only the
+ * ~1/(N+1) of the cameras that land on the new shard.
+ */
+public final class ShardRing {
+
+    private ShardRing() {
+    }
+
+    /**
+     * @return shard 0..shardCount-1 that records this camera
+     */
+    public static int shardOf(String deviceId, int shardCount) {
+        if (shardCount <= 1) {
+            return 0;
+        }
+        return jump(hash(deviceId), shardCount);
+    }
+
+    /**
+     * @return true if the instance with this index records the camera
+     */
+    public static boolean owns(int shardIndex, int shardCount, String deviceId) {
+        return shardOf(deviceId, shardCount) == shardIndex;
+    }
+
+    /**
+     * @throws IllegalArgumentException unless 0 <= index < count
+     */
+    public static void validate(int shardIndex, int shardCount) {
+        if (shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount) {
+            throw new IllegalArgumentException("Bad shard " + shardIndex + "/" + shardCount);
+        }
+    }
+
+    static int jump(long key, int buckets) {
+        long b = -1;
+        long j = 0;
+        while (j < buckets) {
+            b = j;
+            key = key * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) b;
+    }
+
+    /**
+     * FNV-1a over the UTF-16 chars, then a 64-bit finalizer: stable across JVMs and
+     * Android versions, unlike identity hashes
+     */
+    static long hash(String deviceId) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < deviceId.length(); i++) {
+            h ^= deviceId.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
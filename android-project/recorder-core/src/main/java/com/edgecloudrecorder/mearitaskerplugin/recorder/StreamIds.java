@@ -0,0 +1,281 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stream ID selection for a camera from its vst/bps/bps2 fields (see CommonUtils).
+ * The bps2 JSON only ever changes with the device list, so the set of advertised
+ * streams is parsed once per distinct string with a small key scanner and cached.
+ * The advertised resolutions also give a rough rate per stream for the bandwidth budget.
+ */
+public final class StreamIds {
+    public static final int QUALITY_AUTO = 0;
+    public static final int QUALITY_HD = 1;
+    public static final int QUALITY_SD = 2;
+    public static final int QUALITY_LOW = 3;
+
+    private static final int INVALID = -1;
+    private static final int MAX_CACHED = 256;
+    // Rate estimate from resolution: H.264 at surveillance quality, ~0.1 bit per pixel per frame
+    private static final double BITS_PER_PIXEL = 0.1;
+    private static final int DEFAULT_FPS = 15;
+    private static final Pattern RESOLUTION = Pattern.compile("(\\d+)\\s*[*xX]\\s*(\\d+)");
+    private static final Pattern FIELD = Pattern.compile("\"(w|h|fps)\"\\s*:\\s*\"?(\\d+)");
+
+    // Preference order of bps2 keys "0".."3" for each quality
+    private static final int[][] ORDER = {
+            {0, 1, 2, 3}, // AUTO: first available (usually lowest for bandwidth)
+            {3, 2, 1, 0}, // HD: higher numbers = higher quality
+            {1, 2, 0, 3}, // SD: middle quality
+            {0, 1, 2, 3}, // LOW: lower numbers = lower quality
+    };
+
+    private static final ConcurrentHashMap<String, Integer> streamMasks = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Integer> advertisedRates = new ConcurrentHashMap<>();
+
+    private StreamIds() {
+    }
+
+    /**
+     * @return the stream ID to preview for this quality preference
+     */
+    public static int select(int vst, int bps, String bps2, int qualityPreference) {
+        if (vst == 1) {
+            return 0;
+        }
+        if (bps2 == null || bps2.isEmpty()) {
+            return bps == 0 || bps == -1 ? 0 : 1;
+        }
+        int mask = streamMask(bps2);
+        if (mask == INVALID) {
+            return 1;
+        }
+        int[] order = qualityPreference >= 0 && qualityPreference < ORDER.length
+                ? ORDER[qualityPreference] : ORDER[QUALITY_AUTO];
+        for (int key : order) {
+            if ((mask & (1 << key)) != 0) {
+                return 100 + key;
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * @return bit i set when bps2 has top-level key "i" (i = 0..3), or INVALID
+     */
+    static int streamMask(String bps2) {
+        Integer cached = streamMasks.get(bps2);
+        if (cached != null) {
+            return cached;
+        }
+        int mask = parseStreamMask(bps2);
+        if (streamMasks.size() >= MAX_CACHED) {
+            streamMasks.clear();
+        }
+        streamMasks.put(bps2, mask);
+        return mask;
+    }
+
+    /**
+     * Rate estimated from the resolution bps2 advertises for a stream (100..103), either
+     * "1280*720" or {"w":1280,"h":720,"fps":15}
+     * @return kbit/s, 0 if the stream or its resolution is not advertised
+     */
+    public static int advertisedKbps(String bps2, int streamId) {
+        int key = streamId - 100;
+        if (bps2 == null || key < 0 || key > 3) {
+            return 0;
+        }
+        String cacheKey = key + bps2;
+        Integer cached = advertisedRates.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+        int kbps = estimateKbps(streamValue(bps2, key));
+        if (advertisedRates.size() >= MAX_CACHED) {
+            advertisedRates.clear();
+        }
+        advertisedRates.put(cacheKey, kbps);
+        return kbps;
+    }
+
+    private static int estimateKbps(String value) {
+        if (value == null) {
+            return 0;
+        }
+        long width = 0;
+        long height = 0;
+        long fps = DEFAULT_FPS;
+        Matcher resolution = RESOLUTION.matcher(value);
+        if (resolution.find()) {
+            width = Long.parseLong(resolution.group(1));
+            height = Long.parseLong(resolution.group(2));
+        } else {
+            Matcher field = FIELD.matcher(value);
+            while (field.find()) {
+                long number = Long.parseLong(field.group(2));
+                switch (field.group(1)) {
+                    case "w": width = number; break;
+                    case "h": height = number; break;
+                    default: fps = number > 0 ? number : DEFAULT_FPS; break;
+                }
+            }
+        }
+        return (int) Math.min(Integer.MAX_VALUE, (long) (width * height * fps * BITS_PER_PIXEL / 1000));
+    }
+
+    /**
+     * @return raw JSON text of the value under top-level key "key", or null
+     */
+    static String streamValue(String json, int key) {
+        int length = json.length();
+        int i = skipWhitespace(json, 0);
+        if (i >= length || json.charAt(i) != '{') {
+            return null;
+        }
+        i = skipWhitespace(json, i + 1);
+        while (i < length && json.charAt(i) == '"') {
+            int keyEnd = skipString(json, i);
+            if (keyEnd < 0) {
+                return null;
+            }
+            boolean match = keyEnd - i == 3 && json.charAt(i + 1) - '0' == key;
+            i = skipWhitespace(json, keyEnd);
+            if (i >= length || json.charAt(i) != ':') {
+                return null;
+            }
+            int valueStart = skipWhitespace(json, i + 1);
+            int valueEnd = skipValue(json, valueStart);
+            if (valueEnd < 0) {
+                return null;
+            }
+            if (match) {
+                return json.substring(valueStart, valueEnd);
+            }
+            i = skipWhitespace(json, valueEnd);
+            if (i >= length || json.charAt(i) != ',') {
+                return null;
+            }
+            i = skipWhitespace(json, i + 1);
+        }
+        return null;
+    }
+
+    static int parseStreamMask(String json) {
+        int length = json.length();
+        int i = skipWhitespace(json, 0);
+        if (i >= length || json.charAt(i) != '{') {
+            return INVALID;
+        }
+        int mask = 0;
+        i = skipWhitespace(json, i + 1);
+        if (i < length && json.charAt(i) == '}') {
+            return mask;
+        }
+        while (i < length) {
+            if (json.charAt(i) != '"') {
+                return INVALID;
+            }
+            int keyEnd = skipString(json, i);
+            if (keyEnd < 0) {
+                return INVALID;
+            }
+            // Single-digit keys only: "0".."3"
+            if (keyEnd - i == 3) {
+                int digit = json.charAt(i + 1) - '0';
+                if (digit >= 0 && digit <= 3) {
+                    mask |= 1 << digit;
+                }
+            }
+            i = skipWhitespace(json, keyEnd);
+            if (i >= length || json.charAt(i) != ':') {
+                return INVALID;
+            }
+            i = skipValue(json, skipWhitespace(json, i + 1));
+            if (i < 0) {
+                return INVALID;
+            }
+            i = skipWhitespace(json, i);
+            if (i >= length) {
+                return INVALID;
+            }
+            char c = json.charAt(i);
+            if (c == '}') {
+                return mask;
+            }
+            if (c != ',') {
+                return INVALID;
+            }
+            i = skipWhitespace(json, i + 1);
+        }
+        return INVALID;
+    }
+
+    /**
+     * @return index after the closing quote of the string starting at i, or -1
+     */
+    private static int skipString(String json, int i) {
+        int length = json.length();
+        for (int j = i + 1; j < length; j++) {
+            char c = json.charAt(j);
+            if (c == '\\') {
+                j++;
+            } else if (c == '"') {
+                return j + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return index after the value starting at i, or -1
+     */
+    private static int skipValue(String json, int i) {
+        int length = json.length();
+        if (i >= length) {
+            return -1;
+        }
+        char first = json.charAt(i);
+        if (first == '"') {
+            return skipString(json, i);
+        }
+        if (first == '{' || first == '[') {
+            int depth = 0;
+            for (int j = i; j < length; j++) {
+                char c = json.charAt(j);
+                if (c == '"') {
+                    j = skipString(json, j);
+                    if (j < 0) return -1;
+                    j--;
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    if (--depth == 0) {
+                        return j + 1;
+                    }
+                }
+            }
+            return -1;
+        }
+        // number, true, false, null
+        int j = i;
+        while (j < length) {
+            char c = json.charAt(j);
+            if (c == ',' || c == '}' || c == ']' || Character.isWhitespace(c)) {
+                break;
+            }
+            j++;
+        }
+        return j > i ? j : -1;
+    }
+
+    private static int skipWhitespace(String json, int i) {
+        int length = json.length();
+        while (i < length && Character.isWhitespace(json.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+}
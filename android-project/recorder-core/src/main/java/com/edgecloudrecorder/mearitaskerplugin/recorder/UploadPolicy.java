@@ -0,0 +1,205 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import java.util.Locale;
+
+/**
+ * Where and how fast closed segments are copied off-site (see
+ * {@link com.edgecloudrecorder.mearitaskerplugin.recorder.upload.SegmentUploader}): an
+ * S3-compatible endpoint (AWS, MinIO, ...) and bucket, the credentials, the number of
+ * segments uploaded at once, a total upload cap in Mbit/s (0 for none) and the multipart
+ * part size. Objects are named {@code <prefix><camera>/<segment>.mp4}. No endpoint: off.
+ *
+ * Encoded form (stored in prefs and accepted from ADB), values percent-escaped like
+ * {@link Account}:
+ * endpoint=http://minio:9000;bucket=recordings;region=us-east-1;access_key=...;secret_key=...;
+ * prefix=site1/;concurrency=4;mbps=20;part_mb=8
+ */
+public final class UploadPolicy {
+    public static final UploadPolicy DEFAULT = new UploadPolicy("", "", "us-east-1", "", "", "", 4, 0, 8);
+    // S3 rejects smaller parts (except the last)
+    public static final int MIN_PART_MB = 5;
+
+    private final String endpoint;
+    private final String bucket;
+    private final String region;
+    private final String accessKey;
+    private final String secretKey;
+    private final String prefix;
+    private final int concurrency;
+    private final int mbps;
+    private final int partMb;
+
+    public UploadPolicy(String endpoint, String bucket, String region, String accessKey, String secretKey,
+                        String prefix, int concurrency, int mbps, int partMb) {
+        if (concurrency < 1 || mbps < 0 || partMb < MIN_PART_MB) {
+            throw new IllegalArgumentException("Bad upload policy: concurrency=" + concurrency + " mbps=" + mbps
+                    + " part_mb=" + partMb + " (at least " + MIN_PART_MB + ")");
+        }
+        if (!endpoint.isEmpty() && !endpoint.startsWith("http://") && !endpoint.startsWith("https://")) {
+            throw new IllegalArgumentException("Upload endpoint must be an http(s) URL: " + endpoint);
+        }
+        if (!endpoint.isEmpty() && bucket.isEmpty()) {
+            throw new IllegalArgumentException("Upload endpoint without a bucket");
+        }
+        this.endpoint = endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint;
+        this.bucket = bucket;
+        this.region = region;
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+        this.prefix = prefix;
+        this.concurrency = concurrency;
+        this.mbps = mbps;
+        this.partMb = partMb;
+    }
+
+    /**
+     * @return true if segments are uploaded
+     */
+    public boolean isEnabled() {
+        return !endpoint.isEmpty();
+    }
+
+    /**
+     * @return base URL of the store, without a trailing slash; empty when off
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    /**
+     * @return signing region (MinIO accepts its default, us-east-1)
+     */
+    public String getRegion() {
+        return region;
+    }
+
+    public String getAccessKey() {
+        return accessKey;
+    }
+
+    public String getSecretKey() {
+        return secretKey;
+    }
+
+    /**
+     * @return prepended to every object name, e.g. "site1/"
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return segments uploaded at the same time
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * @return total upload rate cap in Mbit/s, 0 for none
+     */
+    public int getMbps() {
+        return mbps;
+    }
+
+    public long getPartBytes() {
+        return partMb * 1024L * 1024L;
+    }
+
+    /**
+     * @return this policy with another endpoint (the simulator points it at its local store)
+     */
+    public UploadPolicy withEndpoint(String endpoint) {
+        return new UploadPolicy(endpoint, bucket, region, accessKey, secretKey, prefix, concurrency, mbps, partMb);
+    }
+
+    public String encode() {
+        return "endpoint=" + escape(endpoint) + ";bucket=" + escape(bucket) + ";region=" + escape(region)
+                + ";access_key=" + escape(accessKey) + ";secret_key=" + escape(secretKey)
+                + ";prefix=" + escape(prefix) + ";concurrency=" + concurrency + ";mbps=" + mbps + ";part_mb=" + partMb;
+    }
+
+    /**
+     * Parse the encoded form; missing fields keep their {@link #DEFAULT}, empty gives DEFAULT.
+     * @throws IllegalArgumentException on malformed input
+     */
+    public static UploadPolicy decode(String encoded) {
+        if (encoded == null || encoded.trim().isEmpty()) {
+            return DEFAULT;
+        }
+        String endpoint = DEFAULT.endpoint;
+        String bucket = DEFAULT.bucket;
+        String region = DEFAULT.region;
+        String accessKey = DEFAULT.accessKey;
+        String secretKey = DEFAULT.secretKey;
+        String prefix = DEFAULT.prefix;
+        int concurrency = DEFAULT.concurrency;
+        int mbps = DEFAULT.mbps;
+        int partMb = DEFAULT.partMb;
+        for (String part : encoded.split(";")) {
+            int eq = part.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Bad upload policy field: " + part);
+            }
+            String key = part.substring(0, eq).trim();
+            String value = unescape(part.substring(eq + 1).trim());
+            switch (key) {
+                case "endpoint": endpoint = value; break;
+                case "bucket": bucket = value; break;
+                case "region": region = value; break;
+                case "access_key": accessKey = value; break;
+                case "secret_key": secretKey = value; break;
+                case "prefix": prefix = value; break;
+                case "concurrency": concurrency = parseInt(part, value); break;
+                case "mbps": mbps = parseInt(part, value); break;
+                case "part_mb": partMb = parseInt(part, value); break;
+                default:
+                    throw new IllegalArgumentException("Unknown upload policy field: " + key);
+            }
+        }
+        return new UploadPolicy(endpoint, bucket, region, accessKey, secretKey, prefix, concurrency, mbps, partMb);
+    }
+
+    private static int parseInt(String part, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad upload policy value: " + part);
+        }
+    }
+
+    private static String escape(String value) {
+        return value.replace("%", "%25").replace(";", "%3B").replace("=", "%3D");
+    }
+
+    private static String unescape(String value) {
+        return value.replace("%3B", ";").replace("%3D", "=").replace("%25", "%");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof UploadPolicy)) {
+            return false;
+        }
+        return encode().equals(((UploadPolicy) o).encode());
+    }
+
+    @Override
+    public int hashCode() {
+        return encode().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        // Never log the secret key
+        if (!isEnabled()) {
+            return "off";
+        }
+        return String.format(Locale.US, "%s/%s%s{region=%s, key=%s, concurrency=%d, mbps=%d, part_mb=%d}",
+                endpoint, bucket, prefix.isEmpty() ? "" : "/" + prefix, region, accessKey, concurrency, mbps, partMb);
+    }
+}
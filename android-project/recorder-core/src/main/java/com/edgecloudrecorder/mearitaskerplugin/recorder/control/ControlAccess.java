@@ -0,0 +1,46 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.control;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Who may reach the recorder's HTTP endpoints (control API, live streams): they listen on
+ * the loopback interface unless an address is configured, and refuse to listen anywhere
+ * else without a token. Reach them from the host with {@code adb forward}.
+ */
+public final class ControlAccess {
+
+    private ControlAccess() {
+    }
+
+    /**
+     * @param address configured listen address, empty for loopback
+     * @param token   token the endpoint will require, empty for none
+     * @param what    endpoint name, for the error
+     * @return the address to bind
+     * @throws IOException if the address cannot be resolved, or is reachable from other
+     *                     hosts while no token is set
+     */
+    public static InetAddress bindAddress(String address, String token, String what) throws IOException {
+        InetAddress bind = address == null || address.isEmpty()
+                ? InetAddress.getLoopbackAddress() : InetAddress.getByName(address);
+        if (!bind.isLoopbackAddress() && (token == null || token.isEmpty())) {
+            throw new IOException("Refusing to serve the " + what + " on " + address + " without a token");
+        }
+        return bind;
+    }
+
+    /**
+     * @return true if no token is required or the presented one matches, compared in
+     * constant time
+     */
+    public static boolean tokenMatches(String expected, String presented) {
+        if (expected.isEmpty()) {
+            return true;
+        }
+        return presented != null && MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8),
+                presented.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,58 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.control;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.CameraRecorder;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.CoverageIndex;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.live.LiveFanout;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.upload.SegmentUploader;
+
+import java.util.Collection;
+
+/**
+ * Operations the control API can perform on the running recorder.
+ * Implemented by RecordingEngine; reads must be safe from any thread and
+ * actions are queued onto the engine's scheduler (they return once accepted).
+ */
+public interface RecorderControl {
+
+    Collection<CameraRecorder> getCameras();
+
+    /**
+     * @return the recorder for this device ID, or null if unknown
+     */
+    CameraRecorder getCamera(String deviceId);
+
+    long getUptimeMillis();
+
+    /**
+     * Footage spans per camera name; queries do disk I/O on first use of a camera
+     */
+    CoverageIndex getCoverage();
+
+    /**
+     * Off-site copies of closed segments: queue depth, progress, errors
+     */
+    SegmentUploader getUploader();
+
+    /**
+     * Cameras' previews re-published to local consumers: channels and who is reading them
+     */
+    LiveFanout getLive();
+
+    /**
+     * Tear down the camera's controller and reconnect from scratch
+     * @return false if the camera is unknown
+     */
+    boolean restartCamera(String deviceId);
+
+    /**
+     * Stop recording and disconnect until resumed (schedules will not wake it)
+     * @return false if the camera is unknown
+     */
+    boolean pauseCamera(String deviceId);
+
+    /**
+     * Undo {@link #pauseCamera(String)}; the camera reconnects if its schedule allows
+     * @return false if the camera is unknown
+     */
+    boolean resumeCamera(String deviceId);
+}
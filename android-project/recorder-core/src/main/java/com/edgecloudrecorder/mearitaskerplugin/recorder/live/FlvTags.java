@@ -0,0 +1,183 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.live;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * FLV framing of an H.264 stream: the file header, the AVC sequence header built from
+ * SPS and PPS, and video tags whose bodies carry the access unit's NAL units with 4-byte
+ * lengths instead of Annex-B start codes. Tag bodies are built once per frame and shared
+ * by every consumer; only the 11-byte tag header (with the consumer's timestamp) is
+ * written per consumer.
+ */
+final class FlvTags {
+    static final int NAL_SPS = 7;
+    static final int NAL_PPS = 8;
+    private static final int NAL_AUD = 9;
+    private static final int TAG_VIDEO = 9;
+    private static final int TAG_HEADER_BYTES = 11;
+    // Frame type (1 key, 2 inter) << 4 | codec 7 (AVC)
+    private static final int KEYFRAME_AVC = 0x17;
+    private static final int INTERFRAME_AVC = 0x27;
+
+    // "FLV", version 1, video only, header size 9, then PreviousTagSize0
+    static final byte[] HEADER = {'F', 'L', 'V', 1, 0x01, 0, 0, 0, 9, 0, 0, 0, 0};
+
+    private FlvTags() {
+    }
+
+    /**
+     * @return the [start, end) of every NAL unit of an Annex-B buffer, as pairs
+     */
+    static int[] nalUnits(byte[] data, int offset, int length) {
+        int[] found = new int[16];
+        int count = 0;
+        int end = offset + length;
+        int start = -1;
+        for (int i = offset; i + 2 < end; i++) {
+            if (data[i] != 0 || data[i + 1] != 0 || data[i + 2] != 1) {
+                continue;
+            }
+            if (start >= 0) {
+                // A 4-byte start code leaves a zero at the end of the previous unit
+                int last = i;
+                while (last > start && data[last - 1] == 0) {
+                    last--;
+                }
+                count = add(found, count, start, last);
+                found = grown(found, count);
+            }
+            start = i + 3;
+            i += 2;
+        }
+        if (start >= 0 && start < end) {
+            count = add(found, count, start, end);
+        }
+        int[] units = new int[count];
+        System.arraycopy(found, 0, units, 0, count);
+        return units;
+    }
+
+    private static int add(int[] found, int count, int start, int end) {
+        if (end > start) {
+            found[count++] = start;
+            found[count++] = end;
+        }
+        return count;
+    }
+
+    private static int[] grown(int[] found, int count) {
+        if (count + 2 <= found.length) {
+            return found;
+        }
+        int[] bigger = new int[found.length * 2];
+        System.arraycopy(found, 0, bigger, 0, count);
+        return bigger;
+    }
+
+    /**
+     * @return body of the AVC sequence header tag (AVCDecoderConfigurationRecord)
+     */
+    static byte[] sequenceHeader(byte[] sps, byte[] pps) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(16 + sps.length + pps.length);
+        body.write(KEYFRAME_AVC);
+        // AVC packet type 0 (sequence header), composition time 0
+        body.write(0);
+        body.write(0);
+        body.write(0);
+        body.write(0);
+        body.write(1);
+        // Profile, compatibility and level, straight from the SPS
+        body.write(sps[1]);
+        body.write(sps[2]);
+        body.write(sps[3]);
+        // 4-byte NAL lengths, one SPS, one PPS
+        body.write(0xFF);
+        body.write(0xE1);
+        body.write(sps.length >> 8);
+        body.write(sps.length);
+        body.write(sps, 0, sps.length);
+        body.write(1);
+        body.write(pps.length >> 8);
+        body.write(pps.length);
+        body.write(pps, 0, pps.length);
+        return body.toByteArray();
+    }
+
+    /**
+     * @param units the access unit's NAL units, from {@link #nalUnits}
+     * @return body of the video tag for an access unit, without its SPS, PPS and delimiters
+     * (sent in the sequence header instead); null if nothing is left
+     */
+    static byte[] videoBody(boolean keyframe, byte[] data, int[] units) {
+        int size = 5;
+        for (int i = 0; i < units.length; i += 2) {
+            if (carried(data[units[i]])) {
+                size += 4 + units[i + 1] - units[i];
+            }
+        }
+        if (size == 5) {
+            return null;
+        }
+        byte[] body = new byte[size];
+        body[0] = (byte) (keyframe ? KEYFRAME_AVC : INTERFRAME_AVC);
+        // AVC packet type 1 (NAL units), composition time 0
+        body[1] = 1;
+        int position = 5;
+        for (int i = 0; i < units.length; i += 2) {
+            if (!carried(data[units[i]])) {
+                continue;
+            }
+            int length = units[i + 1] - units[i];
+            body[position] = (byte) (length >>> 24);
+            body[position + 1] = (byte) (length >>> 16);
+            body[position + 2] = (byte) (length >>> 8);
+            body[position + 3] = (byte) length;
+            System.arraycopy(data, units[i], body, position + 4, length);
+            position += 4 + length;
+        }
+        return body;
+    }
+
+    private static boolean carried(byte header) {
+        int type = header & 0x1F;
+        return type != NAL_SPS && type != NAL_PPS && type != NAL_AUD;
+    }
+
+    /**
+     * Write one video tag and its PreviousTagSize
+     * @return bytes written
+     */
+    static int writeVideoTag(OutputStream out, byte[] header, long timeMs, byte[] body) throws IOException {
+        int size = body.length;
+        header[0] = TAG_VIDEO;
+        header[1] = (byte) (size >>> 16);
+        header[2] = (byte) (size >>> 8);
+        header[3] = (byte) size;
+        // 24-bit timestamp, then its upper 8 bits; stream ID 0
+        header[4] = (byte) (timeMs >>> 16);
+        header[5] = (byte) (timeMs >>> 8);
+        header[6] = (byte) timeMs;
+        header[7] = (byte) (timeMs >>> 24);
+        header[8] = 0;
+        header[9] = 0;
+        header[10] = 0;
+        out.write(header, 0, TAG_HEADER_BYTES);
+        out.write(body);
+        int total = TAG_HEADER_BYTES + size;
+        header[0] = (byte) (total >>> 24);
+        header[1] = (byte) (total >>> 16);
+        header[2] = (byte) (total >>> 8);
+        header[3] = (byte) total;
+        out.write(header, 0, 4);
+        return total + 4;
+    }
+
+    /**
+     * @return a scratch buffer for {@link #writeVideoTag}, one per consumer
+     */
+    static byte[] tagHeaderBuffer() {
+        return new byte[TAG_HEADER_BYTES];
+    }
+}
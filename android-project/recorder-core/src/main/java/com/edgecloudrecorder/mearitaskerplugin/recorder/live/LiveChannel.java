@@ -0,0 +1,248 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.live;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraSession;
+
+import java.util.Arrays;
+
+/**
+ * One camera's live stream, fed by the frame tap of its session and read by any number of
+ * local consumers. Each frame is converted to its FLV tag body once and kept in a ring
+ * shared by every consumer, each of which only holds a cursor into it. The producer (the
+ * session's callback thread) never waits for a consumer: one that falls more than the
+ * ring behind loses its place and resumes at the newest keyframe. With no consumer the
+ * tap only tracks SPS/PPS and the timeline; nothing is copied or kept.
+ */
+public final class LiveChannel implements CameraSession.FrameListener {
+    private static final int RING_FRAMES = 256;
+    private static final long RING_BYTES = 8L * 1024 * 1024;
+    // Timestamp steps beyond this (or backwards: a new session) are treated as one frame
+    private static final long MAX_STEP_MS = 5000;
+    private static final long DEFAULT_STEP_MS = 40;
+
+    /**
+     * A frame as consumers see it
+     */
+    static final class Frame {
+        final long timeMs;
+        final boolean keyframe;
+        final byte[] body;
+        // Sequence header body in force for this frame
+        final byte[] config;
+
+        Frame(long timeMs, boolean keyframe, byte[] body, byte[] config) {
+            this.timeMs = timeMs;
+            this.keyframe = keyframe;
+            this.body = body;
+            this.config = config;
+        }
+    }
+
+    /**
+     * A consumer's place in the ring
+     */
+    static final class Cursor {
+        long next;
+        boolean awaitKeyframe = true;
+        int skips;
+    }
+
+    private final String deviceId;
+    private final Frame[] ring = new Frame[RING_FRAMES];
+    // Sequence numbers: oldest kept, next to write
+    private long tail;
+    private long head;
+    private long ringBytes;
+    private long lastKeyframe = -1;
+    private volatile int consumers;
+    private volatile boolean supported = true;
+    private boolean closed;
+
+    // Producer side (one session at a time)
+    private byte[] sps;
+    private byte[] pps;
+    private volatile byte[] config;
+    private long lastPtsMs = Long.MIN_VALUE;
+    private long timeMs;
+
+    private volatile long frames;
+    private volatile long bytesIn;
+    private volatile long lastFrameAtMs;
+    private volatile long served;
+    private volatile long skips;
+
+    LiveChannel(String deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    @Override
+    public void onFrame(long ptsMs, boolean keyframe, byte[] data, int offset, int length) {
+        long step = ptsMs - lastPtsMs;
+        timeMs += lastPtsMs == Long.MIN_VALUE ? 0 : step >= 0 && step <= MAX_STEP_MS ? step : DEFAULT_STEP_MS;
+        lastPtsMs = ptsMs;
+        frames++;
+        bytesIn += length;
+        lastFrameAtMs = System.currentTimeMillis();
+        if (!keyframe && consumers == 0) {
+            return;
+        }
+        int[] units = FlvTags.nalUnits(data, offset, length);
+        if (keyframe) {
+            updateConfig(data, units);
+        }
+        if (consumers == 0) {
+            return;
+        }
+        byte[] body = FlvTags.videoBody(keyframe, data, units);
+        if (body != null) {
+            append(new Frame(timeMs, keyframe, body, config));
+        }
+    }
+
+    /**
+     * Rebuild the sequence header when a keyframe carries a new SPS or PPS (stream change)
+     */
+    private void updateConfig(byte[] data, int[] units) {
+        byte[] nextSps = sps;
+        byte[] nextPps = pps;
+        for (int i = 0; i < units.length; i += 2) {
+            int type = data[units[i]] & 0x1F;
+            if (type == FlvTags.NAL_SPS && units[i + 1] - units[i] >= 4) {
+                nextSps = Arrays.copyOfRange(data, units[i], units[i + 1]);
+            } else if (type == FlvTags.NAL_PPS) {
+                nextPps = Arrays.copyOfRange(data, units[i], units[i + 1]);
+            }
+        }
+        if (nextSps != null && nextPps != null && (!Arrays.equals(nextSps, sps) || !Arrays.equals(nextPps, pps))) {
+            sps = nextSps;
+            pps = nextPps;
+            config = FlvTags.sequenceHeader(sps, pps);
+        }
+    }
+
+    private synchronized void append(Frame frame) {
+        while (head - tail >= RING_FRAMES || (head > tail && ringBytes + frame.body.length > RING_BYTES)) {
+            int oldest = (int) (tail++ % RING_FRAMES);
+            ringBytes -= ring[oldest].body.length;
+            ring[oldest] = null;
+        }
+        ring[(int) (head % RING_FRAMES)] = frame;
+        ringBytes += frame.body.length;
+        if (frame.keyframe) {
+            lastKeyframe = head;
+        }
+        head++;
+        notifyAll();
+    }
+
+    /**
+     * Start reading: at the newest keyframe still in the ring, else at the next one
+     */
+    synchronized Cursor open() {
+        Cursor cursor = new Cursor();
+        cursor.next = lastKeyframe >= tail ? lastKeyframe : head;
+        consumers++;
+        served++;
+        return cursor;
+    }
+
+    synchronized void close(Cursor cursor) {
+        if (--consumers == 0) {
+            // Nobody left to read it: let the frames go
+            Arrays.fill(ring, null);
+            tail = head;
+            ringBytes = 0;
+            lastKeyframe = -1;
+        }
+    }
+
+    /**
+     * @return the cursor's next frame, waiting up to {@code timeoutMs}; null on timeout or
+     * once the channel is closed. Before its first frame, and after falling behind, a
+     * cursor skips to a keyframe.
+     */
+    synchronized Frame next(Cursor cursor, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!closed) {
+            if (cursor.next < tail) {
+                cursor.skips++;
+                skips++;
+                cursor.next = lastKeyframe >= tail ? lastKeyframe : head;
+                cursor.awaitKeyframe = true;
+            }
+            if (cursor.next < head) {
+                Frame frame = ring[(int) (cursor.next++ % RING_FRAMES)];
+                if (cursor.awaitKeyframe && (!frame.keyframe || frame.config == null)) {
+                    continue;
+                }
+                cursor.awaitKeyframe = false;
+                return frame;
+            }
+            long waitMs = deadline - System.currentTimeMillis();
+            if (waitMs <= 0) {
+                return null;
+            }
+            wait(waitMs);
+        }
+        return null;
+    }
+
+    /**
+     * End the stream for every consumer (camera removed, recorder stopping)
+     */
+    synchronized void closeChannel() {
+        closed = true;
+        notifyAll();
+    }
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    void setSupported(boolean supported) {
+        this.supported = supported;
+    }
+
+    /**
+     * @return false if the camera's session cannot deliver frames (backend without a tap)
+     */
+    public boolean isSupported() {
+        return supported;
+    }
+
+    public int getConsumers() {
+        return consumers;
+    }
+
+    /**
+     * @return consumers served since the channel was created
+     */
+    public long getServed() {
+        return served;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * @return times a consumer fell a whole ring behind and skipped to a keyframe
+     */
+    public long getSkips() {
+        return skips;
+    }
+
+    /**
+     * @return wall time of the last frame received, 0 if none
+     */
+    public long getLastFrameAtMs() {
+        return lastFrameAtMs;
+    }
+}
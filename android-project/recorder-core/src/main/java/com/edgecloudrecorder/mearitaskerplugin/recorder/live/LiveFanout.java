@@ -0,0 +1,99 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.live;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraSession;
+
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Re-publishes what the recorder already receives: one {@link LiveChannel} per camera, fed
+ * by the frame tap of the camera's recording session, so any number of local consumers
+ * (the Meari app, viewers, analytics) share the camera's one P2P session instead of each
+ * opening their own. Served over HTTP-FLV by {@link LiveServer}.
+ */
+public class LiveFanout {
+    private final Map<String, LiveChannel> channels = new ConcurrentHashMap<>();
+    private final AtomicLong sentBytes = new AtomicLong();
+
+    /**
+     * Tap a camera's new session into its channel (kept across sessions, so consumers ride
+     * out reconnects)
+     */
+    public void attach(String deviceId, CameraSession session) {
+        LiveChannel channel = channels.compute(deviceId,
+                (id, existing) -> existing == null || existing.isClosed() ? new LiveChannel(id) : existing);
+        channel.setSupported(session.setFrameListener(channel));
+    }
+
+    /**
+     * Stop a session's tap before it is released
+     */
+    public void detach(CameraSession session) {
+        session.setFrameListener(null);
+    }
+
+    /**
+     * The camera is gone: end its consumers' streams
+     */
+    public void remove(String deviceId) {
+        LiveChannel channel = channels.remove(deviceId);
+        if (channel != null) {
+            channel.closeChannel();
+        }
+    }
+
+    /**
+     * @return the camera's channel, null if the recorder never opened a session for it
+     */
+    public LiveChannel get(String deviceId) {
+        return channels.get(deviceId);
+    }
+
+    public Collection<LiveChannel> getChannels() {
+        return channels.values();
+    }
+
+    /**
+     * End every stream (recorder stopping)
+     */
+    public void close() {
+        for (LiveChannel channel : channels.values()) {
+            channel.closeChannel();
+        }
+    }
+
+    void sent(long bytes) {
+        sentBytes.addAndGet(bytes);
+    }
+
+    /**
+     * @return bytes written to consumers, all channels together
+     */
+    public long getSentBytes() {
+        return sentBytes.get();
+    }
+
+    public int getConsumers() {
+        int consumers = 0;
+        for (LiveChannel channel : channels.values()) {
+            consumers += channel.getConsumers();
+        }
+        return consumers;
+    }
+
+    public String summary() {
+        long in = 0;
+        long served = 0;
+        long skips = 0;
+        for (LiveChannel channel : channels.values()) {
+            in += channel.getBytesIn();
+            served += channel.getServed();
+            skips += channel.getSkips();
+        }
+        return String.format(Locale.US, "=== Live ===%nchannels=%d consumers=%d served=%d in=%.1fMB sent=%.1fMB skips=%d%n",
+                channels.size(), getConsumers(), served, in / 1048576.0, sentBytes.get() / 1048576.0, skips);
+    }
+}
@@ -0,0 +1,315 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.live;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.RecorderLogger;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.control.ControlAccess;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP-FLV endpoint of the {@link LiveFanout}: {@code GET /live/<device id>.flv} streams
+ * the camera's live H.264 as an open-ended FLV body (ffplay, VLC, mpegts.js/flv.js,
+ * OpenCV and ffmpeg read it as is) until the client goes away, the camera is removed or
+ * it sends no frame for a minute. One thread per consumer, each only reading the shared
+ * ring, and none once the consumer cap is reached. Same listen address and optional token
+ * as the control API (see {@link ControlAccess}), also accepted as {@code ?token=} since
+ * players cannot set headers.
+ */
+public class LiveServer {
+    private static final String TAG = "LiveServer";
+    private static final String PREFIX = "/live/";
+    private static final String SUFFIX = ".flv";
+    private static final int MAX_CONSUMERS = 64;
+    private static final int MAX_HEADER_BYTES = 8 * 1024;
+    private static final int REQUEST_TIMEOUT_MS = 10_000;
+    // End a stream whose camera sent nothing for this long (idle, paused, snapshots)
+    private static final long NO_FRAMES_MS = 60_000;
+    private static final int SEND_BUFFER = 64 * 1024;
+
+    private final RecorderLogger logger = RecorderLogger.getInstance();
+    private final String address;
+    private final int port;
+    private final String token;
+    private final LiveFanout fanout;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger threadCount = new AtomicInteger();
+    private ServerSocket serverSocket;
+    private Thread acceptThread;
+    private volatile boolean running;
+
+    /**
+     * @param address listen address, empty for loopback
+     * @param port    TCP port, 0 for any free one
+     */
+    public LiveServer(String address, int port, String token, LiveFanout fanout) {
+        this.address = address;
+        this.port = port;
+        this.token = token == null ? "" : token;
+        this.fanout = fanout;
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        InetAddress bind = ControlAccess.bindAddress(address, token, "live streams");
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(bind, port));
+        running = true;
+        acceptThread = new Thread(this::acceptLoop, "LiveAccept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        logger.info(TAG, "Live streams on " + bind.getHostAddress() + ":" + getPort() + " (" + PREFIX + "<id>" + SUFFIX + ")");
+    }
+
+    public int getPort() {
+        ServerSocket socket = serverSocket;
+        return socket != null ? socket.getLocalPort() : port;
+    }
+
+    /**
+     * Stop accepting; streams in progress end with their channel (see {@link LiveFanout#close()})
+     */
+    public synchronized void stop() {
+        running = false;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException ignored) {
+        }
+        logger.info(TAG, "Live streams stopped");
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                final Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(REQUEST_TIMEOUT_MS);
+                socket.setSendBufferSize(SEND_BUFFER);
+                if (active.incrementAndGet() > MAX_CONSUMERS) {
+                    // Turned away on the accept thread: the reply fits the send buffer
+                    active.decrementAndGet();
+                    refuse(socket);
+                    continue;
+                }
+                Thread thread = new Thread(() -> serve(socket), "LiveConsumer-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (running) {
+                    logger.error(TAG, "Accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void refuse(Socket socket) {
+        try {
+            error(socket.getOutputStream(), 503, "Too many live consumers");
+        } catch (IOException ignored) {
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Holds one of the {@link #MAX_CONSUMERS} slots, taken on accept, until the socket closes
+     */
+    private void serve(Socket socket) {
+        String remote = String.valueOf(socket.getRemoteSocketAddress());
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), SEND_BUFFER);
+            String head = readHead(in);
+            if (head == null) {
+                return;
+            }
+            String[] lines = head.split("\r\n");
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length < 3) {
+                error(out, 400, "Malformed request line");
+                return;
+            }
+            String authToken = null;
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon <= 0) continue;
+                String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.US);
+                String value = lines[i].substring(colon + 1).trim();
+                if ("x-auth-token".equals(name)) {
+                    authToken = value;
+                } else if ("authorization".equals(name) && value.startsWith("Bearer ")) {
+                    authToken = value.substring(7).trim();
+                }
+            }
+            String path = requestLine[1];
+            int query = path.indexOf('?');
+            if (query >= 0) {
+                String fromQuery = param(path.substring(query + 1), "token");
+                if (fromQuery != null) authToken = fromQuery;
+                path = path.substring(0, query);
+            }
+
+            if (!"GET".equalsIgnoreCase(requestLine[0])) {
+                error(out, 405, "Only GET " + PREFIX + "<id>" + SUFFIX);
+                return;
+            }
+            if (!ControlAccess.tokenMatches(token, authToken)) {
+                error(out, 401, "Missing or invalid token");
+                return;
+            }
+            if (!path.startsWith(PREFIX) || !path.endsWith(SUFFIX) || path.length() <= PREFIX.length() + SUFFIX.length()) {
+                error(out, 404, "No route for " + path);
+                return;
+            }
+            String deviceId = URLDecoder.decode(path.substring(PREFIX.length(), path.length() - SUFFIX.length()), "UTF-8");
+            LiveChannel channel = fanout.get(deviceId);
+            if (channel == null) {
+                error(out, 404, "Unknown camera: " + deviceId);
+                return;
+            }
+            if (!channel.isSupported()) {
+                error(out, 501, "This camera's backend delivers no frames to re-publish");
+                return;
+            }
+            stream(channel, out, remote);
+        } catch (SocketTimeoutException | SocketException e) {
+            // client went away
+        } catch (IOException e) {
+            logger.warning(TAG, "Live connection error: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            active.decrementAndGet();
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void stream(LiveChannel channel, OutputStream out, String remote) throws IOException, InterruptedException {
+        String head = "HTTP/1.1 200 OK\r\n"
+                + "Content-Type: video/x-flv\r\n"
+                + "Cache-Control: no-cache\r\n"
+                + "Access-Control-Allow-Origin: *\r\n"
+                + "Connection: close\r\n\r\n";
+        out.write(head.getBytes(StandardCharsets.ISO_8859_1));
+        out.write(FlvTags.HEADER);
+        out.flush();
+        long sent = 0;
+        LiveChannel.Cursor cursor = channel.open();
+        logger.info(TAG, "Live consumer " + remote + " on " + channel.getDeviceId()
+                + " (" + channel.getConsumers() + " now)");
+        try {
+            byte[] tagHeader = FlvTags.tagHeaderBuffer();
+            byte[] config = null;
+            long baseMs = -1;
+            int written = 0;
+            while (running) {
+                LiveChannel.Frame frame = channel.next(cursor, NO_FRAMES_MS);
+                if (frame == null) {
+                    break;
+                }
+                if (baseMs < 0) {
+                    baseMs = frame.timeMs;
+                }
+                long timeMs = frame.timeMs - baseMs;
+                if (frame.keyframe && frame.config != config) {
+                    // First keyframe, or the stream changed (quality switch, new session)
+                    config = frame.config;
+                    written += FlvTags.writeVideoTag(out, tagHeader, timeMs, config);
+                }
+                written += FlvTags.writeVideoTag(out, tagHeader, timeMs, frame.body);
+                out.flush();
+                sent += written;
+                fanout.sent(written);
+                written = 0;
+            }
+        } finally {
+            channel.close(cursor);
+            logger.info(TAG, "Live consumer " + remote + " left " + channel.getDeviceId() + " after "
+                    + sent / 1024 + " KB" + (cursor.skips > 0 ? ", skipped ahead " + cursor.skips + " times" : ""));
+        }
+    }
+
+    /**
+     * @return request line and headers without the trailing blank line, or null at EOF
+     */
+    private static String readHead(InputStream in) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(512);
+        int matched = 0;
+        int b;
+        while ((b = in.read()) != -1) {
+            buffer.write(b);
+            // match \r\n\r\n
+            if ((matched % 2 == 0 && b == '\r') || (matched % 2 == 1 && b == '\n')) {
+                matched++;
+                if (matched == 4) {
+                    byte[] bytes = buffer.toByteArray();
+                    return new String(bytes, 0, bytes.length - 4, StandardCharsets.ISO_8859_1);
+                }
+            } else {
+                matched = b == '\r' ? 1 : 0;
+            }
+            if (buffer.size() > MAX_HEADER_BYTES) {
+                throw new IOException("Request header too large");
+            }
+        }
+        return null;
+    }
+
+    private static String param(String query, String name) throws UnsupportedEncodingException {
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && name.equals(pair.substring(0, eq))) {
+                return URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+            }
+        }
+        return null;
+    }
+
+    private static void error(OutputStream out, int status, String message) throws IOException {
+        byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        String head = "HTTP/1.1 " + status + " " + reason(status) + "\r\n"
+                + "Content-Type: text/plain; charset=utf-8\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + "Connection: close\r\n\r\n";
+        out.write(head.getBytes(StandardCharsets.ISO_8859_1));
+        out.write(body);
+        out.flush();
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 400: return "Bad Request";
+            case 401: return "Unauthorized";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 501: return "Not Implemented";
+            case 503: return "Service Unavailable";
+            default: return "Status";
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.session;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.Account;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.CameraProfile;
+
+import java.util.List;
+
+/**
+ * Account-level camera provider: the Meari cloud on Android, or a simulator on a plain JVM.
+ * One instance per account; the cameras it lists carry that account's name.
+ */
+public interface CameraBackend {
+
+    interface LoginCallback {
+        void onLoginSuccess();
+        void onLoginFailed(String error);
+    }
+
+    interface CameraListCallback {
+        void onSuccess(List<CameraDescriptor> cameras);
+        void onError(int code, String error);
+    }
+
+    boolean isLoggedIn();
+
+    /**
+     * Log in with the given account's credentials
+     */
+    void login(Account account, LoginCallback callback);
+
+    void listCameras(CameraListCallback callback);
+
+    /**
+     * Cameras recorded before a restart, to resume before the next {@link #listCameras}
+     * answers: the ones this backend can open a session for without listing again
+     * (from a cached list); may be none.
+     */
+    List<CameraDescriptor> restoreCameras(List<CameraDescriptor> cameras);
+
+    /**
+     * @return a new, unconnected session for a camera from the last {@link #listCameras} result
+     */
+    CameraSession openSession(CameraDescriptor camera);
+
+    /**
+     * @return a second, unconnected session for a camera already recording through
+     * {@link #openSession}, with its own decoder surface, to record another of its streams
+     * at the same time (segment proxies)
+     */
+    CameraSession openProxySession(CameraDescriptor camera);
+
+    /**
+     * Free per-camera resources held by the backend (decoder surface), outside any session.
+     * Called when a camera keeps failing or is released; recreated on next use.
+     */
+    void releaseCamera(CameraDescriptor camera);
+
+    /**
+     * Stream ID that best matches the requested mode on this camera
+     */
+    int resolveStreamId(CameraDescriptor camera, CameraProfile.Mode mode);
+
+    /**
+     * Rate the camera advertises for a stream, for the bandwidth budget
+     * @return kbit/s, 0 if unknown
+     */
+    int advertisedKbps(CameraDescriptor camera, int streamId);
+}
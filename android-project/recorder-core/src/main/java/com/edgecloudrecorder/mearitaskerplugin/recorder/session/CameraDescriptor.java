@@ -0,0 +1,48 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.session;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.Account;
+
+/**
+ * Backend-neutral identity of a camera, as returned by {@link CameraBackend#listCameras}
+ */
+public final class CameraDescriptor {
+    private final String deviceId;
+    private final String deviceName;
+    private final boolean batteryPowered;
+    private final String account;
+
+    public CameraDescriptor(String deviceId, String deviceName, boolean batteryPowered) {
+        this(deviceId, deviceName, batteryPowered, Account.PRIMARY);
+    }
+
+    /**
+     * @param account name of the account the camera was listed from
+     */
+    public CameraDescriptor(String deviceId, String deviceName, boolean batteryPowered, String account) {
+        this.deviceId = deviceId;
+        this.deviceName = deviceName;
+        this.batteryPowered = batteryPowered;
+        this.account = account;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public String getDeviceName() {
+        return deviceName;
+    }
+
+    public boolean isBatteryPowered() {
+        return batteryPowered;
+    }
+
+    public String getAccount() {
+        return account;
+    }
+
+    @Override
+    public String toString() {
+        return deviceName + " (" + deviceId + ")";
+    }
+}
@@ -0,0 +1,82 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.session;
+
+/**
+ * One camera's connection: the subset of the Meari device controller the recorder uses.
+ * Operations are asynchronous; callbacks may arrive on any thread.
+ * A session is not reused after {@link #release()}.
+ */
+public interface CameraSession {
+
+    /**
+     * Completion of an asynchronous operation
+     */
+    interface Callback {
+        void onSuccess(String message);
+        void onFailed(String error);
+    }
+
+    /**
+     * Recording ended without being stopped (code &gt; 0: file closed normally)
+     */
+    interface RecordListener {
+        void onRecordInterrupted(int code);
+    }
+
+    /**
+     * Live stream closed by the camera or the network
+     */
+    interface StreamListener {
+        void onVideoClosed(int code);
+    }
+
+    /**
+     * H.264 access units of the running preview, as the session receives them
+     */
+    interface FrameListener {
+        /**
+         * @param ptsMs    presentation time on the session's own clock
+         * @param keyframe an IDR access unit, with SPS and PPS in front of it
+         * @param data     Annex-B access unit; the buffer is reused once this returns
+         */
+        void onFrame(long ptsMs, boolean keyframe, byte[] data, int offset, int length);
+    }
+
+    CameraDescriptor getCamera();
+
+    void connect(Callback callback);
+
+    boolean isConnected();
+
+    void disconnect(Callback callback);
+
+    /**
+     * Start receiving the given stream (required before recording)
+     */
+    void startPreview(int streamId, Callback callback, StreamListener streamListener);
+
+    void stopPreview(Callback callback);
+
+    /**
+     * Record the running preview into an MP4 file at this path
+     */
+    void startRecording(String path, Callback callback, RecordListener recordListener);
+
+    void stopRecording(Callback callback);
+
+    /**
+     * Save the next decoded frame of the running preview as a JPEG at this path
+     */
+    void snapshot(String path, Callback callback);
+
+    /**
+     * Pass every frame of this session's previews to the listener (null to stop); called
+     * on the session's callback thread, so it must not block
+     * @return false if the backend cannot deliver frames
+     */
+    boolean setFrameListener(FrameListener listener);
+
+    /**
+     * Free native resources; safe to call more than once
+     */
+    void release();
+}
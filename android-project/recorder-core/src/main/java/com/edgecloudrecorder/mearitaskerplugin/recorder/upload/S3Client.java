@@ -0,0 +1,353 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.upload;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.RecorderClock;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.UploadPolicy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The few S3 calls a multipart upload needs, over HttpURLConnection with Signature V4
+ * (works against AWS, MinIO and other S3-compatible stores; path-style addressing).
+ * Part bodies are streamed from the segment file through the shared {@link Throttle} and
+ * signed as UNSIGNED-PAYLOAD, so a part is read from disk once and never held in memory;
+ * the whole segment's SHA-256 (from its index) travels as object metadata instead.
+ * Blocking network I/O: call from upload threads only.
+ */
+final class S3Client {
+    private static final int CONNECT_TIMEOUT_MS = 15_000;
+    private static final int READ_TIMEOUT_MS = 60_000;
+    private static final int CHUNK_BYTES = 64 * 1024;
+    private static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+    private static final String EMPTY_SHA256 = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+    private static final Pattern UPLOAD_ID = Pattern.compile("<UploadId>([^<]+)</UploadId>");
+    private static final Pattern ERROR_CODE = Pattern.compile("<Code>([^<]+)</Code>");
+    static final String SHA256_META = "x-amz-meta-sha256";
+
+    /**
+     * What HEAD says about a stored object
+     */
+    static final class ObjectInfo {
+        final long size;
+        // Null for objects stored without it
+        final String sha256;
+
+        ObjectInfo(long size, String sha256) {
+            this.size = size;
+            this.sha256 = sha256;
+        }
+    }
+
+    /**
+     * The store answered with an error
+     */
+    static final class S3Exception extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final String code;
+
+        S3Exception(String code, String message) {
+            super(message);
+            this.code = code;
+        }
+    }
+
+    final UploadPolicy policy;
+    private final Throttle throttle;
+
+    S3Client(UploadPolicy policy, Throttle throttle) {
+        this.policy = policy;
+        this.throttle = throttle;
+    }
+
+    /**
+     * @param sha256 the content's checksum (hex), stored with the object; null for none
+     * @return the new multipart upload's ID
+     */
+    String createUpload(String key, String sha256) throws IOException {
+        Map<String, String> query = new TreeMap<>();
+        query.put("uploads", "");
+        Map<String, String> headers = new TreeMap<>();
+        if (sha256 != null) {
+            headers.put(SHA256_META, sha256);
+        }
+        HttpURLConnection connection = open("POST", key, query, headers, EMPTY_SHA256, 0);
+        try {
+            connection.getOutputStream().close();
+            String body = readBody(connection, "create " + key);
+            Matcher m = UPLOAD_ID.matcher(body);
+            if (!m.find()) {
+                throw new IOException("No UploadId in answer for " + key);
+            }
+            return m.group(1);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Upload bytes [offset, offset + length) of a file as part {@code number} (from 1)
+     * @return the part's ETag, as the store returned it
+     */
+    String uploadPart(String key, String uploadId, int number, File file, long offset, long length) throws IOException {
+        Map<String, String> query = new TreeMap<>();
+        query.put("partNumber", Integer.toString(number));
+        query.put("uploadId", uploadId);
+        HttpURLConnection connection = open("PUT", key, query, null, UNSIGNED_PAYLOAD, length);
+        try {
+            try (RandomAccessFile in = new RandomAccessFile(file, "r");
+                 OutputStream out = connection.getOutputStream()) {
+                in.seek(offset);
+                byte[] chunk = new byte[CHUNK_BYTES];
+                for (long left = length; left > 0; ) {
+                    int read = in.read(chunk, 0, (int) Math.min(chunk.length, left));
+                    if (read < 0) {
+                        throw new IOException(file.getName() + " shrank during upload");
+                    }
+                    throttle.acquire(read);
+                    out.write(chunk, 0, read);
+                    left -= read;
+                }
+            }
+            readBody(connection, "part " + number + " of " + key);
+            String etag = connection.getHeaderField("ETag");
+            if (etag == null) {
+                throw new IOException("No ETag for part " + number + " of " + key);
+            }
+            return etag;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * @param etags the parts' ETags, part 1 first
+     */
+    void completeUpload(String key, String uploadId, List<String> etags) throws IOException {
+        StringBuilder xml = new StringBuilder("<CompleteMultipartUpload>");
+        for (int i = 0; i < etags.size(); i++) {
+            xml.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>")
+                    .append(etags.get(i).replace("\"", "&quot;")).append("</ETag></Part>");
+        }
+        byte[] body = xml.append("</CompleteMultipartUpload>").toString().getBytes(StandardCharsets.UTF_8);
+        Map<String, String> query = new TreeMap<>();
+        query.put("uploadId", uploadId);
+        HttpURLConnection connection = open("POST", key, query, null, hex(sha256(body)), body.length);
+        try {
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+            String answer = readBody(connection, "complete " + key);
+            // S3 may fail a completion after the 200 status line was sent
+            if (answer.contains("<Error>")) {
+                Matcher m = ERROR_CODE.matcher(answer);
+                String code = m.find() ? m.group(1) : "InternalError";
+                throw new S3Exception(code, "complete " + key + ": " + code);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    void abortUpload(String key, String uploadId) throws IOException {
+        Map<String, String> query = new TreeMap<>();
+        query.put("uploadId", uploadId);
+        HttpURLConnection connection = open("DELETE", key, query, null, EMPTY_SHA256, -1);
+        try {
+            readBody(connection, "abort " + key);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * @return the object's size and checksum, null if there is no such object
+     */
+    ObjectInfo head(String key) throws IOException {
+        HttpURLConnection connection = open("HEAD", key, new TreeMap<String, String>(), null, EMPTY_SHA256, -1);
+        try {
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                return null;
+            }
+            if (status / 100 != 2) {
+                throw new S3Exception("", "head " + key + ": HTTP " + status);
+            }
+            return new ObjectInfo(connection.getContentLengthLong(), connection.getHeaderField(SHA256_META));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * A signed request, ready for its body (if any)
+     * @param extra more headers to send and sign (lower-case names), or null
+     * @param contentLength body length, -1 for none
+     */
+    private HttpURLConnection open(String method, String key, Map<String, String> query, Map<String, String> extra,
+                                   String payloadHash, long contentLength) throws IOException {
+        String path = "/" + encode(policy.getBucket(), false) + "/" + encode(key, true);
+        StringBuilder canonicalQuery = new StringBuilder();
+        for (Map.Entry<String, String> param : query.entrySet()) {
+            if (canonicalQuery.length() > 0) canonicalQuery.append('&');
+            canonicalQuery.append(encode(param.getKey(), false)).append('=').append(encode(param.getValue(), false));
+        }
+        URL url = new URL(policy.getEndpoint() + path + (canonicalQuery.length() > 0 ? "?" + canonicalQuery : ""));
+
+        String amzDate = timestamp(RecorderClock.currentTimeMillis());
+        Map<String, String> headers = new TreeMap<>();
+        // As HttpURLConnection sends it
+        headers.put("host", url.getPort() != -1 && url.getPort() != url.getDefaultPort()
+                ? url.getHost() + ":" + url.getPort() : url.getHost());
+        headers.put("x-amz-content-sha256", payloadHash);
+        headers.put("x-amz-date", amzDate);
+        if (extra != null) {
+            headers.putAll(extra);
+        }
+        String authorization = authorization(method, path, canonicalQuery.toString(), headers, payloadHash,
+                amzDate, policy.getRegion(), policy.getAccessKey(), policy.getSecretKey());
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setUseCaches(false);
+        connection.setRequestMethod(method);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (!"host".equals(header.getKey())) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+        connection.setRequestProperty("Authorization", authorization);
+        if (contentLength >= 0) {
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(contentLength);
+        }
+        return connection;
+    }
+
+    /**
+     * @return the answer's body; throws {@link S3Exception} on an error status
+     */
+    private static String readBody(HttpURLConnection connection, String what) throws IOException {
+        int status = connection.getResponseCode();
+        boolean ok = status / 100 == 2;
+        String body;
+        try (InputStream in = ok ? connection.getInputStream() : connection.getErrorStream()) {
+            body = in != null ? readAll(in) : "";
+        }
+        if (!ok) {
+            Matcher m = ERROR_CODE.matcher(body);
+            String code = m.find() ? m.group(1) : "";
+            throw new S3Exception(code, what + ": HTTP " + status + (code.isEmpty() ? "" : " " + code));
+        }
+        return body;
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int read; (read = in.read(buffer)) > 0; ) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Signature V4 Authorization header of a request
+     * @param headers the signed headers, lower-case names
+     */
+    static String authorization(String method, String canonicalUri, String canonicalQuery, Map<String, String> headers,
+                                String payloadHash, String amzDate, String region, String accessKey, String secretKey) {
+        StringBuilder canonicalHeaders = new StringBuilder();
+        StringBuilder signedHeaders = new StringBuilder();
+        for (Map.Entry<String, String> header : new TreeMap<>(headers).entrySet()) {
+            canonicalHeaders.append(header.getKey()).append(':').append(header.getValue().trim()).append('\n');
+            if (signedHeaders.length() > 0) signedHeaders.append(';');
+            signedHeaders.append(header.getKey());
+        }
+        String canonicalRequest = method + '\n' + canonicalUri + '\n' + canonicalQuery + '\n'
+                + canonicalHeaders + '\n' + signedHeaders + '\n' + payloadHash;
+        String date = amzDate.substring(0, 8);
+        String scope = date + "/" + region + "/s3/aws4_request";
+        String stringToSign = "AWS4-HMAC-SHA256\n" + amzDate + '\n' + scope + '\n'
+                + hex(sha256(canonicalRequest.getBytes(StandardCharsets.UTF_8)));
+        byte[] key = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), date);
+        key = hmac(key, region);
+        key = hmac(key, "s3");
+        key = hmac(key, "aws4_request");
+        return "AWS4-HMAC-SHA256 Credential=" + accessKey + "/" + scope + ", SignedHeaders=" + signedHeaders
+                + ", Signature=" + hex(hmac(key, stringToSign));
+    }
+
+    static String timestamp(long ms) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(ms));
+    }
+
+    /**
+     * RFC 3986 percent-encoding as S3 canonicalizes it (only unreserved characters kept)
+     * @param keepSlash leave '/' alone (object keys)
+     */
+    static String encode(String value, boolean keepSlash) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~' || (keepSlash && c == '/')) {
+                sb.append(c);
+            } else {
+                sb.append('%').append(Character.toUpperCase(Character.forDigit((c >> 4) & 0xf, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(c & 0xf, 16)));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String data) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,346 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.upload;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.RecorderClock;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.RecorderLogger;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.SegmentIndex;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.UploadPolicy;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies closed segments to an S3-compatible store (see {@link UploadPolicy}), fed by the
+ * engine as segments close. Segments are uploaded oldest first, up to {@code concurrency}
+ * at once, each as a multipart upload whose progress is journaled (see {@link UploadQueue}):
+ * after a failure or a restart the segment resumes at its next part. All uploads share
+ * one rate cap and run on minimum-priority threads, so catching up after an outage cannot
+ * starve live ingest. Failed segments are retried with exponential backoff; a segment
+ * deleted before it was uploaded (retention) is dropped.
+ *
+ * Each object carries the segment's SHA-256 from its {@link SegmentIndex} as metadata. A
+ * segment is looked up before its first part is sent and skipped when the store already
+ * holds the same content (uploaded before the journal recorded it, or copied by hand).
+ *
+ * Objects are named after the file's path under the recordings root:
+ * {@code <prefix><camera dir>/<file>}, {@code <prefix><camera dir>/proxy/<file>} for
+ * proxies. Idle while the policy has no endpoint.
+ */
+public class SegmentUploader {
+    private static final String TAG = "SegmentUploader";
+    public static final String JOURNAL = ".uploads";
+    private static final long MIN_RETRY_MS = 10_000;
+    private static final long MAX_RETRY_MS = 15 * 60_000L;
+    // S3 limit on parts per upload
+    private static final int MAX_PARTS = 10_000;
+    private static final long MB = 1024 * 1024;
+
+    private final RecorderLogger logger = RecorderLogger.getInstance();
+    private final String root;
+    private final UploadQueue queue;
+    private final Throttle throttle = new Throttle();
+    private final ExecutorService uploads;
+    private final ScheduledExecutorService timer;
+
+    private volatile UploadPolicy policy = UploadPolicy.DEFAULT;
+    private volatile S3Client client;
+    private volatile boolean shutdown;
+    private int running;
+    private boolean retryScheduled;
+
+    private final AtomicInteger uploaded = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger dropped = new AtomicInteger();
+    private final AtomicInteger deduped = new AtomicInteger();
+    private final AtomicLong uploadedBytes = new AtomicLong();
+    private volatile String lastError = "";
+
+    /**
+     * @param root recordings root: segments are read from its camera directories, the
+     *             journal lives in it
+     */
+    public SegmentUploader(File root) {
+        this.root = root.getAbsolutePath() + File.separator;
+        this.queue = new UploadQueue(new File(root, JOURNAL));
+        this.uploads = Executors.newCachedThreadPool(threads("upload"));
+        this.timer = Executors.newSingleThreadScheduledExecutor(threads("upload-retry"));
+    }
+
+    private static ThreadFactory threads(final String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        };
+    }
+
+    /**
+     * Apply a policy (may be called from any thread). Uploads in progress stop after their
+     * current part and resume under the new policy.
+     */
+    public void setPolicy(UploadPolicy next) {
+        if (next.equals(policy)) {
+            return;
+        }
+        throttle.setMbps(next.getMbps());
+        client = next.isEnabled() ? new S3Client(next, throttle) : null;
+        policy = next;
+        logger.info(TAG, "Upload policy: " + next + (queue.size() > 0 ? ", " + queue.size() + " queued" : ""));
+        kick();
+    }
+
+    public UploadPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Queue a closed segment (ignored while uploads are off). After {@link #shutdown()} it
+     * is only journaled, for the next start.
+     */
+    public void enqueue(File segment) {
+        if (!policy.isEnabled()) {
+            return;
+        }
+        queue.add(segment.getAbsolutePath());
+        kick();
+    }
+
+    /**
+     * Start uploads up to the concurrency limit, for the entries that are due
+     */
+    private synchronized void kick() {
+        UploadPolicy current = policy;
+        if (!current.isEnabled() || shutdown) {
+            return;
+        }
+        long now = RecorderClock.currentTimeMillis();
+        while (running < current.getConcurrency()) {
+            final UploadQueue.Entry entry = queue.next(now);
+            if (entry == null) {
+                break;
+            }
+            running++;
+            uploads.execute(() -> run(entry));
+        }
+        long due = queue.nextDueMs();
+        if (due != Long.MAX_VALUE && due > now && !retryScheduled) {
+            retryScheduled = true;
+            timer.schedule(() -> {
+                synchronized (this) {
+                    retryScheduled = false;
+                }
+                kick();
+            }, due - now, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void run(UploadQueue.Entry entry) {
+        boolean done = false;
+        long releaseAt = 0;
+        try {
+            done = upload(entry);
+        } catch (IOException e) {
+            entry.attempts++;
+            failures.incrementAndGet();
+            lastError = new File(entry.path).getName() + ": " + e.getMessage();
+            releaseAt = RecorderClock.currentTimeMillis()
+                    + Math.min(MAX_RETRY_MS, MIN_RETRY_MS << Math.min(10, entry.attempts - 1));
+            logger.warning(TAG, "Upload failed (attempt " + entry.attempts + "), retrying in "
+                    + (releaseAt - RecorderClock.currentTimeMillis()) / 1000 + " s: " + lastError);
+        } catch (RuntimeException e) {
+            entry.attempts++;
+            failures.incrementAndGet();
+            lastError = new File(entry.path).getName() + ": " + e;
+            releaseAt = RecorderClock.currentTimeMillis() + MAX_RETRY_MS;
+            logger.error(TAG, "Upload crashed: " + lastError);
+        } finally {
+            if (done) {
+                queue.remove(entry);
+            } else {
+                queue.release(entry, releaseAt);
+            }
+            synchronized (this) {
+                running--;
+            }
+            kick();
+        }
+    }
+
+    /**
+     * Upload one segment from its next part
+     * @return true when done with it (uploaded or gone), false to put it back (policy changed)
+     */
+    private boolean upload(UploadQueue.Entry entry) throws IOException {
+        S3Client s3 = client;
+        if (s3 == null || shutdown) {
+            return false;
+        }
+        UploadPolicy current = s3.policy;
+        File segment = new File(entry.path);
+        String key = keyOf(current, segment);
+        if (!segment.isFile()) {
+            dropped.incrementAndGet();
+            logger.warning(TAG, "Segment deleted before upload: " + entry.path);
+            if (entry.uploadId != null) {
+                try {
+                    s3.abortUpload(key, entry.uploadId);
+                } catch (IOException e) {
+                    // The store expires abandoned uploads
+                }
+            }
+            return true;
+        }
+        long length = segment.length();
+        String sha256 = sha256Of(segment);
+        if (entry.uploadId == null) {
+            S3Client.ObjectInfo existing = sha256 != null ? s3.head(key) : null;
+            if (existing != null && existing.sha256 != null && stored(existing, length, sha256)) {
+                deduped.incrementAndGet();
+                logger.info(TAG, "Already in the store: " + key);
+                return true;
+            }
+            long partBytes = Math.max(current.getPartBytes(), (length + MAX_PARTS - 1) / MAX_PARTS);
+            queue.started(entry, partBytes, s3.createUpload(key, sha256));
+        }
+        int parts = (int) Math.max(1, (length + entry.partBytes - 1) / entry.partBytes);
+        try {
+            for (int number = entry.etags.size() + 1; number <= parts; number++) {
+                if (client != s3 || shutdown) {
+                    return false;
+                }
+                long offset = (number - 1) * entry.partBytes;
+                long size = Math.min(entry.partBytes, length - offset);
+                queue.partDone(entry, s3.uploadPart(key, entry.uploadId, number, segment, offset, size));
+                uploadedBytes.addAndGet(size);
+            }
+            s3.completeUpload(key, entry.uploadId, entry.etags);
+        } catch (S3Client.S3Exception e) {
+            if (!"NoSuchUpload".equals(e.code)) {
+                throw e;
+            }
+            // Completed before a crash, aborted or expired by the store
+            if (stored(s3.head(key), length, sha256)) {
+                logger.info(TAG, "Already uploaded: " + key);
+            } else {
+                queue.restart(entry);
+                throw e;
+            }
+        }
+        uploaded.incrementAndGet();
+        logger.info(TAG, "Uploaded " + key + " (" + length / 1024 + " KB, " + parts + " parts)");
+        return true;
+    }
+
+    /**
+     * @return the segment's checksum from its index (built now if missing), null if it
+     * cannot be indexed
+     */
+    private String sha256Of(File segment) {
+        try {
+            return SegmentIndex.load(segment).sha256Hex();
+        } catch (IOException e) {
+            logger.warning(TAG, "No checksum for " + segment.getName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the stored object is this content: same checksum when both have one,
+     * else same size
+     */
+    private static boolean stored(S3Client.ObjectInfo object, long length, String sha256) {
+        if (object == null || object.size != length) {
+            return false;
+        }
+        return sha256 == null || object.sha256 == null || sha256.equalsIgnoreCase(object.sha256);
+    }
+
+    private String keyOf(UploadPolicy policy, File segment) {
+        String path = segment.getAbsolutePath();
+        if (path.startsWith(root)) {
+            return policy.getPrefix() + path.substring(root.length()).replace(File.separatorChar, '/');
+        }
+        File dir = segment.getParentFile();
+        return policy.getPrefix() + (dir != null ? dir.getName() + "/" : "") + segment.getName();
+    }
+
+    public int getQueued() {
+        return queue.size();
+    }
+
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    public int getUploaded() {
+        return uploaded.get();
+    }
+
+    public long getUploadedBytes() {
+        return uploadedBytes.get();
+    }
+
+    public int getDeduped() {
+        return deduped.get();
+    }
+
+    public int getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return how far behind uploads are: age of the oldest queued segment, 0 if none
+     */
+    public long getLagMs() {
+        String oldest = queue.oldest();
+        if (oldest == null) {
+            return 0;
+        }
+        long modified = new File(oldest).lastModified();
+        return modified > 0 ? Math.max(0, RecorderClock.currentTimeMillis() - modified) : 0;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public String summary() {
+        return String.format(Locale.US, "=== Upload ===%ntarget=%s queued=%d running=%d uploaded=%d segments/%.1fMB"
+                        + " deduped=%d failures=%d dropped=%d lag=%ds%s%n",
+                policy, getQueued(), getRunning(), getUploaded(), uploadedBytes.get() / (double) MB, getDeduped(),
+                getFailures(), dropped.get(), getLagMs() / 1000, lastError.isEmpty() ? "" : " last_error=" + lastError);
+    }
+
+    /**
+     * Stop uploading; unfinished segments stay journaled for the next start
+     */
+    public void shutdown() {
+        shutdown = true;
+        timer.shutdownNow();
+        uploads.shutdownNow();
+    }
+
+    /**
+     * Wait for the queue to drain (simulator)
+     * @return true if it did within the timeout
+     */
+    public boolean awaitIdle(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (queue.size() > 0 || getRunning() > 0) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            Thread.sleep(100);
+        }
+        return true;
+    }
+}
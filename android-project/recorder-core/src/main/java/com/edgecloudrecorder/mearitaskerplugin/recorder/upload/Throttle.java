@@ -0,0 +1,50 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.upload;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Paces the bytes of all uploads to one rate: each chunk reserves its transmission time on
+ * a shared timeline and its sender sleeps until then. Idle time is banked for a short burst
+ * only, so a quiet minute does not turn into a flood that starves live ingest. Real time,
+ * not {@link com.edgecloudrecorder.mearitaskerplugin.recorder.RecorderClock}: the senders
+ * are real threads blocked on real sockets.
+ */
+final class Throttle {
+    private static final long BURST_NANOS = 250_000_000L;
+
+    private volatile long bytesPerSecond;
+    private long nextNanos;
+
+    /**
+     * @param mbps total rate, 0 for no limit
+     */
+    void setMbps(int mbps) {
+        bytesPerSecond = Math.max(0, mbps) * 1_000_000L / 8;
+    }
+
+    /**
+     * Block until {@code bytes} more may be sent
+     */
+    void acquire(int bytes) throws InterruptedIOException {
+        long rate = bytesPerSecond;
+        if (rate <= 0) {
+            return;
+        }
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            nextNanos = Math.max(nextNanos, now - BURST_NANOS);
+            waitNanos = nextNanos - now;
+            nextNanos += bytes * 1_000_000_000L / rate;
+        }
+        if (waitNanos <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(waitNanos / 1_000_000L, (int) (waitNanos % 1_000_000L));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Upload interrupted");
+        }
+    }
+}
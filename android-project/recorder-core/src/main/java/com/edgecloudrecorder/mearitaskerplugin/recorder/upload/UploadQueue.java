@@ -0,0 +1,259 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.upload;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.RecorderLogger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Segments waiting for upload, oldest first, with the progress of their multipart upload
+ * (upload ID and the ETags of the parts done), so a restart resumes at the next part
+ * instead of the next segment's first byte.
+ *
+ * Persisted as an append-only journal, replayed on construction:
+ * "+ path" queued, "u partBytes uploadId path" upload started, "p etag path" next part
+ * done, "r path" upload restarted from scratch, "- path" uploaded or given up.
+ * Rewritten compacted when it holds many more lines than entries, emptied when the queue is.
+ */
+final class UploadQueue {
+    private static final String TAG = "UploadQueue";
+    private static final int COMPACT_MIN_LINES = 1000;
+
+    /**
+     * One segment's upload
+     */
+    static final class Entry {
+        final String path;
+        long partBytes;
+        String uploadId;
+        final List<String> etags = new ArrayList<>();
+        int attempts;
+        long notBeforeMs;
+        boolean active;
+
+        Entry(String path) {
+            this.path = path;
+        }
+    }
+
+    private final RecorderLogger logger = RecorderLogger.getInstance();
+    private final File journal;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private int journalLines;
+
+    UploadQueue(File journal) {
+        this.journal = journal;
+        replay();
+    }
+
+    /**
+     * Queue a segment (again: no-op)
+     */
+    synchronized void add(String path) {
+        if (entries.containsKey(path)) {
+            return;
+        }
+        entries.put(path, new Entry(path));
+        log("+ " + path);
+    }
+
+    /**
+     * @return the oldest entry due at {@code nowMs} that no thread is working on, now marked
+     * active; null if none
+     */
+    synchronized Entry next(long nowMs) {
+        for (Entry entry : entries.values()) {
+            if (!entry.active && entry.notBeforeMs <= nowMs) {
+                entry.active = true;
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return when the earliest waiting entry is due, Long.MAX_VALUE if none is waiting
+     */
+    synchronized long nextDueMs() {
+        long due = Long.MAX_VALUE;
+        for (Entry entry : entries.values()) {
+            if (!entry.active) {
+                due = Math.min(due, entry.notBeforeMs);
+            }
+        }
+        return due;
+    }
+
+    synchronized void started(Entry entry, long partBytes, String uploadId) {
+        entry.partBytes = partBytes;
+        entry.uploadId = uploadId;
+        entry.etags.clear();
+        log("u " + partBytes + " " + uploadId + " " + entry.path);
+    }
+
+    synchronized void partDone(Entry entry, String etag) {
+        entry.etags.add(etag);
+        log("p " + etag + " " + entry.path);
+    }
+
+    /**
+     * The store lost the upload: start the segment over
+     */
+    synchronized void restart(Entry entry) {
+        entry.uploadId = null;
+        entry.etags.clear();
+        log("r " + entry.path);
+    }
+
+    /**
+     * Uploaded, or given up on: forget the entry
+     */
+    synchronized void remove(Entry entry) {
+        entries.remove(entry.path);
+        if (!entries.isEmpty() || !rewrite()) {
+            log("- " + entry.path);
+        }
+    }
+
+    /**
+     * Stop working on an entry; it is picked again from {@code notBeforeMs}
+     */
+    synchronized void release(Entry entry, long notBeforeMs) {
+        entry.active = false;
+        entry.notBeforeMs = notBeforeMs;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return path of the oldest queued segment, null if none
+     */
+    synchronized String oldest() {
+        return entries.isEmpty() ? null : entries.keySet().iterator().next();
+    }
+
+    private void replay() {
+        if (!journal.isFile()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(journal))) {
+            for (String line; (line = reader.readLine()) != null; ) {
+                if (apply(line)) {
+                    journalLines++;
+                }
+            }
+        } catch (IOException e) {
+            logger.error(TAG, "Cannot read " + journal + ": " + e.getMessage());
+        }
+        if (!entries.isEmpty()) {
+            logger.info(TAG, "Resuming " + entries.size() + " queued uploads");
+        }
+    }
+
+    /**
+     * @return false for a line that is not a journal record (torn last line after a crash)
+     */
+    private boolean apply(String line) {
+        if (line.length() < 3 || line.charAt(1) != ' ') {
+            return false;
+        }
+        String rest = line.substring(2);
+        Entry entry;
+        switch (line.charAt(0)) {
+            case '+':
+                if (!entries.containsKey(rest)) {
+                    entries.put(rest, new Entry(rest));
+                }
+                return true;
+            case '-':
+                entries.remove(rest);
+                return true;
+            case 'r':
+                entry = entries.get(rest);
+                if (entry != null) {
+                    entry.uploadId = null;
+                    entry.etags.clear();
+                }
+                return true;
+            case 'u': {
+                String[] fields = rest.split(" ", 3);
+                if (fields.length < 3 || (entry = entries.get(fields[2])) == null) {
+                    return false;
+                }
+                try {
+                    entry.partBytes = Long.parseLong(fields[0]);
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+                entry.uploadId = fields[1];
+                entry.etags.clear();
+                return true;
+            }
+            case 'p': {
+                String[] fields = rest.split(" ", 2);
+                if (fields.length < 2 || (entry = entries.get(fields[1])) == null || entry.uploadId == null) {
+                    return false;
+                }
+                entry.etags.add(fields[0]);
+                return true;
+            }
+            default:
+                return false;
+        }
+    }
+
+    private void log(String line) {
+        if (journalLines >= COMPACT_MIN_LINES && journalLines > 4 * entries.size() && rewrite()) {
+            return;
+        }
+        try (Writer writer = new FileWriter(journal, true)) {
+            writer.write(line + '\n');
+            journalLines++;
+        } catch (IOException e) {
+            logger.warning(TAG, "Cannot write " + journal + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Rewrite the journal as the current entries (the change just applied included)
+     * @return false if it was left as it was
+     */
+    private boolean rewrite() {
+        File partial = new File(journal.getPath() + ".part");
+        int lines = 0;
+        try (Writer writer = new FileWriter(partial, false)) {
+            for (Entry entry : entries.values()) {
+                writer.write("+ " + entry.path + '\n');
+                lines++;
+                if (entry.uploadId != null) {
+                    writer.write("u " + entry.partBytes + " " + entry.uploadId + " " + entry.path + '\n');
+                    lines++;
+                    for (String etag : entry.etags) {
+                        writer.write("p " + etag + " " + entry.path + '\n');
+                        lines++;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.warning(TAG, "Cannot compact " + journal + ": " + e.getMessage());
+            partial.delete();
+            return false;
+        }
+        if (!partial.renameTo(journal)) {
+            partial.delete();
+            return false;
+        }
+        journalLines = lines;
+        return true;
+    }
+}
@@ -0,0 +1,110 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static com.edgecloudrecorder.mearitaskerplugin.recorder.CameraProfile.Mode.HD;
+import static com.edgecloudrecorder.mearitaskerplugin.recorder.CameraProfile.Mode.LOW;
+import static com.edgecloudrecorder.mearitaskerplugin.recorder.CameraProfile.Mode.SD;
+import static com.edgecloudrecorder.mearitaskerplugin.recorder.CameraProfile.Mode.SNAPSHOT;
+import static org.junit.Assert.*;
+
+public class BandwidthBudgetTest {
+    // Indexed by Mode ordinal: IDLE, SNAPSHOT, LOW, SD, HD
+    private static final long[] RATES = {0, 16, 400, 1000, 2000};
+
+    private final BandwidthBudget budget = BandwidthBudget.getInstance();
+
+    @Before
+    @After
+    public void reset() {
+        budget.reset();
+    }
+
+    private static BandwidthBudget.Demand demand(String id, int priority, CameraProfile.Mode wanted) {
+        return new BandwidthBudget.Demand(id, priority, wanted, RATES);
+    }
+
+    @Test
+    public void noCapGivesEveryoneWhatTheyAsk() {
+        Map<String, CameraProfile.Mode> allocation = BandwidthBudget.allocate(
+                Arrays.asList(demand("a", 0, HD), demand("b", 0, SD)), 0);
+        assertEquals(HD, allocation.get("a"));
+        assertEquals(SD, allocation.get("b"));
+    }
+
+    @Test
+    public void higherPriorityIsRaisedFirst() {
+        // LOW for both (800), then "hi" to SD (+600) and HD (+1000): 2400 of 2500
+        Map<String, CameraProfile.Mode> allocation = BandwidthBudget.allocate(
+                Arrays.asList(demand("lo", 1, HD), demand("hi", 5, HD)), 2500);
+        assertEquals(HD, allocation.get("hi"));
+        assertEquals(LOW, allocation.get("lo"));
+    }
+
+    @Test
+    public void equalPrioritiesShareTierByTier() {
+        // LOW for all (1200), then SD for each (+600 x3 = 3000); no room for HD
+        Map<String, CameraProfile.Mode> allocation = BandwidthBudget.allocate(
+                Arrays.asList(demand("a", 0, HD), demand("b", 0, HD), demand("c", 0, HD)), 3500);
+        assertEquals(SD, allocation.get("a"));
+        assertEquals(SD, allocation.get("b"));
+        assertEquals(SD, allocation.get("c"));
+    }
+
+    @Test
+    public void neverAboveTheSchedule() {
+        Map<String, CameraProfile.Mode> allocation = BandwidthBudget.allocate(
+                Arrays.asList(demand("a", 0, SD), demand("b", 0, SNAPSHOT)), 100_000);
+        assertEquals(SD, allocation.get("a"));
+        assertEquals(SNAPSHOT, allocation.get("b"));
+    }
+
+    @Test
+    public void lowestPriorityFallsBackToSnapshots() {
+        Map<String, CameraProfile.Mode> allocation = BandwidthBudget.allocate(
+                Arrays.asList(demand("a", 3, HD), demand("b", 2, HD), demand("c", 1, HD)), 900);
+        assertEquals(LOW, allocation.get("a"));
+        assertEquals(LOW, allocation.get("b"));
+        assertEquals(SNAPSHOT, allocation.get("c"));
+    }
+
+    @Test
+    public void rebalanceCapsAndDropsMissingCameras() {
+        budget.setCapMbps(1);
+        List<String> cameras = Arrays.asList("a", "b");
+        budget.rebalance(cameras, Arrays.asList(demand("a", 1, HD), demand("b", 0, HD)));
+        assertEquals(LOW, budget.cap("a", HD));
+        // A lower scheduled mode is not raised
+        assertEquals(SNAPSHOT, budget.cap("a", SNAPSHOT));
+        assertEquals(800, budget.getAllocatedKbps());
+
+        budget.rebalance(cameras, Arrays.asList(demand("a", 1, HD)));
+        assertNull(budget.getCap("b"));
+        assertEquals(0, budget.getAllocatedKbps("b"));
+        assertEquals(HD, budget.cap("b", HD));
+    }
+
+    @Test
+    public void measuredRateWinsOverAdvertisedAndDefault() {
+        assertEquals(BandwidthBudget.defaultKbps(SD), budget.rateKbps("a", 1, 0, SD));
+        assertEquals(700, budget.rateKbps("a", 1, 700, SD));
+
+        // 10 MB over 40 s = 2000 kbit/s
+        budget.observe("a", 1, 10_000_000, 40_000);
+        assertEquals(2000, budget.rateKbps("a", 1, 700, SD));
+        // Then smoothed towards 1000 kbit/s by 0.3
+        budget.observe("a", 1, 5_000_000, 40_000);
+        assertEquals(1700, budget.rateKbps("a", 1, 700, SD));
+        // Short segments are ignored
+        budget.observe("a", 1, 100, 1_000);
+        assertEquals(1700, budget.rateKbps("a", 1, 700, SD));
+        // Snapshots are never measured
+        assertEquals(BandwidthBudget.defaultKbps(SNAPSHOT), budget.rateKbps("a", 1, 700, SNAPSHOT));
+    }
+}
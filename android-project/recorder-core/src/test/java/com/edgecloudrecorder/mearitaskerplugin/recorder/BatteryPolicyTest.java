@@ -0,0 +1,99 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class BatteryPolicyTest {
+    private static final long MINUTE_MS = 60_000L;
+    private static final long NOW_MS = 1_800_000_000_000L;
+
+    @Test
+    public void emptyIsDefault() {
+        assertSame(BatteryPolicy.DEFAULT, BatteryPolicy.decode(null));
+        assertSame(BatteryPolicy.DEFAULT, BatteryPolicy.decode(" "));
+        assertSame(BatteryPolicy.ALWAYS_ON, BatteryPolicy.decode(" Always "));
+    }
+
+    @Test
+    public void roundTrips() {
+        BatteryPolicy policy = new BatteryPolicy(30, 45, 90, 3);
+        assertEquals("every=30;clip=45;wake_clip=90;concurrent=3", policy.encode());
+        assertEquals(policy, BatteryPolicy.decode(policy.encode()));
+        assertEquals(BatteryPolicy.ALWAYS_ON, BatteryPolicy.decode(BatteryPolicy.ALWAYS_ON.encode()));
+    }
+
+    @Test
+    public void missingFieldsKeepDefaults() {
+        BatteryPolicy policy = BatteryPolicy.decode("every=0");
+        assertEquals(0, policy.getEveryMinutes());
+        assertEquals(BatteryPolicy.DEFAULT.getClipSeconds(), policy.getClipSeconds());
+        assertEquals(BatteryPolicy.DEFAULT.getWakeClipSeconds(), policy.getWakeClipSeconds());
+        assertEquals(BatteryPolicy.DEFAULT.getConcurrent(), policy.getConcurrent());
+    }
+
+    @Test
+    public void rejectsMalformedInput() {
+        String[] bad = {"every", "=5", "every=soon", "every=-1", "clip=0", "wake_clip=0", "concurrent=0", "nap=5"};
+        for (String encoded : bad) {
+            try {
+                BatteryPolicy.decode(encoded);
+                fail(encoded);
+            } catch (IllegalArgumentException expected) {
+                // ok
+            }
+        }
+    }
+
+    @Test
+    public void noDutyCycleHasNoSlot() {
+        assertEquals(Long.MAX_VALUE, BatteryPolicy.ALWAYS_ON.nextSlot("DEV1", NOW_MS));
+        assertEquals(Long.MAX_VALUE, BatteryPolicy.decode("every=0").nextSlot("DEV1", NOW_MS));
+    }
+
+    @Test
+    public void slotsRepeatEveryCycle() {
+        BatteryPolicy policy = BatteryPolicy.decode("every=60");
+        long period = 60 * MINUTE_MS;
+        long slot = policy.nextSlot("DEV1", NOW_MS);
+        assertTrue(slot >= NOW_MS && slot < NOW_MS + period);
+        // Due now at the slot itself, the next cycle just after it
+        assertEquals(slot, policy.nextSlot("DEV1", slot));
+        assertEquals(slot + period, policy.nextSlot("DEV1", slot + 1));
+        // Same phase in any cycle
+        assertEquals(slot + 5 * period, policy.nextSlot("DEV1", slot + 4 * period + 1));
+    }
+
+    @Test
+    public void slotsWrapAroundTheCycle() {
+        BatteryPolicy policy = BatteryPolicy.decode("every=10");
+        long period = 10 * MINUTE_MS;
+        long slot = policy.nextSlot("DEV1", NOW_MS);
+        // Asked just after its slot, a camera waits a whole cycle, into the next one
+        for (long now = slot + 1; now <= slot + period; now += period / 7) {
+            long next = policy.nextSlot("DEV1", now);
+            assertEquals(slot + period, next);
+            assertTrue(next - now < period);
+        }
+        // Also before the epoch offset: the phase holds for small times
+        long early = policy.nextSlot("DEV1", 0);
+        assertEquals(Math.floorMod(slot, period), early);
+    }
+
+    @Test
+    public void slotsAreStaggeredByDevice() {
+        BatteryPolicy policy = BatteryPolicy.decode("every=60");
+        long period = 60 * MINUTE_MS;
+        Set<Long> minutes = new HashSet<>();
+        for (int i = 0; i < 20; i++) {
+            long slot = policy.nextSlot("DEV" + i, NOW_MS);
+            assertTrue(slot >= NOW_MS && slot < NOW_MS + period);
+            minutes.add((slot - NOW_MS) / MINUTE_MS);
+        }
+        // Not all at once: 20 devices over 60 minutes land in many different minutes
+        assertTrue(String.valueOf(minutes), minutes.size() >= 10);
+    }
+}
@@ -0,0 +1,78 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CameraProfileTest {
+    private static final String ID = "DEV1";
+
+    private static int at(int hours, int minutes) {
+        return hours * 60 + minutes;
+    }
+
+    @Test
+    public void roundTrips() {
+        String encoded = "quality=LOW;duration=5;snapshot=30;priority=1;proxy=1;"
+                + "windows=08:00-20:00=HD,20:00-23:00=SNAPSHOT,23:00-06:00=IDLE";
+        CameraProfile profile = CameraProfile.decode(ID, encoded);
+        assertEquals(profile.encode(), CameraProfile.decode(ID, profile.encode()).encode());
+        assertEquals(3, profile.getWindows().size());
+    }
+
+    @Test
+    public void windowsWrapPastMidnight() {
+        CameraProfile profile = CameraProfile.decode(ID, "quality=SD;windows=23:00-06:00=IDLE");
+        assertEquals(CameraProfile.Mode.IDLE, profile.modeAt(at(23, 0)));
+        assertEquals(CameraProfile.Mode.IDLE, profile.modeAt(at(0, 0)));
+        assertEquals(CameraProfile.Mode.IDLE, profile.modeAt(at(5, 59)));
+        assertEquals(CameraProfile.Mode.SD, profile.modeAt(at(6, 0)));
+        assertEquals(CameraProfile.Mode.SD, profile.modeAt(at(22, 59)));
+    }
+
+    @Test
+    public void windowsMayEndAtMidnight() {
+        CameraProfile profile = CameraProfile.decode(ID, "windows=20:00-24:00=LOW");
+        assertEquals(CameraProfile.Mode.LOW, profile.modeAt(at(23, 59)));
+        assertNull(profile.modeAt(at(0, 0)));
+        assertNull(profile.modeAt(at(19, 59)));
+
+        CameraProfile allDay = CameraProfile.decode(ID, "windows=00:00-24:00=HD");
+        assertEquals(CameraProfile.Mode.HD, allDay.modeAt(at(0, 0)));
+        assertEquals(CameraProfile.Mode.HD, allDay.modeAt(at(23, 59)));
+        assertEquals("windows=00:00-24:00=HD", allDay.encode());
+    }
+
+    @Test
+    public void firstOverlappingWindowApplies() {
+        List<CameraProfile.Window> windows = CameraProfile.parseWindows("08:00-20:00=HD,12:00-14:00=IDLE");
+        CameraProfile profile = new CameraProfile(ID, CameraProfile.Mode.LOW, 0, windows);
+        assertEquals(CameraProfile.Mode.HD, profile.modeAt(at(13, 0)));
+        assertEquals(CameraProfile.Mode.LOW, profile.modeAt(at(21, 0)));
+
+        profile = CameraProfile.decode(ID, "quality=LOW;windows=12:00-14:00=IDLE,08:00-20:00=HD");
+        assertEquals(CameraProfile.Mode.IDLE, profile.modeAt(at(13, 0)));
+        assertEquals(CameraProfile.Mode.HD, profile.modeAt(at(14, 0)));
+    }
+
+    @Test
+    public void rejectsEmptyAndMalformedWindows() {
+        String[] bad = {
+                // Empty: start and end alike
+                "08:00-08:00=HD", "00:00-00:00=HD",
+                // 24:00 only ends a window
+                "24:00-06:00=IDLE", "24:00-24:00=HD",
+                "24:01-06:00=HD", "08:60-09:00=HD", "8-9=HD", "08:00=HD", "08:00-09:00", "08:00-09:00=ULTRA"
+        };
+        for (String windows : bad) {
+            try {
+                CameraProfile.decode(ID, "windows=" + windows);
+                fail(windows);
+            } catch (IllegalArgumentException expected) {
+                // ok
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraDescriptor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class CameraRecorderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CameraRecorder recorder(String deviceId, String name) {
+        CameraDescriptor camera = new CameraDescriptor(deviceId, name, false, Account.PRIMARY);
+        return new CameraRecorder(camera, folder.getRoot().getPath() + "/");
+    }
+
+    @Test
+    public void directoriesAreEscapedDeviceIds() {
+        assertEquals("ABC-123", CameraRecorder.directoryOf("ABC-123"));
+        assertEquals("a_2f_b_2e_c", CameraRecorder.directoryOf("a/b.c"));
+        // Distinct IDs that would sanitize alike stay apart
+        assertNotEquals(CameraRecorder.directoryOf("a_b"), CameraRecorder.directoryOf("a b"));
+        assertEquals("_", CameraRecorder.directoryOf(""));
+    }
+
+    @Test
+    public void namedDirectoryBecomesTheDeviceDirectory() throws IOException {
+        File named = folder.newFolder("Front_door");
+        assertTrue(new File(named, "Front_door_10_00_01_01_2027.mp4").createNewFile());
+        CameraRecorder recorder = recorder("DEV1", "Front door");
+
+        assertTrue(recorder.adoptNamedDirectory());
+        assertFalse(named.exists());
+        assertTrue(new File(folder.getRoot(), "DEV1/Front_door_10_00_01_01_2027.mp4").isFile());
+        // Once only
+        assertFalse(recorder.adoptNamedDirectory());
+    }
+
+    @Test
+    public void existingDeviceDirectoryIsKept() throws IOException {
+        File named = folder.newFolder("Garage");
+        folder.newFolder("DEV2");
+        assertFalse(recorder("DEV2", "Garage").adoptNamedDirectory());
+        assertTrue(named.isDirectory());
+    }
+
+    @Test
+    public void exportsAreNeverAdopted() throws IOException {
+        folder.newFolder(CameraRecorder.EXPORT_DIR);
+        assertFalse(recorder("DEV3", "exports").adoptNamedDirectory());
+        assertFalse(recorder("DEV4", "Porch").adoptNamedDirectory());
+        assertTrue(new File(folder.getRoot(), CameraRecorder.EXPORT_DIR).isDirectory());
+    }
+}
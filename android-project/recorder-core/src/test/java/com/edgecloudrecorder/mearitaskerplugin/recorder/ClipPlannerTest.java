@@ -0,0 +1,158 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import static com.edgecloudrecorder.mearitaskerplugin.recorder.SegmentIndexTest.box;
+import static com.edgecloudrecorder.mearitaskerplugin.recorder.SegmentIndexTest.full;
+import static com.edgecloudrecorder.mearitaskerplugin.recorder.SegmentIndexTest.ints;
+import static org.junit.Assert.*;
+
+public class ClipPlannerTest {
+    private static final long MINUTE_MS = 60_000L;
+    // A whole minute, as segment names have
+    private static final long T0 = 1_800_000_000_000L / MINUTE_MS * MINUTE_MS;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+
+    @Before
+    public void setUp() {
+        dir = folder.getRoot();
+    }
+
+    /**
+     * An empty segment named for {@code nameMs}, finalized at {@code modifiedMs}
+     */
+    private File segment(long nameMs, long modifiedMs) throws IOException {
+        File file = new File(dir, "cam1_" + CameraRecorder.timestamp(nameMs) + ".mp4");
+        Files.write(file.toPath(), new byte[0]);
+        assertTrue(file.setLastModified(modifiedMs));
+        return file;
+    }
+
+    /**
+     * A 4 s segment at 1000 units/s: four 1 s samples of 10 bytes, keyframes at 0 s and 2 s
+     */
+    private File indexed(long nameMs, long modifiedMs) throws IOException {
+        File file = new File(dir, "cam1_" + CameraRecorder.timestamp(nameMs) + ".mp4");
+        byte[] stbl = box("stbl",
+                full("stts", 1, 4, 1000),
+                full("stss", 2, 1, 3),
+                full("stsz", 10, 4),
+                full("stsc", 1, 1, 4, 1),
+                full("stco", 1, 100));
+        byte[] mdia = box("mdia",
+                full("mdhd", 0, 0, 1000, 4000, 0),
+                box("hdlr", ints(0, 0), "vide".getBytes(StandardCharsets.US_ASCII), ints(0, 0, 0)),
+                box("minf", stbl));
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(box("ftyp", "isom".getBytes(StandardCharsets.US_ASCII), ints(0)));
+            out.write(box("mdat", new byte[200]));
+            out.write(box("moov", box("trak", mdia)));
+        }
+        assertTrue(file.setLastModified(modifiedMs));
+        return file;
+    }
+
+    @Test
+    public void rangeResolvesToTheSegmentsAroundIt() throws IOException {
+        // Minute segments, each finalized half a second after its minute ends
+        File[] minutes = new File[4];
+        for (int i = 0; i < minutes.length; i++) {
+            minutes[i] = segment(T0 + i * MINUTE_MS, T0 + (i + 1) * MINUTE_MS + 500);
+        }
+        // 01:30 to 02:30 crosses the boundary between the second and third segment
+        List<ClipPlanner.Segment> plan = ClipPlanner.segments(dir, T0 + 90_000, T0 + 150_000,
+                Collections.<String>emptySet());
+        assertEquals(2, plan.size());
+        assertEquals(minutes[1], plan.get(0).file);
+        assertEquals(minutes[2], plan.get(1).file);
+        assertEquals(T0 + MINUTE_MS, plan.get(0).nameMs);
+        assertEquals(T0 + 2 * MINUTE_MS + 500, plan.get(0).modifiedMs);
+    }
+
+    @Test
+    public void rangeOnABoundaryKeepsBothNeighbours() throws IOException {
+        File first = segment(T0, T0 + MINUTE_MS);
+        File second = segment(T0 + MINUTE_MS, T0 + 2 * MINUTE_MS);
+        // Either may hold the frame at the boundary: the export places them by duration
+        List<ClipPlanner.Segment> plan = ClipPlanner.segments(dir, T0 + MINUTE_MS, T0 + MINUTE_MS,
+                Collections.<String>emptySet());
+        assertEquals(2, plan.size());
+        assertEquals(first, plan.get(0).file);
+        assertEquals(second, plan.get(1).file);
+    }
+
+    @Test
+    public void openAndUnnamedFilesAreSkipped() throws IOException {
+        File open = segment(T0, T0 + 30_000);
+        File done = segment(T0 + MINUTE_MS, T0 + 2 * MINUTE_MS);
+        File timelapse = new File(dir, "cam1_timelapse_20270101_09.mp4");
+        Files.write(timelapse.toPath(), new byte[0]);
+        Files.write(new File(dir, "cam1_10_00_01_01_2027.mp4.idx").toPath(), new byte[0]);
+
+        List<ClipPlanner.Segment> plan = ClipPlanner.segments(dir, T0, T0 + 10 * MINUTE_MS,
+                Collections.singleton(open.getAbsolutePath()));
+        assertEquals(1, plan.size());
+        assertEquals(done, plan.get(0).file);
+    }
+
+    @Test
+    public void missingDirectoryPlansNothing() {
+        assertTrue(ClipPlanner.segments(new File(dir, "none"), T0, T0 + MINUTE_MS,
+                Collections.<String>emptySet()).isEmpty());
+    }
+
+    @Test
+    public void startComesFromTheEndAndDuration() {
+        ClipPlanner.Segment segment = new ClipPlanner.Segment(new File(dir, "x.mp4"), T0, T0 + 80_000);
+        // Started 20 s into its minute
+        assertEquals(T0 + 20_000, segment.startMs(60_000));
+        // Never before the minute in its name (finalizing took longer than usual)
+        assertEquals(T0, segment.startMs(90_000));
+    }
+
+    @Test
+    public void clipEntersTheFirstSegmentAtTheKeyframeBeforeTheStart() throws IOException {
+        // Two 4 s segments back to back, the second starting 4 s after the first
+        indexed(T0, T0 + 4_000);
+        indexed(T0 + MINUTE_MS, T0 + MINUTE_MS + 4_000);
+        long fromMs = T0 + 3_000;
+        long toMs = T0 + MINUTE_MS + 1_000;
+
+        List<ClipPlanner.Segment> plan = ClipPlanner.segments(dir, fromMs, toMs, Collections.<String>emptySet());
+        assertEquals(2, plan.size());
+
+        ClipPlanner.Segment first = plan.get(0);
+        SegmentIndex index = SegmentIndex.load(first.file);
+        long startMs = first.startMs(index.durationUs() / 1000);
+        assertEquals(T0, startMs);
+        // 3 s in falls in the GOP that starts at 2 s
+        int entry = index.keyframeAtOrBefore((fromMs - startMs) * 1000);
+        assertEquals(1, entry);
+        assertEquals(2_000_000, index.timeUs(entry));
+        assertEquals(2, index.sampleIndex(entry));
+
+        // The next segment is entered at its start, its first sample a keyframe
+        ClipPlanner.Segment second = plan.get(1);
+        SegmentIndex next = SegmentIndex.load(second.file);
+        long nextStartMs = second.startMs(next.durationUs() / 1000);
+        assertEquals(T0 + MINUTE_MS, nextStartMs);
+        assertTrue(fromMs < nextStartMs);
+        assertEquals(0, next.keyframeAtOrBefore(0));
+        assertEquals(0, next.sampleIndex(0));
+    }
+}
@@ -0,0 +1,121 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CoverageIndexTest {
+    private static final String CAMERA = "cam1";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CoverageIndex index;
+
+    @Before
+    public void setUp() throws IOException {
+        folder.newFolder(CAMERA);
+        index = new CoverageIndex(folder.getRoot());
+    }
+
+    private String spans(long fromMs, long toMs) {
+        return format(index.spans(CAMERA, fromMs, toMs));
+    }
+
+    private static String format(List<CoverageIndex.Span> spans) {
+        StringBuilder sb = new StringBuilder();
+        for (CoverageIndex.Span span : spans) {
+            sb.append('[').append(span.startMs).append(',').append(span.endMs).append(')');
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void mergesTouchingAndNearSpans() {
+        index.add(CAMERA, 1000, 2000);
+        index.add(CAMERA, 2000, 3000);
+        // Within the rounding tolerance
+        index.add(CAMERA, 3200, 4000);
+        index.add(CAMERA, 5000, 6000);
+        assertEquals("[1000,4000)[5000,6000)", spans(0, 10_000));
+
+        // Bridging both absorbs the second
+        index.add(CAMERA, 3900, 5100);
+        assertEquals("[1000,6000)", spans(0, 10_000));
+        // Contained: no change
+        index.add(CAMERA, 1500, 1600);
+        assertEquals("[1000,6000)", spans(0, 10_000));
+    }
+
+    @Test
+    public void spansAndHolesAreClippedToTheRange() {
+        index.add(CAMERA, 1000, 2000);
+        index.add(CAMERA, 3000, 4000);
+        assertEquals("[1500,2000)[3000,3500)", spans(1500, 3500));
+        assertEquals("[0,1000)[2000,3000)[4000,5000)", format(index.holes(CAMERA, 0, 5000)));
+        assertEquals("", format(index.holes(CAMERA, 1200, 1800)));
+        assertEquals(1000, index.coveredMs(CAMERA, 1500, 3500));
+        assertEquals("[0,100)", format(index.holes("other", 0, 100)));
+    }
+
+    @Test
+    public void removeCutsSpans() {
+        index.add(CAMERA, 1000, 5000);
+        index.add(CAMERA, 6000, 8000);
+        // Splits one span
+        index.remove(CAMERA, 2000, 3000);
+        assertEquals("[1000,2000)[3000,5000)[6000,8000)", spans(0, 10_000));
+        // Trims two and drops the one between
+        index.remove(CAMERA, 1500, 7000);
+        assertEquals("[1000,1500)[7000,8000)", spans(0, 10_000));
+        index.remove(CAMERA, 0, 10_000);
+        assertEquals("", spans(0, 10_000));
+    }
+
+    @Test
+    public void replaysItsLog() throws IOException {
+        index.add(CAMERA, 1000, 5000);
+        index.remove(CAMERA, 2000, 3000);
+        // A torn line from a crash is skipped
+        try (Writer writer = new FileWriter(logFile(), true)) {
+            writer.write("+7000 80");
+        }
+        CoverageIndex reopened = new CoverageIndex(folder.getRoot());
+        assertEquals("[1000,2000)[3000,5000)", format(reopened.spans(CAMERA, 0, 10_000)));
+
+        index.clear();
+        assertEquals("[1000,2000)[3000,5000)", spans(0, 10_000));
+    }
+
+    @Test
+    public void compactsALongLog() throws IOException {
+        for (int i = 0; i < 1200; i++) {
+            index.add(CAMERA, i * 1000L, i * 1000L + 1000);
+        }
+        List<String> lines = Files.readAllLines(logFile().toPath());
+        assertTrue("lines " + lines.size(), lines.size() < 300);
+        assertEquals("[0,1200000)", format(new CoverageIndex(folder.getRoot()).spans(CAMERA, 0, 2_000_000)));
+    }
+
+    @Test
+    public void ignoresEmptySpans() {
+        index.add(CAMERA, 2000, 2000);
+        index.remove(CAMERA, 3000, 1000);
+        assertEquals("", spans(0, 10_000));
+        assertFalse(logFile().exists());
+    }
+
+    private File logFile() {
+        return new File(new File(folder.getRoot(), CAMERA), CoverageIndex.FILE);
+    }
+}
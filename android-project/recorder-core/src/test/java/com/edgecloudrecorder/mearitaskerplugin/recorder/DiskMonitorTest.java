@@ -0,0 +1,197 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.edgecloudrecorder.mearitaskerplugin.recorder.DiskMonitor.Level.CRITICAL;
+import static com.edgecloudrecorder.mearitaskerplugin.recorder.DiskMonitor.Level.FULL;
+import static com.edgecloudrecorder.mearitaskerplugin.recorder.DiskMonitor.Level.LOW;
+import static com.edgecloudrecorder.mearitaskerplugin.recorder.DiskMonitor.Level.OK;
+import static org.junit.Assert.*;
+
+public class DiskMonitorTest {
+    private static final long MB = 1024L * 1024L;
+    private static final long MINUTE_NANOS = 60_000_000_000L;
+    // reserve=2048 critical=512 slow_write_ms=2000
+    private static final DiskPolicy POLICY = DiskPolicy.DEFAULT;
+
+    private static final class FakeVolume implements DiskMonitor.Volume {
+        long usable = 10_000 * MB;
+        long writeMs = 10;
+        int probes;
+
+        @Override
+        public long usableBytes() {
+            return usable;
+        }
+
+        @Override
+        public long totalBytes() {
+            return 32_000 * MB;
+        }
+
+        @Override
+        public long probeWriteMs() {
+            probes++;
+            return writeMs;
+        }
+    }
+
+    private static final class FakeClock implements RecorderClock.Source {
+        long nanos = 1;
+
+        @Override
+        public long nanoTime() {
+            return nanos;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return nanos / 1_000_000L;
+        }
+    }
+
+    private final DiskMonitor monitor = DiskMonitor.getInstance();
+    private final FakeVolume volume = new FakeVolume();
+    private final FakeClock clock = new FakeClock();
+
+    @Before
+    public void setUp() {
+        RecorderClock.install(clock);
+        monitor.reset();
+        monitor.setVolume(volume);
+    }
+
+    @After
+    public void tearDown() {
+        monitor.reset();
+        RecorderClock.install(null);
+    }
+
+    private DiskMonitor.Level sampleAfterMinute() {
+        clock.nanos += MINUTE_NANOS;
+        return monitor.sample(POLICY);
+    }
+
+    @Test
+    public void levelsFollowFreeSpace() {
+        assertEquals(OK, monitor.sample(POLICY));
+        volume.usable = 2000 * MB;
+        assertEquals(LOW, monitor.sample(POLICY));
+        volume.usable = 500 * MB;
+        assertEquals(CRITICAL, monitor.sample(POLICY));
+        volume.usable = 10 * MB;
+        assertEquals(FULL, monitor.sample(POLICY));
+        assertEquals(FULL, monitor.getLevel());
+    }
+
+    @Test
+    public void leavesLevelsOnlyWithMargin() {
+        volume.usable = 2000 * MB;
+        assertEquals(LOW, monitor.sample(POLICY));
+        // Just above the reserve is not enough
+        volume.usable = 2100 * MB;
+        assertEquals(LOW, monitor.sample(POLICY));
+        volume.usable = 2300 * MB;
+        assertEquals(OK, monitor.sample(POLICY));
+
+        // From CRITICAL, free space just above critical stays CRITICAL
+        volume.usable = 400 * MB;
+        assertEquals(CRITICAL, monitor.sample(POLICY));
+        volume.usable = 540 * MB;
+        assertEquals(CRITICAL, monitor.sample(POLICY));
+        // Clearly above critical but within the reserve's margin: LOW, not OK
+        volume.usable = 2100 * MB;
+        assertEquals(LOW, monitor.sample(POLICY));
+    }
+
+    @Test
+    public void probesAtMostOnceAMinute() {
+        monitor.sample(POLICY);
+        monitor.sample(POLICY);
+        clock.nanos += MINUTE_NANOS / 2;
+        monitor.sample(POLICY);
+        assertEquals(1, volume.probes);
+        clock.nanos += MINUTE_NANOS / 2;
+        monitor.sample(POLICY);
+        assertEquals(2, volume.probes);
+
+        // A new volume is probed at once
+        monitor.setVolume(volume);
+        monitor.sample(POLICY);
+        assertEquals(3, volume.probes);
+    }
+
+    @Test
+    public void slowWritesLeaveLowWithMargin() {
+        volume.writeMs = 2100;
+        assertEquals(LOW, monitor.sample(POLICY));
+        assertEquals(2100, monitor.getWriteMs());
+
+        volume.writeMs = 1900;
+        // Smoothed: 2040 ms, still slow
+        assertEquals(LOW, sampleAfterMinute());
+        // 1998 ms: below the threshold, not by the margin
+        assertEquals(LOW, sampleAfterMinute());
+        assertEquals(1998, monitor.getWriteMs());
+
+        volume.writeMs = 1000;
+        // 1699 ms
+        assertEquals(OK, sampleAfterMinute());
+    }
+
+    @Test
+    public void failedProbeIsFullUntilTheNextProbe() {
+        volume.writeMs = -1;
+        assertEquals(FULL, monitor.sample(POLICY));
+        volume.writeMs = 10;
+        // Not probed again within the minute: still failed
+        assertEquals(FULL, monitor.sample(POLICY));
+        assertEquals(OK, sampleAfterMinute());
+    }
+
+    @Test
+    public void capShedsByPriority() {
+        assertEquals(CameraProfile.Mode.HD, monitor.cap(0, CameraProfile.Mode.HD));
+
+        volume.usable = 2000 * MB;
+        monitor.sample(POLICY);
+        assertEquals(CameraProfile.Mode.LOW, monitor.cap(0, CameraProfile.Mode.HD));
+        assertEquals(CameraProfile.Mode.SNAPSHOT, monitor.cap(0, CameraProfile.Mode.SNAPSHOT));
+        assertEquals(CameraProfile.Mode.HD, monitor.cap(1, CameraProfile.Mode.HD));
+
+        volume.usable = 500 * MB;
+        monitor.sample(POLICY);
+        assertEquals(CameraProfile.Mode.IDLE, monitor.cap(0, CameraProfile.Mode.HD));
+        assertEquals(CameraProfile.Mode.HD, monitor.cap(1, CameraProfile.Mode.HD));
+
+        volume.usable = 10 * MB;
+        monitor.sample(POLICY);
+        assertEquals(CameraProfile.Mode.IDLE, monitor.cap(5, CameraProfile.Mode.HD));
+    }
+
+    @Test
+    public void bytesToFreeReachesReserveWithMargin() {
+        monitor.sample(POLICY);
+        assertEquals(0, monitor.bytesToFree(POLICY));
+        volume.usable = 2000 * MB;
+        monitor.sample(POLICY);
+        long target = (long) (2048 * MB * 1.1);
+        assertEquals(target - 2000 * MB, monitor.bytesToFree(POLICY));
+    }
+
+    @Test
+    public void countsPressureEpisodes() {
+        monitor.sample(POLICY);
+        volume.usable = 2000 * MB;
+        monitor.sample(POLICY);
+        volume.usable = 500 * MB;
+        monitor.sample(POLICY);
+        volume.usable = 5000 * MB;
+        assertEquals(OK, monitor.sample(POLICY));
+        volume.usable = 2000 * MB;
+        monitor.sample(POLICY);
+        assertTrue(monitor.summary(), monitor.summary().contains("pressure_events=2"));
+    }
+}
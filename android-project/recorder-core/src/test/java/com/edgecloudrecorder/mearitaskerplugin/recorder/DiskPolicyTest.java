@@ -0,0 +1,48 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DiskPolicyTest {
+
+    @Test
+    public void emptyIsDefault() {
+        assertSame(DiskPolicy.DEFAULT, DiskPolicy.decode(null));
+        assertSame(DiskPolicy.DEFAULT, DiskPolicy.decode("  "));
+    }
+
+    @Test
+    public void roundTrips() {
+        DiskPolicy policy = new DiskPolicy(4096, 1024, 0, 72, false);
+        assertEquals(policy, DiskPolicy.decode(policy.encode()));
+        assertEquals("reserve=4096;critical=1024;slow_write_ms=0;retention_hours=72;prune=0", policy.encode());
+    }
+
+    @Test
+    public void missingFieldsKeepDefaults() {
+        DiskPolicy policy = DiskPolicy.decode(" retention_hours = 24 ;prune=0");
+        assertEquals(DiskPolicy.DEFAULT.getReserveMb(), policy.getReserveMb());
+        assertEquals(DiskPolicy.DEFAULT.getCriticalMb(), policy.getCriticalMb());
+        assertEquals(DiskPolicy.DEFAULT.getSlowWriteMs(), policy.getSlowWriteMs());
+        assertEquals(24, policy.getRetentionHours());
+        assertFalse(policy.isPrune());
+    }
+
+    @Test
+    public void rejectsMalformedInput() {
+        String[] bad = {
+                "reserve", "=5", "reserve=lots", "reserve=100;quota=5",
+                // critical above reserve
+                "reserve=100;critical=200",
+                "slow_write_ms=-1", "retention_hours=-2", "critical=-1"
+        };
+        for (String encoded : bad) {
+            try {
+                DiskPolicy.decode(encoded);
+                fail("accepted " + encoded);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
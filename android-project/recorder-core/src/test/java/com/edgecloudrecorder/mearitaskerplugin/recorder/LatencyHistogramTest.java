@@ -0,0 +1,76 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        assertEquals(0.0, histogram.getMean(), 0);
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int v = 1; v <= 10; v++) {
+            histogram.record(v);
+        }
+        assertEquals(10, histogram.getCount());
+        assertEquals(5.5, histogram.getMean(), 1e-9);
+        assertEquals(5, histogram.getValueAtPercentile(50));
+        assertEquals(9, histogram.getValueAtPercentile(90));
+        assertEquals(10, histogram.getValueAtPercentile(100));
+        assertEquals(10, histogram.getMax());
+    }
+
+    @Test
+    public void largeValuesStayWithinRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long v = 1; v <= 1_000_000; v *= 3) {
+            histogram.reset();
+            histogram.record(v);
+            histogram.record(v * 10);
+            long p50 = histogram.getValueAtPercentile(50);
+            assertTrue(v + " -> " + p50, p50 >= v && p50 <= v + v / 32 + 1);
+        }
+    }
+
+    @Test
+    public void bucketsAreContiguous() {
+        // Every value lands in a bucket whose upper bound is at least the value,
+        // and the previous bucket's upper bound is below it
+        for (long v = 0; v < 1 << 20; v += 7) {
+            int index = LatencyHistogram.indexOf(v);
+            assertTrue(LatencyHistogram.highestValueAt(index) >= v);
+            if (index > 0) {
+                assertTrue(LatencyHistogram.highestValueAt(index - 1) < v);
+            }
+        }
+    }
+
+    @Test
+    public void negativeAndHugeValuesAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE / 2);
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(Long.MAX_VALUE / 2, histogram.getMax());
+        assertTrue(histogram.getValueAtPercentile(100) >= 1L << 31);
+    }
+
+    @Test
+    public void resetClearsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(100);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals("n=0 mean=0 p50=0 p90=0 p99=0 max=0", histogram.summary());
+    }
+}
@@ -0,0 +1,107 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LogRingBufferTest {
+
+    private static List<String> drainAll(LogRingBuffer ring) {
+        List<String> messages = new ArrayList<>();
+        ring.drain(entry -> messages.add(entry.message), Integer.MAX_VALUE);
+        return messages;
+    }
+
+    @Test
+    public void capacityIsRoundedUpToPowerOfTwo() {
+        assertEquals(8, new LogRingBuffer(5).capacity());
+        assertEquals(8, new LogRingBuffer(8).capacity());
+        assertEquals(16, new LogRingBuffer(9).capacity());
+    }
+
+    @Test
+    public void drainsInOrderAndClearsSlots() {
+        LogRingBuffer ring = new LogRingBuffer(4);
+        assertTrue(ring.isEmpty());
+        ring.offer(1, 3, "T", "a", null);
+        ring.offer(2, 4, "T", "b", new RuntimeException());
+        assertFalse(ring.isEmpty());
+
+        List<LogRingBuffer.Entry> seen = new ArrayList<>();
+        List<String> messages = new ArrayList<>();
+        assertEquals(2, ring.drain(entry -> {
+            seen.add(entry);
+            messages.add(entry.timeMillis + entry.message + entry.level);
+        }, 10));
+        assertEquals(List.of("1a3", "2b4"), messages);
+        assertNull(seen.get(1).throwable);
+        assertNull(seen.get(1).message);
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void dropsWhenFullAndCountsDrops() {
+        LogRingBuffer ring = new LogRingBuffer(4);
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i < 4, ring.offer(i, 0, "T", "m" + i, null));
+        }
+        assertEquals(2, ring.takeDropped());
+        assertEquals(0, ring.takeDropped());
+        assertEquals(List.of("m0", "m1", "m2", "m3"), drainAll(ring));
+
+        // Slots are reusable after draining
+        assertTrue(ring.offer(9, 0, "T", "again", null));
+        assertEquals(List.of("again"), drainAll(ring));
+    }
+
+    @Test
+    public void drainHonoursMax() {
+        LogRingBuffer ring = new LogRingBuffer(8);
+        for (int i = 0; i < 5; i++) {
+            ring.offer(i, 0, "T", "m" + i, null);
+        }
+        assertEquals(2, ring.drain(entry -> { }, 2));
+        assertEquals(List.of("m2", "m3", "m4"), drainAll(ring));
+    }
+
+    @Test
+    public void concurrentProducersLoseNothingWhileDrained() throws InterruptedException {
+        LogRingBuffer ring = new LogRingBuffer(64);
+        int producers = 4;
+        int perProducer = 5_000;
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int id = p;
+            threads[p] = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    while (!ring.offer(i, id, "T", "m", null)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            threads[p].start();
+        }
+        int[] lastSeen = new int[producers];
+        java.util.Arrays.fill(lastSeen, -1);
+        boolean[] ordered = {true};
+        int received = 0;
+        while (received < producers * perProducer) {
+            received += ring.drain(entry -> {
+                // Each producer's entries arrive in the order it offered them
+                if (entry.timeMillis != lastSeen[entry.level] + 1) {
+                    ordered[0] = false;
+                }
+                lastSeen[entry.level] = (int) entry.timeMillis;
+            }, 128);
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(ordered[0]);
+        assertTrue(ring.isEmpty());
+        ring.takeDropped();
+    }
+}
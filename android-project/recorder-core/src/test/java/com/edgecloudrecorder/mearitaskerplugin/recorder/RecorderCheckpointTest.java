@@ -0,0 +1,183 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraDescriptor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RecorderCheckpointTest {
+
+    private static final class FakeClock implements RecorderClock.Source {
+        long nanos = 1;
+        long wallMs = 1_800_000_000_000L;
+
+        void advance(long ms) {
+            nanos += ms * 1_000_000L;
+            wallMs += ms;
+        }
+
+        @Override
+        public long nanoTime() {
+            return nanos;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return wallMs;
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final FakeClock clock = new FakeClock();
+    private File root;
+    private RecorderCheckpoint checkpoint;
+
+    @Before
+    public void setUp() {
+        RecorderClock.install(clock);
+        root = folder.getRoot();
+        checkpoint = new RecorderCheckpoint(root);
+    }
+
+    @After
+    public void tearDown() {
+        RecorderClock.install(null);
+    }
+
+    private CameraRecorder recorder(String id, String name, boolean battery, String account) {
+        return new CameraRecorder(new CameraDescriptor(id, name, battery, account), root.getPath());
+    }
+
+    private void write(String text) throws IOException {
+        Files.write(new File(root, RecorderCheckpoint.FILE).toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void savedCamerasLoadBack() {
+        CameraRecorder front = recorder("dev1", "Front door", false, "primary");
+        front.setStreamId(1);
+        front.setRecording(true);
+        String open = front.generateNewFilePath();
+        front.setLastSegmentPath(root + "/dev1/previous.mp4");
+
+        CameraRecorder garden = recorder("dev2", "Garden", true, "second");
+        garden.setPaused(true);
+        garden.markFailure();
+        clock.advance(90_000);
+
+        assertTrue(checkpoint.save(RecorderCheckpoint.encode(Arrays.asList(front, garden))));
+        clock.advance(30_000);
+
+        RecorderCheckpoint reloaded = new RecorderCheckpoint(root);
+        List<RecorderCheckpoint.Camera> cameras = reloaded.load();
+        assertEquals(clock.wallMs - 30_000, reloaded.getSavedAtMs());
+        assertEquals(2, cameras.size());
+
+        RecorderCheckpoint.Camera first = cameras.get(0);
+        assertEquals("dev1", first.descriptor.getDeviceId());
+        assertEquals("Front door", first.descriptor.getDeviceName());
+        assertEquals("primary", first.descriptor.getAccount());
+        assertFalse(first.descriptor.isBatteryPowered());
+        assertFalse(first.paused);
+        assertEquals(1, first.streamId);
+        assertEquals(0, first.failingForMs);
+        assertEquals(open, first.openSegment);
+        assertEquals(root + "/dev1/previous.mp4", first.lastSegment);
+
+        RecorderCheckpoint.Camera second = cameras.get(1);
+        assertEquals("dev2", second.descriptor.getDeviceId());
+        assertEquals("second", second.descriptor.getAccount());
+        assertTrue(second.descriptor.isBatteryPowered());
+        assertTrue(second.paused);
+        // Failing since before the save, and for the time since
+        assertEquals(120_000, second.failingForMs);
+        assertNull(second.openSegment);
+        assertNull(second.lastSegment);
+    }
+
+    @Test
+    public void unchangedStateIsNotRewritten() {
+        CameraRecorder camera = recorder("dev1", "Front door", false, "primary");
+        assertTrue(checkpoint.save(RecorderCheckpoint.encode(Collections.singleton(camera))));
+        clock.advance(60_000);
+        assertFalse(checkpoint.save(RecorderCheckpoint.encode(Collections.singleton(camera))));
+
+        // A failure counts in whole seconds
+        camera.markFailure();
+        assertTrue(checkpoint.save(RecorderCheckpoint.encode(Collections.singleton(camera))));
+        clock.advance(400);
+        assertFalse(checkpoint.save(RecorderCheckpoint.encode(Collections.singleton(camera))));
+    }
+
+    @Test
+    public void snapshottingCameraHasNoOpenSegment() {
+        CameraRecorder camera = recorder("dev1", "Front door", true, "primary");
+        camera.setRecording(true);
+        camera.generateNewFilePath();
+        camera.setSnapshotting(true);
+        checkpoint.save(RecorderCheckpoint.encode(Collections.singleton(camera)));
+
+        assertNull(new RecorderCheckpoint(root).load().get(0).openSegment);
+    }
+
+    @Test
+    public void tabsAndNewlinesInTheNameStayOnOneLine() {
+        CameraRecorder camera = recorder("dev1", "Front\tdoor\nleft", false, "primary");
+        checkpoint.save(RecorderCheckpoint.encode(Collections.singleton(camera)));
+
+        List<RecorderCheckpoint.Camera> cameras = new RecorderCheckpoint(root).load();
+        assertEquals(1, cameras.size());
+        assertEquals("Front door left", cameras.get(0).descriptor.getDeviceName());
+    }
+
+    @Test
+    public void missingFileLoadsNothing() {
+        assertTrue(checkpoint.load().isEmpty());
+        assertEquals(0, checkpoint.getSavedAtMs());
+    }
+
+    @Test
+    public void unknownHeaderLoadsNothing() throws IOException {
+        write("checkpoint 2 1800000000000\ndev1\tprimary\t0\t0\t0\t0\t-\t-\tFront door\n");
+        assertTrue(checkpoint.load().isEmpty());
+    }
+
+    @Test
+    public void damagedLinesAreSkipped() throws IOException {
+        write("checkpoint 1 garbage\n"
+                + "dev1\tprimary\t0\t0\t0\t0\t-\t-\tFront door\n"
+                + "dev2\tprimary\t0\t0\n"
+                + "dev3\tprimary\t0\t0\tmain\t0\t-\t-\tGarden\n"
+                + "dev4\tprimary\t0\t0\t0\tyesterday\t-\t-\tGate\n"
+                + "\n"
+                + "dev5\tprimary\t1\t1\t0\t0\t-\t-\tDrive");
+        List<RecorderCheckpoint.Camera> cameras = checkpoint.load();
+        assertEquals(0, checkpoint.getSavedAtMs());
+        assertEquals(2, cameras.size());
+        assertEquals("dev1", cameras.get(0).descriptor.getDeviceId());
+        assertEquals("dev5", cameras.get(1).descriptor.getDeviceId());
+        assertTrue(cameras.get(1).paused);
+    }
+
+    @Test
+    public void failureInTheFutureCountsAsJustStarted() throws IOException {
+        long later = clock.wallMs / 1000 + 3600;
+        write("checkpoint 1 1800000000000\ndev1\tprimary\t0\t0\t0\t" + later + "\t-\t-\tFront door\n");
+        assertEquals(0, checkpoint.load().get(0).failingForMs);
+    }
+}
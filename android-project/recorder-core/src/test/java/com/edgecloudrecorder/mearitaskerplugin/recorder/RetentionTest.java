@@ -0,0 +1,103 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class RetentionTest {
+    private static final long HOUR_MS = 3600_000L;
+    private static final long NOW_MS = 1_800_000_000_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File root;
+    private CoverageIndex coverage;
+
+    @Before
+    public void setUp() {
+        root = folder.getRoot();
+        coverage = new CoverageIndex(root);
+    }
+
+    /**
+     * A 1 KB file under root, last modified {@code hoursAgo} before NOW_MS
+     */
+    private File file(String path, int hoursAgo) throws IOException {
+        File file = new File(root, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), new byte[1024]);
+        assertTrue(file.setLastModified(NOW_MS - hoursAgo * HOUR_MS));
+        return file;
+    }
+
+    @Test
+    public void exportsAndPublishCopiesSurviveAPrune() throws IOException {
+        // Older than any footage: age alone would pick them first
+        File export = file(CameraRecorder.EXPORT_DIR + "/cam1_clip.mp4", 50);
+        File copy = file(SegmentPublisher.PUBLISHING_DIR + "/dev1/cam1_10_00_01_01_2027.mp4", 50);
+        File segment = file("dev1/cam1_10_00_01_01_2027.mp4", 10);
+        File proxy = file("dev1/" + CameraRecorder.PROXY_DIR + "/cam1_10_00_01_01_2027.mp4", 10);
+        File still = file("dev1/" + CameraRecorder.SNAPSHOT_DIR + "/cam1_20270101_100000.jpg", 9);
+        File timelapse = file("dev1/cam1_timelapse_20270101_09.mp4", 8);
+        File unfinished = file("dev1/cam1_11_00_01_01_2027.mp4" + RecorderCheckpoint.UNFINISHED_SUFFIX, 7);
+
+        Retention.Freed freed = Retention.deleteOldest(root, Long.MAX_VALUE, Collections.emptySet(), coverage);
+        assertEquals(5, freed.files);
+        assertEquals(5 * 1024, freed.bytes);
+        for (File gone : new File[]{segment, proxy, still, timelapse, unfinished}) {
+            assertFalse(gone.getPath(), gone.exists());
+        }
+        assertTrue(export.exists());
+        assertTrue(copy.exists());
+    }
+
+    @Test
+    public void deletesOldestFirstUntilEnoughIsFreed() throws IOException {
+        File oldest = file("dev1/cam1_10_00_01_01_2027.mp4", 30);
+        File older = file("dev2/cam2_10_00_01_01_2027.mp4", 20);
+        File newest = file("dev1/cam1_11_00_01_01_2027.mp4", 10);
+
+        Retention.Freed freed = Retention.deleteOldest(root, 1500, Collections.emptySet(), coverage);
+        assertEquals(2, freed.files);
+        assertFalse(oldest.exists());
+        assertFalse(older.exists());
+        assertTrue(newest.exists());
+    }
+
+    @Test
+    public void ageCutoffSkipsOpenFiles() throws IOException {
+        File open = file("dev1/cam1_10_00_01_01_2027.mp4", 30);
+        File old = file("dev1/cam1_11_00_01_01_2027.mp4", 20);
+        File recent = file("dev1/cam1_12_00_01_01_2027.mp4", 1);
+        File export = file(CameraRecorder.EXPORT_DIR + "/cam1_clip.mp4", 40);
+
+        Retention.Freed freed = Retention.deleteOlderThan(root, NOW_MS - 2 * HOUR_MS,
+                Collections.singleton(open.getAbsolutePath()), coverage);
+        assertEquals(1, freed.files);
+        assertTrue(open.exists());
+        assertFalse(old.exists());
+        assertTrue(recent.exists());
+        assertTrue(export.exists());
+    }
+
+    @Test
+    public void deletedSegmentsLeaveTheCoverage() throws IOException {
+        File segment = file("dev1/cam1_10_00_01_01_2027.mp4", 10);
+        long endMs = segment.lastModified();
+        long startMs = CameraRecorder.parseTimestamp(segment.getName());
+        coverage.add("dev1", startMs, endMs);
+        assertTrue(coverage.coveredMs("dev1", 0, Long.MAX_VALUE) > 0);
+
+        Retention.deleteOldest(root, Long.MAX_VALUE, Collections.emptySet(), coverage);
+        assertEquals(0, coverage.coveredMs("dev1", 0, Long.MAX_VALUE));
+    }
+}
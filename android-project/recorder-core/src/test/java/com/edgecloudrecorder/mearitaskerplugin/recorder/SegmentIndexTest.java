@@ -0,0 +1,220 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+
+import static org.junit.Assert.*;
+
+public class SegmentIndexTest {
+    private static final int TIMESCALE = 90_000;
+    private static final int DELTA = 3000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Six samples in two chunks of three at 1000 and 5000, keyframes 1 and 4,
+    // composition offset of one frame
+    private int[] stss = {2, 1, 4};
+    private int[] stsz = {0, 6, 100, 20, 20, 80, 20, 20};
+
+    static byte[] ints(int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 * values.length);
+        for (int value : values) {
+            buffer.putInt(value);
+        }
+        return buffer.array();
+    }
+
+    static byte[] box(String type, byte[]... parts) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            body.write(part, 0, part.length);
+        }
+        ByteBuffer out = ByteBuffer.allocate(8 + body.size());
+        out.putInt(8 + body.size()).put(type.getBytes(StandardCharsets.US_ASCII)).put(body.toByteArray());
+        return out.array();
+    }
+
+    /**
+     * Full box: version/flags then the fields
+     */
+    static byte[] full(String type, int... fields) {
+        return box(type, ints(0), ints(fields));
+    }
+
+    private byte[] moov() {
+        byte[] stbl = box("stbl",
+                full("stts", 1, 6, DELTA),
+                full("ctts", 1, 6, DELTA),
+                full("stss", stss),
+                full("stsz", stsz),
+                full("stsc", 1, 1, 3, 1),
+                full("stco", 2, 1000, 5000));
+        byte[] mdia = box("mdia",
+                full("mdhd", 0, 0, TIMESCALE, 6 * DELTA, 0),
+                box("hdlr", ints(0, 0), "vide".getBytes(StandardCharsets.US_ASCII), ints(0, 0, 0)),
+                box("minf", stbl));
+        return box("moov", box("trak", mdia));
+    }
+
+    /**
+     * ftyp, 6000 bytes of mdat, then the given boxes
+     */
+    private File segment(String name, byte[]... boxes) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(box("ftyp", "isom".getBytes(StandardCharsets.US_ASCII), ints(0)));
+            out.write(box("mdat", new byte[6000]));
+            for (byte[] box : boxes) {
+                out.write(box);
+            }
+        }
+        return file;
+    }
+
+    private File segment(String name) throws IOException {
+        return segment(name, moov());
+    }
+
+    @Test
+    public void indexesKeyframes() throws Exception {
+        File file = segment("a.mp4");
+        SegmentIndex index = SegmentIndex.load(file);
+        assertEquals(2, index.keyframeCount());
+        assertEquals(6, index.sampleCount());
+        assertEquals(200_000, index.durationUs());
+
+        // Presentation time includes the composition offset
+        assertEquals(33_333, index.timeUs(0));
+        assertEquals(1000, index.offset(0));
+        assertEquals(0, index.sampleIndex(0));
+        assertEquals(3, index.gopSamples(0));
+
+        assertEquals(133_333, index.timeUs(1));
+        assertEquals(5000, index.offset(1));
+        assertEquals(3, index.sampleIndex(1));
+        assertEquals(3, index.gopSamples(1));
+
+        assertEquals(0, index.keyframeAtOrBefore(0));
+        assertEquals(0, index.keyframeAtOrBefore(133_332));
+        assertEquals(1, index.keyframeAtOrBefore(10_000_000));
+    }
+
+    @Test
+    public void checksumIsTheSegmentsSha256() throws Exception {
+        File file = segment("a.mp4");
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(file.toPath()));
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest) {
+            hex.append(String.format("%02x", b));
+        }
+        assertEquals(hex.toString(), SegmentIndex.load(file).sha256Hex());
+    }
+
+    @Test
+    public void sidecarIsReusedUntilTheSegmentChanges() throws Exception {
+        File file = segment("a.mp4");
+        SegmentIndex.load(file);
+        File sidecar = SegmentIndex.sidecarOf(file);
+        assertTrue(sidecar.isFile());
+        assertEquals(2, SegmentIndex.map(sidecar).keyframeCount());
+
+        // The same length is trusted as the same segment
+        long built = sidecar.lastModified();
+        sidecar.setLastModified(built - 10_000);
+        SegmentIndex.load(file);
+        assertEquals(built - 10_000, sidecar.lastModified());
+
+        // A rewritten segment of another length gets a new sidecar
+        stss = new int[]{1, 1};
+        segment("a.mp4", moov(), box("free"));
+        assertEquals(1, SegmentIndex.load(file).keyframeCount());
+        assertEquals(1, SegmentIndex.map(sidecar).keyframeCount());
+    }
+
+    @Test
+    public void checksumsFileListsAndPrunesSegments() throws Exception {
+        File a = segment("a.mp4");
+        File b = segment("b.mp4");
+        SegmentIndex.load(a).appendChecksum(a);
+        SegmentIndex.load(b).appendChecksum(b);
+        File sums = new File(folder.getRoot(), SegmentIndex.SUMS_FILE);
+        String hash = SegmentIndex.load(a).sha256Hex();
+        assertEquals(hash + "  a.mp4\n" + hash + "  b.mp4\n",
+                new String(Files.readAllBytes(sums.toPath()), StandardCharsets.UTF_8));
+
+        assertTrue(a.delete());
+        SegmentIndex.pruneChecksums(folder.getRoot());
+        assertEquals(hash + "  b.mp4\n", new String(Files.readAllBytes(sums.toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test(expected = IOException.class)
+    public void unfinishedSegmentHasNoIndex() throws Exception {
+        SegmentIndex.load(segment("open.mp4", box("free")));
+    }
+
+    @Test(expected = IOException.class)
+    public void entryCountBeyondTheBoxFails() throws Exception {
+        stss = new int[]{Integer.MAX_VALUE, 1, 4};
+        SegmentIndex.load(segment("a.mp4"));
+    }
+
+    @Test(expected = IOException.class)
+    public void negativeEntryCountFails() throws Exception {
+        stss = new int[]{-1, 1, 4};
+        SegmentIndex.load(segment("a.mp4"));
+    }
+
+    @Test(expected = IOException.class)
+    public void sampleCountBeyondTheSizesFails() throws Exception {
+        stsz = new int[]{0, 1 << 28, 100};
+        SegmentIndex.load(segment("a.mp4"));
+    }
+
+    @Test(expected = IOException.class)
+    public void fixedSizeBeyondTheFileFails() throws Exception {
+        stsz = new int[]{1 << 20, 1 << 20};
+        SegmentIndex.load(segment("a.mp4"));
+    }
+
+    @Test
+    public void sampleCountBeyondTheTablesFailsBeforeAllocating() throws Exception {
+        // One byte each fits the file, but stts and stsc only describe six samples
+        stsz = new int[]{1, 6000};
+        try {
+            SegmentIndex.load(segment("a.mp4"));
+            fail();
+        } catch (IOException e) {
+            assertEquals("stsz has 6000 samples, stts/stsc/stco describe 6", e.getMessage());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void unorderedKeyframesFail() throws Exception {
+        stss = new int[]{2, 4, 1};
+        SegmentIndex.load(segment("a.mp4"));
+    }
+
+    @Test(expected = IOException.class)
+    public void keyframeBeyondTheSamplesFails() throws Exception {
+        stss = new int[]{2, 1, 7};
+        SegmentIndex.load(segment("a.mp4"));
+    }
+
+    @Test(expected = IOException.class)
+    public void garbageSidecarIsRejected() throws Exception {
+        File sidecar = folder.newFile("x.mp4.idx");
+        Files.write(sidecar.toPath(), new byte[100]);
+        SegmentIndex.map(sidecar);
+    }
+}
@@ -0,0 +1,75 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SegmentPublisherTest {
+    private static final List<String> MOUNTS = Arrays.asList(
+            "/", "/data", "/storage/emulated", "/mnt/fast", "/data", "/storage/emulated 2");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void pathsAreOnTheirDeepestMount() {
+        assertEquals(3, SegmentPublisher.mountOf("/mnt/fast/staging/cam1", MOUNTS));
+        assertEquals(3, SegmentPublisher.mountOf("/mnt/fast", MOUNTS));
+        assertEquals(2, SegmentPublisher.mountOf("/storage/emulated/0/Recordings", MOUNTS));
+        assertEquals(5, SegmentPublisher.mountOf("/storage/emulated 2/x", MOUNTS));
+        // Not a path prefix
+        assertEquals(0, SegmentPublisher.mountOf("/mnt/faster/x", MOUNTS));
+        assertEquals(0, SegmentPublisher.mountOf("/sdcard", MOUNTS));
+    }
+
+    @Test
+    public void laterMountsHideEarlierOnes() {
+        // /data was mounted over
+        assertEquals(4, SegmentPublisher.mountOf("/data/user/0/files/staging", MOUNTS));
+        assertEquals(-1, SegmentPublisher.mountOf("/x", Arrays.asList("/y")));
+    }
+
+    @Test
+    public void directoriesOfOneFolderShareTheirMount() throws IOException {
+        File root = folder.newFolder("recordings");
+        File staging = new File(folder.getRoot(), ".staging");
+        assertTrue(SegmentPublisher.sameMount(root.getPath(), staging.getPath()));
+    }
+
+    @Test
+    public void publishRenamesIntoTheRoot() throws IOException {
+        File root = folder.newFolder("recordings");
+        File staging = folder.newFolder(".staging");
+        SegmentPublisher publisher = new SegmentPublisher(root.getPath(), staging.getPath());
+        assertTrue(publisher.isStaged());
+
+        File staged = new File(staging, "dev1/cam1_10_00_01_01_2027.mp4");
+        staged.getParentFile().mkdirs();
+        Files.write(staged.toPath(), new byte[]{1, 2, 3});
+        String published = publisher.publishedPathOf(staged.getPath());
+        assertEquals(new File(root, "dev1/cam1_10_00_01_01_2027.mp4").getPath(), published);
+
+        assertTrue(publisher.publish(staged, new File(published)));
+        assertFalse(staged.exists());
+        assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(new File(published).toPath()));
+        assertFalse(new File(root, SegmentPublisher.PUBLISHING_DIR).exists());
+    }
+
+    @Test
+    public void inPlaceLeavesPathsAlone() {
+        SegmentPublisher publisher = new SegmentPublisher("/sdcard/Recordings", "");
+        assertFalse(publisher.isStaged());
+        assertEquals("/sdcard/Recordings/", publisher.getStagingRoot());
+        assertEquals("/elsewhere/a.mp4", publisher.publishedPathOf("/elsewhere/a.mp4"));
+        assertTrue(publisher.leftovers().isEmpty());
+        assertEquals(0, publisher.dropStaleParts());
+    }
+}
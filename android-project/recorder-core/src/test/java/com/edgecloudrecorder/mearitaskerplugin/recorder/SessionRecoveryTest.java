@@ -0,0 +1,363 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraBackend;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraDescriptor;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraSession;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SessionRecoveryTest {
+
+    /**
+     * Virtual time: tasks run only when the test advances it
+     */
+    private static final class ManualScheduler implements Scheduler, RecorderClock.Source {
+        private final PriorityQueue<long[]> queue = new PriorityQueue<>((a, b) ->
+                a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        private final List<Runnable> tasks = new ArrayList<>();
+        long nowMs;
+
+        @Override
+        public void post(Runnable task) {
+            postDelayed(task, 0);
+        }
+
+        @Override
+        public void postDelayed(Runnable task, long delayMs) {
+            queue.add(new long[]{nowMs + delayMs, tasks.size()});
+            tasks.add(task);
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            for (int i = 0; i < tasks.size(); i++) {
+                if (tasks.get(i) == task) {
+                    tasks.set(i, null);
+                }
+            }
+        }
+
+        /**
+         * Run everything due up to {@code ms} from now
+         */
+        void advance(long ms) {
+            long until = nowMs + ms;
+            while (!queue.isEmpty() && queue.peek()[0] <= until) {
+                long[] next = queue.poll();
+                nowMs = next[0];
+                Runnable task = tasks.get((int) next[1]);
+                if (task != null) {
+                    task.run();
+                }
+            }
+            nowMs = until;
+        }
+
+        @Override
+        public long nanoTime() {
+            return nowMs * 1_000_000L;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return 1_800_000_000_000L + nowMs;
+        }
+    }
+
+    /**
+     * Logs in at once, after failing the first {@code failures} times
+     */
+    private final class FakeBackend implements CameraBackend {
+        final List<Long> attempts = new ArrayList<>();
+        int failures;
+        boolean loggedIn = true;
+
+        @Override
+        public boolean isLoggedIn() {
+            return loggedIn;
+        }
+
+        @Override
+        public void login(Account account, LoginCallback callback) {
+            attempts.add(scheduler.nowMs);
+            if (failures > 0) {
+                failures--;
+                callback.onLoginFailed("timeout");
+            } else {
+                loggedIn = true;
+                callback.onLoginSuccess();
+            }
+        }
+
+        @Override
+        public void listCameras(CameraListCallback callback) {
+        }
+
+        @Override
+        public List<CameraDescriptor> restoreCameras(List<CameraDescriptor> cameras) {
+            return cameras;
+        }
+
+        @Override
+        public CameraSession openSession(CameraDescriptor camera) {
+            return null;
+        }
+
+        @Override
+        public CameraSession openProxySession(CameraDescriptor camera) {
+            return null;
+        }
+
+        @Override
+        public void releaseCamera(CameraDescriptor camera) {
+        }
+
+        @Override
+        public int resolveStreamId(CameraDescriptor camera, CameraProfile.Mode mode) {
+            return 0;
+        }
+
+        @Override
+        public int advertisedKbps(CameraDescriptor camera, int streamId) {
+            return 0;
+        }
+    }
+
+    /**
+     * The engine as the recovery sees it: stops and starts are only recorded
+     */
+    private final class FakeEngine extends RecordingEngine {
+        final List<CameraRecorder> cameras = new ArrayList<>();
+        final List<CameraRecorder> stopped = new ArrayList<>();
+        final List<CameraRecorder> started = new ArrayList<>();
+        final Set<CameraRecorder> dutyCycled = new HashSet<>();
+        // A stop on a dead session may never call back
+        boolean stopsCallBack = true;
+
+        FakeEngine() {
+            super(backend, () -> config, scheduler, Runnable::run, folder.getRoot().getPath(), null);
+        }
+
+        @Override
+        public Collection<CameraRecorder> getCameras() {
+            return cameras;
+        }
+
+        @Override
+        public boolean isRunning() {
+            return true;
+        }
+
+        @Override
+        boolean isDutyCycled(CameraRecorder recorder) {
+            return dutyCycled.contains(recorder);
+        }
+
+        @Override
+        CameraProfile.Mode effectiveMode(CameraRecorder recorder) {
+            return CameraProfile.Mode.HD;
+        }
+
+        @Override
+        void stopCamera(CameraRecorder recorder, Runnable after) {
+            recorder.setIdle(true);
+            recorder.setRecording(false);
+            stopped.add(recorder);
+            if (after != null && stopsCallBack) {
+                after.run();
+            }
+        }
+
+        @Override
+        void startCameraRecording(CameraRecorder recorder) {
+            started.add(recorder);
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ManualScheduler scheduler = new ManualScheduler();
+    private final LifecycleMetrics metrics = LifecycleMetrics.getInstance();
+    private final ConfigSnapshot config = new ConfigSnapshot.Builder().build();
+    private FakeBackend backend;
+    private FakeEngine engine;
+    private SessionRecovery recovery;
+
+    @Before
+    public void setUp() {
+        RecorderClock.install(scheduler);
+        metrics.reset();
+        backend = new FakeBackend();
+        engine = new FakeEngine();
+        recovery = new SessionRecovery(engine, Collections.<String, CameraBackend>singletonMap(Account.PRIMARY, backend),
+                () -> config, scheduler, s -> { });
+    }
+
+    @After
+    public void tearDown() {
+        metrics.reset();
+        RecorderClock.install(null);
+    }
+
+    private List<CameraRecorder> cameras(int count) {
+        List<CameraRecorder> recorders = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            CameraRecorder recorder = new CameraRecorder(
+                    new CameraDescriptor("dev" + i, "cam" + i, false, Account.PRIMARY), folder.getRoot().getPath());
+            recorder.setRecording(true);
+            recorders.add(recorder);
+        }
+        engine.cameras.addAll(recorders);
+        return recorders;
+    }
+
+    @Test
+    public void reloginBacksOffUpToTheCap() {
+        List<CameraRecorder> recorders = cameras(1);
+        backend.loggedIn = false;
+        backend.failures = 8;
+
+        recovery.sessionLost(Account.PRIMARY, "token expired", true);
+        assertEquals(recorders, engine.stopped);
+        scheduler.advance(10 * 60_000);
+
+        // Doubling from 1 s, capped at 60 s
+        List<Long> gaps = new ArrayList<>();
+        for (int i = 1; i < backend.attempts.size(); i++) {
+            gaps.add(backend.attempts.get(i) - backend.attempts.get(i - 1));
+        }
+        assertEquals(Arrays.asList(1000L, 2000L, 4000L, 8000L, 16_000L, 32_000L, 60_000L, 60_000L), gaps);
+        assertEquals(recorders, engine.started);
+    }
+
+    @Test
+    public void camerasWaitForTheLogin() {
+        List<CameraRecorder> recorders = cameras(2);
+        backend.loggedIn = false;
+        backend.failures = 1;
+
+        recovery.sessionLost(Account.PRIMARY, "token expired", true);
+        assertTrue(engine.started.isEmpty());
+        assertTrue(recovery.isRecovering("dev0"));
+        scheduler.advance(999);
+        assertTrue(engine.started.isEmpty());
+        scheduler.advance(1);
+        assertEquals(recorders, engine.started);
+    }
+
+    @Test
+    public void settledCamerasFreeTheirSlots() {
+        List<CameraRecorder> recorders = cameras(6);
+        recovery.sessionLost(Account.PRIMARY, "kicked", true);
+        scheduler.advance(0);
+        // Four at a time
+        assertEquals(recorders.subList(0, 4), engine.started);
+
+        recovery.settled(recorders.get(0), true);
+        scheduler.advance(0);
+        assertEquals(recorders.subList(0, 5), engine.started);
+        assertFalse(recovery.isRecovering("dev0"));
+
+        // A failed reconnect frees its slot too (the camera goes on with its own retries)
+        recovery.settled(recorders.get(1), false);
+        scheduler.advance(0);
+        assertEquals(recorders, engine.started);
+
+        for (CameraRecorder recorder : recorders.subList(2, 6)) {
+            recovery.settled(recorder, true);
+        }
+        scheduler.advance(0);
+        for (CameraRecorder recorder : recorders) {
+            assertFalse(recovery.isRecovering(recorder.getCameraId()));
+        }
+        // One camera of six did not come back
+        assertEquals(0, metrics.getHistogram(LifecycleMetrics.Phase.SESSION_RECOVERY).getCount());
+        assertEquals(1, metrics.getFailureHistogram(LifecycleMetrics.Phase.SESSION_RECOVERY).getCount());
+    }
+
+    @Test
+    public void slowReconnectsLoseTheirSlots() {
+        List<CameraRecorder> recorders = cameras(5);
+        recovery.sessionLost(Account.PRIMARY, "kicked", true);
+        scheduler.advance(29_999);
+        assertEquals(4, engine.started.size());
+        scheduler.advance(1);
+        assertEquals(recorders, engine.started);
+        scheduler.advance(30_000);
+        assertFalse(recovery.isRecovering("dev4"));
+        assertEquals(1, metrics.getFailureHistogram(LifecycleMetrics.Phase.SESSION_RECOVERY).getCount());
+
+        // Too late: the slot is gone
+        recovery.settled(recorders.get(0), true);
+        scheduler.advance(0);
+        assertEquals(1, metrics.getFailureHistogram(LifecycleMetrics.Phase.SESSION_RECOVERY).getCount());
+        assertEquals(0, metrics.getHistogram(LifecycleMetrics.Phase.SESSION_RECOVERY).getCount());
+    }
+
+    @Test
+    public void stopThatNeverReturnsIsGivenUpOn() {
+        List<CameraRecorder> recorders = cameras(1);
+        engine.stopsCallBack = false;
+        recovery.sessionLost(Account.PRIMARY, "kicked", true);
+        scheduler.advance(9_999);
+        assertTrue(engine.started.isEmpty());
+        scheduler.advance(1);
+        assertEquals(recorders, engine.started);
+    }
+
+    @Test
+    public void lostAgainTakesOverOnlyNewCameras() {
+        List<CameraRecorder> recorders = cameras(2);
+        recorders.get(1).setIdle(true);
+        backend.loggedIn = false;
+        backend.failures = 1;
+        recovery.sessionLost(Account.PRIMARY, "kicked", true);
+        assertEquals(recorders.subList(0, 1), engine.stopped);
+
+        // The second camera came up meanwhile, on the dead session
+        recorders.get(1).setIdle(false);
+        recovery.sessionLost(Account.PRIMARY, "kicked", true);
+        assertEquals(recorders, engine.stopped);
+        // One login for both
+        scheduler.advance(1000);
+        assertEquals(2, backend.attempts.size());
+        assertEquals(recorders, engine.started);
+    }
+
+    @Test
+    public void recordingCamerasKeepTheirSessionUnlessStale() {
+        List<CameraRecorder> recorders = cameras(2);
+        recorders.get(1).setRecording(false);
+        recovery.sessionLost(Account.PRIMARY, "kicked", false);
+        scheduler.advance(0);
+        assertEquals(recorders.subList(1, 2), engine.stopped);
+        assertFalse(recovery.isRecovering("dev0"));
+    }
+
+    @Test
+    public void dutyCycledCamerasAreOnlyStopped() {
+        List<CameraRecorder> recorders = cameras(2);
+        engine.dutyCycled.add(recorders.get(0));
+        recovery.sessionLost(Account.PRIMARY, "kicked", true);
+        scheduler.advance(0);
+        assertEquals(recorders, engine.stopped);
+        assertEquals(recorders.subList(1, 2), engine.started);
+        assertFalse(recovery.isRecovering("dev0"));
+    }
+}
@@ -0,0 +1,69 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ShardRingTest {
+
+    @Test
+    public void singleShardOwnsEverything() {
+        assertEquals(0, ShardRing.shardOf("any", 1));
+        assertEquals(0, ShardRing.shardOf("any", 0));
+        assertTrue(ShardRing.owns(0, 1, "any"));
+    }
+
+    @Test
+    public void hashIsStable() {
+        // Instances on other JVMs must agree on the assignment
+        assertEquals(ShardRing.hash("cam-0001"), ShardRing.hash(new String("cam-0001")));
+        assertEquals(ShardRing.shardOf("cam-0001", 7), ShardRing.shardOf("cam-0001", 7));
+        assertNotEquals(ShardRing.hash("cam-0001"), ShardRing.hash("cam-0002"));
+    }
+
+    @Test
+    public void spreadIsEven() {
+        int shards = 5;
+        int cameras = 10_000;
+        int[] counts = new int[shards];
+        for (int i = 0; i < cameras; i++) {
+            int shard = ShardRing.shardOf("device-" + i, shards);
+            assertTrue(shard >= 0 && shard < shards);
+            counts[shard]++;
+        }
+        for (int count : counts) {
+            assertTrue("uneven: " + count, Math.abs(count - cameras / shards) < cameras / shards / 10);
+        }
+    }
+
+    @Test
+    public void growingOnlyMovesCamerasToTheNewShard() {
+        int cameras = 10_000;
+        int moved = 0;
+        for (int i = 0; i < cameras; i++) {
+            String id = "device-" + i;
+            int before = ShardRing.shardOf(id, 4);
+            int after = ShardRing.shardOf(id, 5);
+            if (before != after) {
+                assertEquals(4, after);
+                moved++;
+            }
+        }
+        // ~1/5 of them
+        assertTrue("moved " + moved, Math.abs(moved - cameras / 5) < cameras / 50);
+    }
+
+    @Test
+    public void validateRejectsBadIndexes() {
+        ShardRing.validate(0, 1);
+        ShardRing.validate(2, 3);
+        int[][] bad = {{0, 0}, {-1, 2}, {2, 2}};
+        for (int[] shard : bad) {
+            try {
+                ShardRing.validate(shard[0], shard[1]);
+                fail("accepted " + shard[0] + "/" + shard[1]);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.live;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class FlvTagsTest {
+    private static final byte[] SPS = {0x67, 0x64, 0x00, 0x1F, (byte) 0xAC};
+    private static final byte[] PPS = {0x68, (byte) 0xEE, 0x3C, (byte) 0x80};
+    private static final byte[] AUD = {0x09, (byte) 0xF0};
+    private static final byte[] IDR = {0x65, (byte) 0x88, (byte) 0x84, 0x21};
+
+    private static byte[] annexB(byte[]... units) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < units.length; i++) {
+            // Mix 4- and 3-byte start codes
+            if (i % 2 == 0) {
+                out.write(0);
+            }
+            out.write(0);
+            out.write(0);
+            out.write(1);
+            out.write(units[i], 0, units[i].length);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] unit(byte[] data, int[] units, int i) {
+        return Arrays.copyOfRange(data, units[2 * i], units[2 * i + 1]);
+    }
+
+    @Test
+    public void splitsAnnexBIntoUnits() {
+        byte[] data = annexB(AUD, SPS, PPS, IDR);
+        int[] units = FlvTags.nalUnits(data, 0, data.length);
+        assertEquals(8, units.length);
+        assertArrayEquals(AUD, unit(data, units, 0));
+        assertArrayEquals(SPS, unit(data, units, 1));
+        assertArrayEquals(PPS, unit(data, units, 2));
+        assertArrayEquals(IDR, unit(data, units, 3));
+    }
+
+    @Test
+    public void honoursOffsetAndLength() {
+        byte[] frame = annexB(SPS, IDR);
+        byte[] data = new byte[frame.length + 10];
+        System.arraycopy(frame, 0, data, 3, frame.length);
+        int[] units = FlvTags.nalUnits(data, 3, frame.length);
+        assertEquals(4, units.length);
+        assertArrayEquals(IDR, unit(data, units, 1));
+    }
+
+    @Test
+    public void findsManyUnits() {
+        byte[][] slices = new byte[40][];
+        for (int i = 0; i < slices.length; i++) {
+            slices[i] = new byte[]{0x41, (byte) i, 0x7F};
+        }
+        byte[] data = annexB(slices);
+        int[] units = FlvTags.nalUnits(data, 0, data.length);
+        assertEquals(80, units.length);
+        assertArrayEquals(slices[39], unit(data, units, 39));
+    }
+
+    @Test
+    public void noStartCodeNoUnits() {
+        assertEquals(0, FlvTags.nalUnits(IDR, 0, IDR.length).length);
+        byte[] empty = {0, 0, 1};
+        assertEquals(0, FlvTags.nalUnits(empty, 0, empty.length).length);
+    }
+
+    @Test
+    public void videoBodyCarriesOnlySlicesWithLengths() {
+        byte[] data = annexB(AUD, SPS, PPS, IDR);
+        byte[] body = FlvTags.videoBody(true, data, FlvTags.nalUnits(data, 0, data.length));
+        byte[] expected = {0x17, 1, 0, 0, 0, 0, 0, 0, 4, 0x65, (byte) 0x88, (byte) 0x84, 0x21};
+        assertArrayEquals(expected, body);
+
+        data = annexB(IDR);
+        assertEquals(0x27, FlvTags.videoBody(false, data, FlvTags.nalUnits(data, 0, data.length))[0]);
+
+        data = annexB(AUD, SPS, PPS);
+        assertNull(FlvTags.videoBody(true, data, FlvTags.nalUnits(data, 0, data.length)));
+    }
+
+    @Test
+    public void sequenceHeaderIsAnAvcDecoderConfigurationRecord() {
+        byte[] expected = {
+                0x17, 0, 0, 0, 0,
+                // version, profile, compatibility, level, length size 4, one SPS
+                1, 0x64, 0x00, 0x1F, (byte) 0xFF, (byte) 0xE1,
+                0, 5, 0x67, 0x64, 0x00, 0x1F, (byte) 0xAC,
+                // one PPS
+                1, 0, 4, 0x68, (byte) 0xEE, 0x3C, (byte) 0x80
+        };
+        assertArrayEquals(expected, FlvTags.sequenceHeader(SPS, PPS));
+    }
+
+    @Test
+    public void writesTagAndPreviousTagSize() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] body = {1, 2, 3};
+        // Past 24 bits the timestamp's upper byte goes in the extension
+        long timeMs = 0x12345678L;
+        assertEquals(11 + 3 + 4, FlvTags.writeVideoTag(out, FlvTags.tagHeaderBuffer(), timeMs, body));
+        byte[] expected = {
+                9, 0, 0, 3, 0x34, 0x56, 0x78, 0x12, 0, 0, 0,
+                1, 2, 3,
+                0, 0, 0, 14
+        };
+        assertArrayEquals(expected, out.toByteArray());
+    }
+
+    @Test
+    public void headerIsVideoOnlyFlv() {
+        assertArrayEquals(new byte[]{'F', 'L', 'V', 1, 1, 0, 0, 0, 9, 0, 0, 0, 0}, FlvTags.HEADER);
+    }
+}
@@ -0,0 +1,150 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.upload;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class UploadQueueTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File journal;
+
+    @Before
+    public void setUp() {
+        journal = new File(folder.getRoot(), "uploads.journal");
+    }
+
+    private UploadQueue reopen() {
+        return new UploadQueue(journal);
+    }
+
+    /**
+     * @return the entry for {@code path}, taken as the next due one
+     */
+    private static UploadQueue.Entry take(UploadQueue queue, String path) {
+        UploadQueue.Entry entry = queue.next(Long.MAX_VALUE);
+        assertNotNull(entry);
+        assertEquals(path, entry.path);
+        return entry;
+    }
+
+    @Test
+    public void replayResumesAtTheNextPart() {
+        UploadQueue queue = reopen();
+        queue.add("cam1/a.mp4");
+        queue.add("cam 2/b.mp4");
+        queue.add("cam1/a.mp4");
+        UploadQueue.Entry a = take(queue, "cam1/a.mp4");
+        queue.started(a, 8 << 20, "upload-1");
+        queue.partDone(a, "\"etag-1\"");
+        queue.partDone(a, "\"etag-2\"");
+        UploadQueue.Entry b = take(queue, "cam 2/b.mp4");
+        queue.started(b, 8 << 20, "upload-2");
+
+        UploadQueue replayed = reopen();
+        assertEquals(2, replayed.size());
+        assertEquals("cam1/a.mp4", replayed.oldest());
+        a = take(replayed, "cam1/a.mp4");
+        assertEquals(8 << 20, a.partBytes);
+        assertEquals("upload-1", a.uploadId);
+        assertEquals(Arrays.asList("\"etag-1\"", "\"etag-2\""), a.etags);
+        // Nothing is active after a restart
+        b = take(replayed, "cam 2/b.mp4");
+        assertEquals("upload-2", b.uploadId);
+        assertTrue(b.etags.isEmpty());
+    }
+
+    @Test
+    public void restartAndRemoveAreReplayed() throws IOException {
+        UploadQueue queue = reopen();
+        queue.add("a.mp4");
+        queue.add("b.mp4");
+        UploadQueue.Entry a = take(queue, "a.mp4");
+        queue.started(a, 1024, "lost");
+        queue.partDone(a, "e1");
+        queue.restart(a);
+        UploadQueue.Entry b = take(queue, "b.mp4");
+        queue.remove(b);
+
+        UploadQueue replayed = reopen();
+        assertEquals(1, replayed.size());
+        a = take(replayed, "a.mp4");
+        assertNull(a.uploadId);
+        assertTrue(a.etags.isEmpty());
+
+        // Emptied with the queue
+        replayed.remove(a);
+        assertEquals(0, Files.readAllLines(journal.toPath()).size());
+        assertEquals(0, reopen().size());
+    }
+
+    @Test
+    public void skipsTornAndOrphanLines() throws IOException {
+        try (Writer writer = new FileWriter(journal)) {
+            writer.write("+ a.mp4\n");
+            // Part of an entry never queued, part before any upload, bad part size
+            writer.write("p e0 gone.mp4\n");
+            writer.write("p e0 a.mp4\n");
+            writer.write("u many up a.mp4\n");
+            writer.write("u 1024 up a.mp4\n");
+            writer.write("p e1 a.mp4\n");
+            writer.write("p e2 a.m");
+        }
+        UploadQueue queue = reopen();
+        assertEquals(1, queue.size());
+        UploadQueue.Entry a = take(queue, "a.mp4");
+        assertEquals("up", a.uploadId);
+        assertEquals(Arrays.asList("e1"), a.etags);
+    }
+
+    @Test
+    public void compactsALongJournal() throws IOException {
+        UploadQueue queue = reopen();
+        queue.add("kept.mp4");
+        UploadQueue.Entry kept = take(queue, "kept.mp4");
+        queue.started(kept, 1024, "up");
+        queue.partDone(kept, "e1");
+        for (int i = 0; i < 600; i++) {
+            queue.add("seg" + i + ".mp4");
+            UploadQueue.Entry entry = take(queue, "seg" + i + ".mp4");
+            queue.remove(entry);
+        }
+        assertTrue(Files.readAllLines(journal.toPath()).size() < 300);
+
+        UploadQueue replayed = reopen();
+        assertEquals(1, replayed.size());
+        kept = take(replayed, "kept.mp4");
+        assertEquals("up", kept.uploadId);
+        assertEquals(Arrays.asList("e1"), kept.etags);
+    }
+
+    @Test
+    public void releasedEntriesWaitUntilDue() {
+        UploadQueue queue = reopen();
+        queue.add("a.mp4");
+        queue.add("b.mp4");
+        UploadQueue.Entry a = queue.next(0);
+        assertEquals("a.mp4", a.path);
+        assertEquals(0, queue.nextDueMs());
+        UploadQueue.Entry b = queue.next(0);
+        assertEquals("b.mp4", b.path);
+        assertNull(queue.next(0));
+        assertEquals(Long.MAX_VALUE, queue.nextDueMs());
+
+        queue.release(a, 5000);
+        assertEquals(5000, queue.nextDueMs());
+        assertNull(queue.next(4999));
+        assertSame(a, queue.next(5000));
+    }
+}
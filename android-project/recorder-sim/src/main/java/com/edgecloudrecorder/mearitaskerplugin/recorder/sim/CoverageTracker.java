@@ -0,0 +1,236 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.sim;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.LatencyHistogram;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Footage continuity of every simulated camera, measured on the frames actually written:
+ * any interval between two written frames longer than the gap threshold is a gap, blamed
+ * on whatever closed the previous segment (or a stall if the segment stayed open).
+ * Also counts lost segments: files reopened under a name already used (overwritten) and
+ * segments closed without a single frame. Called on the scheduler thread only.
+ */
+public class CoverageTracker {
+
+    public enum Cause {
+        /** First frame of the run, after login, connect and preview */
+        STARTUP,
+        /** stopRecording: segment rotation (or a stop on request) */
+        ROTATION,
+        /** onRecordInterrupted while the stream stayed up */
+        INTERRUPT,
+        /** Stream closed or preview restarted: full reconnect */
+        RECONNECT,
+        /** Output write failed */
+        WRITE_ERROR,
+        /** No frames while the segment stayed open */
+        STALL
+    }
+
+    private static final int RECENT_PATHS = 8;
+
+    private static final class CameraCoverage {
+        final String cameraId;
+        long lastFrameMs = -1;
+        Cause closeCause = Cause.STARTUP;
+        boolean segmentOpen;
+        long segmentFrames;
+        long gapCount;
+        long gapMs;
+        long maxGapMs;
+        long segments;
+        long overwritten;
+        long empty;
+        final ArrayDeque<String> recentPaths = new ArrayDeque<>(RECENT_PATHS);
+
+        CameraCoverage(String cameraId) {
+            this.cameraId = cameraId;
+        }
+    }
+
+    private final long gapThresholdMs;
+    private final long startMs;
+    private final Map<String, CameraCoverage> cameras = new TreeMap<>();
+    private final Map<Cause, LatencyHistogram> gaps = new EnumMap<>(Cause.class);
+    private final Map<Cause, Long> gapTotals = new EnumMap<>(Cause.class);
+
+    /**
+     * @param gapThresholdMs shortest frame interval counted as a gap
+     * @param startMs        virtual time the run started
+     */
+    public CoverageTracker(long gapThresholdMs, long startMs) {
+        this.gapThresholdMs = gapThresholdMs;
+        this.startMs = startMs;
+        for (Cause cause : Cause.values()) {
+            gaps.put(cause, new LatencyHistogram());
+            gapTotals.put(cause, 0L);
+        }
+    }
+
+    void segmentOpened(String cameraId, String path) {
+        CameraCoverage camera = camera(cameraId);
+        if (camera.recentPaths.contains(path)) {
+            camera.overwritten++;
+        } else {
+            if (camera.recentPaths.size() == RECENT_PATHS) {
+                camera.recentPaths.removeFirst();
+            }
+            camera.recentPaths.addLast(path);
+        }
+        camera.segments++;
+        camera.segmentOpen = true;
+        camera.segmentFrames = 0;
+    }
+
+    void framesWritten(String cameraId, long nowMs, int frames) {
+        CameraCoverage camera = camera(cameraId);
+        long since = camera.lastFrameMs >= 0 ? camera.lastFrameMs : startMs;
+        long interval = nowMs - since;
+        if (interval > gapThresholdMs || camera.lastFrameMs < 0) {
+            recordGap(camera, camera.closeCause != null ? camera.closeCause : Cause.STALL, interval);
+        }
+        camera.closeCause = null;
+        camera.lastFrameMs = nowMs;
+        camera.segmentFrames += frames;
+    }
+
+    void segmentClosed(String cameraId, Cause cause) {
+        CameraCoverage camera = camera(cameraId);
+        if (!camera.segmentOpen) {
+            return;
+        }
+        if (camera.segmentFrames == 0) {
+            camera.empty++;
+        }
+        camera.segmentOpen = false;
+        // Keep the first cause until footage resumes
+        if (camera.closeCause == null) {
+            camera.closeCause = cause;
+        }
+    }
+
+    /**
+     * Stream torn down (closed, preview restarted) without a segment being open
+     */
+    void streamLost(String cameraId, Cause cause) {
+        CameraCoverage camera = camera(cameraId);
+        if (camera.closeCause == null || camera.closeCause == Cause.ROTATION) {
+            camera.closeCause = cause;
+        }
+    }
+
+    private void recordGap(CameraCoverage camera, Cause cause, long gapMs) {
+        gaps.get(cause).record(gapMs);
+        gapTotals.put(cause, gapTotals.get(cause) + gapMs);
+        camera.gapCount++;
+        camera.gapMs += gapMs;
+        camera.maxGapMs = Math.max(camera.maxGapMs, gapMs);
+    }
+
+    private CameraCoverage camera(String cameraId) {
+        CameraCoverage camera = cameras.get(cameraId);
+        if (camera == null) {
+            camera = new CameraCoverage(cameraId);
+            cameras.put(cameraId, camera);
+        }
+        return camera;
+    }
+
+    /**
+     * Footage gap each camera is in right now, 0 when it is writing frames
+     */
+    public long openGapMs(String cameraId, long nowMs) {
+        CameraCoverage camera = cameras.get(cameraId);
+        long since = camera == null || camera.lastFrameMs < 0 ? startMs : camera.lastFrameMs;
+        long gap = nowMs - since;
+        return gap > gapThresholdMs ? gap : 0;
+    }
+
+    /**
+     * Per-camera result of a run, open gaps at nowMs included
+     */
+    public static final class CameraReport {
+        public final String cameraId;
+        public final double coverage;
+        public final long gapCount;
+        public final long maxGapMs;
+        public final long openGapMs;
+        public final long segments;
+        public final long lostSegments;
+
+        CameraReport(String cameraId, double coverage, long gapCount, long maxGapMs, long openGapMs,
+                     long segments, long lostSegments) {
+            this.cameraId = cameraId;
+            this.coverage = coverage;
+            this.gapCount = gapCount;
+            this.maxGapMs = maxGapMs;
+            this.openGapMs = openGapMs;
+            this.segments = segments;
+            this.lostSegments = lostSegments;
+        }
+    }
+
+    public List<CameraReport> report(List<String> cameraIds, long nowMs) {
+        long runMs = Math.max(1, nowMs - startMs);
+        List<CameraReport> reports = new ArrayList<>(cameraIds.size());
+        for (String cameraId : cameraIds) {
+            CameraCoverage camera = cameras.get(cameraId);
+            long open = openGapMs(cameraId, nowMs);
+            if (camera == null) {
+                reports.add(new CameraReport(cameraId, 0, 0, open, open, 0, 0));
+                continue;
+            }
+            double coverage = 1.0 - (double) (camera.gapMs + open) / runMs;
+            reports.add(new CameraReport(cameraId, Math.max(0, coverage), camera.gapCount,
+                    Math.max(camera.maxGapMs, open), open, camera.segments, camera.overwritten + camera.empty));
+        }
+        return reports;
+    }
+
+    /**
+     * Gap distribution by cause plus lost-segment totals
+     */
+    public String gapSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "%-12s %8s %10s %10s %10s %10s %12s%n",
+                "cause", "gaps", "p50_ms", "p90_ms", "p99_ms", "max_ms", "total_s"));
+        for (Cause cause : Cause.values()) {
+            LatencyHistogram histogram = gaps.get(cause);
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            sb.append(String.format(Locale.US, "%-12s %8d %10d %10d %10d %10d %12.1f%n",
+                    cause.name().toLowerCase(Locale.US), histogram.getCount(),
+                    histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+                    histogram.getValueAtPercentile(99), histogram.getMax(), gapTotals.get(cause) / 1000.0));
+        }
+        long overwritten = 0;
+        long empty = 0;
+        long segments = 0;
+        for (CameraCoverage camera : cameras.values()) {
+            overwritten += camera.overwritten;
+            empty += camera.empty;
+            segments += camera.segments;
+        }
+        sb.append(String.format(Locale.US, "segments=%d lost=%d (overwritten=%d empty=%d)",
+                segments, overwritten + empty, overwritten, empty));
+        return sb.toString();
+    }
+
+    /**
+     * Cameras sorted from worst to best coverage
+     */
+    public static List<CameraReport> worstFirst(List<CameraReport> reports) {
+        List<CameraReport> sorted = new ArrayList<>(reports);
+        Collections.sort(sorted, (a, b) -> Double.compare(a.coverage, b.coverage));
+        return sorted;
+    }
+}
@@ -0,0 +1,76 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.sim;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.Scheduler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Real-time {@link Scheduler} on one thread, the JVM stand-in for the main looper
+ */
+public class ExecutorScheduler implements Scheduler {
+    private final ScheduledExecutorService executor;
+    private final Map<Runnable, List<ScheduledFuture<?>>> pending = new HashMap<>();
+
+    public ExecutorScheduler(String threadName) {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, threadName);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public void post(Runnable task) {
+        postDelayed(task, 0);
+    }
+
+    @Override
+    public synchronized void postDelayed(final Runnable task, long delayMs) {
+        final ScheduledFuture<?>[] self = new ScheduledFuture<?>[1];
+        self[0] = executor.schedule(() -> {
+            done(task, self[0]);
+            run(task);
+        }, Math.max(0, delayMs), TimeUnit.MILLISECONDS);
+        pending.computeIfAbsent(task, t -> new ArrayList<>(1)).add(self[0]);
+    }
+
+    @Override
+    public synchronized void cancel(Runnable task) {
+        List<ScheduledFuture<?>> futures = pending.remove(task);
+        if (futures != null) {
+            for (ScheduledFuture<?> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private synchronized void done(Runnable task, ScheduledFuture<?> future) {
+        List<ScheduledFuture<?>> futures = pending.get(task);
+        if (futures != null) {
+            futures.remove(future);
+            if (futures.isEmpty()) {
+                pending.remove(task);
+            }
+        }
+    }
+
+    private static void run(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            // Same as an uncaught exception on a looper, minus the crash
+            e.printStackTrace();
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
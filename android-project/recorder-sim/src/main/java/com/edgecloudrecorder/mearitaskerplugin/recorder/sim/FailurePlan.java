@@ -0,0 +1,134 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.sim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Failures injected by the simulated cameras: random (per operation or per camera,
+ * Poisson over time) and scripted at fixed times since the start of the run.
+ *
+ * Encoded form, in the same key=value;... style as camera profiles:
+ * connect_fail=0.1;preview_fail=0.02;record_fail=0.02;login_fail=0.5;interrupt_every=600;
+ * closed_every=1800;stall_every=900;stall_seconds=20;hang=0.001;latency_ms=300;
+ * script=120:interrupt,300:closed,400:stall,600:kick
+ * Rates are probabilities per call, "*_every" mean seconds between events per camera
+ * (0 disables), "hang" the probability that a callback never arrives. A "kick" logs every
+ * account out as if it logged in on another device: streams go silent but stay connected,
+ * connects fail until the next login, and the recorder is told its session was lost.
+ */
+public final class FailurePlan {
+
+    public enum Event {
+        INTERRUPT, CLOSED, STALL, KICK
+    }
+
+    /**
+     * Event hitting every live camera at a fixed second of the run
+     */
+    public static final class ScriptedEvent {
+        public final long atSeconds;
+        public final Event event;
+
+        public ScriptedEvent(long atSeconds, Event event) {
+            this.atSeconds = atSeconds;
+            this.event = event;
+        }
+
+        @Override
+        public String toString() {
+            return atSeconds + ":" + event.name().toLowerCase(Locale.US);
+        }
+    }
+
+    double connectFailRate;
+    double previewFailRate;
+    double recordFailRate;
+    double loginFailRate;
+    double hangRate;
+    long interruptEverySeconds;
+    long closedEverySeconds;
+    long stallEverySeconds;
+    long stallSeconds = 15;
+    long latencyMs = 200;
+    final List<ScriptedEvent> script = new ArrayList<>();
+
+    public static FailurePlan none() {
+        return new FailurePlan();
+    }
+
+    /**
+     * @throws IllegalArgumentException on malformed input
+     */
+    public static FailurePlan decode(String encoded) {
+        FailurePlan plan = new FailurePlan();
+        if (encoded == null || encoded.trim().isEmpty()) {
+            return plan;
+        }
+        for (String part : encoded.split(";")) {
+            if (part.trim().isEmpty()) continue;
+            int eq = part.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Bad failure field: " + part);
+            }
+            String key = part.substring(0, eq).trim();
+            String value = part.substring(eq + 1).trim();
+            try {
+                switch (key) {
+                    case "connect_fail": plan.connectFailRate = rate(value); break;
+                    case "preview_fail": plan.previewFailRate = rate(value); break;
+                    case "record_fail": plan.recordFailRate = rate(value); break;
+                    case "login_fail": plan.loginFailRate = rate(value); break;
+                    case "hang": plan.hangRate = rate(value); break;
+                    case "interrupt_every": plan.interruptEverySeconds = Long.parseLong(value); break;
+                    case "closed_every": plan.closedEverySeconds = Long.parseLong(value); break;
+                    case "stall_every": plan.stallEverySeconds = Long.parseLong(value); break;
+                    case "stall_seconds": plan.stallSeconds = Long.parseLong(value); break;
+                    case "latency_ms": plan.latencyMs = Long.parseLong(value); break;
+                    case "script": plan.script.addAll(parseScript(value)); break;
+                    default:
+                        throw new IllegalArgumentException("Unknown failure field: " + key);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad number for " + key + ": " + value);
+            }
+        }
+        Collections.sort(plan.script, (a, b) -> Long.compare(a.atSeconds, b.atSeconds));
+        return plan;
+    }
+
+    private static double rate(String value) {
+        double rate = Double.parseDouble(value);
+        if (rate < 0 || rate > 1) {
+            throw new IllegalArgumentException("Rate must be 0..1: " + value);
+        }
+        return rate;
+    }
+
+    private static List<ScriptedEvent> parseScript(String value) {
+        List<ScriptedEvent> events = new ArrayList<>();
+        for (String item : value.split(",")) {
+            int colon = item.indexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Bad script event: " + item);
+            }
+            try {
+                events.add(new ScriptedEvent(Long.parseLong(item.substring(0, colon).trim()),
+                        Event.valueOf(item.substring(colon + 1).trim().toUpperCase(Locale.US))));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Bad script event: " + item);
+            }
+        }
+        return events;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "connect_fail=%s;preview_fail=%s;record_fail=%s;login_fail=%s;hang=%s;interrupt_every=%d;"
+                        + "closed_every=%d;stall_every=%d;stall_seconds=%d;latency_ms=%d;script=%s",
+                connectFailRate, previewFailRate, recordFailRate, loginFailRate, hangRate, interruptEverySeconds,
+                closedEverySeconds, stallEverySeconds, stallSeconds, latencyMs, script);
+    }
+}
@@ -0,0 +1,150 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.sim;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local consumer of a camera's HTTP-FLV stream, checking what a player relies on: the
+ * FLV header, a sequence header before the first frame, a keyframe first, tag sizes that
+ * add up and timestamps that never go back. Reconnects when the stream ends (camera
+ * removed or idle) until stopped; with {@code kbps} > 0 it reads no faster than that, to
+ * play a consumer on a slow link.
+ */
+final class LiveViewer implements Runnable {
+    private static final int TAG_VIDEO = 9;
+
+    private final String url;
+    private final int kbps;
+    private volatile boolean stopped;
+    private volatile HttpURLConnection connection;
+
+    final AtomicLong frames = new AtomicLong();
+    final AtomicLong keyframes = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+    final AtomicLong connects = new AtomicLong();
+    final AtomicLong errors = new AtomicLong();
+    volatile String lastError = "";
+
+    LiveViewer(String url, int kbps) {
+        this.url = url;
+        this.kbps = kbps;
+    }
+
+    @Override
+    public void run() {
+        while (!stopped) {
+            try {
+                read();
+            } catch (IOException e) {
+                if (!stopped) {
+                    lastError = e.getMessage();
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (!stopped) {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    void stop() {
+        stopped = true;
+        HttpURLConnection current = connection;
+        if (current != null) {
+            current.disconnect();
+        }
+    }
+
+    private void read() throws IOException, InterruptedException {
+        HttpURLConnection http = (HttpURLConnection) new URL(url).openConnection();
+        http.setConnectTimeout(5000);
+        http.setReadTimeout(90_000);
+        connection = http;
+        if (http.getResponseCode() != 200) {
+            http.disconnect();
+            throw new IOException("HTTP " + http.getResponseCode());
+        }
+        connects.incrementAndGet();
+        long startNanos = System.nanoTime();
+        long received = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(http.getInputStream(), 64 * 1024))) {
+            byte[] header = new byte[13];
+            in.readFully(header);
+            if (header[0] != 'F' || header[1] != 'L' || header[2] != 'V') {
+                fail("not an FLV stream");
+                return;
+            }
+            boolean configured = false;
+            boolean started = false;
+            long lastTimeMs = -1;
+            byte[] body = new byte[64 * 1024];
+            while (!stopped) {
+                int type;
+                try {
+                    type = in.readUnsignedByte();
+                } catch (EOFException e) {
+                    return;
+                }
+                int size = in.readUnsignedByte() << 16 | in.readUnsignedShort();
+                long timeMs = (in.readUnsignedByte() << 16 | in.readUnsignedShort()) | (long) in.readUnsignedByte() << 24;
+                in.skipBytes(3);
+                if (body.length < size) {
+                    body = new byte[size * 2];
+                }
+                in.readFully(body, 0, size);
+                int previous = in.readInt();
+                received += 15 + size;
+                bytes.addAndGet(15 + size);
+                if (type != TAG_VIDEO || previous != 11 + size || size < 5) {
+                    fail("bad tag (type " + type + ", size " + size + ", previous " + previous + ")");
+                    return;
+                }
+                if (timeMs < lastTimeMs) {
+                    fail("timestamp went back from " + lastTimeMs + " to " + timeMs);
+                    return;
+                }
+                lastTimeMs = timeMs;
+                boolean keyframe = (body[0] & 0xF0) == 0x10;
+                if (body[1] == 0) {
+                    configured = true;
+                    continue;
+                }
+                if (!configured || (!started && !keyframe)) {
+                    fail(configured ? "first frame is not a keyframe" : "frame before the sequence header");
+                    return;
+                }
+                started = true;
+                frames.incrementAndGet();
+                if (keyframe) {
+                    keyframes.incrementAndGet();
+                }
+                if (kbps > 0) {
+                    // Read no faster than the link would carry
+                    long dueNanos = startNanos + received * 8_000_000L / kbps;
+                    long aheadMs = (dueNanos - System.nanoTime()) / 1_000_000;
+                    if (aheadMs > 0) {
+                        Thread.sleep(aheadMs);
+                    }
+                }
+            }
+        } finally {
+            http.disconnect();
+        }
+    }
+
+    private void fail(String error) {
+        errors.incrementAndGet();
+        lastError = error;
+    }
+}
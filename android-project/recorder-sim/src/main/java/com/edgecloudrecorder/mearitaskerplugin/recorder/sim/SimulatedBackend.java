@@ -0,0 +1,349 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.sim;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.Account;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.CameraProfile;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.ConfigSnapshot;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.RecorderClock;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.ResourceManager;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.Scheduler;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraBackend;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraDescriptor;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraSession;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * {@link CameraBackend} for one virtual account with a fixed fleet of cameras (every Nth
+ * one battery powered), streams 100..103 like a four-stream Meari camera
+ */
+public class SimulatedBackend implements CameraBackend {
+    private static final int OUTPUT_BUFFER_BYTES = 64 * 1024;
+    // Key suffix of a camera's proxy session and surface
+    static final String PROXY_KEY = "#proxy";
+
+    private final String account;
+    private final int firstCamera;
+    private final int cameraCount;
+    private final int batteryEvery;
+    private final FailurePlan plan;
+    private final Scheduler scheduler;
+    private final long seed;
+    private final boolean discardOutput;
+    private final SimulationStats stats;
+    private final Random random;
+    private final Map<String, SimulatedCameraSession> liveSessions = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> surfaces = new ConcurrentHashMap<>();
+    private final List<Consumer<String>> sessionListeners = new CopyOnWriteArrayList<>();
+    private volatile CoverageTracker coverage;
+    private volatile SimulatedVolume volume;
+    private volatile boolean loggedIn;
+    private int sessionCount;
+
+    /**
+     * @param batteryEvery every Nth camera is battery powered (0: none)
+     * @param discardOutput count recorded bytes without writing files
+     */
+    public SimulatedBackend(int cameraCount, int batteryEvery, FailurePlan plan, Scheduler scheduler,
+                            long seed, boolean discardOutput) {
+        this(Account.PRIMARY, 1, cameraCount, batteryEvery, plan, scheduler, seed, discardOutput,
+                new SimulationStats());
+    }
+
+    /**
+     * @param firstCamera number of the account's first camera, so IDs stay unique across accounts
+     * @param stats       counters, shared by every account of a run
+     */
+    public SimulatedBackend(String account, int firstCamera, int cameraCount, int batteryEvery, FailurePlan plan,
+                            Scheduler scheduler, long seed, boolean discardOutput, SimulationStats stats) {
+        this.account = account;
+        this.firstCamera = firstCamera;
+        this.cameraCount = cameraCount;
+        this.batteryEvery = batteryEvery;
+        this.plan = plan;
+        this.scheduler = scheduler;
+        this.seed = seed;
+        this.discardOutput = discardOutput;
+        this.stats = stats;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Split a fleet of cameras over several accounts ("default", "account2", ...), sharing
+     * one set of counters
+     */
+    public static Map<String, SimulatedBackend> forAccounts(int accounts, int cameraCount, int batteryEvery,
+                                                            FailurePlan plan, Scheduler scheduler, long seed,
+                                                            boolean discardOutput) {
+        Map<String, SimulatedBackend> backends = new LinkedHashMap<>();
+        SimulationStats stats = new SimulationStats();
+        int first = 1;
+        for (int i = 0; i < accounts; i++) {
+            int count = cameraCount / accounts + (i < cameraCount % accounts ? 1 : 0);
+            String name = i == 0 ? Account.PRIMARY : "account" + (i + 1);
+            backends.put(name, new SimulatedBackend(name, first, count, batteryEvery, plan, scheduler,
+                    seed + i * 7919L, discardOutput, stats));
+            first += count;
+        }
+        return backends;
+    }
+
+    /**
+     * Config with simulator credentials for every account of the map
+     */
+    public static ConfigSnapshot.Builder withAccounts(ConfigSnapshot.Builder builder, Map<String, ?> backends) {
+        builder.setUsername("simulator").setPassword("simulator");
+        for (String name : backends.keySet()) {
+            if (!Account.PRIMARY.equals(name)) {
+                builder.putAccount(new Account(name, name + "@simulator", "simulator", "Simulated", "SIM"));
+            }
+        }
+        return builder;
+    }
+
+    /**
+     * Post the plan's scripted events, relative to now
+     */
+    public void startScript() {
+        for (final FailurePlan.ScriptedEvent scripted : plan.script) {
+            scheduler.postDelayed(() -> {
+                if (scripted.event == FailurePlan.Event.KICK) {
+                    kick();
+                    return;
+                }
+                for (SimulatedCameraSession session : liveSessions.values()) {
+                    session.inject(scripted.event);
+                }
+            }, scripted.atSeconds * 1000);
+        }
+    }
+
+    /**
+     * Notified with a reason when the account is logged out under the recorder (the
+     * simulator's MyMessageHandler.loginOnOtherDevices)
+     */
+    public void addSessionListener(Consumer<String> listener) {
+        sessionListeners.add(listener);
+    }
+
+    /**
+     * The account logged in on another device: log out, leave every live stream connected
+     * but silent, and tell the listeners
+     */
+    private void kick() {
+        stats.kicks.incrementAndGet();
+        loggedIn = false;
+        for (SimulatedCameraSession session : liveSessions.values()) {
+            session.inject(FailurePlan.Event.KICK);
+        }
+        for (final Consumer<String> listener : sessionListeners) {
+            scheduler.postDelayed(() -> listener.accept("logged in on another device"), plan.latencyMs);
+        }
+    }
+
+    @Override
+    public boolean isLoggedIn() {
+        return loggedIn;
+    }
+
+    @Override
+    public void login(Account credentials, final LoginCallback callback) {
+        scheduler.postDelayed(() -> {
+            if (random.nextDouble() < plan.loginFailRate) {
+                stats.loginFailures.incrementAndGet();
+                callback.onLoginFailed("simulated login failure");
+                return;
+            }
+            loggedIn = true;
+            callback.onLoginSuccess();
+        }, plan.latencyMs);
+    }
+
+    @Override
+    public void listCameras(final CameraListCallback callback) {
+        scheduler.postDelayed(() -> callback.onSuccess(getCameras()), plan.latencyMs);
+    }
+
+    /**
+     * Every restored camera still in the fleet (the fleet is fixed, nothing to cache)
+     */
+    @Override
+    public List<CameraDescriptor> restoreCameras(List<CameraDescriptor> cameras) {
+        List<String> fleet = new ArrayList<>(cameraCount);
+        for (CameraDescriptor camera : getCameras()) {
+            fleet.add(camera.getDeviceId());
+        }
+        List<CameraDescriptor> known = new ArrayList<>();
+        for (CameraDescriptor camera : cameras) {
+            if (fleet.contains(camera.getDeviceId())) {
+                known.add(camera);
+            }
+        }
+        return known;
+    }
+
+    /**
+     * The whole fleet, as listed to every engine sharing this backend
+     */
+    public List<CameraDescriptor> getCameras() {
+        List<CameraDescriptor> cameras = new ArrayList<>(cameraCount);
+        for (int i = firstCamera; i < firstCamera + cameraCount; i++) {
+            cameras.add(new CameraDescriptor(String.format(Locale.US, "SIM%05d", i),
+                    String.format(Locale.US, "sim_cam_%03d", i), batteryEvery > 0 && i % batteryEvery == 0, account));
+        }
+        return cameras;
+    }
+
+    @Override
+    public synchronized CameraSession openSession(CameraDescriptor camera) {
+        SimulatedCameraSession session = new SimulatedCameraSession(camera, this, seed * 1_000_003L + sessionCount++,
+                false);
+        liveSessions.put(session.getKey(), session);
+        return session;
+    }
+
+    /**
+     * A second virtual session on the camera; its footage is not tracked as the camera's
+     */
+    @Override
+    public synchronized CameraSession openProxySession(CameraDescriptor camera) {
+        SimulatedCameraSession session = new SimulatedCameraSession(camera, this, seed * 1_000_003L + sessionCount++,
+                true);
+        liveSessions.put(session.getKey(), session);
+        return session;
+    }
+
+    /**
+     * Virtual decoder surface, accounted like MeariCameraBackend's invisible surface views
+     */
+    void acquireSurface(SimulatedCameraSession session) {
+        if (surfaces.putIfAbsent(session.getKey(), Boolean.TRUE) == null) {
+            ResourceManager.getInstance().opened(session.getCamera().getDeviceId(), ResourceManager.Kind.SURFACE);
+        }
+    }
+
+    @Override
+    public void releaseCamera(CameraDescriptor camera) {
+        for (String key : new String[]{camera.getDeviceId(), camera.getDeviceId() + PROXY_KEY}) {
+            if (surfaces.remove(key) != null) {
+                ResourceManager.getInstance().closed(camera.getDeviceId(), ResourceManager.Kind.SURFACE);
+            }
+        }
+    }
+
+    /**
+     * Same choice as CommonUtils.getDefaultStreamId for a camera advertising all four streams
+     */
+    @Override
+    public int resolveStreamId(CameraDescriptor camera, CameraProfile.Mode mode) {
+        switch (mode) {
+            case LOW:
+            case SNAPSHOT:
+                return 100;
+            case SD:
+                return 101;
+            default:
+                return 103;
+        }
+    }
+
+    @Override
+    public int advertisedKbps(CameraDescriptor camera, int streamId) {
+        return bitrateFor(streamId) / 1000;
+    }
+
+    static int bitrateFor(int streamId) {
+        switch (streamId) {
+            case 100: return 256_000;
+            case 101: return 512_000;
+            case 102: return 1_000_000;
+            default: return 2_000_000;
+        }
+    }
+
+    /**
+     * Drop a released session from the scripted-event fan-out
+     */
+    void onReleased(SimulatedCameraSession session) {
+        liveSessions.remove(session.getKey(), session);
+    }
+
+    OutputStream openOutput(String path) {
+        if (discardOutput) {
+            return OutputStream.nullOutputStream();
+        }
+        try {
+            return new BufferedOutputStream(new FileOutputStream(path), OUTPUT_BUFFER_BYTES);
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot open " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * A segment: the synthetic stream framed as MP4 (see {@link SyntheticMp4Output})
+     */
+    OutputStream openSegment(String path, int fps) {
+        if (discardOutput) {
+            return OutputStream.nullOutputStream();
+        }
+        try {
+            return new SyntheticMp4Output(path, fps);
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot open " + path + ": " + e.getMessage());
+        }
+    }
+
+    long now() {
+        return RecorderClock.currentTimeMillis();
+    }
+
+    /**
+     * Track footage continuity of the sessions opened from now on
+     */
+    public void setCoverageTracker(CoverageTracker coverage) {
+        this.coverage = coverage;
+    }
+
+    /**
+     * Record onto a scripted volume: recording starts fail while it is full
+     */
+    public void setVolume(SimulatedVolume volume) {
+        this.volume = volume;
+    }
+
+    boolean isVolumeFull() {
+        SimulatedVolume current = volume;
+        return current != null && current.isFull();
+    }
+
+    CoverageTracker getCoverageTracker() {
+        return coverage;
+    }
+
+    public int getLiveSessionCount() {
+        return liveSessions.size();
+    }
+
+    Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    FailurePlan getPlan() {
+        return plan;
+    }
+
+    public SimulationStats getStats() {
+        return stats;
+    }
+}
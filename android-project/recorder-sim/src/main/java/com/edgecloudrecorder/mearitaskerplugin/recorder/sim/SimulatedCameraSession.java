@@ -0,0 +1,388 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.sim;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.Scheduler;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.sim.CoverageTracker.Cause;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraDescriptor;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraSession;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Virtual camera: answers after a simulated latency, writes a synthetic H.264 stream
+ * while recording (and hands it to the frame listener while previewing) and injects the
+ * failures of its {@link FailurePlan}. All state is touched on the scheduler thread only.
+ */
+class SimulatedCameraSession implements CameraSession {
+    private static final int TICKS_PER_SECOND = 4;
+    private static final int FPS = 20;
+    private static final int GOP_FRAMES = 40;
+
+    private final CameraDescriptor camera;
+    private final SimulatedBackend backend;
+    private final Scheduler scheduler;
+    private final FailurePlan plan;
+    private final SimulationStats stats;
+    private final Random random;
+    private final CoverageTracker coverage;
+    private final boolean proxy;
+
+    private volatile boolean connected;
+    private boolean previewing;
+    private boolean released;
+    private SyntheticH264Stream stream;
+    private StreamListener streamListener;
+    private OutputStream out;
+    private RecordListener recordListener;
+    private long stalledUntilMs;
+    private int frameCredit;
+    private long previewFrames;
+    // Set from the engine's worker thread
+    private volatile FrameListener frameListener;
+    private final FrameBuffer frame = new FrameBuffer();
+
+    private final Runnable pump = this::pump;
+    private final Runnable interruptEvent = () -> inject(FailurePlan.Event.INTERRUPT);
+    private final Runnable closedEvent = () -> inject(FailurePlan.Event.CLOSED);
+    private final Runnable stallEvent = () -> inject(FailurePlan.Event.STALL);
+
+    /**
+     * @param proxy a camera's second (proxy) session
+     */
+    SimulatedCameraSession(CameraDescriptor camera, SimulatedBackend backend, long seed, boolean proxy) {
+        this.camera = camera;
+        this.proxy = proxy;
+        this.backend = backend;
+        this.scheduler = backend.getScheduler();
+        this.plan = backend.getPlan();
+        this.stats = backend.getStats();
+        this.random = new Random(seed);
+        this.coverage = proxy ? null : backend.getCoverageTracker();
+    }
+
+    @Override
+    public CameraDescriptor getCamera() {
+        return camera;
+    }
+
+    /**
+     * @return the backend's key for this session and its surface
+     */
+    String getKey() {
+        return proxy ? camera.getDeviceId() + SimulatedBackend.PROXY_KEY : camera.getDeviceId();
+    }
+
+    @Override
+    public void connect(final Callback callback) {
+        reply(callback, plan.connectFailRate, "simulated connect failure", () -> {
+            if (!backend.isLoggedIn()) {
+                throw new IllegalStateException("not logged in");
+            }
+            stats.connects.incrementAndGet();
+            connected = true;
+            scheduleRandom(closedEvent, plan.closedEverySeconds);
+            scheduleRandom(stallEvent, plan.stallEverySeconds);
+        }, stats.connectFailures);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public void disconnect(Callback callback) {
+        scheduler.post(() -> {
+            closeStream(Cause.RECONNECT);
+            connected = false;
+            scheduler.cancel(closedEvent);
+            scheduler.cancel(stallEvent);
+            callback.onSuccess("disconnected");
+        });
+    }
+
+    @Override
+    public void startPreview(final int streamId, final Callback callback, final StreamListener listener) {
+        if (!connected) {
+            scheduler.post(() -> callback.onFailed("not connected"));
+            return;
+        }
+        backend.acquireSurface(this);
+        reply(callback, plan.previewFailRate, "simulated preview failure", () -> {
+            stream = new SyntheticH264Stream(SimulatedBackend.bitrateFor(streamId), FPS, GOP_FRAMES, random.nextLong());
+            streamListener = listener;
+            previewing = true;
+            previewFrames = 0;
+            scheduler.cancel(pump);
+            scheduler.postDelayed(pump, 1000 / TICKS_PER_SECOND);
+        }, stats.previewFailures);
+    }
+
+    @Override
+    public void stopPreview(Callback callback) {
+        scheduler.post(() -> {
+            closeStream(Cause.RECONNECT);
+            callback.onSuccess("preview stopped");
+        });
+    }
+
+    @Override
+    public void startRecording(final String path, final Callback callback, final RecordListener listener) {
+        reply(callback, plan.recordFailRate, "simulated record failure", () -> {
+            if (!previewing) {
+                throw new IllegalStateException("preview not running");
+            }
+            if (backend.isVolumeFull()) {
+                throw new IllegalStateException("No space left on device");
+            }
+            closeFile(Cause.ROTATION);
+            out = backend.openSegment(path, stream.getFps());
+            recordListener = listener;
+            stream.reset();
+            stats.segments.incrementAndGet();
+            if (coverage != null) coverage.segmentOpened(camera.getDeviceId(), path);
+            scheduleRandom(interruptEvent, plan.interruptEverySeconds);
+        }, stats.recordFailures);
+    }
+
+    @Override
+    public void stopRecording(Callback callback) {
+        scheduler.post(() -> {
+            closeFile(Cause.ROTATION);
+            callback.onSuccess("record stopped");
+        });
+    }
+
+    @Override
+    public void snapshot(final String path, final Callback callback) {
+        reply(callback, plan.recordFailRate, "simulated snapshot failure", () -> {
+            if (!previewing) {
+                throw new IllegalStateException("preview not running");
+            }
+            int size = stream.getKeyframeBytes();
+            try (OutputStream jpeg = backend.openOutput(path)) {
+                writeSyntheticJpeg(jpeg, size);
+            } catch (IOException e) {
+                stats.writeErrors.incrementAndGet();
+                throw new IllegalStateException("cannot write " + path + ": " + e.getMessage());
+            }
+            stats.snapshots.incrementAndGet();
+            stats.snapshotBytes.addAndGet(size);
+        }, stats.recordFailures);
+    }
+
+    @Override
+    public boolean setFrameListener(FrameListener listener) {
+        frameListener = listener;
+        return true;
+    }
+
+    /**
+     * SOI, a JFIF APP0 header, filler and EOI: enough for file-type sniffing, not decodable
+     */
+    static void writeSyntheticJpeg(OutputStream out, int size) throws IOException {
+        byte[] header = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0, 16,
+                'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0};
+        out.write(header);
+        out.write(new byte[Math.max(0, size - header.length - 2)]);
+        out.write(new byte[]{(byte) 0xFF, (byte) 0xD9});
+    }
+
+    @Override
+    public void release() {
+        backend.onReleased(this);
+        scheduler.post(() -> {
+            released = true;
+            closeStream(Cause.RECONNECT);
+            connected = false;
+            scheduler.cancel(closedEvent);
+            scheduler.cancel(stallEvent);
+        });
+    }
+
+    /**
+     * Inject a failure now (random timers and scripted events)
+     */
+    void inject(FailurePlan.Event event) {
+        if (released) {
+            return;
+        }
+        switch (event) {
+            case INTERRUPT:
+                if (out != null) {
+                    stats.interrupts.incrementAndGet();
+                    RecordListener listener = recordListener;
+                    closeFile(Cause.INTERRUPT);
+                    listener.onRecordInterrupted(-1);
+                }
+                break;
+            case CLOSED:
+                if (connected) {
+                    stats.videoClosed.incrementAndGet();
+                    RecordListener listener = out != null ? recordListener : null;
+                    StreamListener closed = streamListener;
+                    closeStream(Cause.RECONNECT);
+                    connected = false;
+                    if (closed != null) closed.onVideoClosed(-1);
+                    if (listener != null) listener.onRecordInterrupted(-2);
+                }
+                scheduleRandom(closedEvent, plan.closedEverySeconds);
+                break;
+            case STALL:
+                if (previewing) {
+                    stats.stalls.incrementAndGet();
+                    stalledUntilMs = backend.now() + plan.stallSeconds * 1000;
+                }
+                scheduleRandom(stallEvent, plan.stallEverySeconds);
+                break;
+            case KICK:
+                // Half dead: still connected, no more frames
+                stalledUntilMs = Long.MAX_VALUE;
+                break;
+        }
+    }
+
+    /**
+     * Answer after the simulated latency: fail with the given probability, hang with the
+     * plan's hang rate, otherwise run the action and succeed
+     */
+    private void reply(final Callback callback, final double failRate, final String error,
+                       final Runnable action, final AtomicLong failures) {
+        scheduler.postDelayed(() -> {
+            if (released) {
+                callback.onFailed("released");
+                return;
+            }
+            if (random.nextDouble() < plan.hangRate) {
+                stats.hangs.incrementAndGet();
+                return;
+            }
+            if (random.nextDouble() < failRate) {
+                failures.incrementAndGet();
+                callback.onFailed(error);
+                return;
+            }
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                failures.incrementAndGet();
+                callback.onFailed(e.getMessage());
+                return;
+            }
+            callback.onSuccess("ok");
+        }, latency());
+    }
+
+    private void pump() {
+        if (!previewing) {
+            return;
+        }
+        scheduler.postDelayed(pump, 1000 / TICKS_PER_SECOND);
+        if (backend.now() < stalledUntilMs) {
+            return;
+        }
+        frameCredit += stream.getFps();
+        int written = 0;
+        while (frameCredit >= TICKS_PER_SECOND) {
+            frameCredit -= TICKS_PER_SECOND;
+            long ptsMs = previewFrames++ * 1000 / stream.getFps();
+            FrameListener tap = frameListener;
+            if (out == null && tap == null) {
+                continue;
+            }
+            boolean keyframe = stream.isNextKeyframe();
+            if (tap != null) {
+                // One buffer for the tap and the file
+                frame.reset();
+                try {
+                    stream.writeFrame(frame);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                long tapNanos = System.nanoTime();
+                tap.onFrame(ptsMs, keyframe, frame.array(), 0, frame.size());
+                stats.tapMicros.record((System.nanoTime() - tapNanos) / 1000);
+            }
+            if (out == null) {
+                continue;
+            }
+            try {
+                long startNanos = System.nanoTime();
+                if (tap != null) {
+                    out.write(frame.array(), 0, frame.size());
+                    stats.bytes.addAndGet(frame.size());
+                } else {
+                    stats.bytes.addAndGet(stream.writeFrame(out));
+                }
+                if (out instanceof SyntheticMp4Output) {
+                    ((SyntheticMp4Output) out).endSample(keyframe);
+                }
+                stats.writeMicros.record((System.nanoTime() - startNanos) / 1000);
+                stats.frames.incrementAndGet();
+                written++;
+            } catch (IOException e) {
+                stats.writeErrors.incrementAndGet();
+                RecordListener listener = recordListener;
+                closeFile(Cause.WRITE_ERROR);
+                listener.onRecordInterrupted(-3);
+                return;
+            }
+        }
+        if (written > 0 && coverage != null) {
+            coverage.framesWritten(camera.getDeviceId(), backend.now(), written);
+        }
+    }
+
+    /**
+     * Byte stream whose buffer can be handed out without a copy
+     */
+    private static final class FrameBuffer extends ByteArrayOutputStream {
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    private void scheduleRandom(Runnable event, long meanSeconds) {
+        scheduler.cancel(event);
+        if (meanSeconds > 0) {
+            double delay = -Math.log(1 - random.nextDouble()) * meanSeconds * 1000;
+            scheduler.postDelayed(event, (long) delay);
+        }
+    }
+
+    private long latency() {
+        // Between half and one and a half times the nominal latency
+        return plan.latencyMs / 2 + (long) (random.nextDouble() * plan.latencyMs);
+    }
+
+    private void closeStream(Cause cause) {
+        closeFile(cause);
+        if (previewing && coverage != null) {
+            coverage.streamLost(camera.getDeviceId(), cause);
+        }
+        previewing = false;
+        scheduler.cancel(pump);
+    }
+
+    /**
+     * @param cause blamed for the footage gap that follows, when coverage is tracked
+     */
+    private void closeFile(Cause cause) {
+        scheduler.cancel(interruptEvent);
+        if (out != null) {
+            try {
+                long startNanos = System.nanoTime();
+                out.close();
+                stats.closeMicros.record((System.nanoTime() - startNanos) / 1000);
+            } catch (IOException e) {
+                stats.writeErrors.incrementAndGet();
+            }
+            out = null;
+            if (coverage != null) coverage.segmentClosed(camera.getDeviceId(), cause);
+        }
+        recordListener = null;
+    }
+}
@@ -0,0 +1,277 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.sim;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local stand-in for MinIO: the S3 multipart calls the uploader makes, over real HTTP on
+ * a loopback port, keeping only sizes, part checksums and the x-amz-meta-sha256 metadata
+ * (the bytes are counted, not stored). Requires a SigV4 Authorization header for the expected access key; with
+ * {@code failRate} > 0 that fraction of part uploads fails with a 500 after the body was
+ * sent, to exercise retries and resumption.
+ */
+final class SimulatedObjectStore {
+    private static final Pattern PART_ETAG = Pattern.compile("<ETag>([^<]+)</ETag>");
+
+    private static final class Upload {
+        final String key;
+        final String sha256;
+        final Map<Integer, String> etags = new ConcurrentHashMap<>();
+        final Map<Integer, Long> sizes = new ConcurrentHashMap<>();
+
+        Upload(String key, String sha256) {
+            this.key = key;
+            this.sha256 = sha256;
+        }
+    }
+
+    private final HttpServer server;
+    private final String bucket;
+    private final String accessKey;
+    private final double failRate;
+    private final Random random;
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+    private final Map<String, Long> objects = new ConcurrentHashMap<>();
+    private final Map<String, String> checksums = new ConcurrentHashMap<>();
+    private final AtomicInteger ids = new AtomicInteger();
+    private final AtomicInteger parts = new AtomicInteger();
+    private final AtomicInteger injected = new AtomicInteger();
+    private final AtomicInteger rejected = new AtomicInteger();
+    private final AtomicLong receivedBytes = new AtomicLong();
+
+    SimulatedObjectStore(String bucket, String accessKey, double failRate, long seed) throws IOException {
+        this.bucket = bucket;
+        this.accessKey = accessKey;
+        this.failRate = failRate;
+        this.random = new Random(seed);
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    String getEndpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+
+    /**
+     * @return the stored object's size, -1 if absent
+     */
+    long size(String key) {
+        Long size = objects.get(key);
+        return size != null ? size : -1;
+    }
+
+    /**
+     * @return the SHA-256 the object was uploaded with, null if none or absent
+     */
+    String sha256(String key) {
+        return checksums.get(key);
+    }
+
+    String summary() {
+        long bytes = 0;
+        for (long size : objects.values()) {
+            bytes += size;
+        }
+        return String.format(Locale.US, "store: %d objects/%.1fMB, %d parts received (%.1fMB), %d failures injected,"
+                        + " %d unsigned requests, %d uploads left open",
+                objects.size(), bytes / 1048576.0, parts.get(), receivedBytes.get() / 1048576.0,
+                injected.get(), rejected.get(), uploads.size());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            if (authorization == null || !authorization.startsWith("AWS4-HMAC-SHA256 Credential=" + accessKey + "/")
+                    || exchange.getRequestHeaders().getFirst("x-amz-date") == null) {
+                rejected.incrementAndGet();
+                drain(exchange.getRequestBody(), null);
+                error(exchange, 403, "AccessDenied");
+                return;
+            }
+            String path = exchange.getRequestURI().getRawPath();
+            String prefix = "/" + bucket + "/";
+            if (!path.startsWith(prefix)) {
+                error(exchange, 404, "NoSuchBucket");
+                return;
+            }
+            String key = URLDecoder.decode(path.substring(prefix.length()), "UTF-8");
+            Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+            String method = exchange.getRequestMethod();
+            if ("POST".equals(method) && query.containsKey("uploads")) {
+                drain(exchange.getRequestBody(), null);
+                String id = "sim-" + ids.incrementAndGet();
+                uploads.put(id, new Upload(key, exchange.getRequestHeaders().getFirst("x-amz-meta-sha256")));
+                respond(exchange, 200, "<InitiateMultipartUploadResult><Bucket>" + bucket + "</Bucket><Key>" + key
+                        + "</Key><UploadId>" + id + "</UploadId></InitiateMultipartUploadResult>");
+            } else if ("PUT".equals(method) && query.containsKey("uploadId")) {
+                part(exchange, key, query);
+            } else if ("POST".equals(method) && query.containsKey("uploadId")) {
+                complete(exchange, key, query.get("uploadId"));
+            } else if ("DELETE".equals(method) && query.containsKey("uploadId")) {
+                uploads.remove(query.get("uploadId"));
+                exchange.sendResponseHeaders(204, -1);
+            } else if ("HEAD".equals(method)) {
+                Long size = objects.get(key);
+                if (size == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                } else {
+                    exchange.getResponseHeaders().set("Content-Length", Long.toString(size));
+                    String sha256 = checksums.get(key);
+                    if (sha256 != null) {
+                        exchange.getResponseHeaders().set("x-amz-meta-sha256", sha256);
+                    }
+                    exchange.sendResponseHeaders(200, -1);
+                }
+            } else {
+                drain(exchange.getRequestBody(), null);
+                error(exchange, 501, "NotImplemented");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void part(HttpExchange exchange, String key, Map<String, String> query) throws IOException {
+        Upload upload = uploads.get(query.get("uploadId"));
+        MessageDigest md5 = md5();
+        long size = drain(exchange.getRequestBody(), md5);
+        receivedBytes.addAndGet(size);
+        if (upload == null || !upload.key.equals(key)) {
+            error(exchange, 404, "NoSuchUpload");
+            return;
+        }
+        boolean fail;
+        synchronized (random) {
+            fail = random.nextDouble() < failRate;
+        }
+        if (fail) {
+            injected.incrementAndGet();
+            error(exchange, 500, "InternalError");
+            return;
+        }
+        int number = Integer.parseInt(query.get("partNumber"));
+        String etag = "\"" + hex(md5.digest()) + "\"";
+        upload.etags.put(number, etag);
+        upload.sizes.put(number, size);
+        parts.incrementAndGet();
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.sendResponseHeaders(200, -1);
+    }
+
+    private void complete(HttpExchange exchange, String key, String id) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        InputStream in = exchange.getRequestBody();
+        byte[] buffer = new byte[4096];
+        for (int read; (read = in.read(buffer)) > 0; ) {
+            body.write(buffer, 0, read);
+        }
+        Upload upload = uploads.get(id);
+        if (upload == null || !upload.key.equals(key)) {
+            error(exchange, 404, "NoSuchUpload");
+            return;
+        }
+        List<String> listed = new ArrayList<>();
+        Matcher m = PART_ETAG.matcher(body.toString("UTF-8").replace("&quot;", "\""));
+        while (m.find()) {
+            listed.add(m.group(1));
+        }
+        long size = 0;
+        for (int i = 0; i < listed.size(); i++) {
+            if (!listed.get(i).equals(upload.etags.get(i + 1))) {
+                error(exchange, 400, "InvalidPart");
+                return;
+            }
+            size += upload.sizes.get(i + 1);
+        }
+        uploads.remove(id);
+        objects.put(key, size);
+        if (upload.sha256 != null) {
+            checksums.put(key, upload.sha256);
+        } else {
+            checksums.remove(key);
+        }
+        respond(exchange, 200, "<CompleteMultipartUploadResult><Key>" + key + "</Key></CompleteMultipartUploadResult>");
+    }
+
+    private static long drain(InputStream in, MessageDigest digest) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long total = 0;
+        for (int read; (read = in.read(buffer)) > 0; ) {
+            if (digest != null) {
+                digest.update(buffer, 0, read);
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private static void error(HttpExchange exchange, int status, String code) throws IOException {
+        respond(exchange, status, "<Error><Code>" + code + "</Code></Error>");
+    }
+
+    private static void respond(HttpExchange exchange, int status, String xml) throws IOException {
+        byte[] body = xml.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static Map<String, String> query(String raw) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        if (raw == null) {
+            return params;
+        }
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            params.put(URLDecoder.decode(eq >= 0 ? pair.substring(0, eq) : pair, "UTF-8"),
+                    eq >= 0 ? URLDecoder.decode(pair.substring(eq + 1), "UTF-8") : "");
+        }
+        return params;
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format(Locale.US, "%02x", b));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,77 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.sim;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.DiskMonitor;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.RecorderClock;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Recording volume whose free space follows a script over virtual time, for disk-pressure
+ * runs: "0=50000,60=1500,90=300,100=0,130=50000" (minute of the run = free MB, held until
+ * the next entry). Cameras fail to start recording while it is full, like startRecordMP4
+ * on a full /sdcard.
+ */
+public final class SimulatedVolume implements DiskMonitor.Volume {
+    private static final long MB = 1024L * 1024L;
+    // Less than this and the muxer cannot open a file
+    private static final long MIN_RECORD_BYTES = 16 * MB;
+
+    private final TreeMap<Long, Long> freeByMinute = new TreeMap<>();
+    private final long startMs;
+    private final long totalBytes;
+
+    private SimulatedVolume(long startMs, Map<Long, Long> script) {
+        this.startMs = startMs;
+        this.freeByMinute.putAll(script);
+        long total = 0;
+        for (long free : script.values()) {
+            total = Math.max(total, free);
+        }
+        this.totalBytes = total;
+    }
+
+    /**
+     * @throws IllegalArgumentException on a malformed script
+     */
+    public static SimulatedVolume decode(String script, long startMs) {
+        Map<Long, Long> entries = new TreeMap<>();
+        for (String part : script.split(",")) {
+            int eq = part.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Bad volume entry: " + part);
+            }
+            try {
+                entries.put(Long.parseLong(part.substring(0, eq).trim()),
+                        Long.parseLong(part.substring(eq + 1).trim()) * MB);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad volume entry: " + part);
+            }
+        }
+        if (entries.isEmpty()) {
+            throw new IllegalArgumentException("Empty volume script");
+        }
+        return new SimulatedVolume(startMs, entries);
+    }
+
+    @Override
+    public long usableBytes() {
+        long minute = (RecorderClock.currentTimeMillis() - startMs) / 60_000L;
+        Map.Entry<Long, Long> entry = freeByMinute.floorEntry(minute);
+        return entry != null ? entry.getValue() : freeByMinute.firstEntry().getValue();
+    }
+
+    @Override
+    public long totalBytes() {
+        return totalBytes;
+    }
+
+    @Override
+    public long probeWriteMs() {
+        return usableBytes() < MIN_RECORD_BYTES ? -1 : 5;
+    }
+
+    boolean isFull() {
+        return usableBytes() < MIN_RECORD_BYTES;
+    }
+}
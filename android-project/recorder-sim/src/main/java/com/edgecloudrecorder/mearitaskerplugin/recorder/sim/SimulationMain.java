@@ -0,0 +1,376 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.sim;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.CameraProfile;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.CameraRecorder;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.ConfigSnapshot;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.LifecycleMetrics;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.RecorderLogger;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.RecordingEngine;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.SegmentIndex;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.UploadPolicy;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.live.LiveServer;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraBackend;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraDescriptor;
+import com.sun.management.OperatingSystemMXBean;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Load test: runs the real {@link RecordingEngine} against N virtual cameras in real
+ * time, then prints throughput, injected failures and the lifecycle latency report.
+ *
+ * --cameras 100 --minutes 10 --segment-minutes 1 --quality HD --seed 1
+ * --failures "connect_fail=0.1;interrupt_every=300" --output /tmp/sim --discard --verbose
+ * --shard 0/3 (record only this instance's share of the fleet; run one process per shard)
+ * --accounts 3 (split the cameras over three accounts logging in in parallel)
+ * --upload "bucket=sim;access_key=sim;secret_key=sim;mbps=40" --store-fail 0.05 (copy closed
+ *   segments to a local S3 stand-in, failing that fraction of parts; an endpoint uploads there)
+ * --proxy (also record a low-bitrate proxy of every camera's segments)
+ * --staging /data/staging (write open segments there, publish them to --output as they close; must be on its mount)
+ * --live 4 --live-kbps 500 (four local HTTP-FLV viewers per camera, fed from its one session;
+ *   one of them per camera reads no faster than 500 kbit/s)
+ */
+public class SimulationMain {
+    private static final String TAG = "Simulation";
+    private static final long PROGRESS_INTERVAL_MS = 30_000;
+    private static final long UPLOAD_DRAIN_MS = 120_000;
+
+    public static void main(String[] args) throws Exception {
+        int cameras = 20;
+        double minutes = 5;
+        int segmentMinutes = 1;
+        String quality = "HD";
+        long seed = 1;
+        String failures = "";
+        String output = System.getProperty("java.io.tmpdir") + "/recorder-sim";
+        boolean discard = false;
+        boolean verbose = false;
+        int shardIndex = 0;
+        int shardCount = 1;
+        int accounts = 1;
+        UploadPolicy upload = UploadPolicy.DEFAULT;
+        boolean localStore = false;
+        double storeFail = 0;
+        boolean proxy = false;
+        String staging = "";
+        int liveViewers = 0;
+        int liveKbps = 0;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--cameras": cameras = Integer.parseInt(args[++i]); break;
+                case "--minutes": minutes = Double.parseDouble(args[++i]); break;
+                case "--segment-minutes": segmentMinutes = Integer.parseInt(args[++i]); break;
+                case "--quality": quality = args[++i].toUpperCase(Locale.US); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                case "--failures": failures = args[++i]; break;
+                case "--output": output = args[++i]; break;
+                case "--discard": discard = true; break;
+                case "--verbose": verbose = true; break;
+                case "--accounts": accounts = Integer.parseInt(args[++i]); break;
+                case "--upload":
+                    upload = UploadPolicy.decode(args[++i]);
+                    localStore = !upload.isEnabled();
+                    break;
+                case "--store-fail": storeFail = Double.parseDouble(args[++i]); break;
+                case "--proxy": proxy = true; break;
+                case "--staging": staging = args[++i]; break;
+                case "--live": liveViewers = Integer.parseInt(args[++i]); break;
+                case "--live-kbps": liveKbps = Integer.parseInt(args[++i]); break;
+                case "--shard":
+                    String[] shard = args[++i].split("/");
+                    shardIndex = Integer.parseInt(shard[0]);
+                    shardCount = Integer.parseInt(shard[1]);
+                    break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        RecorderLogger logger = RecorderLogger.getInstance();
+        logger.setLevel(verbose ? RecorderLogger.INFO : RecorderLogger.WARN);
+        FailurePlan plan = FailurePlan.decode(failures);
+        File outputDir = new File(output);
+        logger.attachLogDirectory(new File(outputDir, "logs"));
+
+        SimulatedObjectStore store = null;
+        if (localStore) {
+            store = new SimulatedObjectStore(upload.getBucket(), upload.getAccessKey(), storeFail, seed);
+            upload = upload.withEndpoint(store.getEndpoint());
+        }
+
+        ExecutorScheduler scheduler = new ExecutorScheduler("SimMain");
+        ExecutorService worker = Executors.newCachedThreadPool();
+        Map<String, SimulatedBackend> backends = SimulatedBackend.forAccounts(accounts, cameras, 5, plan,
+                scheduler, seed, discard);
+        ConfigSnapshot.Builder builder = SimulatedBackend.withAccounts(new ConfigSnapshot.Builder(), backends);
+        if (proxy) {
+            for (SimulatedBackend account : backends.values()) {
+                for (CameraDescriptor camera : account.getCameras()) {
+                    builder.putProfile(new CameraProfile(camera.getDeviceId(), null, 0, 0, 0, true,
+                            Collections.<CameraProfile.Window>emptyList()));
+                }
+            }
+        }
+        ConfigSnapshot config = builder
+                .setVersion(1)
+                .setDurationMinutes(segmentMinutes)
+                .setVideoQuality(quality)
+                .setShard(shardIndex, shardCount)
+                .setUploadPolicy(upload)
+                .setStagingPath(staging.isEmpty() || staging.endsWith("/") ? staging : staging + "/")
+                .build();
+        SimulatedBackend backend = backends.values().iterator().next();
+        RecordingEngine engine = new RecordingEngine(new LinkedHashMap<String, CameraBackend>(backends),
+                () -> config, scheduler, worker, outputDir.getAbsolutePath() + "/", status -> logger.info(TAG, status));
+        for (Map.Entry<String, SimulatedBackend> account : backends.entrySet()) {
+            final String name = account.getKey();
+            account.getValue().addSessionListener(reason -> engine.onSessionLost(name, reason, true));
+        }
+
+        OperatingSystemMXBean os = (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        long startCpuNanos = os.getProcessCpuTime();
+        System.out.printf(Locale.US, "Simulating %d cameras on %d account(s) (shard %d/%d) for %.1f min, %d min segments, %s, failures: %s%n",
+                cameras, accounts, shardIndex, shardCount, minutes, segmentMinutes, quality, plan);
+        long startMs = System.currentTimeMillis();
+        long endMs = startMs + (long) (minutes * 60_000);
+        scheduler.post(engine::start);
+        for (SimulatedBackend account : backends.values()) {
+            scheduler.post(account::startScript);
+        }
+        LiveServer liveServer = null;
+        List<LiveViewer> viewers = new ArrayList<>();
+        if (liveViewers > 0) {
+            liveServer = new LiveServer("", 0, "", engine.getLive());
+            liveServer.start();
+            for (SimulatedBackend account : backends.values()) {
+                for (CameraDescriptor camera : account.getCameras()) {
+                    for (int v = 0; v < liveViewers; v++) {
+                        LiveViewer viewer = new LiveViewer("http://127.0.0.1:" + liveServer.getPort() + "/live/"
+                                + camera.getDeviceId() + ".flv", v == liveViewers - 1 ? liveKbps : 0);
+                        viewers.add(viewer);
+                        Thread thread = new Thread(viewer, "viewer-" + camera.getDeviceId() + "-" + v);
+                        thread.setDaemon(true);
+                        thread.start();
+                    }
+                }
+            }
+        }
+        int maxSessions = 0;
+
+        SimulationStats stats = backend.getStats();
+        long lastBytes = 0;
+        long lastMs = startMs;
+        while (System.currentTimeMillis() < endMs) {
+            Thread.sleep(Math.min(PROGRESS_INTERVAL_MS, Math.max(1, endMs - System.currentTimeMillis())));
+            long now = System.currentTimeMillis();
+            long bytes = stats.getBytes();
+            System.out.printf(Locale.US, "[%4ds] recording %d/%d, segments %d, %.1f MB/s%s%n",
+                    (now - startMs) / 1000, countRecording(engine), engine.getCameras().size(), stats.getSegments(),
+                    (bytes - lastBytes) / 1048576.0 / Math.max(0.001, (now - lastMs) / 1000.0),
+                    upload.isEnabled() ? String.format(Locale.US, ", uploaded %d (%d queued)",
+                            engine.getUploader().getUploaded(), engine.getUploader().getQueued()) : "");
+            lastBytes = bytes;
+            lastMs = now;
+            int openSessions = 0;
+            for (SimulatedBackend account : backends.values()) {
+                openSessions += account.getLiveSessionCount();
+            }
+            maxSessions = Math.max(maxSessions, openSessions);
+        }
+        String liveSummary = liveViewers > 0 ? liveSummary(engine, viewers, maxSessions) : "";
+        for (LiveViewer viewer : viewers) {
+            viewer.stop();
+        }
+        if (liveServer != null) {
+            liveServer.stop();
+        }
+
+        if (upload.isEnabled() && !engine.getUploader().awaitIdle(UPLOAD_DRAIN_MS)) {
+            System.out.println("Uploads did not drain within " + UPLOAD_DRAIN_MS / 1000 + " s");
+        }
+        String uploadSummary = engine.getUploader().summary();
+        scheduler.post(engine::shutdown);
+        Thread.sleep(plan.latencyMs * 2 + 500);
+        double seconds = (System.currentTimeMillis() - startMs) / 1000.0;
+
+        System.out.println();
+        System.out.println("=== Simulation summary ===");
+        System.out.println(stats.summary());
+        System.out.printf(Locale.US, "throughput: %.2f MB/s over %.0f s%n", stats.getBytes() / 1048576.0 / seconds, seconds);
+        double cpuSeconds = (os.getProcessCpuTime() - startCpuNanos) / 1e9;
+        System.out.printf(Locale.US, "cpu: %.1f s (%.1f%% of one core), %.1f ms per MB written%s%n", cpuSeconds,
+                100 * cpuSeconds / seconds, 1000 * cpuSeconds / Math.max(0.001, stats.getBytes() / 1048576.0),
+                staging.isEmpty() ? "" : ", staged in " + staging);
+        System.out.println();
+        System.out.println(LifecycleMetrics.getInstance().dump());
+        if (proxy) {
+            System.out.println(proxySummary(outputDir));
+        }
+        if (liveViewers > 0) {
+            System.out.print(liveSummary);
+        }
+        if (upload.isEnabled()) {
+            System.out.print(uploadSummary);
+        }
+        if (store != null) {
+            System.out.println(store.summary());
+            System.out.println(verifyUploads(outputDir, upload, store));
+            store.stop();
+        }
+
+        worker.shutdownNow();
+        scheduler.shutdown();
+    }
+
+    /**
+     * Compare every segment on disk with its object, and the checksum in its index and the
+     * store with one computed here; the ones closed by the final shutdown are still queued
+     * (journaled for the next run)
+     */
+    private static String verifyUploads(File outputDir, UploadPolicy upload, SimulatedObjectStore store) {
+        int segments = 0;
+        int matched = 0;
+        int wrongSize = 0;
+        int wrongSum = 0;
+        File[] dirs = outputDir.listFiles(File::isDirectory);
+        for (File dir : dirs != null ? dirs : new File[0]) {
+            File[] files = dir.listFiles((d, name) -> name.endsWith(".mp4"));
+            File[] proxies = new File(dir, CameraRecorder.PROXY_DIR).listFiles((d, name) -> name.endsWith(".mp4"));
+            List<File> all = new ArrayList<>();
+            Collections.addAll(all, files != null ? files : new File[0]);
+            Collections.addAll(all, proxies != null ? proxies : new File[0]);
+            for (File file : all) {
+                segments++;
+                String key = upload.getPrefix() + dir.getName() + "/"
+                        + (CameraRecorder.isProxy(file) ? CameraRecorder.PROXY_DIR + "/" : "") + file.getName();
+                long size = store.size(key);
+                if (size < 0) {
+                    continue;
+                }
+                if (size != file.length()) {
+                    wrongSize++;
+                    continue;
+                }
+                String sha256 = sha256(file);
+                String indexed;
+                try {
+                    indexed = SegmentIndex.load(file).sha256Hex();
+                } catch (IOException e) {
+                    indexed = null;
+                }
+                if (sha256 != null && sha256.equals(indexed) && sha256.equals(store.sha256(key))) {
+                    matched++;
+                } else {
+                    wrongSum++;
+                }
+            }
+        }
+        return String.format(Locale.US, "verified: %d of %d segment files stored with their size and checksum,"
+                + " %d with a wrong size, %d with a wrong checksum", matched, segments, wrongSize, wrongSum);
+    }
+
+    /**
+     * What the viewers received, against what the cameras' sessions delivered once
+     */
+    private static String liveSummary(RecordingEngine engine, List<LiveViewer> viewers, int maxSessions) {
+        long frames = 0;
+        long keyframes = 0;
+        long bytes = 0;
+        long connects = 0;
+        long errors = 0;
+        String lastError = "";
+        for (LiveViewer viewer : viewers) {
+            frames += viewer.frames.get();
+            keyframes += viewer.keyframes.get();
+            bytes += viewer.bytes.get();
+            connects += viewer.connects.get();
+            errors += viewer.errors.get();
+            if (viewer.errors.get() > 0) {
+                lastError = viewer.lastError;
+            }
+        }
+        return engine.getLive().summary() + String.format(Locale.US,
+                "viewers: %d for %d cameras, %d connects, %d frames (%d keyframes), %.1fMB, %d stream errors%s%n"
+                        + "camera sessions open: at most %d%n",
+                viewers.size(), engine.getCameras().size(), connects, frames, keyframes, bytes / 1048576.0, errors,
+                lastError.isEmpty() ? "" : " (" + lastError + ")", maxSessions);
+    }
+
+    /**
+     * Proxies against their masters: how many, how much smaller, and how far their
+     * durations differ (the cut points should match)
+     */
+    private static String proxySummary(File outputDir) {
+        int masters = 0;
+        int proxies = 0;
+        int compared = 0;
+        long masterBytes = 0;
+        long proxyBytes = 0;
+        long maxSkewMs = 0;
+        File[] dirs = outputDir.listFiles(File::isDirectory);
+        for (File dir : dirs != null ? dirs : new File[0]) {
+            File[] files = dir.listFiles((d, name) -> name.endsWith(".mp4"));
+            for (File master : files != null ? files : new File[0]) {
+                masters++;
+                File proxy = new File(CameraRecorder.proxyOf(master.getPath()));
+                if (!proxy.isFile()) {
+                    continue;
+                }
+                proxies++;
+                masterBytes += master.length();
+                proxyBytes += proxy.length();
+                try {
+                    long skewUs = Math.abs(SegmentIndex.load(master).durationUs() - SegmentIndex.load(proxy).durationUs());
+                    maxSkewMs = Math.max(maxSkewMs, skewUs / 1000);
+                    compared++;
+                } catch (IOException e) {
+                    // Not indexable (cut short at shutdown): sizes only
+                }
+            }
+        }
+        return String.format(Locale.US, "proxies: %d of %d segments, %.1f%% of their bytes, %d compared,"
+                        + " max duration difference %d ms", proxies, masters,
+                masterBytes > 0 ? 100.0 * proxyBytes / masterBytes : 0, compared, maxSkewMs);
+    }
+
+    private static String sha256(File file) {
+        try (InputStream in = new FileInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            for (int read; (read = in.read(buffer)) > 0; ) {
+                digest.update(buffer, 0, read);
+            }
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(String.format(Locale.US, "%02x", b));
+            }
+            return sb.toString();
+        } catch (IOException | NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    private static int countRecording(RecordingEngine engine) {
+        int recording = 0;
+        for (CameraRecorder recorder : engine.getCameras()) {
+            if (recorder.isRecording()) recording++;
+        }
+        return recording;
+    }
+}
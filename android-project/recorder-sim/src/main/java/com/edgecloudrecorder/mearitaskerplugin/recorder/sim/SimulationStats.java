@@ -0,0 +1,58 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.sim;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.LatencyHistogram;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters shared by all simulated cameras
+ */
+public class SimulationStats {
+    final AtomicLong connects = new AtomicLong();
+    final AtomicLong connectFailures = new AtomicLong();
+    final AtomicLong previewFailures = new AtomicLong();
+    final AtomicLong recordFailures = new AtomicLong();
+    final AtomicLong hangs = new AtomicLong();
+    final AtomicLong segments = new AtomicLong();
+    final AtomicLong frames = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+    final AtomicLong interrupts = new AtomicLong();
+    final AtomicLong videoClosed = new AtomicLong();
+    final AtomicLong stalls = new AtomicLong();
+    final AtomicLong kicks = new AtomicLong();
+    final AtomicLong loginFailures = new AtomicLong();
+    final AtomicLong writeErrors = new AtomicLong();
+    final AtomicLong snapshots = new AtomicLong();
+    final AtomicLong snapshotBytes = new AtomicLong();
+    // Time to hand one frame to the segment writer, and to close a segment (microseconds)
+    final LatencyHistogram writeMicros = new LatencyHistogram();
+    final LatencyHistogram closeMicros = new LatencyHistogram();
+    // Time to hand one frame to the live fan-out, whatever the number of consumers
+    final LatencyHistogram tapMicros = new LatencyHistogram();
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getSegments() {
+        return segments.get();
+    }
+
+    public String summary() {
+        return String.format(Locale.US,
+                "connects=%d connect_fail=%d preview_fail=%d record_fail=%d login_fail=%d hangs=%d%n"
+                        + "segments=%d frames=%d bytes=%.1fMB write_errors=%d%n"
+                        + "snapshots=%d snapshot_bytes=%.1fMB%n"
+                        + "frame write (us): %s%n"
+                        + "segment close (us): %s%n"
+                        + "live tap (us): %s%n"
+                        + "injected: interrupts=%d video_closed=%d stalls=%d kicks=%d",
+                connects.get(), connectFailures.get(), previewFailures.get(), recordFailures.get(),
+                loginFailures.get(), hangs.get(),
+                segments.get(), frames.get(), bytes.get() / 1048576.0, writeErrors.get(),
+                snapshots.get(), snapshotBytes.get() / 1048576.0,
+                writeMicros.summary(), closeMicros.summary(), tapMicros.summary(),
+                interrupts.get(), videoClosed.get(), stalls.get(), kicks.get());
+    }
+}
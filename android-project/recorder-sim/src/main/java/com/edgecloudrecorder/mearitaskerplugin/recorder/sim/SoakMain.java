@@ -0,0 +1,468 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.sim;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.BandwidthBudget;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.BatteryPolicy;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.CameraProfile;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.CameraRecorder;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.ConfigSnapshot;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.DiskMonitor;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.DiskPolicy;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.LifecycleMetrics;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.RecorderClock;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.RecorderLogger;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.ResourceManager;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.RecordingEngine;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.ShardRing;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraBackend;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.session.CameraDescriptor;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Soak test: runs the real {@link RecordingEngine} against virtual cameras for hours of
+ * virtual time (as fast as the CPU allows), sampling heap, threads and live sessions,
+ * then reports footage gaps by cause, lost segments and per-camera coverage.
+ * Exits with 1 when a camera ends stuck or below --min-coverage.
+ * With --shards N the fleet is split across N engines (recorder instances) sharing the
+ * cameras; --add-shard-at-hours H starts one more instance at H and re-shards the others.
+ * --accounts N splits the cameras over N accounts, each logging in and listing on its own.
+ * --memory-budget-mb M admits cameras only while their estimated stream memory fits in M.
+ * After shutdown every session and surface must have been released (exit 1 otherwise).
+ * Every 5th camera is battery powered and recorded by --battery-policy ("always" or the
+ * encoded {@link BatteryPolicy}); duty-cycled ones are left out of the stuck and coverage
+ * checks and reported apart. --wake-every S sends a wake event to a random one every S s.
+ * --bandwidth-mbps B caps total ingest; peak sampled ingest is reported against it.
+ * --disk "minute=free_mb,..." scripts the free space of the recording volume (recording
+ * starts fail while it is full) under --disk-policy; --priority-every N makes every Nth
+ * camera priority 1, so it keeps recording when the others are shed.
+ *
+ * --cameras 50 --hours 24 --segment-minutes 1 --quality HD --seed 1 --sample-minutes 30
+ * --failures "interrupt_every=1800;closed_every=3600" --gap-threshold-ms 1000
+ * --stuck-minutes 10 --min-coverage 0.95 --shards 3 --add-shard-at-hours 2 --accounts 2
+ * --memory-budget-mb 1024 --bandwidth-mbps 40 --battery-policy "every=30;clip=60" --wake-every 600
+ * --disk "0=50000,60=1500,90=300,100=0,130=50000" --disk-policy "reserve=2048;critical=512" --priority-every 4
+ * --output /tmp/soak --verbose
+ */
+public class SoakMain {
+    private static final String TAG = "Soak";
+    private static final String DEFAULT_FAILURES = "connect_fail=0.05;preview_fail=0.02;record_fail=0.02;"
+            + "interrupt_every=3600;closed_every=7200;stall_every=3600;stall_seconds=20";
+    private static final int WORST_CAMERAS = 10;
+
+    private static final class Sample {
+        final long virtualMs;
+        final long heapBytes;
+        final int threads;
+        final int liveSessions;
+        final int recording;
+        final int queued;
+        final long ingestKbps;
+
+        Sample(long virtualMs, long heapBytes, int threads, int liveSessions, int recording, int queued,
+               long ingestKbps) {
+            this.virtualMs = virtualMs;
+            this.heapBytes = heapBytes;
+            this.threads = threads;
+            this.liveSessions = liveSessions;
+            this.recording = recording;
+            this.queued = queued;
+            this.ingestKbps = ingestKbps;
+        }
+    }
+
+    public static void main(String[] args) {
+        int cameras = 50;
+        double hours = 4;
+        int segmentMinutes = 1;
+        String quality = "HD";
+        long seed = 1;
+        String failures = DEFAULT_FAILURES;
+        int sampleMinutes = 15;
+        long gapThresholdMs = 1000;
+        int stuckMinutes = 10;
+        double minCoverage = 0;
+        String output = System.getProperty("java.io.tmpdir") + "/recorder-soak";
+        boolean verbose = false;
+        int shards = 1;
+        double addShardAtHours = -1;
+        int accounts = 1;
+        int memoryBudgetMb = 0;
+        BatteryPolicy batteryPolicy = BatteryPolicy.DEFAULT;
+        int wakeEverySeconds = 0;
+        int bandwidthMbps = 0;
+        String diskScript = null;
+        DiskPolicy diskPolicy = DiskPolicy.DEFAULT;
+        int priorityEvery = 0;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--cameras": cameras = Integer.parseInt(args[++i]); break;
+                case "--hours": hours = Double.parseDouble(args[++i]); break;
+                case "--segment-minutes": segmentMinutes = Integer.parseInt(args[++i]); break;
+                case "--quality": quality = args[++i].toUpperCase(Locale.US); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                case "--failures": failures = args[++i]; break;
+                case "--sample-minutes": sampleMinutes = Integer.parseInt(args[++i]); break;
+                case "--gap-threshold-ms": gapThresholdMs = Long.parseLong(args[++i]); break;
+                case "--stuck-minutes": stuckMinutes = Integer.parseInt(args[++i]); break;
+                case "--min-coverage": minCoverage = Double.parseDouble(args[++i]); break;
+                case "--output": output = args[++i]; break;
+                case "--verbose": verbose = true; break;
+                case "--shards": shards = Integer.parseInt(args[++i]); break;
+                case "--add-shard-at-hours": addShardAtHours = Double.parseDouble(args[++i]); break;
+                case "--accounts": accounts = Integer.parseInt(args[++i]); break;
+                case "--memory-budget-mb": memoryBudgetMb = Integer.parseInt(args[++i]); break;
+                case "--battery-policy": batteryPolicy = BatteryPolicy.decode(args[++i]); break;
+                case "--wake-every": wakeEverySeconds = Integer.parseInt(args[++i]); break;
+                case "--bandwidth-mbps": bandwidthMbps = Integer.parseInt(args[++i]); break;
+                case "--disk": diskScript = args[++i]; break;
+                case "--disk-policy": diskPolicy = DiskPolicy.decode(args[++i]); break;
+                case "--priority-every": priorityEvery = Integer.parseInt(args[++i]); break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        VirtualScheduler scheduler = new VirtualScheduler(System.currentTimeMillis());
+        RecorderClock.install(scheduler);
+
+        RecorderLogger logger = RecorderLogger.getInstance();
+        logger.setLevel(verbose ? RecorderLogger.INFO : RecorderLogger.WARN);
+        FailurePlan plan = FailurePlan.decode(failures);
+        File outputDir = new File(output);
+        logger.attachLogDirectory(new File(outputDir, "logs"));
+
+        // Output is always discarded: hours of virtual footage would not fit on disk
+        Map<String, SimulatedBackend> backends = SimulatedBackend.forAccounts(accounts, cameras, 5, plan,
+                scheduler, seed, true);
+        if (diskScript != null) {
+            SimulatedVolume volume = SimulatedVolume.decode(diskScript, scheduler.currentTimeMillis());
+            DiskMonitor.getInstance().setVolume(volume);
+            for (SimulatedBackend backend : backends.values()) {
+                backend.setVolume(volume);
+            }
+        }
+        ConfigSnapshot.Builder builder = SimulatedBackend.withAccounts(new ConfigSnapshot.Builder(), backends);
+        if (priorityEvery > 0) {
+            List<CameraDescriptor> fleet = fleet(backends);
+            for (int i = 0; i < fleet.size(); i += priorityEvery) {
+                builder.putProfile(new CameraProfile(fleet.get(i).getDeviceId(), CameraProfile.Mode.valueOf(quality),
+                        0, 0, 1, Collections.<CameraProfile.Window>emptyList()));
+            }
+        }
+        ConfigSnapshot config = builder
+                .setVersion(1)
+                .setDurationMinutes(segmentMinutes)
+                .setVideoQuality(quality)
+                .setMemoryBudgetMb(memoryBudgetMb)
+                .setBatteryPolicy(batteryPolicy)
+                .setBandwidthMbps(bandwidthMbps)
+                .setDiskPolicy(diskPolicy)
+                .build();
+        long startMs = scheduler.currentTimeMillis();
+        CoverageTracker coverage = new CoverageTracker(gapThresholdMs, startMs);
+        for (SimulatedBackend backend : backends.values()) {
+            backend.setCoverageTracker(coverage);
+        }
+        List<Instance> instances = new ArrayList<>();
+        for (int i = 0; i < shards; i++) {
+            instances.add(new Instance(backends, config.toBuilder().setShard(i, shards).build(), scheduler,
+                    outputDir.getAbsolutePath() + "/shard" + i + "/"));
+        }
+
+        System.out.printf(Locale.US, "Soaking %d cameras on %d account(s) for %.1f virtual hours, %d min segments, %s, "
+                        + "%d instance(s), battery: %s, failures: %s%n",
+                cameras, accounts, hours, segmentMinutes, quality, shards, batteryPolicy, plan);
+        System.out.printf(Locale.US, "%8s %10s %8s %9s %10s %8s %10s%n",
+                "hours", "heap_mb", "threads", "sessions", "recording", "queued", "segments");
+
+        long realStart = System.nanoTime();
+        long endMs = (long) (hours * 3_600_000L);
+        long sampleMs = sampleMinutes * 60_000L;
+        List<Sample> samples = new ArrayList<>();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        SimulationStats stats = backends.values().iterator().next().getStats();
+
+        for (Instance instance : instances) {
+            scheduler.post(instance.engine::start);
+        }
+        for (SimulatedBackend backend : backends.values()) {
+            scheduler.post(backend::startScript);
+        }
+        if (wakeEverySeconds > 0) {
+            scheduleWakes(instances, fleet(backends), scheduler, new Random(seed), wakeEverySeconds * 1000L);
+        }
+        long addShardMs = addShardAtHours >= 0 ? (long) (addShardAtHours * 3_600_000L) : -1;
+        for (long t = 0; ; t = Math.min(endMs, t + sampleMs)) {
+            if (addShardMs >= 0 && addShardMs <= t) {
+                scheduler.runUntil(addShardMs);
+                addShard(instances, backends, scheduler, outputDir);
+                addShardMs = -1;
+            }
+            scheduler.runUntil(t);
+            System.gc();
+            Runtime runtime = Runtime.getRuntime();
+            Sample sample = new Sample(t, runtime.totalMemory() - runtime.freeMemory(), threads.getThreadCount(),
+                    liveSessions(backends), countRecording(instances), scheduler.queueSize(), ingestKbps(instances));
+            samples.add(sample);
+            System.out.printf(Locale.US, "%8.2f %10.1f %8d %9d %6d/%-3d %8d %10d%n",
+                    t / 3_600_000.0, sample.heapBytes / 1048576.0, sample.threads, sample.liveSessions,
+                    sample.recording, cameras, sample.queued, stats.getSegments());
+            if (t >= endMs) {
+                break;
+            }
+        }
+        double realSeconds = (System.nanoTime() - realStart) / 1e9;
+
+        long nowMs = scheduler.currentTimeMillis();
+        // Duty-cycled battery cameras record clips, not continuous footage
+        List<String> cameraIds = new ArrayList<>();
+        List<String> dutyCycledIds = new ArrayList<>();
+        for (CameraDescriptor camera : fleet(backends)) {
+            boolean dutyCycled = camera.isBatteryPowered() && !batteryPolicy.isAlwaysOn();
+            (dutyCycled ? dutyCycledIds : cameraIds).add(camera.getDeviceId());
+        }
+        List<CoverageTracker.CameraReport> reports = coverage.report(cameraIds, nowMs);
+
+        System.out.println();
+        System.out.println("=== Soak summary ===");
+        System.out.printf(Locale.US, "%.1f virtual hours in %.1f s real (x%.0f), %d tasks%n",
+                hours, realSeconds, endMs / 1000.0 / Math.max(0.001, realSeconds), scheduler.getExecuted());
+        System.out.println(stats.summary());
+        System.out.println();
+        System.out.println("--- Footage gaps by cause ---");
+        System.out.println(coverage.gapSummary());
+        System.out.println();
+        System.out.println("--- Resources ---");
+        System.out.println(resourceSummary(samples));
+        System.out.print(ResourceManager.getInstance().summary());
+        System.out.print(BandwidthBudget.getInstance().summary());
+        System.out.print(DiskMonitor.getInstance().summary());
+        // Closed segments only: the ones still open at the end are not in the index yet
+        long indexedMs = 0;
+        for (Instance instance : instances) {
+            for (CameraRecorder recorder : instance.engine.getCameras()) {
+                indexedMs += instance.engine.getCoverage().coveredMs(recorder.getDirectoryName(), startMs, nowMs);
+            }
+        }
+        System.out.printf(Locale.US, "coverage index: %.1f footage h from closed segments, steady clock re-anchors: %d%n",
+                indexedMs / 3_600_000.0, RecorderClock.getReanchors());
+        if (!dutyCycledIds.isEmpty()) {
+            long footageMs = 0;
+            long segments = 0;
+            for (CoverageTracker.CameraReport r : coverage.report(dutyCycledIds, nowMs)) {
+                footageMs += (long) (r.coverage * endMs);
+                segments += r.segments;
+            }
+            System.out.printf(Locale.US, "battery cameras: %d duty-cycled, %d segments, %.1f footage min (%.1f min each)%n",
+                    dutyCycledIds.size(), segments, footageMs / 60_000.0, footageMs / 60_000.0 / dutyCycledIds.size());
+        }
+        System.out.println();
+        System.out.println("--- Worst cameras ---");
+        System.out.printf(Locale.US, "%-10s %9s %6s %10s %10s %9s %5s%n",
+                "camera", "coverage", "gaps", "max_gap_s", "open_gap_s", "segments", "lost");
+        List<CoverageTracker.CameraReport> worst = CoverageTracker.worstFirst(reports);
+        for (int i = 0; i < Math.min(WORST_CAMERAS, worst.size()); i++) {
+            CoverageTracker.CameraReport r = worst.get(i);
+            System.out.printf(Locale.US, "%-10s %8.3f%% %6d %10.1f %10.1f %9d %5d%n",
+                    r.cameraId, r.coverage * 100, r.gapCount, r.maxGapMs / 1000.0, r.openGapMs / 1000.0,
+                    r.segments, r.lostSegments);
+        }
+        System.out.println();
+        System.out.println(LifecycleMetrics.getInstance().summary());
+
+        int stuck = 0;
+        int belowTarget = 0;
+        for (CoverageTracker.CameraReport r : reports) {
+            if (r.openGapMs >= stuckMinutes * 60_000L) stuck++;
+            if (r.coverage < minCoverage) belowTarget++;
+        }
+        System.out.printf(Locale.US, "%nstuck cameras (no footage for %d+ min at the end): %d, below %.1f%% coverage: %d%n",
+                stuckMinutes, stuck, minCoverage * 100, belowTarget);
+
+        scheduler.runUntil(endMs);
+        final int[] shutDown = {0};
+        for (Instance instance : instances) {
+            instance.engine.shutdown(() -> shutDown[0]++);
+        }
+        scheduler.runUntil(endMs + 60_000L);
+        ResourceManager resources = ResourceManager.getInstance();
+        long leakedSessions = resources.openCount(ResourceManager.Kind.SESSION);
+        long leakedSurfaces = resources.openCount(ResourceManager.Kind.SURFACE);
+        System.out.printf(Locale.US, "after shutdown (%d/%d engines done): %d sessions, %d surfaces, %d live backend"
+                + " sessions still open%n", shutDown[0], instances.size(), leakedSessions, leakedSurfaces,
+                liveSessions(backends));
+        RecorderClock.install(null);
+        boolean leaked = shutDown[0] < instances.size() || leakedSessions > 0 || leakedSurfaces > 0
+                || liveSessions(backends) > 0;
+        System.exit(stuck > 0 || belowTarget > 0 || leaked ? 1 : 0);
+    }
+
+    /**
+     * Heap growth as a least-squares slope over the samples after the first hour (warm-up),
+     * plus thread and session ranges
+     */
+    static String resourceSummary(List<Sample> samples) {
+        int minThreads = Integer.MAX_VALUE;
+        int maxThreads = 0;
+        int maxSessions = 0;
+        int maxQueued = 0;
+        long maxIngestKbps = 0;
+        double n = 0, sumX = 0, sumY = 0, sumXY = 0, sumXX = 0;
+        for (Sample s : samples) {
+            minThreads = Math.min(minThreads, s.threads);
+            maxThreads = Math.max(maxThreads, s.threads);
+            maxSessions = Math.max(maxSessions, s.liveSessions);
+            maxQueued = Math.max(maxQueued, s.queued);
+            maxIngestKbps = Math.max(maxIngestKbps, s.ingestKbps);
+            if (s.virtualMs < 3_600_000L) {
+                continue;
+            }
+            double x = s.virtualMs / 3_600_000.0;
+            double y = s.heapBytes / 1048576.0;
+            n++;
+            sumX += x;
+            sumY += y;
+            sumXY += x * y;
+            sumXX += x * x;
+        }
+        double denominator = n * sumXX - sumX * sumX;
+        String slope = n >= 3 && denominator != 0
+                ? String.format(Locale.US, "%+.3f MB/hour", (n * sumXY - sumX * sumY) / denominator)
+                : "n/a (needs 3 samples past the first hour)";
+        Sample first = samples.get(0);
+        Sample last = samples.get(samples.size() - 1);
+        return String.format(Locale.US,
+                "heap %.1f MB -> %.1f MB, growth after warm-up %s%n"
+                        + "threads %d..%d, live sessions max %d, scheduler queue max %d, ingest max %.1f Mbps",
+                first.heapBytes / 1048576.0, last.heapBytes / 1048576.0, slope,
+                minThreads, maxThreads, maxSessions, maxQueued, maxIngestKbps / 1000.0);
+    }
+
+    /**
+     * Start instance N+1 and move every instance to N+1 shards, reporting how many
+     * cameras change owner (consistent hashing: about 1/(N+1))
+     */
+    private static void addShard(List<Instance> instances, Map<String, SimulatedBackend> backends,
+                                 VirtualScheduler scheduler, File outputDir) {
+        int count = instances.size() + 1;
+        int moved = 0;
+        List<CameraDescriptor> fleet = fleet(backends);
+        for (CameraDescriptor camera : fleet) {
+            if (ShardRing.shardOf(camera.getDeviceId(), count - 1) != ShardRing.shardOf(camera.getDeviceId(), count)) {
+                moved++;
+            }
+        }
+        System.out.printf(Locale.US, "%8.2f adding instance %d: %d of %d cameras move (%.1f%%, ideal %.1f%%)%n",
+                scheduler.elapsedMs() / 3_600_000.0, count - 1, moved, fleet.size(),
+                100.0 * moved / Math.max(1, fleet.size()), 100.0 / count);
+        for (int i = 0; i < instances.size(); i++) {
+            instances.get(i).reshard(i, count);
+        }
+        Instance added = new Instance(backends, instances.get(0).config.toBuilder().setShard(count - 1, count).build(),
+                scheduler, outputDir.getAbsolutePath() + "/shard" + (count - 1) + "/");
+        instances.add(added);
+        added.engine.start();
+    }
+
+    /**
+     * One recorder instance (container) of a sharded fleet
+     */
+    private static final class Instance {
+        final RecordingEngine engine;
+        volatile ConfigSnapshot config;
+
+        Instance(Map<String, SimulatedBackend> backends, ConfigSnapshot config, VirtualScheduler scheduler,
+                 String basePath) {
+            this.config = config;
+            final String tag = TAG + config.getShardIndex();
+            this.engine = new RecordingEngine(new LinkedHashMap<String, CameraBackend>(backends), () -> this.config, scheduler, scheduler::post, basePath,
+                    status -> RecorderLogger.getInstance().info(tag, status));
+            for (Map.Entry<String, SimulatedBackend> backend : backends.entrySet()) {
+                final String account = backend.getKey();
+                backend.getValue().addSessionListener(reason -> engine.onSessionLost(account, reason, true));
+            }
+        }
+
+        void reshard(int index, int count) {
+            ConfigSnapshot previous = config;
+            config = previous.toBuilder().setShard(index, count).build();
+            engine.onConfigChanged(previous, config);
+        }
+    }
+
+    /**
+     * Wake a random battery camera every {@code everyMs}, on whichever instance records it
+     */
+    private static void scheduleWakes(final List<Instance> instances, List<CameraDescriptor> fleet,
+                                      final VirtualScheduler scheduler, final Random random, final long everyMs) {
+        final List<String> battery = new ArrayList<>();
+        for (CameraDescriptor camera : fleet) {
+            if (camera.isBatteryPowered()) battery.add(camera.getDeviceId());
+        }
+        if (battery.isEmpty()) {
+            return;
+        }
+        scheduler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                String deviceId = battery.get(random.nextInt(battery.size()));
+                for (Instance instance : instances) {
+                    instance.engine.onCameraWake(deviceId, "sim");
+                }
+                scheduler.postDelayed(this, everyMs);
+            }
+        }, everyMs);
+    }
+
+    private static List<CameraDescriptor> fleet(Map<String, SimulatedBackend> backends) {
+        List<CameraDescriptor> cameras = new ArrayList<>();
+        for (SimulatedBackend backend : backends.values()) {
+            cameras.addAll(backend.getCameras());
+        }
+        return cameras;
+    }
+
+    private static int liveSessions(Map<String, SimulatedBackend> backends) {
+        int live = 0;
+        for (SimulatedBackend backend : backends.values()) {
+            live += backend.getLiveSessionCount();
+        }
+        return live;
+    }
+
+    /**
+     * Stream rate of every camera recording video right now
+     */
+    private static long ingestKbps(List<Instance> instances) {
+        long kbps = 0;
+        for (Instance instance : instances) {
+            for (CameraRecorder recorder : instance.engine.getCameras()) {
+                if (recorder.isRecording() && !recorder.isSnapshotting()) {
+                    kbps += SimulatedBackend.bitrateFor(recorder.getStreamId()) / 1000;
+                }
+            }
+        }
+        return kbps;
+    }
+
+    private static int countRecording(List<Instance> instances) {
+        int recording = 0;
+        for (Instance instance : instances) {
+            for (CameraRecorder recorder : instance.engine.getCameras()) {
+                if (recorder.isRecording()) recording++;
+            }
+        }
+        return recording;
+    }
+}
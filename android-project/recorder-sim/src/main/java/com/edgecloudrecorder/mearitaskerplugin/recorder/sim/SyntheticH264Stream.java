@@ -0,0 +1,93 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.sim;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Synthetic H.264 Annex-B elementary stream at a given bitrate and frame rate:
+ * SPS + PPS + IDR at the start of every GOP, P slices in between. Slice payloads are
+ * filler (no zero bytes, so no start-code emulation), not decodable pictures; sizes
+ * and keyframe cadence match a real camera closely enough for I/O and indexing load.
+ */
+public class SyntheticH264Stream {
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+    // Baseline profile, level 3.0
+    private static final byte[] SPS = {0x67, 0x42, (byte) 0xC0, 0x1E, (byte) 0xDA, 0x02, (byte) 0x80,
+            (byte) 0xBF, (byte) 0xE5, (byte) 0xC0, 0x44, 0x00, 0x00, 0x03, 0x00, 0x04, 0x00, 0x00, 0x03,
+            0x00, (byte) 0xF0, 0x3C, 0x58, (byte) 0xBA, (byte) 0x80};
+    private static final byte[] PPS = {0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+    private static final byte NAL_IDR = 0x65;
+    private static final byte NAL_NON_IDR = 0x41;
+    private static final int KEYFRAME_WEIGHT = 8;
+
+    private final int fps;
+    private final int gopFrames;
+    private final int keyframeBytes;
+    private final int frameBytes;
+    private final byte[] filler;
+    private long frameIndex;
+
+    /**
+     * @param bitrate   bits per second
+     * @param gopFrames frames per GOP (keyframe interval)
+     */
+    public SyntheticH264Stream(int bitrate, int fps, int gopFrames, long seed) {
+        this.fps = fps;
+        this.gopFrames = gopFrames;
+        // One IDR weighs KEYFRAME_WEIGHT P frames
+        int bytesPerGop = (int) ((long) bitrate / 8 * gopFrames / fps);
+        this.frameBytes = Math.max(16, bytesPerGop / (gopFrames - 1 + KEYFRAME_WEIGHT));
+        this.keyframeBytes = frameBytes * KEYFRAME_WEIGHT;
+        this.filler = new byte[keyframeBytes + 256];
+        Random random = new Random(seed);
+        for (int i = 0; i < filler.length; i++) {
+            filler[i] = (byte) (1 + random.nextInt(255));
+        }
+    }
+
+    public int getFps() {
+        return fps;
+    }
+
+    /**
+     * @return size of an IDR slice payload, about what one decoded frame compresses to as a JPEG
+     */
+    public int getKeyframeBytes() {
+        return keyframeBytes;
+    }
+
+    public boolean isNextKeyframe() {
+        return frameIndex % gopFrames == 0;
+    }
+
+    /**
+     * Write the next access unit
+     * @return bytes written
+     */
+    public int writeFrame(OutputStream out) throws IOException {
+        boolean keyframe = isNextKeyframe();
+        int offset = (int) (frameIndex % 256);
+        frameIndex++;
+        int written = 0;
+        if (keyframe) {
+            out.write(START_CODE);
+            out.write(SPS);
+            out.write(START_CODE);
+            out.write(PPS);
+            written += 2 * START_CODE.length + SPS.length + PPS.length;
+        }
+        int size = keyframe ? keyframeBytes : frameBytes;
+        out.write(START_CODE);
+        out.write(keyframe ? NAL_IDR : NAL_NON_IDR);
+        out.write(filler, offset, size);
+        return written + START_CODE.length + 1 + size;
+    }
+
+    /**
+     * Restart at a keyframe (new recording or stream restart)
+     */
+    public void reset() {
+        frameIndex = 0;
+    }
+}
@@ -0,0 +1,177 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.sim;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Wraps the synthetic stream in just enough MP4 for the tools that read segments back
+ * (keyframe index, export): ftyp, one mdat holding the access units, and on close a moov
+ * with a single video track whose sample tables (stts/stss/stsz/stsc/stco) describe them.
+ * Like a real muxer, the file has no moov until it is closed.
+ */
+final class SyntheticMp4Output extends OutputStream {
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final byte[] FTYP = {0, 0, 0, 16, 'f', 't', 'y', 'p', 'i', 's', 'o', 'm', 0, 0, 0, 0};
+    // mdat with a 64-bit size, patched on close
+    private static final int MDAT_HEADER_BYTES = 16;
+    private static final int TICKS_PER_FRAME = 1000;
+
+    private final RandomAccessFile file;
+    private final OutputStream out;
+    private final int fps;
+    private long written;
+    private int sampleBytes;
+    private int samples;
+    private int[] sizes = new int[1024];
+    private int keyframes;
+    private int[] keys = new int[64];
+
+    SyntheticMp4Output(String path, int fps) throws IOException {
+        this.file = new RandomAccessFile(path, "rw");
+        file.setLength(0);
+        this.fps = fps;
+        this.out = new BufferedOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                file.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                file.write(b, off, len);
+            }
+        }, BUFFER_BYTES);
+        out.write(FTYP);
+        out.write(new byte[]{0, 0, 0, 1, 'm', 'd', 'a', 't', 0, 0, 0, 0, 0, 0, 0, 0});
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        written++;
+        sampleBytes++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        written += len;
+        sampleBytes += len;
+    }
+
+    /**
+     * The bytes written since the previous call are one sample (an access unit)
+     */
+    void endSample(boolean keyframe) {
+        if (samples == sizes.length) {
+            sizes = Arrays.copyOf(sizes, samples * 2);
+        }
+        if (keyframe) {
+            if (keyframes == keys.length) {
+                keys = Arrays.copyOf(keys, keyframes * 2);
+            }
+            keys[keyframes++] = samples + 1;
+        }
+        sizes[samples++] = sampleBytes;
+        sampleBytes = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            out.write(moov());
+            out.flush();
+            file.seek(FTYP.length + 8);
+            file.writeLong(MDAT_HEADER_BYTES + written);
+        } finally {
+            file.close();
+        }
+    }
+
+    private byte[] moov() throws IOException {
+        long duration = (long) samples * TICKS_PER_FRAME;
+        Box stbl = new Box("stbl");
+        stbl.child(new Box("stsd").full().u32(0));
+        stbl.child(new Box("stts").full().u32(1).u32(samples).u32(TICKS_PER_FRAME));
+        Box stss = new Box("stss").full().u32(keyframes);
+        for (int i = 0; i < keyframes; i++) {
+            stss.u32(keys[i]);
+        }
+        stbl.child(stss);
+        Box stsz = new Box("stsz").full().u32(0).u32(samples);
+        for (int i = 0; i < samples; i++) {
+            stsz.u32(sizes[i]);
+        }
+        stbl.child(stsz);
+        // Everything in one chunk right after the mdat header
+        stbl.child(new Box("stsc").full().u32(1).u32(1).u32(samples).u32(1));
+        stbl.child(new Box("co64").full().u32(1).u64(FTYP.length + MDAT_HEADER_BYTES));
+
+        Box mdia = new Box("mdia");
+        mdia.child(new Box("mdhd").full().u32(0).u32(0).u32(fps * TICKS_PER_FRAME).u32((int) duration).u32(0));
+        mdia.child(new Box("hdlr").full().u32(0).fourcc("vide").u32(0).u32(0).u32(0).u8(0));
+        mdia.child(new Box("minf").child(stbl));
+        Box moov = new Box("moov");
+        moov.child(new Box("trak").child(mdia));
+        return moov.bytes();
+    }
+
+    /**
+     * Box under construction
+     */
+    private static final class Box {
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private final DataOutputStream data = new DataOutputStream(body);
+        private final String type;
+
+        Box(String type) {
+            this.type = type;
+        }
+
+        /**
+         * Version 0, no flags
+         */
+        Box full() throws IOException {
+            return u32(0);
+        }
+
+        Box u8(int value) throws IOException {
+            data.writeByte(value);
+            return this;
+        }
+
+        Box u32(int value) throws IOException {
+            data.writeInt(value);
+            return this;
+        }
+
+        Box u64(long value) throws IOException {
+            data.writeLong(value);
+            return this;
+        }
+
+        Box fourcc(String value) throws IOException {
+            data.writeBytes(value);
+            return this;
+        }
+
+        Box child(Box child) throws IOException {
+            data.write(child.bytes());
+            return this;
+        }
+
+        byte[] bytes() throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.size() + 8);
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeInt(body.size() + 8);
+            header.writeBytes(type);
+            body.writeTo(out);
+            return out.toByteArray();
+        }
+    }
+}
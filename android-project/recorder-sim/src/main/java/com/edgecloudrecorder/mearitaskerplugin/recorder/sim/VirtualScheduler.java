@@ -0,0 +1,139 @@
+package com.edgecloudrecorder.mearitaskerplugin.recorder.sim;
+
+import com.edgecloudrecorder.mearitaskerplugin.recorder.RecorderClock;
+import com.edgecloudrecorder.mearitaskerplugin.recorder.Scheduler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * {@link Scheduler} and {@link RecorderClock.Source} on virtual time: tasks run on the
+ * caller's thread in due order and the clock jumps from one task to the next, so an
+ * hour of recording costs only the work done in it. Used by the soak harness.
+ */
+public class VirtualScheduler implements Scheduler, RecorderClock.Source {
+
+    private static final class Task implements Comparable<Task> {
+        final long dueMs;
+        final long seq;
+        final Runnable runnable;
+        boolean cancelled;
+
+        Task(long dueMs, long seq, Runnable runnable) {
+            this.dueMs = dueMs;
+            this.seq = seq;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            int byTime = Long.compare(dueMs, other.dueMs);
+            return byTime != 0 ? byTime : Long.compare(seq, other.seq);
+        }
+    }
+
+    private final PriorityQueue<Task> queue = new PriorityQueue<>();
+    private final Map<Runnable, List<Task>> pending = new HashMap<>();
+    private final long epochMs;
+    private long nowMs;
+    private long seq;
+    private long executed;
+
+    /**
+     * @param epochMs wall-clock time at virtual time zero
+     */
+    public VirtualScheduler(long epochMs) {
+        this.epochMs = epochMs;
+    }
+
+    @Override
+    public void post(Runnable task) {
+        postDelayed(task, 0);
+    }
+
+    @Override
+    public synchronized void postDelayed(Runnable runnable, long delayMs) {
+        Task task = new Task(nowMs + Math.max(0, delayMs), seq++, runnable);
+        queue.add(task);
+        pending.computeIfAbsent(runnable, r -> new ArrayList<>(1)).add(task);
+    }
+
+    @Override
+    public synchronized void cancel(Runnable runnable) {
+        List<Task> tasks = pending.remove(runnable);
+        if (tasks != null) {
+            // Removed rather than skipped later, so heap samples do not count dead timers
+            for (Task task : tasks) {
+                task.cancelled = true;
+                queue.remove(task);
+            }
+        }
+    }
+
+    /**
+     * Run every task due up to the given virtual time, then leave the clock there
+     */
+    public void runUntil(long targetMs) {
+        Task task;
+        while ((task = next(targetMs)) != null) {
+            try {
+                task.runnable.run();
+            } catch (RuntimeException e) {
+                // Same as an uncaught exception on a looper, minus the crash
+                e.printStackTrace();
+            }
+        }
+        synchronized (this) {
+            nowMs = Math.max(nowMs, targetMs);
+        }
+    }
+
+    private synchronized Task next(long targetMs) {
+        while (!queue.isEmpty() && queue.peek().dueMs <= targetMs) {
+            Task task = queue.poll();
+            if (task.cancelled) {
+                continue;
+            }
+            List<Task> tasks = pending.get(task.runnable);
+            if (tasks != null) {
+                tasks.remove(task);
+                if (tasks.isEmpty()) {
+                    pending.remove(task.runnable);
+                }
+            }
+            nowMs = task.dueMs;
+            executed++;
+            return task;
+        }
+        return null;
+    }
+
+    /**
+     * Virtual milliseconds since the start of the run
+     */
+    public synchronized long elapsedMs() {
+        return nowMs;
+    }
+
+    public synchronized int queueSize() {
+        return queue.size();
+    }
+
+    public synchronized long getExecuted() {
+        return executed;
+    }
+
+    @Override
+    public synchronized long nanoTime() {
+        // Offset so that no timestamp is 0, which callers use as "unset"
+        return (nowMs + 1000L) * 1_000_000L;
+    }
+
+    @Override
+    public synchronized long currentTimeMillis() {
+        return epochMs + nowMs;
+    }
+}
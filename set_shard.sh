@@ -0,0 +1,20 @@
+#!/bin/bash
+# Assign a recorder instance (Redroid container) its share of the camera fleet
+
+if [ -z "$3" ]; then
+    echo "Usage: $0 <adb_port> <shard_index> <shard_count>"
+    echo "Example: $0 5556 1 3   # second of three containers"
+    exit 1
+fi
+
+PORT=$1
+INDEX=$2
+COUNT=$3
+
+echo "Setting localhost:$PORT to shard $INDEX/$COUNT..."
+
+adb connect localhost:$PORT > /dev/null
+adb -s localhost:$PORT shell am broadcast -a com.edgecloudrecorder.SET_SHARD -n com.edgecloudrecorder/.mearitaskerplugin.recorder.ConfigReceiver --ei index $INDEX --ei count $COUNT
+
+echo "✓ Shard set to $INDEX/$COUNT"
+echo "  - Cameras assigned elsewhere are released, new ones are picked up immediately"